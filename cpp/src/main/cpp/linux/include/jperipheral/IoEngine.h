@@ -0,0 +1,144 @@
+#ifndef JPERIPHERAL_IOENGINE_H
+#define JPERIPHERAL_IOENGINE_H
+
+#include "jace/Jace.h"
+
+#include <boost/shared_ptr.hpp>
+
+#include <map>
+#include <utility>
+#include <vector>
+
+
+BEGIN_NAMESPACE_1(jperipheral)
+
+class SerialPortContext;
+class Task;
+class ModemWatch;
+
+/**
+ * Carries out the asynchronous operations of a set of ports.
+ */
+class IoEngine
+{
+public:
+	/**
+	 * Destroys the IoEngine.
+	 */
+	virtual ~IoEngine();
+
+	/**
+	 * Registers a port with the engine.
+	 *
+	 * @param port the port
+	 */
+	virtual void add(SerialPortContext& port) = 0;
+
+	/**
+	 * Unregisters a port from the engine. The port must be marked as closed beforehand. The engine
+	 * deletes the port once it no longer references it.
+	 *
+	 * @param port the port
+	 */
+	virtual void remove(SerialPortContext* port) = 0;
+
+	/**
+	 * Initiates an operation.
+	 *
+	 * @param port the port
+	 * @param task the operation
+	 * @param read true if the task reads from the port, false if it writes to it
+	 */
+	virtual void submit(SerialPortContext& port, boost::shared_ptr<Task> task, bool read) = 0;
+
+	/**
+	 * Invoked by the port's Spinner once the port becomes ready while it is being busy-polled. Runs
+	 * the outstanding operations that are waiting on the specified events without waiting for the
+	 * engine to notice. Must be invoked without holding the port mutex.
+	 *
+	 * @param port the port
+	 * @param events the poll() events that were signaled
+	 */
+	virtual void ready(SerialPortContext& port, short events) = 0;
+
+	/**
+	 * Samples the modem-control lines of a port until its outstanding ModemWatch is done. Must be
+	 * invoked with the port mutex held.
+	 *
+	 * @param port the port
+	 */
+	virtual void watch(SerialPortContext& port) = 0;
+};
+
+/**
+ * The deadlines of a set of outstanding operations, ordered by time. Not thread-safe.
+ *
+ * An operation must be removed from the queue once it is done, or once its port is removed from the
+ * engine, because the queue does not keep it alive. Operations record the deadline they were queued
+ * under, so they may be located after their deadline changes. That value is only accessed with the
+ * port mutex held.
+ */
+class DeadlineQueue
+{
+public:
+	/**
+	 * An operation and the port it belongs to.
+	 */
+	typedef std::pair<SerialPortContext*, Task*> Entry;
+
+	/**
+	 * Adds an operation to the queue. Does nothing if the operation never times out.
+	 *
+	 * @param port the port
+	 * @param task an operation that is not in the queue
+	 */
+	void add(SerialPortContext& port, Task& task);
+
+	/**
+	 * Removes an operation from the queue. Does nothing if the operation is not in the queue.
+	 *
+	 * @param task the operation
+	 */
+	void remove(Task& task);
+
+	/**
+	 * Moves an operation whose deadline changed, adding it if it is not in the queue and removing it
+	 * if it no longer has a deadline.
+	 *
+	 * @param port the port
+	 * @param task the operation
+	 */
+	void update(SerialPortContext& port, Task& task);
+
+	/**
+	 * Removes all operations of a port from the queue.
+	 *
+	 * @param port the port
+	 */
+	void remove(SerialPortContext* port);
+
+	/**
+	 * Returns the number of milliseconds until the earliest deadline.
+	 *
+	 * @return zero if a deadline has elapsed, -1 if the queue is empty
+	 */
+	int getDelay() const;
+
+	/**
+	 * Removes the operations whose deadline has elapsed. The operations themselves are not accessed
+	 * because they may have completed concurrently. The caller must invoke setQueuedDeadline(-1) on
+	 * those that are still outstanding.
+	 *
+	 * @param expired the list to add the operations to
+	 */
+	void removeExpired(std::vector<Entry>& expired);
+private:
+	/**
+	 * The operations, indexed by their deadline.
+	 */
+	std::multimap<jlong, Entry> entries;
+};
+
+END_NAMESPACE_1(jperipheral)
+
+#endif
@@ -0,0 +1,27 @@
+#ifndef JPERIPHERAL_OUTPUTQUEUE_H
+#define JPERIPHERAL_OUTPUTQUEUE_H
+
+#include "jace/namespace.h"
+
+
+BEGIN_NAMESPACE_1(jperipheral)
+
+/**
+ * Indicates if the bytes written to a port have left it.
+ *
+ * The UART may still be shifting out the last byte once the driver's output queue is empty, so the
+ * state of the transmitter is checked as well. Drivers that do not report the state of the
+ * transmitter, such as pseudo-terminals and most USB adapters, are considered drained once their
+ * output queue is empty. Drivers that do not report the size of their output queue are considered
+ * drained right away, instead of being waited upon forever.
+ *
+ * This function does not depend on the JVM so that it can be tested on its own.
+ *
+ * @param port the port file descriptor
+ * @return true if the output of the port has drained
+ */
+bool isOutputDrained(int port);
+
+END_NAMESPACE_1(jperipheral)
+
+#endif
@@ -0,0 +1,806 @@
+#ifndef JPERIPHERAL_SERIALPORTHELPER_H
+#define JPERIPHERAL_SERIALPORTHELPER_H
+
+#include "jace/namespace.h"
+#include "jace/JArray.h"
+
+#include "jace/peer/org/jperipheral/SerialChannel.h"
+#include "jace/proxy/org/jperipheral/SerialChannel.h"
+#include "jace/proxy/java/nio/channels/CompletionHandler.h"
+#include "jace/proxy/java/nio/ByteBuffer.h"
+#include "jace/proxy/java/lang/Throwable.h"
+
+#include <boost/thread/mutex.hpp>
+#include <boost/shared_ptr.hpp>
+#include <boost/enable_shared_from_this.hpp>
+
+#include <stdint.h>
+#include <sys/types.h>
+#include <sys/uio.h>
+#include <string>
+#include <vector>
+
+
+namespace jperipheral
+{
+	class IoEngine;
+	class SerialPortContext;
+	class Spinner;
+}
+
+BEGIN_NAMESPACE_1(jperipheral)
+
+#define WIDEN2(x) L ## x
+#define WIDEN(x) WIDEN2(x)
+#define L__FILE__ WIDEN(__FILE__)
+
+/**
+ * A pool of direct ByteBuffers used to stage transfers into and out of heap buffers.
+ *
+ * Buffers are grouped into power-of-two size classes so that steady-state operations reuse
+ * existing buffers instead of allocating new ones. The pool is shared by a port and its outstanding
+ * operations, and is destroyed once the last of them releases it.
+ */
+class StagingPool
+{
+public:
+	/**
+	 * The capacity of the smallest size class.
+	 */
+	static const jint MIN_CAPACITY = 256;
+	/**
+	 * The capacity of the largest size class. Operations transfer at most this many bytes per staged
+	 * buffer.
+	 */
+	static const jint MAX_CAPACITY = 64 * 1024;
+	/**
+	 * Creates a new StagingPool.
+	 */
+	StagingPool();
+	/**
+	 * Destroys the StagingPool.
+	 */
+	~StagingPool();
+	/**
+	 * Returns a direct buffer whose position is zero and whose limit is min(length, MAX_CAPACITY).
+	 *
+	 * @param length the desired number of bytes
+	 * @return the buffer
+	 */
+	::jace::proxy::java::nio::ByteBuffer* acquire(jint length);
+	/**
+	 * Returns a buffer to the pool.
+	 *
+	 * @param buffer a buffer returned by acquire()
+	 */
+	void release(::jace::proxy::java::nio::ByteBuffer* buffer);
+private:
+	/**
+	 * Prevent copying.
+	 */
+	StagingPool(const StagingPool&);
+	/**
+	 * Prevent assignment.
+	 */
+	StagingPool& operator=(const StagingPool&);
+	/**
+	 * Returns the index of the smallest size class that can hold a number of bytes.
+	 *
+	 * @param length the number of bytes, no larger than MAX_CAPACITY
+	 * @return the index of the size class
+	 */
+	static int getSizeClass(jint length);
+
+	/**
+	 * The number of size classes.
+	 */
+	static const int SIZE_CLASSES = 9;
+	/**
+	 * The maximum number of idle buffers retained per size class.
+	 */
+	static const size_t MAX_IDLE = 4;
+	/**
+	 * Synchronizes access to this object's state.
+	 */
+	boost::mutex mutex;
+	/**
+	 * The idle buffers of each size class.
+	 */
+	std::vector< ::jace::proxy::java::nio::ByteBuffer* > idle[SIZE_CLASSES];
+};
+
+/**
+ * An asynchronous read or write operation.
+ *
+ * Tasks are driven by an IoEngine. Readiness-based engines invoke run() whenever the port might be
+ * able to make progress. Completion-based engines invoke prepareTransfer(), carry out the transfer
+ * themselves and report the outcome using complete(). notifyHandler() is invoked once the task is
+ * done.
+ */
+class Task: public boost::enable_shared_from_this<Task>
+{
+public:
+	/**
+	 * The number of milliseconds between checks of the output queue while waiting for it to drain.
+	 */
+	static const int DRAIN_POLL_INTERVAL = 1;
+	virtual ~Task();
+	/**
+	 * Attempts to transfer bytes without blocking. Invoked with the port mutex held.
+	 */
+	void run();
+	/**
+	 * Indicates if the operation reads from the port.
+	 *
+	 * @return true if the operation reads from the port, false if it writes to it
+	 */
+	virtual bool isRead() const = 0;
+	/**
+	 * Returns the memory regions that the next transfer should use. Invoked with the port mutex held.
+	 * The regions remain valid until the transfer completes.
+	 *
+	 * @param vectors the memory regions to transfer, in order
+	 * @param count the number of memory regions
+	 */
+	virtual void prepareTransfer(const iovec*& vectors, int& count) = 0;
+	/**
+	 * Processes the outcome of a transfer. Invoked with the port mutex held. The task remains pending
+	 * if the port was not ready.
+	 *
+	 * @param result the number of bytes transferred, or a negated errno value on failure
+	 */
+	void complete(ssize_t result);
+	/**
+	 * Indicates if the operation is done, either because it succeeded or because it failed.
+	 *
+	 * @return true if the operation is done
+	 */
+	bool isDone() const;
+	/**
+	 * Indicates if the operation transferred its bytes and is waiting for the output queue to drain.
+	 * Engines must not transfer any more bytes, or wait for the port to become ready, on its behalf.
+	 * Invoked with the port mutex held.
+	 *
+	 * @return true if the operation is waiting for the output queue to drain
+	 */
+	bool isDraining() const;
+	/**
+	 * Marks the operation as successful.
+	 *
+	 * @param bytesTransferred the number of bytes transferred
+	 */
+	void succeed(int bytesTransferred);
+	/**
+	 * Marks the operation as failed.
+	 *
+	 * @param throwable the cause of the failure
+	 */
+	void fail(const ::jace::proxy::java::lang::Throwable& throwable);
+	/**
+	 * Returns the time at which the operation times out, at which the line is considered idle, or at
+	 * which the output queue should be checked again.
+	 *
+	 * @return the value of getMonotonicTime() at which expire() should be invoked, or -1 if the
+	 * operation is done or never times out
+	 */
+	jlong getDeadline() const;
+	/**
+	 * Returns the deadline that the engine queued the operation under. Invoked with the port mutex
+	 * held.
+	 *
+	 * @return -1 if the operation is not queued
+	 */
+	jlong getQueuedDeadline() const;
+	/**
+	 * Sets the deadline that the engine queued the operation under. Invoked with the port mutex held.
+	 *
+	 * @param value -1 if the operation is not queued
+	 */
+	void setQueuedDeadline(jlong value);
+	/**
+	 * Invoked once the deadline elapses. Completes the operation if it transferred any bytes, and
+	 * fails it with InterruptedByTimeoutException otherwise. An operation that is waiting for the
+	 * output queue to drain checks it again instead, and remains pending if it is not empty.
+	 */
+	void expire();
+	/**
+	 * Notifies the CompletionHandler of the outcome of the operation. Must be invoked without holding
+	 * the port mutex because the handler may initiate a follow-up operation.
+	 */
+	void notifyHandler();
+	/**
+	 * Returns the serial port associated with the operation.
+	 *
+	 * @return the serial port associated with the operation
+	 */
+	SerialPortContext& getPort();
+protected:
+	/**
+	 * Creates a new Task.
+	 *
+	 * @param portContext the port context
+	 * @param timeout the number of milliseconds to wait before the operation times out.
+	 * Long.MAX_VALUE means "wait forever"
+	 * @param attachment the attachment to pass into handler
+	 * @param handler the CompletionHandler associated with the operation
+	 */
+	Task(SerialPortContext& portContext, jlong timeout, ::jace::proxy::java::lang::Object attachment,
+		::jace::proxy::java::nio::channels::CompletionHandler handler);
+	/**
+	 * Updates the buffers after a successful transfer.
+	 *
+	 * @param bytesTransferred the number of bytes transferred into or out of the regions returned by
+	 * prepareTransfer()
+	 */
+	virtual void transferred(ssize_t bytesTransferred) = 0;
+	/**
+	 * Sets the conditions under which the operation completes. By default, operations complete as
+	 * soon as they transfer any bytes.
+	 *
+	 * @param minimumTransfer the minimum number of bytes to transfer before completing
+	 * @param interByteTimeout the number of milliseconds that may elapse between transfers before
+	 * completing with fewer than minimumTransfer bytes. 0 means "wait forever"
+	 */
+	void setCompletionThreshold(jint minimumTransfer, jlong interByteTimeout);
+	/**
+	 * Causes a write operation to complete only once the bytes it transferred have left the port,
+	 * instead of as soon as the driver accepts them.
+	 *
+	 * @param drain true if the operation should wait for the output queue to drain
+	 */
+	void setDrain(bool drain);
+	/**
+	 * Returns the value to pass into the CompletionHandler on success.
+	 *
+	 * @param bytesTransferred the number of bytes transferred, or -1 on end of stream
+	 * @return an Integer
+	 */
+	virtual ::jace::proxy::java::lang::Object toResult(int bytesTransferred);
+
+	/**
+	 * The attachment associated with the CompletionHandler.
+	 */
+	::jace::proxy::java::lang::Object* attachment;
+	/**
+	 * The CompletionHandler associated with the operation.
+	 */
+	::jace::proxy::java::nio::channels::CompletionHandler* handler;
+	/**
+	 * The serial port context.
+	 */
+	SerialPortContext& portContext;
+	/**
+	 * The pool that heap buffers are staged through.
+	 */
+	boost::shared_ptr<StagingPool> stagingPool;
+private:
+	/**
+	 * Prevent copying.
+	 */
+	Task(const Task&);
+	/**
+	 * Prevent assignment.
+	 */
+	Task& operator=(const Task&);
+	/**
+	 * Completes the operation if the output queue and the transmitter are empty, and schedules the
+	 * next check otherwise.
+	 */
+	void pollDrain();
+
+	/**
+	 * True if the operation is done.
+	 */
+	bool done;
+	/**
+	 * The number of bytes transferred so far.
+	 */
+	int bytesTransferred;
+	/**
+	 * The cause of the failure, if the operation failed.
+	 */
+	::jace::proxy::java::lang::Throwable* failure;
+	/**
+	 * The time at which the operation times out, or -1 if it never times out.
+	 */
+	jlong deadline;
+	/**
+	 * The minimum number of bytes to transfer before completing.
+	 */
+	jint minimumTransfer;
+	/**
+	 * The number of milliseconds that may elapse between transfers before completing with fewer than
+	 * minimumTransfer bytes, or 0 to wait forever.
+	 */
+	jlong interByteTimeout;
+	/**
+	 * The time at which the line is considered idle, or -1 if no bytes were transferred.
+	 */
+	jlong gapDeadline;
+	/**
+	 * True if the operation should wait for the output queue to drain before completing.
+	 */
+	bool drain;
+	/**
+	 * The time at which the output queue is checked again, or -1 if the operation is not waiting for
+	 * it to drain.
+	 */
+	jlong drainDeadline;
+	/**
+	 * The deadline that the engine queued the operation under, or -1 if it is not queued.
+	 */
+	jlong queuedDeadline;
+};
+
+/**
+ * An operation that transfers bytes into or out of a single ByteBuffer.
+ *
+ * Heap buffers are staged through a pooled direct buffer because the kernel cannot access them. A
+ * single operation transfers at most StagingPool::MAX_CAPACITY bytes into or out of a heap buffer.
+ */
+class BufferTask: public Task
+{
+public:
+	virtual ~BufferTask();
+	virtual void prepareTransfer(const iovec*& vectors, int& count);
+protected:
+	/**
+	 * Creates a new BufferTask.
+	 *
+	 * @param portContext the port context
+	 * @param javaBuffer the Java buffer associated with the operation
+	 * @param timeout the number of milliseconds to wait before the operation times out.
+	 * Long.MAX_VALUE means "wait forever"
+	 * @param attachment the attachment to pass into handler
+	 * @param handler the CompletionHandler associated with the operation
+	 */
+	BufferTask(SerialPortContext& portContext, ::jace::proxy::java::nio::ByteBuffer javaBuffer,
+		jlong timeout, ::jace::proxy::java::lang::Object attachment,
+		::jace::proxy::java::nio::channels::CompletionHandler handler);
+	virtual void transferred(ssize_t bytesTransferred);
+	/**
+	 * Returns the offset into the native buffer that the next transfer should use, and the maximum
+	 * number of bytes to transfer.
+	 *
+	 * @param offset the offset of the first byte to transfer
+	 * @param length the maximum number of bytes to transfer
+	 */
+	virtual void getTransferRange(jint& offset, jint& length) = 0;
+	/**
+	 * Updates the buffers after a successful transfer.
+	 *
+	 * @param offset the offset returned by getTransferRange()
+	 * @param bytesTransferred the number of bytes transferred
+	 */
+	virtual void updateBuffers(jint offset, ssize_t bytesTransferred) = 0;
+
+	/**
+	 * The native buffer associated with the operation. Equal to javaBuffer if the latter is direct.
+	 */
+	::jace::proxy::java::nio::ByteBuffer* nativeBuffer;
+	/**
+	 * The Java ByteBuffer associated with the operation.
+	 */
+	::jace::proxy::java::nio::ByteBuffer* javaBuffer;
+private:
+	/**
+	 * The offset returned by the last invocation of getTransferRange().
+	 */
+	jint transferOffset;
+	/**
+	 * The memory region returned by the last invocation of prepareTransfer().
+	 */
+	iovec region;
+};
+
+/**
+ * An operation that transfers bytes into or out of a sequence of ByteBuffers using a single
+ * readv() or writev().
+ *
+ * At most IOV_MAX buffers and INT_MAX bytes are transferred by a single operation. Heap buffers are
+ * staged through pooled direct buffers because the kernel cannot access them, and at most
+ * StagingPool::MAX_CAPACITY bytes are transferred into or out of each one.
+ */
+class VectorTask: public Task
+{
+public:
+	/**
+	 * Creates a new VectorTask.
+	 *
+	 * @param portContext the port context
+	 * @param read true if the operation reads from the port, false if it writes to it
+	 * @param javaBuffers the Java buffers associated with the operation
+	 * @param offset the index of the first buffer to transfer
+	 * @param length the number of buffers to transfer
+	 * @param timeout the number of milliseconds to wait before the operation times out.
+	 * Long.MAX_VALUE means "wait forever"
+	 * @param attachment the attachment to pass into handler
+	 * @param handler the CompletionHandler associated with the operation
+	 */
+	VectorTask(SerialPortContext& portContext, bool read,
+		::jace::JArray< ::jace::proxy::java::nio::ByteBuffer > javaBuffers, jint offset, jint length,
+		jlong timeout, ::jace::proxy::java::lang::Object attachment,
+		::jace::proxy::java::nio::channels::CompletionHandler handler);
+	virtual ~VectorTask();
+	virtual bool isRead() const;
+	virtual void prepareTransfer(const iovec*& vectors, int& count);
+protected:
+	virtual void transferred(ssize_t bytesTransferred);
+	/**
+	 * @return a Long
+	 */
+	virtual ::jace::proxy::java::lang::Object toResult(int bytesTransferred);
+private:
+	/**
+	 * True if the operation reads from the port.
+	 */
+	bool read;
+	/**
+	 * The Java ByteBuffers associated with the operation.
+	 */
+	std::vector< ::jace::proxy::java::nio::ByteBuffer* > javaBuffers;
+	/**
+	 * The native buffers associated with the operation. An element is equal to the corresponding
+	 * element of javaBuffers if the latter is direct.
+	 */
+	std::vector< ::jace::proxy::java::nio::ByteBuffer* > nativeBuffers;
+	/**
+	 * The number of bytes to transfer into or out of each buffer.
+	 */
+	std::vector<jint> lengths;
+	/**
+	 * The number of bytes transferred into or out of each buffer so far.
+	 */
+	std::vector<jint> consumed;
+	/**
+	 * The memory regions returned by the last invocation of prepareTransfer().
+	 */
+	std::vector<iovec> vectors;
+};
+
+/**
+ * Waits for modem-control lines to change state.
+ *
+ * Neither epoll nor io_uring report changes to the modem-control lines, and TIOCMIWAIT blocks the
+ * calling thread until a change occurs without any way to cancel it. Instead, engines sample the
+ * lines every POLL_INTERVAL milliseconds while a watch is outstanding. Each sample also compares the
+ * transition counters of CTS, DSR, RI and DCD (TIOCGICOUNT) so that a pulse shorter than
+ * POLL_INTERVAL is not lost. Drivers without counters, such as pseudo-terminals, only report changes
+ * that last until the next sample.
+ */
+class ModemWatch
+{
+public:
+	/**
+	 * The number of milliseconds between samples.
+	 */
+	static const int POLL_INTERVAL = 10;
+	/**
+	 * The number of lines whose transitions the driver counts.
+	 */
+	static const int COUNTED_LINES = 4;
+	/**
+	 * Creates a new ModemWatch. The current state and transition counters of the lines are used as
+	 * the baseline.
+	 *
+	 * @param port the port
+	 * @param mask the lines to watch, as a bitmask indexed by SerialPort.ModemLine ordinals
+	 * @param attachment the attachment associated with handler
+	 * @param handler the handler to notify once any of the lines changes state
+	 * @throws IOException if the state of the lines cannot be read
+	 */
+	ModemWatch(SerialPortContext& port, jint mask, ::jace::proxy::java::lang::Object attachment,
+		::jace::proxy::java::nio::channels::CompletionHandler handler);
+	/**
+	 * Destroys the ModemWatch.
+	 */
+	~ModemWatch();
+	/**
+	 * Samples the lines. Invoked with the port mutex held.
+	 */
+	void poll();
+	/**
+	 * Indicates if the watch is done, either because a line changed state or because it failed.
+	 *
+	 * @return true if the watch is done
+	 */
+	bool isDone() const;
+	/**
+	 * Marks the watch as failed.
+	 *
+	 * @param throwable the cause of the failure
+	 */
+	void fail(const ::jace::proxy::java::lang::Throwable& throwable);
+	/**
+	 * Notifies the handler that the watch is done. Must be invoked without holding the port mutex.
+	 */
+	void notifyHandler();
+private:
+	/**
+	 * Prevent copying.
+	 */
+	ModemWatch(const ModemWatch&);
+	/**
+	 * Prevent assignment.
+	 */
+	ModemWatch& operator=(const ModemWatch&);
+
+	SerialPortContext& port;
+	/**
+	 * The lines to watch.
+	 */
+	jint mask;
+	/**
+	 * The state of the lines when the watch was created.
+	 */
+	jint baseline;
+	/**
+	 * The state of the lines when the change was detected.
+	 */
+	jint state;
+	/**
+	 * True if the driver counts the transitions of the lines.
+	 */
+	bool countsTransitions;
+	/**
+	 * The transition counters of CTS, DSR, RI and DCD when the watch was created.
+	 */
+	int transitions[COUNTED_LINES];
+	bool done;
+	::jace::proxy::java::lang::Object* attachment;
+	::jace::proxy::java::nio::channels::CompletionHandler* handler;
+	::jace::proxy::java::lang::Throwable* failure;
+};
+
+/**
+ * Data associated with the serial port.
+ */
+class SerialPortContext
+{
+public:
+	/**
+	 * Creates a new SerialPortContext.
+	 *
+	 * @param port the serial port file descriptor
+	 * @param engine the engine that carries out the port's operations
+	 */
+	SerialPortContext(int port, IoEngine& engine);
+
+	/**
+	 * Destroys the SerialPortContext.
+	 */
+	~SerialPortContext();
+
+	/**
+	 * Returns the serial port file descriptor.
+	 */
+	int getPort() const;
+
+	/**
+	 * Returns the engine that carries out the port's operations.
+	 */
+	IoEngine& getEngine();
+
+	/**
+	 * Synchronizes access to this object's state.
+	 */
+	boost::mutex& getMutex();
+
+	/**
+	 * Returns the pool that heap buffers are staged through.
+	 */
+	boost::shared_ptr<StagingPool> getStagingPool();
+
+	/**
+	 * Returns the conditions under which read operations complete. Must be invoked with the port
+	 * mutex held.
+	 *
+	 * @param minimum the minimum number of bytes to read before completing
+	 * @param interByteTimeout the number of milliseconds that may elapse between bytes before
+	 * completing with fewer than minimum bytes, or 0 to wait forever
+	 */
+	void getReadThreshold(jint& minimum, jlong& interByteTimeout) const;
+
+	/**
+	 * Sets the conditions under which read operations complete. Must be invoked with the port mutex
+	 * held. Outstanding operations are not affected.
+	 *
+	 * @param minimum the minimum number of bytes to read before completing
+	 * @param interByteTimeout the number of milliseconds that may elapse between bytes before
+	 * completing with fewer than minimum bytes, or 0 to wait forever
+	 */
+	void setReadThreshold(jint minimum, jlong interByteTimeout);
+
+	/**
+	 * Returns the amount of time that the port is busy-polled before its operations wait for it to
+	 * become ready. Must be invoked with the port mutex held.
+	 *
+	 * @return the number of nanoseconds to busy-poll for, or 0 to wait right away
+	 */
+	jlong getSpinTime() const;
+
+	/**
+	 * Sets the amount of time that the port is busy-polled before its operations wait for it to
+	 * become ready. Must be invoked with the port mutex held. The port's Spinner is started the first
+	 * time a positive value is set.
+	 *
+	 * @param spinTime the number of nanoseconds to busy-poll for, or 0 to wait right away
+	 */
+	void setSpinTime(jlong spinTime);
+
+	/**
+	 * Busy-polls the port on its Spinner's thread, if busy-polling is enabled. Engines invoke this
+	 * method whenever an operation is left waiting for the port to become ready. Must be invoked with
+	 * the port mutex held.
+	 *
+	 * @param events the poll() events that the operations are waiting for
+	 */
+	void spin(short events);
+
+	/**
+	 * Stops the port's Spinner, if any. Must be invoked without holding the port mutex, after the
+	 * port is marked as closed and before its file descriptor is closed.
+	 */
+	void stopSpinning();
+
+	/**
+	 * Indicates if write operations complete only once the output queue drains. Must be invoked with
+	 * the port mutex held.
+	 *
+	 * @return true if write operations wait for the output queue to drain
+	 */
+	bool isDrainOnWrite() const;
+
+	/**
+	 * Sets whether write operations complete only once the output queue drains. Must be invoked with
+	 * the port mutex held. Outstanding operations are not affected.
+	 *
+	 * @param drain true if write operations should wait for the output queue to drain
+	 */
+	void setDrainOnWrite(bool drain);
+
+	/**
+	 * Returns the outstanding read operation, if any.
+	 */
+	boost::shared_ptr<Task>& getReadTask();
+
+	/**
+	 * Returns the outstanding write operation, if any.
+	 */
+	boost::shared_ptr<Task>& getWriteTask();
+
+	/**
+	 * Returns the outstanding modem-control line watch, if any.
+	 */
+	boost::shared_ptr<ModemWatch>& getModemWatch();
+
+	/**
+	 * Returns the epoll events that the port is armed for.
+	 */
+	uint32_t getArmedEvents() const;
+
+	/**
+	 * Sets the epoll events that the port is armed for.
+	 */
+	void setArmedEvents(uint32_t events);
+
+	/**
+	 * Indicates if the port is open.
+	 *
+	 * @return true if the port is open
+	 */
+	bool isOpen() const;
+
+	/**
+	 * Marks the port as closed.
+	 */
+	void setClosed();
+private:
+	/**
+	 * Prevent copying.
+	 */
+	SerialPortContext(const SerialPortContext&);
+	/**
+	 * Prevent assignment.
+	 */
+	SerialPortContext& operator=(const SerialPortContext&);
+
+	int port;
+	/**
+	 * The engine that carries out the port's operations.
+	 */
+	IoEngine& engine;
+	/**
+	 * Synchronizes access to this object's state.
+	 */
+	boost::mutex mutex;
+	/**
+	 * The pool that heap buffers are staged through.
+	 */
+	boost::shared_ptr<StagingPool> stagingPool;
+	/**
+	 * The outstanding read operation.
+	 */
+	boost::shared_ptr<Task> readTask;
+	/**
+	 * The outstanding write operation.
+	 */
+	boost::shared_ptr<Task> writeTask;
+	/**
+	 * The outstanding modem-control line watch.
+	 */
+	boost::shared_ptr<ModemWatch> modemWatch;
+	/**
+	 * The epoll events that the port is armed for. Ports are registered using EPOLLONESHOT so this
+	 * value is reset whenever an event is delivered.
+	 */
+	uint32_t armedEvents;
+	/**
+	 * True if the port is open.
+	 */
+	bool open;
+	/**
+	 * The minimum number of bytes that read operations transfer before completing.
+	 */
+	jint readMinimum;
+	/**
+	 * The number of milliseconds that may elapse between bytes before a read operation completes with
+	 * fewer than readMinimum bytes, or 0 to wait forever.
+	 */
+	jlong readInterByteTimeout;
+	/**
+	 * The number of nanoseconds that the port is busy-polled before its operations wait for it to
+	 * become ready.
+	 */
+	jlong spinTime;
+	/**
+	 * Busy-polls the port, or null if busy-polling was never enabled.
+	 */
+	boost::shared_ptr<Spinner> spinner;
+	/**
+	 * True if write operations complete only once the output queue drains.
+	 */
+	bool drainOnWrite;
+};
+
+/**
+ * Returns the serial port context.
+ */
+SerialPortContext* getContext(::jace::proxy::org::jperipheral::SerialChannel channel);
+
+/**
+ * Returns the state of the modem-control lines.
+ *
+ * @param port the port file descriptor
+ * @return a bitmask indexed by SerialPort.ModemLine ordinals
+ * @throws IOException if an I/O error occurs
+ */
+jint getModemLines(int port);
+
+/**
+ * Returns the current time of a clock that is not affected by changes to the system time.
+ *
+ * @return the number of milliseconds since an arbitrary point in time
+ */
+jlong getMonotonicTime();
+
+/**
+ * Returns the current time of a clock that is not affected by changes to the system time.
+ *
+ * @return the number of nanoseconds since an arbitrary point in time
+ */
+jlong getMonotonicNanoTime();
+
+/**
+ * Returns the String representation of the current source-code position.
+ */
+std::wstring getSourceCodePosition(const wchar_t* file, int line);
+
+/**
+ * Returns the String representation of an errno value.
+ */
+std::wstring getErrorMessage(int errorCode);
+
+END_NAMESPACE_1(jperipheral)
+
+#endif
@@ -0,0 +1,115 @@
+#ifndef JPERIPHERAL_SPINNER_H
+#define JPERIPHERAL_SPINNER_H
+
+#include "jace/Jace.h"
+
+#include <boost/thread/thread.hpp>
+#include <boost/thread/mutex.hpp>
+#include <boost/thread/condition.hpp>
+#include <boost/shared_ptr.hpp>
+
+
+BEGIN_NAMESPACE_1(jperipheral)
+
+class SerialPortContext;
+
+/**
+ * Busy-polls a port that is not ready on behalf of its engine.
+ *
+ * Each port that enables busy-polling gets its own thread, so that neither the thread that
+ * initiated an operation, the engine's thread nor any other port waits while it spins. The thread
+ * checks the port's readiness without holding the port mutex and hands the port over to
+ * IoEngine::ready() once it can make progress. The engine keeps waiting for the port in the
+ * meantime, so the operation completes through whichever notices the port first.
+ */
+class Spinner
+{
+public:
+	/**
+	 * Creates a Spinner and starts its thread.
+	 *
+	 * @param port the port to busy-poll
+	 * @return the Spinner
+	 */
+	static boost::shared_ptr<Spinner> create(SerialPortContext& port);
+
+	/**
+	 * Destroys the Spinner.
+	 */
+	~Spinner();
+
+	/**
+	 * Busy-polls the port until it is ready for any of the specified events, or until the spin time
+	 * elapses. Extends the ongoing busy-poll, if any. Invoked with the port mutex held.
+	 *
+	 * @param events the poll() events to wait for
+	 * @param spinTime the number of nanoseconds to busy-poll for
+	 */
+	void start(short events, jlong spinTime);
+
+	/**
+	 * Stops the thread. Unless invoked by the thread itself, waits for it to exit so that the port
+	 * may be closed afterwards. Must be invoked without holding the port mutex.
+	 */
+	void stop();
+private:
+	/**
+	 * Creates a new Spinner.
+	 *
+	 * @param port the port to busy-poll
+	 */
+	Spinner(SerialPortContext& port);
+	/**
+	 * The function executed by the thread.
+	 *
+	 * @param spinner the Spinner. The thread keeps it alive until it exits.
+	 */
+	static void run(boost::shared_ptr<Spinner> spinner);
+	/**
+	 * Busy-polls the port until stop() is invoked.
+	 */
+	void spin();
+	/**
+	 * Prevent copying.
+	 */
+	Spinner(const Spinner&);
+	/**
+	 * Prevent assignment.
+	 */
+	Spinner& operator=(const Spinner&);
+
+	SerialPortContext& port;
+	/**
+	 * Synchronizes access to this object's state.
+	 */
+	boost::mutex mutex;
+	/**
+	 * Signaled when a busy-poll is requested, when the thread should exit and when it exits.
+	 */
+	boost::condition changed;
+	/**
+	 * The thread's id.
+	 */
+	boost::thread::id threadId;
+	/**
+	 * The events requested since the thread last picked them up.
+	 */
+	short pendingEvents;
+	/**
+	 * The spin time requested since the thread last picked it up.
+	 */
+	jlong pendingSpinTime;
+	/**
+	 * True if the thread should exit.
+	 */
+	bool stopRequested;
+	/**
+	 * True once the thread no longer accesses the port.
+	 */
+	bool exited;
+};
+
+
+END_NAMESPACE_1(jperipheral)
+
+#endif
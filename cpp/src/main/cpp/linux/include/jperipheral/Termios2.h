@@ -0,0 +1,34 @@
+#ifndef JPERIPHERAL_TERMIOS2_H
+#define JPERIPHERAL_TERMIOS2_H
+
+#include "jace/Jace.h"
+
+
+BEGIN_NAMESPACE_1(jperipheral)
+
+/**
+ * Sets the input and output speed of a port to an arbitrary baud rate, bypassing the fixed set of
+ * speeds that termios can express. Must be invoked after tcsetattr() because tcsetattr() overwrites
+ * the speed.
+ *
+ * termios2 is declared by kernel headers that conflict with <termios.h>, which is why these
+ * functions live in a translation unit of their own.
+ *
+ * @param port the port file descriptor
+ * @param baudRate the number of bits per second
+ * @return 0 on success, or an errno value on failure
+ */
+int setArbitraryBaudRate(int port, jint baudRate);
+
+/**
+ * Returns the output speed that the driver applied to a port.
+ *
+ * @param port the port file descriptor
+ * @param baudRate the number of bits per second
+ * @return 0 on success, or an errno value on failure
+ */
+int getActualBaudRate(int port, jint& baudRate);
+
+END_NAMESPACE_1(jperipheral)
+
+#endif
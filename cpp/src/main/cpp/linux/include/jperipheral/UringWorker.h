@@ -0,0 +1,270 @@
+#ifndef JPERIPHERAL_URINGWORKER_H
+#define JPERIPHERAL_URINGWORKER_H
+
+#include "jace/Jace.h"
+
+#include "jperipheral/IoEngine.h"
+
+#ifdef JPERIPHERAL_HAVE_LIBURING
+#include <liburing.h>
+
+#include <boost/thread/thread.hpp>
+#include <boost/thread/mutex.hpp>
+#include <boost/thread/condition.hpp>
+#include <boost/shared_ptr.hpp>
+
+#include <map>
+#include <set>
+#include <vector>
+#endif
+
+
+BEGIN_NAMESPACE_1(jperipheral)
+
+#ifdef JPERIPHERAL_HAVE_LIBURING
+
+/**
+ * Executes asynchronous tasks using io_uring.
+ *
+ * Operations are queued by the calling thread and submitted by the worker thread, which hands the
+ * kernel all operations that were queued since its last iteration using a single system call, and
+ * then reaps all available completions at once. A port that is not ready is waited on using a
+ * one-shot poll request, which is batched the same way. The thread stops waiting for completions
+ * once the earliest deadline of an outstanding operation elapses, and periodically while
+ * modem-control lines are being watched.
+ *
+ * Unlike Worker, operations are never attempted on the calling thread because doing so costs one
+ * system call per operation.
+ */
+class UringWorker: public IoEngine
+{
+public:
+	/**
+	 * Creates a UringWorker.
+	 *
+	 * @return null if the kernel does not support io_uring
+	 */
+	static UringWorker* create();
+
+	/**
+	 * Destroys the UringWorker.
+	 */
+	virtual ~UringWorker();
+
+	virtual void add(SerialPortContext& port);
+	virtual void remove(SerialPortContext* port);
+	virtual void submit(SerialPortContext& port, boost::shared_ptr<Task> task, bool read);
+	virtual void ready(SerialPortContext& port, short events);
+	virtual void watch(SerialPortContext& port);
+private:
+	/**
+	 * A request submitted to the ring.
+	 */
+	struct Request
+	{
+		enum Type
+		{
+			/**
+			 * Transfers bytes.
+			 */
+			TRANSFER,
+			/**
+			 * Waits for the port to become ready.
+			 */
+			POLL,
+			/**
+			 * Cancels the port's outstanding requests and deletes the port.
+			 */
+			REMOVE,
+			/**
+			 * Starts sampling the port's modem-control lines. Never submitted to the ring.
+			 */
+			WATCH,
+			/**
+			 * Cuts short the port's poll requests once its Spinner found it ready. Never submitted to the
+			 * ring.
+			 */
+			READY
+		};
+
+		Request(Type type, SerialPortContext* port, boost::shared_ptr<Task> task);
+
+		Type type;
+		SerialPortContext* port;
+		boost::shared_ptr<Task> task;
+		/**
+		 * The poll() events that the port is ready for. Only used by READY requests.
+		 */
+		short events;
+	};
+
+	/**
+	 * Creates a new UringWorker.
+	 *
+	 * @param ring an initialized io_uring instance. The worker takes ownership of it.
+	 */
+	UringWorker(const io_uring& ring);
+	/**
+	 * The function executed by the thread.
+	 */
+	void run();
+	/**
+	 * Queues a request for submission by the worker thread.
+	 *
+	 * @param request the request
+	 */
+	void enqueue(Request* request);
+	/**
+	 * Prepares the submission of a request that was queued by enqueue().
+	 *
+	 * @param request the request
+	 * @param tasksDone the list to add completed operations to
+	 */
+	void start(Request* request, std::vector<boost::shared_ptr<Task> >& tasksDone);
+	/**
+	 * Prepares the submission of a TRANSFER or POLL request. Must be invoked with the port mutex held.
+	 *
+	 * @param request the request
+	 * @param tasksDone the list to add completed operations to
+	 * @return false if the operation failed, in which case the caller is responsible for deleting
+	 * the request
+	 */
+	bool prepare(Request* request, std::vector<boost::shared_ptr<Task> >& tasksDone);
+	/**
+	 * Processes the completion of a request.
+	 *
+	 * @param request the request
+	 * @param result the result of the request
+	 * @param tasksDone the list to add completed operations to
+	 */
+	void complete(Request* request, int result, std::vector<boost::shared_ptr<Task> >& tasksDone);
+	/**
+	 * Indicates if a request belongs to the port's outstanding operation. Must be invoked with the
+	 * port mutex held.
+	 *
+	 * @param request the request
+	 * @return false if the port was closed or the operation was aborted
+	 */
+	bool isCurrent(const Request& request);
+	/**
+	 * Fails the operations whose deadline has elapsed, unless a transfer is in flight.
+	 *
+	 * @param tasksDone the list to add completed operations to
+	 */
+	void expireTasks(std::vector<boost::shared_ptr<Task> >& tasksDone);
+	/**
+	 * Fails an operation that timed out. Must be invoked with the port mutex held.
+	 *
+	 * @param request a request of the operation
+	 * @param tasksDone the list to add completed operations to
+	 */
+	void expire(Request& request, std::vector<boost::shared_ptr<Task> >& tasksDone);
+	/**
+	 * Checks the output queue of a write operation that has no request in flight because it is
+	 * waiting for the queue to drain.
+	 *
+	 * @param port the port
+	 * @param task the operation
+	 * @param tasksDone the list to add completed operations to
+	 */
+	void expireDraining(SerialPortContext& port, Task& task,
+		std::vector<boost::shared_ptr<Task> >& tasksDone);
+	/**
+	 * Deletes a removed port once it has no outstanding requests.
+	 *
+	 * @param port the port
+	 */
+	void deleteIfIdle(SerialPortContext* port);
+	/**
+	 * Samples the modem-control lines of the watched ports.
+	 *
+	 * @param watchesDone the list to add completed watches to
+	 */
+	void pollModemLines(std::vector<boost::shared_ptr<ModemWatch> >& watchesDone);
+	/**
+	 * Returns a submission queue entry, flushing the submission queue if it is full.
+	 */
+	io_uring_sqe* getSqe();
+	/**
+	 * Waits for wakeup() to be invoked.
+	 */
+	void armWakeup();
+	/**
+	 * Wakes up the thread.
+	 */
+	void wakeup();
+	/**
+	 * Prevent copying.
+	 */
+	UringWorker(const UringWorker&);
+	/**
+	 * Prevent assignment.
+	 */
+	UringWorker& operator=(const UringWorker&);
+
+	/**
+	 * The ring. Only accessed by the worker thread.
+	 */
+	io_uring ring;
+	boost::thread* thread;
+	/**
+	 * Synchronizes access to pendingRequests, wakeupPending and shutdownRequested.
+	 */
+	boost::mutex mutex;
+	boost::condition running;
+	/**
+	 * An eventfd used to wake up the thread.
+	 */
+	int wakeupFd;
+	/**
+	 * True if the thread should exit.
+	 */
+	bool shutdownRequested;
+	/**
+	 * True if the thread was woken up but has yet to pick up pendingRequests.
+	 */
+	bool wakeupPending;
+	/**
+	 * Requests queued by other threads.
+	 */
+	std::vector<Request*> pendingRequests;
+	/**
+	 * The requests owned by the kernel, indexed by port. Only accessed by the worker thread.
+	 */
+	std::multimap<SerialPortContext*, Request*> requestsInFlight;
+	/**
+	 * Ports that were removed but still have requests in flight. Only accessed by the worker thread.
+	 */
+	std::set<SerialPortContext*> removedPorts;
+	/**
+	 * The deadlines of outstanding operations. Only accessed by the worker thread.
+	 */
+	DeadlineQueue deadlines;
+	/**
+	 * Ports whose modem-control lines are being watched. Only accessed by the worker thread.
+	 */
+	std::set<SerialPortContext*> watchedPorts;
+	/**
+	 * The time at which the modem-control lines should be sampled next. Only accessed by the worker
+	 * thread.
+	 */
+	jlong nextModemPoll;
+};
+
+#endif
+
+/**
+ * Returns the singleton io_uring engine, creating it if necessary.
+ *
+ * @return null if io_uring is not supported by the kernel or the native library
+ */
+IoEngine* getUringWorker();
+
+/**
+ * Destroys the singleton io_uring engine, if it was created.
+ */
+void destroyUringWorker();
+
+END_NAMESPACE_1(jperipheral)
+
+#endif
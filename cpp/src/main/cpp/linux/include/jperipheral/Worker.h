@@ -0,0 +1,172 @@
+#ifndef JPERIPHERAL_WORKER_H
+#define JPERIPHERAL_WORKER_H
+
+#include "jace/Jace.h"
+
+#include "jperipheral/IoEngine.h"
+
+#include <boost/thread/thread.hpp>
+#include <boost/thread/mutex.hpp>
+#include <boost/thread/condition.hpp>
+#include <boost/shared_ptr.hpp>
+
+#include <stdint.h>
+#include <set>
+#include <vector>
+
+BEGIN_NAMESPACE_4(jace, peer, org, jperipheral)
+
+class SerialChannel;
+
+END_NAMESPACE_4(jace, peer, org, jperipheral)
+
+
+BEGIN_NAMESPACE_1(jperipheral)
+
+class SerialPortContext;
+class Task;
+
+/**
+ * Executes asynchronous tasks using epoll.
+ *
+ * A single thread waits on an epoll instance for all open ports. Ports are registered using
+ * EPOLLONESHOT and re-armed whenever they have outstanding operations, so the thread is only woken
+ * up for ports that can make progress. The thread also wakes up when the earliest deadline of an
+ * outstanding operation elapses, and periodically while modem-control lines are being watched.
+ */
+class Worker: public IoEngine
+{
+public:
+	/**
+	 * Creates a Worker.
+	 */
+	Worker();
+
+	/**
+	 * Destroys the Worker.
+	 */
+	virtual ~Worker();
+
+	virtual void add(SerialPortContext& port);
+
+	/**
+	 * Arms the port for the events its outstanding operations are waiting on. Must be invoked with
+	 * the port mutex held.
+	 *
+	 * @param port the port
+	 */
+	void update(SerialPortContext& port);
+
+	virtual void remove(SerialPortContext* port);
+
+	/**
+	 * Runs the outstanding operations of a port once it becomes ready, and notifies the handlers of any
+	 * operations that completed.
+	 *
+	 * @param port the port
+	 * @param events the epoll events that were signaled
+	 */
+	void process(SerialPortContext& port, uint32_t events);
+
+	/**
+	 * Initiates an operation. The operation is attempted right away and handed over to the worker
+	 * thread if the port is not ready.
+	 *
+	 * @param port the port
+	 * @param task the operation
+	 * @param read true if the task reads from the port, false if it writes to it
+	 */
+	virtual void submit(SerialPortContext& port, boost::shared_ptr<Task> task, bool read);
+
+	virtual void ready(SerialPortContext& port, short events);
+
+	virtual void watch(SerialPortContext& port);
+
+private:
+	/**
+	 * The function executed by the thread.
+	 */
+	void run();
+	/**
+	 * Runs the outstanding operations of a port that are waiting on the specified events, and
+	 * busy-polls the port if any of them remain pending. Must be invoked with the port mutex held.
+	 *
+	 * @param port the port
+	 * @param events the epoll events that were signaled
+	 * @param tasksDone the list to add completed operations to
+	 */
+	void runTasks(SerialPortContext& port, uint32_t events,
+		std::vector<boost::shared_ptr<Task> >& tasksDone);
+	/**
+	 * Fails the operations whose deadline has elapsed and notifies their handlers.
+	 */
+	void expireTasks();
+	/**
+	 * Updates the deadline of an operation after it ran. Must be invoked with the port mutex held.
+	 *
+	 * @param port the port
+	 * @param task the operation
+	 */
+	void updateDeadline(SerialPortContext& port, Task& task);
+	/**
+	 * Samples the modem-control lines of the watched ports and notifies the handlers of any watches
+	 * that are done.
+	 */
+	void pollModemLines();
+	/**
+	 * Wakes up the thread.
+	 */
+	void wakeup();
+	/**
+	 * Prevent copying.
+	 */
+	Worker(const Worker&);
+	/**
+	 * Prevent assignment.
+	 */
+	Worker& operator=(const Worker&);
+
+	friend class ::jace::peer::org::jperipheral::SerialChannel;
+
+	boost::thread* thread;
+	boost::mutex mutex;
+	boost::condition running;
+	/**
+	 * The epoll instance.
+	 */
+	int epollFd;
+	/**
+	 * An eventfd used to wake up the thread.
+	 */
+	int wakeupFd;
+	/**
+	 * True if the thread should exit.
+	 */
+	bool shutdownRequested;
+	/**
+	 * Ports that were removed but may still be referenced by the events being processed.
+	 */
+	std::vector<SerialPortContext*> removedPorts;
+	/**
+	 * The deadlines of outstanding operations that are waiting for their port to become ready.
+	 */
+	DeadlineQueue deadlines;
+	/**
+	 * Ports whose modem-control lines are being watched.
+	 */
+	std::set<SerialPortContext*> watchedPorts;
+	/**
+	 * The time at which the modem-control lines should be sampled next. Only accessed by the thread.
+	 */
+	jlong nextModemPoll;
+};
+
+/**
+ * The singleton epoll worker.
+ */
+extern Worker* worker;
+
+
+END_NAMESPACE_1(jperipheral)
+
+#endif
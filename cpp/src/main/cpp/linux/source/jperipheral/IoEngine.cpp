@@ -0,0 +1,86 @@
+#include "jperipheral/IoEngine.h"
+using jperipheral::IoEngine;
+using jperipheral::DeadlineQueue;
+
+#include "jperipheral/SerialPortHelper.h"
+using jperipheral::SerialPortContext;
+using jperipheral::Task;
+using jperipheral::getMonotonicTime;
+
+#include <assert.h>
+#include <limits.h>
+
+#include <algorithm>
+
+using std::multimap;
+using std::pair;
+using std::vector;
+
+
+IoEngine::~IoEngine()
+{}
+
+void DeadlineQueue::add(SerialPortContext& port, Task& task)
+{
+	assert(task.getQueuedDeadline() == -1);
+	jlong deadline = task.getDeadline();
+	if (deadline == -1)
+		return;
+	entries.insert(pair<const jlong, Entry>(deadline, Entry(&port, &task)));
+	task.setQueuedDeadline(deadline);
+}
+
+void DeadlineQueue::remove(Task& task)
+{
+	jlong deadline = task.getQueuedDeadline();
+	if (deadline == -1)
+		return;
+	task.setQueuedDeadline(-1);
+	pair<multimap<jlong, Entry>::iterator, multimap<jlong, Entry>::iterator> range =
+		entries.equal_range(deadline);
+	for (multimap<jlong, Entry>::iterator i = range.first; i != range.second; ++i)
+	{
+		if (i->second.second == &task)
+		{
+			entries.erase(i);
+			return;
+		}
+	}
+}
+
+void DeadlineQueue::update(SerialPortContext& port, Task& task)
+{
+	if (task.getQueuedDeadline() == task.getDeadline())
+		return;
+	remove(task);
+	add(port, task);
+}
+
+void DeadlineQueue::remove(SerialPortContext* port)
+{
+	for (multimap<jlong, Entry>::iterator i = entries.begin(); i != entries.end();)
+	{
+		if (i->second.first == port)
+			entries.erase(i++);
+		else
+			++i;
+	}
+}
+
+int DeadlineQueue::getDelay() const
+{
+	if (entries.empty())
+		return -1;
+	jlong delay = entries.begin()->first - getMonotonicTime();
+	return static_cast<int>(std::max<jlong>(0, std::min<jlong>(delay, INT_MAX)));
+}
+
+void DeadlineQueue::removeExpired(vector<Entry>& expired)
+{
+	jlong now = getMonotonicTime();
+	while (!entries.empty() && entries.begin()->first <= now)
+	{
+		expired.push_back(entries.begin()->second);
+		entries.erase(entries.begin());
+	}
+}
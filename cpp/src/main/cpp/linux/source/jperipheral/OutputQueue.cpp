@@ -0,0 +1,16 @@
+#include "jperipheral/OutputQueue.h"
+
+#include <sys/ioctl.h>
+#include <termios.h>
+
+
+bool jperipheral::isOutputDrained(int port)
+{
+	int queued;
+	if (ioctl(port, TIOCOUTQ, &queued) == -1)
+		return true;
+	if (queued > 0)
+		return false;
+	unsigned int status;
+	return ioctl(port, TIOCSERGETLSR, &status) == -1 || (status & TIOCSER_TEMT);
+}
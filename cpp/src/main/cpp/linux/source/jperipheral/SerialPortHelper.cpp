@@ -0,0 +1,817 @@
+#include "jperipheral/SerialPortHelper.h"
+using jperipheral::StagingPool;
+using jperipheral::Task;
+using jperipheral::BufferTask;
+using jperipheral::VectorTask;
+using jperipheral::ModemWatch;
+using jperipheral::SerialPortContext;
+using jperipheral::IoEngine;
+using jperipheral::getErrorMessage;
+
+#include "jperipheral/OutputQueue.h"
+using jperipheral::isOutputDrained;
+
+#include "jperipheral/Spinner.h"
+using jperipheral::Spinner;
+
+#include "jace/proxy/org/jperipheral/SerialChannel.h"
+using jace::proxy::org::jperipheral::SerialChannel;
+
+#include "jace/proxy/org/jperipheral/SerialPort_ModemLine.h"
+using jace::proxy::org::jperipheral::SerialPort_ModemLine;
+
+#include "jace/proxy/java/nio/channels/CompletionHandler.h"
+using jace::proxy::java::nio::channels::CompletionHandler;
+
+#include "jace/proxy/java/lang/Object.h"
+using jace::proxy::java::lang::Object;
+
+#include "jace/proxy/java/lang/Integer.h"
+using jace::proxy::java::lang::Integer;
+
+#include "jace/proxy/java/lang/Long.h"
+using jace::proxy::java::lang::Long;
+
+#include "jace/proxy/java/lang/Throwable.h"
+using jace::proxy::java::lang::Throwable;
+
+#include "jace/proxy/java/nio/ByteBuffer.h"
+using jace::proxy::java::nio::ByteBuffer;
+
+#include "jace/proxy/java/io/IOException.h"
+using jace::proxy::java::io::IOException;
+
+#include "jace/proxy/java/nio/channels/InterruptedByTimeoutException.h"
+using jace::proxy::java::nio::channels::InterruptedByTimeoutException;
+
+#include "jace/Jace.h"
+using jace::toWString;
+
+#include "jace/JArray.h"
+using jace::JArray;
+
+#include <assert.h>
+#include <errno.h>
+#include <limits.h>
+#include <linux/serial.h>
+#include <string.h>
+#include <sys/ioctl.h>
+#include <time.h>
+#include <unistd.h>
+
+#include <string>
+using std::wstring;
+using std::string;
+
+#include <vector>
+using std::vector;
+
+#include <algorithm>
+
+#include <iostream>
+using std::wcerr;
+using std::endl;
+
+
+SerialPortContext* jperipheral::getContext(SerialChannel channel)
+{
+	return reinterpret_cast<SerialPortContext*>(static_cast<intptr_t>(channel.nativeObject()));
+}
+
+StagingPool::StagingPool()
+{}
+
+StagingPool::~StagingPool()
+{
+	for (int i = 0; i < SIZE_CLASSES; ++i)
+	{
+		for (vector<ByteBuffer*>::iterator j = idle[i].begin(); j != idle[i].end(); ++j)
+			delete *j;
+	}
+}
+
+int StagingPool::getSizeClass(jint length)
+{
+	assert(length <= MAX_CAPACITY);
+	int result = 0;
+	for (jint capacity = MIN_CAPACITY; capacity < length; capacity <<= 1)
+		++result;
+	return result;
+}
+
+ByteBuffer* StagingPool::acquire(jint length)
+{
+	length = std::min(length, MAX_CAPACITY);
+	int sizeClass = getSizeClass(length);
+	ByteBuffer* result = 0;
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		if (!idle[sizeClass].empty())
+		{
+			result = idle[sizeClass].back();
+			idle[sizeClass].pop_back();
+		}
+	}
+	if (result == 0)
+		result = new ByteBuffer(ByteBuffer::allocateDirect(MIN_CAPACITY << sizeClass));
+	result->clear();
+	result->limit(length);
+	return result;
+}
+
+void StagingPool::release(ByteBuffer* buffer)
+{
+	int sizeClass = getSizeClass(buffer->capacity());
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		if (idle[sizeClass].size() < MAX_IDLE)
+		{
+			idle[sizeClass].push_back(buffer);
+			return;
+		}
+	}
+	delete buffer;
+}
+
+Task::Task(SerialPortContext& _portContext, jlong timeout, Object _attachment,
+					 CompletionHandler _handler):
+	attachment(0), handler(0), portContext(_portContext), stagingPool(_portContext.getStagingPool()),
+	done(false), bytesTransferred(0), failure(0), deadline(-1), minimumTransfer(1), interByteTimeout(0),
+	gapDeadline(-1), drain(false), drainDeadline(-1), queuedDeadline(-1)
+{
+	jlong now = getMonotonicTime();
+	if (timeout < LLONG_MAX - now)
+		deadline = now + timeout;
+	attachment = new Object(_attachment);
+	handler = new CompletionHandler(_handler);
+}
+
+Task::~Task()
+{
+	delete attachment;
+	delete handler;
+	delete failure;
+}
+
+/**
+ * Returns the address of the first byte of a direct buffer.
+ *
+ * @param buffer a direct buffer
+ * @return the address of the first byte of the buffer
+ */
+static char* getNativeAddress(ByteBuffer& buffer)
+{
+	JNIEnv* env = jace::attach(0, "Task", true);
+	char* result = reinterpret_cast<char*>(env->GetDirectBufferAddress(buffer));
+	assert(result != 0);
+	return result;
+}
+
+/**
+ * Transfers bytes without blocking.
+ *
+ * @param port the port file descriptor
+ * @param read true if bytes should be read from the port, false if they should be written to it
+ * @param vectors the memory regions to transfer, in order
+ * @param count the number of memory regions
+ * @return the number of bytes transferred, or a negated errno value on failure
+ */
+static ssize_t transfer(int port, bool read, const iovec* vectors, int count)
+{
+	ssize_t result;
+	do
+	{
+		if (count == 1)
+		{
+			if (read)
+				result = ::read(port, vectors[0].iov_base, vectors[0].iov_len);
+			else
+				result = ::write(port, vectors[0].iov_base, vectors[0].iov_len);
+		}
+		else if (read)
+			result = ::readv(port, vectors, count);
+		else
+			result = ::writev(port, vectors, count);
+	} while (result == -1 && errno == EINTR);
+	if (result == -1)
+		result = -errno;
+	return result;
+}
+
+void Task::run()
+{
+	const iovec* vectors;
+	int count;
+	try
+	{
+		prepareTransfer(vectors, count);
+	}
+	catch (Throwable& t)
+	{
+		fail(t);
+		return;
+	}
+	complete(transfer(portContext.getPort(), isRead(), vectors, count));
+}
+
+void Task::complete(ssize_t result)
+{
+	try
+	{
+		if (result == -EAGAIN || result == -EWOULDBLOCK)
+		{
+			// Wait for the port to become ready
+			return;
+		}
+		if (result < 0)
+		{
+			if (bytesTransferred > 0)
+			{
+				// Report the bytes that were already transferred. The next operation reports the error.
+				succeed(bytesTransferred);
+				return;
+			}
+			fail(IOException(jace::java_new<IOException>(wstring(isRead() ? L"read()" : L"write()") +
+				L" failed with error: " + getErrorMessage(static_cast<int>(-result)))));
+			return;
+		}
+		if (result == 0)
+		{
+			// Reads return zero bytes once the other end hangs up. Writes that transferred nothing remain
+			// pending.
+			if (isRead())
+				succeed(bytesTransferred > 0 ? bytesTransferred : -1);
+			return;
+		}
+		transferred(result);
+		bytesTransferred += static_cast<int>(result);
+		if (bytesTransferred >= minimumTransfer)
+		{
+			if (drain)
+				pollDrain();
+			else
+				succeed(bytesTransferred);
+			return;
+		}
+		// Wait for more bytes, or for the line to go idle
+		if (interByteTimeout > 0)
+			gapDeadline = getMonotonicTime() + interByteTimeout;
+	}
+	catch (Throwable& t)
+	{
+		fail(t);
+	}
+}
+
+bool Task::isDone() const
+{
+	return done;
+}
+
+bool Task::isDraining() const
+{
+	return !done && drainDeadline != -1;
+}
+
+void Task::succeed(int _bytesTransferred)
+{
+	done = true;
+	bytesTransferred = _bytesTransferred;
+}
+
+void Task::fail(const Throwable& throwable)
+{
+	done = true;
+	failure = new Throwable(throwable);
+}
+
+jlong Task::getDeadline() const
+{
+	if (done)
+		return -1;
+	jlong next;
+	if (drainDeadline != -1)
+		next = drainDeadline;
+	else
+		next = gapDeadline;
+	if (next == -1)
+		return deadline;
+	if (deadline == -1)
+		return next;
+	return std::min(deadline, next);
+}
+
+jlong Task::getQueuedDeadline() const
+{
+	return queuedDeadline;
+}
+
+void Task::setQueuedDeadline(jlong value)
+{
+	queuedDeadline = value;
+}
+
+void Task::expire()
+{
+	if (drainDeadline != -1 && (deadline == -1 || getMonotonicTime() < deadline))
+	{
+		pollDrain();
+		return;
+	}
+	if (bytesTransferred > 0)
+	{
+		// The line went idle, or the operation timed out after receiving some bytes
+		succeed(bytesTransferred);
+		return;
+	}
+	fail(InterruptedByTimeoutException(jace::java_new<InterruptedByTimeoutException>()));
+}
+
+void Task::setCompletionThreshold(jint _minimumTransfer, jlong _interByteTimeout)
+{
+	minimumTransfer = std::max(_minimumTransfer, 1);
+	interByteTimeout = _interByteTimeout;
+}
+
+void Task::setDrain(bool _drain)
+{
+	drain = _drain;
+}
+
+void Task::pollDrain()
+{
+	if (isOutputDrained(portContext.getPort()))
+	{
+		succeed(bytesTransferred);
+		return;
+	}
+	drainDeadline = getMonotonicTime() + DRAIN_POLL_INTERVAL;
+}
+
+void Task::notifyHandler()
+{
+	assert(done);
+	try
+	{
+		if (failure != 0)
+			handler->failed(*failure, *attachment);
+		else
+			handler->completed(toResult(bytesTransferred), *attachment);
+	}
+	catch (Throwable& t)
+	{
+		wcerr << __FILE__ << ":" << __LINE__ << endl;
+		t.printStackTrace();
+	}
+}
+
+SerialPortContext& Task::getPort()
+{
+	return portContext;
+}
+
+Object Task::toResult(int _bytesTransferred)
+{
+	return Integer::valueOf(_bytesTransferred);
+}
+
+BufferTask::BufferTask(SerialPortContext& _portContext, ByteBuffer _javaBuffer, jlong timeout,
+											 Object _attachment, CompletionHandler _handler):
+	Task(_portContext, timeout, _attachment, _handler), nativeBuffer(0), javaBuffer(0), transferOffset(0)
+{
+	javaBuffer = new ByteBuffer(_javaBuffer);
+	if (javaBuffer->isDirect())
+		nativeBuffer = javaBuffer;
+	else
+		nativeBuffer = stagingPool->acquire(javaBuffer->remaining());
+}
+
+BufferTask::~BufferTask()
+{
+	if (nativeBuffer != javaBuffer)
+		stagingPool->release(nativeBuffer);
+	delete javaBuffer;
+}
+
+void BufferTask::prepareTransfer(const iovec*& vectors, int& count)
+{
+	jint offset;
+	jint remaining;
+	getTransferRange(offset, remaining);
+	transferOffset = offset;
+	region.iov_base = getNativeAddress(*nativeBuffer) + offset;
+	region.iov_len = static_cast<size_t>(remaining);
+	vectors = &region;
+	count = 1;
+}
+
+void BufferTask::transferred(ssize_t _bytesTransferred)
+{
+	updateBuffers(transferOffset, _bytesTransferred);
+}
+
+VectorTask::VectorTask(SerialPortContext& _portContext, bool _read, JArray<ByteBuffer> _javaBuffers,
+											 jint offset, jint length, jlong timeout, Object _attachment,
+											 CompletionHandler _handler):
+	Task(_portContext, timeout, _attachment, _handler), read(_read)
+{
+	// Buffers without remaining bytes are skipped up front so that every region is non-empty
+	jlong total = 0;
+	for (jint i = offset; i < offset + length && static_cast<long>(javaBuffers.size()) < IOV_MAX &&
+		total < INT_MAX; ++i)
+	{
+		ByteBuffer buffer = _javaBuffers[i];
+		jint remaining = buffer.remaining();
+		if (remaining <= 0)
+			continue;
+		remaining = static_cast<jint>(std::min<jlong>(remaining, INT_MAX - total));
+		ByteBuffer* javaBuffer = new ByteBuffer(buffer);
+		javaBuffers.push_back(javaBuffer);
+		if (javaBuffer->isDirect())
+			nativeBuffers.push_back(javaBuffer);
+		else
+		{
+			ByteBuffer* nativeBuffer = stagingPool->acquire(remaining);
+			remaining = nativeBuffer->limit();
+			nativeBuffers.push_back(nativeBuffer);
+			if (!read)
+			{
+				jint oldPosition = javaBuffer->position();
+				jint oldLimit = javaBuffer->limit();
+				javaBuffer->limit(oldPosition + remaining);
+				nativeBuffer->put(*javaBuffer);
+				nativeBuffer->flip();
+				javaBuffer->limit(oldLimit);
+				javaBuffer->position(oldPosition);
+			}
+		}
+		total += remaining;
+		lengths.push_back(remaining);
+		consumed.push_back(0);
+	}
+	vectors.reserve(lengths.size());
+	if (read)
+	{
+		jint minimum;
+		jlong gap;
+		{
+			boost::mutex::scoped_lock lock(portContext.getMutex());
+			portContext.getReadThreshold(minimum, gap);
+		}
+		setCompletionThreshold(static_cast<jint>(std::min<jlong>(minimum, total)), gap);
+	}
+	else
+	{
+		boost::mutex::scoped_lock lock(portContext.getMutex());
+		setDrain(portContext.isDrainOnWrite());
+	}
+}
+
+VectorTask::~VectorTask()
+{
+	for (size_t i = 0; i < javaBuffers.size(); ++i)
+	{
+		if (nativeBuffers[i] != javaBuffers[i])
+			stagingPool->release(nativeBuffers[i]);
+		delete javaBuffers[i];
+	}
+}
+
+bool VectorTask::isRead() const
+{
+	return read;
+}
+
+void VectorTask::prepareTransfer(const iovec*& _vectors, int& count)
+{
+	vectors.clear();
+	for (size_t i = 0; i < javaBuffers.size(); ++i)
+	{
+		jint remaining = lengths[i] - consumed[i];
+		if (remaining == 0)
+			continue;
+		// Direct buffers are transferred from their position. Staged buffers are filled or drained from
+		// their beginning.
+		jint offset;
+		if (nativeBuffers[i] == javaBuffers[i])
+			offset = javaBuffers[i]->position();
+		else
+			offset = consumed[i];
+		iovec vector;
+		vector.iov_base = getNativeAddress(*nativeBuffers[i]) + offset;
+		vector.iov_len = static_cast<size_t>(remaining);
+		vectors.push_back(vector);
+	}
+	assert(!vectors.empty());
+	_vectors = &vectors[0];
+	count = static_cast<int>(vectors.size());
+}
+
+void VectorTask::transferred(ssize_t _bytesTransferred)
+{
+	for (size_t i = 0; i < javaBuffers.size() && _bytesTransferred > 0; ++i)
+	{
+		jint remaining = lengths[i] - consumed[i];
+		if (remaining == 0)
+			continue;
+		jint count = static_cast<jint>(std::min<ssize_t>(_bytesTransferred, remaining));
+		_bytesTransferred -= count;
+		ByteBuffer& javaBuffer = *javaBuffers[i];
+		if (read && nativeBuffers[i] != javaBuffers[i])
+		{
+			ByteBuffer& nativeBuffer = *nativeBuffers[i];
+			nativeBuffer.limit(consumed[i] + count);
+			nativeBuffer.position(consumed[i]);
+			javaBuffer.put(nativeBuffer);
+		}
+		else
+			javaBuffer.position(javaBuffer.position() + count);
+		consumed[i] += count;
+	}
+}
+
+Object VectorTask::toResult(int _bytesTransferred)
+{
+	return Long::valueOf(static_cast<jlong>(_bytesTransferred));
+}
+
+/**
+ * Returns the number of times that the lines driven by the remote end changed state.
+ *
+ * @param port the port
+ * @param transitions the transition counters of CTS, DSR, RI and DCD, in that order
+ * @return false if the driver does not count transitions
+ * @throws IOException if an I/O error occurs
+ */
+static bool getTransitions(int port, int (&transitions)[ModemWatch::COUNTED_LINES])
+{
+	serial_icounter_struct counters;
+	if (ioctl(port, TIOCGICOUNT, &counters) == -1)
+	{
+		int lastError = errno;
+		if (lastError == ENOTTY || lastError == EINVAL)
+			return false;
+		throw IOException(jace::java_new<IOException>(L"ioctl(TIOCGICOUNT) failed with error: " +
+			getErrorMessage(lastError)));
+	}
+	transitions[0] = counters.cts;
+	transitions[1] = counters.dsr;
+	transitions[2] = counters.rng;
+	transitions[3] = counters.dcd;
+	return true;
+}
+
+ModemWatch::ModemWatch(SerialPortContext& _port, jint _mask, Object _attachment,
+											 CompletionHandler _handler):
+	port(_port), mask(_mask), baseline(0), state(0), countsTransitions(false), done(false),
+	attachment(0), handler(0), failure(0)
+{
+	baseline = getModemLines(port.getPort());
+	countsTransitions = getTransitions(port.getPort(), transitions);
+	attachment = new Object(_attachment);
+	handler = new CompletionHandler(_handler);
+}
+
+ModemWatch::~ModemWatch()
+{
+	delete attachment;
+	delete handler;
+	delete failure;
+}
+
+void ModemWatch::poll()
+{
+	try
+	{
+		state = getModemLines(port.getPort());
+		if ((state & mask) != (baseline & mask))
+		{
+			done = true;
+			return;
+		}
+		if (!countsTransitions)
+			return;
+		// A pulse that ends before the next sample leaves the line in its original state, but not its
+		// counter
+		const jint COUNTED[COUNTED_LINES] =
+		{
+			1 << SerialPort_ModemLine::Ordinals::CTS, 1 << SerialPort_ModemLine::Ordinals::DSR,
+			1 << SerialPort_ModemLine::Ordinals::RI, 1 << SerialPort_ModemLine::Ordinals::DCD
+		};
+		int current[COUNTED_LINES];
+		getTransitions(port.getPort(), current);
+		for (int i = 0; i < COUNTED_LINES; ++i)
+		{
+			if ((mask & COUNTED[i]) != 0 && current[i] != transitions[i])
+			{
+				done = true;
+				return;
+			}
+		}
+	}
+	catch (Throwable& t)
+	{
+		fail(t);
+	}
+}
+
+bool ModemWatch::isDone() const
+{
+	return done;
+}
+
+void ModemWatch::fail(const Throwable& throwable)
+{
+	done = true;
+	failure = new Throwable(throwable);
+}
+
+void ModemWatch::notifyHandler()
+{
+	assert(done);
+	try
+	{
+		if (failure != 0)
+			handler->failed(*failure, *attachment);
+		else
+			handler->completed(Integer::valueOf(state), *attachment);
+	}
+	catch (Throwable& t)
+	{
+		wcerr << __FILE__ << ":" << __LINE__ << endl;
+		t.printStackTrace();
+	}
+}
+
+SerialPortContext::SerialPortContext(int _port, IoEngine& _engine):
+	port(_port), engine(_engine), stagingPool(new StagingPool()), armedEvents(0), open(true),
+	readMinimum(1), readInterByteTimeout(0), spinTime(0), drainOnWrite(false)
+{}
+
+SerialPortContext::~SerialPortContext()
+{
+	assert(!open);
+}
+
+int SerialPortContext::getPort() const
+{
+	return port;
+}
+
+IoEngine& SerialPortContext::getEngine()
+{
+	return engine;
+}
+
+boost::mutex& SerialPortContext::getMutex()
+{
+	return mutex;
+}
+
+boost::shared_ptr<StagingPool> SerialPortContext::getStagingPool()
+{
+	return stagingPool;
+}
+
+void SerialPortContext::getReadThreshold(jint& minimum, jlong& interByteTimeout) const
+{
+	minimum = readMinimum;
+	interByteTimeout = readInterByteTimeout;
+}
+
+void SerialPortContext::setReadThreshold(jint minimum, jlong interByteTimeout)
+{
+	readMinimum = minimum;
+	readInterByteTimeout = interByteTimeout;
+}
+
+jlong SerialPortContext::getSpinTime() const
+{
+	return spinTime;
+}
+
+void SerialPortContext::setSpinTime(jlong _spinTime)
+{
+	spinTime = _spinTime;
+	if (spinTime > 0 && !spinner && open)
+		spinner = Spinner::create(*this);
+}
+
+void SerialPortContext::spin(short events)
+{
+	// Trade CPU time for latency: the engine takes far longer to report readiness than the bytes take
+	// to arrive.
+	if (spinTime > 0 && spinner)
+		spinner->start(events, spinTime);
+}
+
+void SerialPortContext::stopSpinning()
+{
+	boost::shared_ptr<Spinner> stopping;
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		stopping = spinner;
+	}
+	if (stopping)
+		stopping->stop();
+}
+
+bool SerialPortContext::isDrainOnWrite() const
+{
+	return drainOnWrite;
+}
+
+void SerialPortContext::setDrainOnWrite(bool drain)
+{
+	drainOnWrite = drain;
+}
+
+boost::shared_ptr<Task>& SerialPortContext::getReadTask()
+{
+	return readTask;
+}
+
+boost::shared_ptr<Task>& SerialPortContext::getWriteTask()
+{
+	return writeTask;
+}
+
+boost::shared_ptr<ModemWatch>& SerialPortContext::getModemWatch()
+{
+	return modemWatch;
+}
+
+uint32_t SerialPortContext::getArmedEvents() const
+{
+	return armedEvents;
+}
+
+void SerialPortContext::setArmedEvents(uint32_t events)
+{
+	armedEvents = events;
+}
+
+bool SerialPortContext::isOpen() const
+{
+	return open;
+}
+
+void SerialPortContext::setClosed()
+{
+	open = false;
+}
+
+jint jperipheral::getModemLines(int port)
+{
+	int lines;
+	if (ioctl(port, TIOCMGET, &lines) == -1)
+	{
+		int lastError = errno;
+		throw IOException(jace::java_new<IOException>(L"ioctl(TIOCMGET) failed with error: " +
+			getErrorMessage(lastError)));
+	}
+	jint result = 0;
+	if (lines & TIOCM_CTS)
+		result |= 1 << SerialPort_ModemLine::Ordinals::CTS;
+	if (lines & TIOCM_DSR)
+		result |= 1 << SerialPort_ModemLine::Ordinals::DSR;
+	if (lines & TIOCM_CAR)
+		result |= 1 << SerialPort_ModemLine::Ordinals::DCD;
+	if (lines & TIOCM_RNG)
+		result |= 1 << SerialPort_ModemLine::Ordinals::RI;
+	if (lines & TIOCM_RTS)
+		result |= 1 << SerialPort_ModemLine::Ordinals::RTS;
+	if (lines & TIOCM_DTR)
+		result |= 1 << SerialPort_ModemLine::Ordinals::DTR;
+	return result;
+}
+
+jlong jperipheral::getMonotonicTime()
+{
+	timespec now;
+	clock_gettime(CLOCK_MONOTONIC, &now);
+	return now.tv_sec * 1000LL + now.tv_nsec / 1000000L;
+}
+
+jlong jperipheral::getMonotonicNanoTime()
+{
+	timespec now;
+	clock_gettime(CLOCK_MONOTONIC, &now);
+	return now.tv_sec * 1000000000LL + now.tv_nsec;
+}
+
+wstring jperipheral::getSourceCodePosition(const wchar_t* file, int line)
+{
+	return L"[" + wstring(file) + L":" + toWString(line) + L"]";
+}
+
+/**
+ * Returns the String representation of an errno value.
+ */
+wstring jperipheral::getErrorMessage(int errorCode)
+{
+	char buffer[256];
+	// GNU strerror_r() may return a static string instead of populating buffer
+	string message = strerror_r(errorCode, buffer, sizeof(buffer));
+	return wstring(message.begin(), message.end()) + L" (errno " + toWString(errorCode) + L")";
+}
@@ -0,0 +1,927 @@
+#include "jace/peer/org/jperipheral/SerialChannel.h"
+using jace::peer::org::jperipheral::SerialChannel;
+using jace::JArray;
+using jace::proxy::java::lang::Object;
+using jace::proxy::types::JLong;
+using jace::proxy::types::JInt;
+using jace::proxy::types::JBoolean;
+
+#include "jace/proxy/org/jperipheral/SerialPort_DataBits.h"
+using jace::proxy::org::jperipheral::SerialPort_DataBits;
+
+#include "jace/proxy/org/jperipheral/SerialPort_StopBits.h"
+using jace::proxy::org::jperipheral::SerialPort_StopBits;
+
+#include "jace/proxy/org/jperipheral/SerialPort_Parity.h"
+using jace::proxy::org::jperipheral::SerialPort_Parity;
+
+#include "jace/proxy/org/jperipheral/SerialPort_FlowControl.h"
+using jace::proxy::org::jperipheral::SerialPort_FlowControl;
+
+#include "jace/proxy/org/jperipheral/SerialPort_ModemLine.h"
+using jace::proxy::org::jperipheral::SerialPort_ModemLine;
+
+#include "jace/proxy/org/jperipheral/PeripheralChannelGroup_IoEngine.h"
+using jace::proxy::org::jperipheral::PeripheralChannelGroup_IoEngine;
+
+#include "jperipheral/IoEngine.h"
+using jperipheral::IoEngine;
+
+#include "jperipheral/Worker.h"
+#include "jperipheral/UringWorker.h"
+
+#include "jperipheral/Termios2.h"
+using jperipheral::setArbitraryBaudRate;
+using jperipheral::getActualBaudRate;
+
+#include "jperipheral/SerialPortHelper.h"
+using jperipheral::getContext;
+using jperipheral::getErrorMessage;
+using jperipheral::Task;
+using jperipheral::BufferTask;
+using jperipheral::VectorTask;
+using jperipheral::ModemWatch;
+using jperipheral::getModemLines;
+using jperipheral::SerialPortContext;
+
+#include "jace/proxy/org/jperipheral/PeripheralNotFoundException.h"
+using jace::proxy::org::jperipheral::PeripheralNotFoundException;
+
+#include "jace/proxy/org/jperipheral/PeripheralInUseException.h"
+using jace::proxy::org::jperipheral::PeripheralInUseException;
+
+#include "jace/proxy/org/jperipheral/PeripheralConfigurationException.h"
+using jace::proxy::org::jperipheral::PeripheralConfigurationException;
+
+#include "jace/proxy/java/nio/channels/CompletionHandler.h"
+using jace::proxy::java::nio::channels::CompletionHandler;
+
+#include "jace/proxy/java/io/IOException.h"
+using jace::proxy::java::io::IOException;
+
+#include "jace/proxy/java/nio/ByteBuffer.h"
+using jace::proxy::java::nio::ByteBuffer;
+
+#include "jace/proxy/java/lang/AssertionError.h"
+using jace::proxy::java::lang::AssertionError;
+
+#include "jace/proxy/java/lang/Throwable.h"
+using jace::proxy::java::lang::Throwable;
+
+#include "jace/proxy/java/lang/String.h"
+using jace::proxy::java::lang::String;
+
+#include "jace/proxy/java/nio/channels/AsynchronousCloseException.h"
+using jace::proxy::java::nio::channels::AsynchronousCloseException;
+
+#include "jace/proxy/java/lang/UnsupportedOperationException.h"
+using jace::proxy::java::lang::UnsupportedOperationException;
+
+#include "jace/Jace.h"
+using jace::toWString;
+
+#include <dirent.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <limits.h>
+#include <linux/serial.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <sys/file.h>
+#include <sys/ioctl.h>
+#include <sys/stat.h>
+#include <sys/sysmacros.h>
+#include <termios.h>
+#include <time.h>
+#include <unistd.h>
+
+#include <algorithm>
+
+#include <string>
+using std::string;
+using std::wstring;
+
+#include <vector>
+using std::vector;
+
+
+class ReadTask: public BufferTask
+{
+public:
+	ReadTask(SerialPortContext& _port, ByteBuffer _javaBuffer, JLong timeout, Object _attachment,
+		CompletionHandler _handler):
+			BufferTask(_port, _javaBuffer, timeout, _attachment, _handler)
+	{
+		jint minimum;
+		jlong interByteTimeout;
+		{
+			boost::mutex::scoped_lock lock(_port.getMutex());
+			_port.getReadThreshold(minimum, interByteTimeout);
+		}
+		setCompletionThreshold(std::min(minimum, javaBuffer->remaining()), interByteTimeout);
+	}
+
+	virtual bool isRead() const
+	{
+		return true;
+	}
+
+protected:
+	virtual void getTransferRange(jint& offset, jint& length)
+	{
+		if (nativeBuffer == javaBuffer)
+			offset = javaBuffer->position();
+		else
+			offset = 0;
+		length = nativeBuffer->remaining();
+	}
+
+	virtual void updateBuffers(jint offset, ssize_t bytesTransferred)
+	{
+		// Update the Java read buffer
+		if (nativeBuffer == javaBuffer)
+			javaBuffer->position(offset + static_cast<jint>(bytesTransferred));
+		else
+		{
+			nativeBuffer->limit(static_cast<jint>(bytesTransferred));
+			javaBuffer->put(*nativeBuffer);
+			// The operation may continue until it reads the minimum number of bytes
+			nativeBuffer->clear();
+			nativeBuffer->limit(std::min(javaBuffer->remaining(), nativeBuffer->capacity()));
+		}
+	}
+};
+
+class WriteTask: public BufferTask
+{
+public:
+	WriteTask(SerialPortContext& _port, ByteBuffer _javaBuffer, JLong timeout, Object _attachment,
+		CompletionHandler _handler):
+			BufferTask(_port, _javaBuffer, timeout, _attachment, _handler)
+	{
+		if (nativeBuffer != javaBuffer)
+		{
+			// The staging buffer may be smaller than the Java buffer
+			JInt oldPosition = javaBuffer->position();
+			JInt oldLimit = javaBuffer->limit();
+			javaBuffer->limit(oldPosition + nativeBuffer->remaining());
+			nativeBuffer->put(*javaBuffer);
+			nativeBuffer->flip();
+			javaBuffer->limit(oldLimit);
+			javaBuffer->position(oldPosition);
+		}
+		boost::mutex::scoped_lock lock(_port.getMutex());
+		setDrain(_port.isDrainOnWrite());
+	}
+
+	virtual bool isRead() const
+	{
+		return false;
+	}
+
+protected:
+	virtual void getTransferRange(jint& offset, jint& length)
+	{
+		offset = nativeBuffer->position();
+		length = nativeBuffer->remaining();
+	}
+
+	virtual void updateBuffers(jint offset, ssize_t bytesTransferred)
+	{
+		// Update the Java write buffer
+		javaBuffer->position(javaBuffer->position() + static_cast<jint>(bytesTransferred));
+		if (nativeBuffer != javaBuffer)
+			nativeBuffer->position(offset + static_cast<jint>(bytesTransferred));
+	}
+};
+
+/**
+ * Returns the path of a port.
+ *
+ * @param name the port name. Names that are not absolute paths are resolved against /dev.
+ * @return the path of the port
+ */
+static string getPath(const string& name)
+{
+	if (!name.empty() && name[0] == '/')
+		return name;
+	return "/dev/" + name;
+}
+
+/**
+ * Returns the processes that hold ports open or locked. A single pass over /proc serves all of the
+ * ports.
+ *
+ * @param paths the paths of the ports
+ * @return the process ID per port, or -1 if no other process was found. Processes that belong to
+ * other users are only found if they locked the port.
+ */
+static vector<pid_t> getPortOwners(const vector<string>& paths)
+{
+	vector<pid_t> result(paths.size(), -1);
+	vector<struct stat> devices(paths.size());
+	vector<bool> exists(paths.size(), false);
+	size_t remaining = 0;
+	for (size_t i = 0; i < paths.size(); ++i)
+	{
+		exists[i] = stat(paths[i].c_str(), &devices[i]) == 0;
+		if (exists[i])
+			++remaining;
+	}
+	if (remaining == 0)
+		return result;
+
+	// Locks are listed along with the device and inode of the file they apply to
+	FILE* locks = fopen("/proc/locks", "re");
+	if (locks != 0)
+	{
+		char line[256];
+		while (remaining > 0 && fgets(line, sizeof(line), locks) != 0)
+		{
+			int pid;
+			unsigned int deviceMajor;
+			unsigned int deviceMinor;
+			unsigned long inode;
+			// Entries that wait for a lock begin with "->" and fail to match
+			if (sscanf(line, "%*d: %*s %*s %*s %d %x:%x:%lu", &pid, &deviceMajor, &deviceMinor, &inode) != 4)
+				continue;
+			for (size_t i = 0; i < paths.size(); ++i)
+			{
+				if (exists[i] && result[i] == -1 && deviceMajor == major(devices[i].st_dev) &&
+					deviceMinor == minor(devices[i].st_dev) && inode == devices[i].st_ino)
+				{
+					result[i] = pid;
+					--remaining;
+				}
+			}
+		}
+		fclose(locks);
+	}
+	if (remaining == 0)
+		return result;
+
+	// Processes that opened the port using TIOCEXCL alone do not show up as locks. The file descriptors
+	// of processes that belong to other users are not accessible.
+	DIR* processes = opendir("/proc");
+	if (processes == 0)
+		return result;
+	for (dirent* process = readdir(processes); process != 0 && remaining > 0; process = readdir(processes))
+	{
+		char* end;
+		long pid = strtol(process->d_name, &end, 10);
+		if (*end != '\0' || pid <= 0)
+			continue;
+		string fdPath = string("/proc/") + process->d_name + "/fd/";
+		DIR* fds = opendir(fdPath.c_str());
+		if (fds == 0)
+			continue;
+		for (dirent* fd = readdir(fds); fd != 0 && remaining > 0; fd = readdir(fds))
+		{
+			struct stat target;
+			if (stat((fdPath + fd->d_name).c_str(), &target) != 0 || !S_ISCHR(target.st_mode))
+				continue;
+			for (size_t i = 0; i < paths.size(); ++i)
+			{
+				if (exists[i] && result[i] == -1 && target.st_rdev == devices[i].st_rdev)
+				{
+					result[i] = static_cast<pid_t>(pid);
+					--remaining;
+				}
+			}
+		}
+		closedir(fds);
+	}
+	closedir(processes);
+	return result;
+}
+
+/**
+ * Returns the process that holds a port open or locked.
+ *
+ * @param path the path of the port
+ * @return the process ID, or -1 if no other process was found. Processes that belong to other users
+ * are only found if they locked the port.
+ */
+static pid_t getPortOwner(const string& path)
+{
+	return getPortOwners(vector<string>(1, path))[0];
+}
+
+/**
+ * Indicates if a file descriptor refers to the master side of a pseudo-terminal.
+ *
+ * All masters share the inode of /dev/ptmx, so locking one of them would lock them all.
+ *
+ * @param port the file descriptor
+ * @return true if the file descriptor refers to the master side of a pseudo-terminal
+ */
+static bool isPseudoTerminalMaster(int port)
+{
+	unsigned int ptyNumber;
+	return ioctl(port, TIOCGPTN, &ptyNumber) == 0;
+}
+
+/**
+ * Returns the termios speed associated with a baud rate.
+ *
+ * @param baudRate the baud rate
+ * @return the termios speed, or B0 if termios does not define a constant for the baud rate
+ */
+static speed_t toSpeed(jint baudRate)
+{
+	switch (baudRate)
+	{
+		case 110:
+			return B110;
+		case 300:
+			return B300;
+		case 600:
+			return B600;
+		case 1200:
+			return B1200;
+		case 2400:
+			return B2400;
+		case 4800:
+			return B4800;
+		case 9600:
+			return B9600;
+		case 19200:
+			return B19200;
+		case 38400:
+			return B38400;
+		case 57600:
+			return B57600;
+		case 115200:
+			return B115200;
+		case 230400:
+			return B230400;
+		case 460800:
+			return B460800;
+		case 500000:
+			return B500000;
+		case 576000:
+			return B576000;
+		case 921600:
+			return B921600;
+		case 1000000:
+			return B1000000;
+		case 1152000:
+			return B1152000;
+		case 1500000:
+			return B1500000;
+		case 2000000:
+			return B2000000;
+		case 2500000:
+			return B2500000;
+		case 3000000:
+			return B3000000;
+		case 3500000:
+			return B3500000;
+		case 4000000:
+			return B4000000;
+		default:
+			return B0;
+	}
+}
+
+JLong SerialChannel::nativeOpen(String name, JLong timeout, PeripheralChannelGroup_IoEngine ioEngine)
+{
+	string path = getPath(name);
+	const useconds_t SLEEP_TIME = 100 * 1000;
+	timespec start;
+	clock_gettime(CLOCK_MONOTONIC, &start);
+
+	int port;
+	while (true)
+	{
+		port = ::open(path.c_str(), O_RDWR | O_NOCTTY | O_NONBLOCK | O_CLOEXEC);
+		if (port == -1)
+		{
+			int lastError = errno;
+			switch (lastError)
+			{
+				case ENOENT:
+				case ENXIO:
+				case ENODEV:
+					throw PeripheralNotFoundException(jace::java_new<PeripheralNotFoundException>(name, Throwable()));
+				case EBUSY:
+				{
+					// Another process opened the port with TIOCEXCL
+					break;
+				}
+				default:
+				{
+					throw IOException(jace::java_new<IOException>(L"open() failed with error: " +
+						getErrorMessage(lastError)));
+				}
+			}
+		}
+		else if (!isPseudoTerminalMaster(port) && flock(port, LOCK_EX | LOCK_NB) == -1)
+		{
+			// The advisory lock also covers processes running as root, which TIOCEXCL does not stop
+			int lastError = errno;
+			::close(port);
+			port = -1;
+			if (lastError != EWOULDBLOCK)
+			{
+				throw IOException(jace::java_new<IOException>(L"flock() failed with error: " +
+					getErrorMessage(lastError)));
+			}
+		}
+		if (port != -1)
+			break;
+		timespec now;
+		clock_gettime(CLOCK_MONOTONIC, &now);
+		jlong elapsed = (now.tv_sec - start.tv_sec) * 1000L + (now.tv_nsec - start.tv_nsec) / 1000000L;
+		if (elapsed < timeout)
+		{
+			usleep(SLEEP_TIME);
+			continue;
+		}
+		throw PeripheralInUseException(jace::java_new<PeripheralInUseException>(name,
+			JLong(getPortOwner(path)), Throwable()));
+	}
+
+	// Mirror the Windows semantics where comports are opened with exclusive access
+	if (isatty(port) && ioctl(port, TIOCEXCL) == -1)
+	{
+		int lastError = errno;
+		::close(port);
+		throw IOException(jace::java_new<IOException>(L"ioctl(TIOCEXCL) failed with error: " +
+			getErrorMessage(lastError)));
+	}
+
+	IoEngine* engine = 0;
+	if (ioEngine.ordinal() == PeripheralChannelGroup_IoEngine::Ordinals::IO_URING)
+		engine = ::jperipheral::getUringWorker();
+	if (engine == 0)
+	{
+		// Fall back to epoll if io_uring is unavailable
+		engine = ::jperipheral::worker;
+	}
+	SerialPortContext* result = new SerialPortContext(port, *engine);
+	try
+	{
+		engine->add(*result);
+	}
+	catch (Throwable&)
+	{
+		result->setClosed();
+		delete result;
+		::close(port);
+		throw;
+	}
+	return reinterpret_cast<intptr_t>(result);
+}
+
+JInt SerialChannel::nativeConfigure(JInt baudRate,
+																		SerialPort_DataBits dataBits,
+																		SerialPort_Parity parity,
+																		SerialPort_StopBits stopBits,
+																		SerialPort_FlowControl flowControl)
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	int port = context->getPort();
+	termios options;
+
+	if (tcgetattr(port, &options) == -1)
+	{
+		int lastError = errno;
+		throw PeripheralConfigurationException(jace::java_new<PeripheralConfigurationException>(
+			L"tcgetattr() failed with error: " + getErrorMessage(lastError), Throwable()));
+	}
+
+	// Raw mode: no line editing, echo, signals or character translation
+	options.c_iflag &= ~(IGNBRK | BRKINT | PARMRK | ISTRIP | INLCR | IGNCR | ICRNL | IXON | IXOFF | IXANY |
+		INPCK);
+	options.c_oflag &= ~OPOST;
+	options.c_lflag &= ~(ECHO | ECHONL | ICANON | ISIG | IEXTEN);
+	options.c_cflag |= CLOCAL | CREAD;
+	// Reads return as soon as a single byte is available. O_NONBLOCK overrides this when no bytes are
+	// available.
+	options.c_cc[VMIN] = 1;
+	options.c_cc[VTIME] = 0;
+
+	speed_t speed = toSpeed(baudRate);
+	bool arbitrarySpeed = speed == B0;
+	if (arbitrarySpeed)
+	{
+		// Replaced by BOTHER once tcsetattr() returns
+		speed = B38400;
+	}
+	cfsetispeed(&options, speed);
+	cfsetospeed(&options, speed);
+
+	options.c_cflag &= ~CSIZE;
+	switch (dataBits.toInt())
+	{
+		case 5:
+		{
+			options.c_cflag |= CS5;
+			break;
+		}
+		case 6:
+		{
+			options.c_cflag |= CS6;
+			break;
+		}
+		case 7:
+		{
+			options.c_cflag |= CS7;
+			break;
+		}
+		case 8:
+		{
+			options.c_cflag |= CS8;
+			break;
+		}
+		default:
+			throw AssertionError(jace::java_new<AssertionError>(dataBits));
+	}
+
+	switch (parity.ordinal())
+	{
+		case SerialPort_Parity::Ordinals::EVEN:
+		{
+			options.c_cflag |= PARENB;
+			options.c_cflag &= ~(PARODD | CMSPAR);
+			options.c_iflag |= INPCK;
+			break;
+		}
+		case SerialPort_Parity::Ordinals::MARK:
+		{
+			options.c_cflag |= PARENB | PARODD | CMSPAR;
+			options.c_iflag |= INPCK;
+			break;
+		}
+		case SerialPort_Parity::Ordinals::NONE:
+		{
+			options.c_cflag &= ~(PARENB | PARODD | CMSPAR);
+			break;
+		}
+		case SerialPort_Parity::Ordinals::ODD:
+		{
+			options.c_cflag |= PARENB | PARODD;
+			options.c_cflag &= ~CMSPAR;
+			options.c_iflag |= INPCK;
+			break;
+		}
+		case SerialPort_Parity::Ordinals::SPACE:
+		{
+			options.c_cflag |= PARENB | CMSPAR;
+			options.c_cflag &= ~PARODD;
+			options.c_iflag |= INPCK;
+			break;
+		}
+		default:
+			throw AssertionError(jace::java_new<AssertionError>(parity));
+	}
+
+	switch (stopBits.ordinal())
+	{
+		case SerialPort_StopBits::Ordinals::ONE:
+		{
+			options.c_cflag &= ~CSTOPB;
+			break;
+		}
+		case SerialPort_StopBits::Ordinals::ONE_POINT_FIVE:
+		{
+			// UARTs interpret CSTOPB as 1.5 stop bits when using 5 data bits
+			if (dataBits.toInt() != 5)
+			{
+				throw PeripheralConfigurationException(jace::java_new<PeripheralConfigurationException>(
+					L"1.5 stop bits requires 5 data bits", Throwable()));
+			}
+			options.c_cflag |= CSTOPB;
+			break;
+		}
+		case SerialPort_StopBits::Ordinals::TWO:
+		{
+			options.c_cflag |= CSTOPB;
+			break;
+		}
+		default:
+			throw AssertionError(jace::java_new<AssertionError>(stopBits));
+	}
+
+	switch (flowControl.ordinal())
+	{
+		case SerialPort_FlowControl::Ordinals::RTS_CTS:
+		{
+			options.c_cflag |= CRTSCTS;
+			break;
+		}
+		case SerialPort_FlowControl::Ordinals::XON_XOFF:
+		{
+			options.c_cflag &= ~CRTSCTS;
+			options.c_iflag |= IXON | IXOFF;
+			break;
+		}
+		case SerialPort_FlowControl::Ordinals::NONE:
+		{
+			options.c_cflag &= ~CRTSCTS;
+			break;
+		}
+		default:
+			throw AssertionError(jace::java_new<AssertionError>(flowControl));
+	}
+
+	if (tcsetattr(port, TCSANOW, &options) == -1)
+	{
+		int lastError = errno;
+		throw PeripheralConfigurationException(jace::java_new<PeripheralConfigurationException>(
+			L"tcsetattr() failed with error: " + getErrorMessage(lastError), Throwable()));
+	}
+	if (arbitrarySpeed)
+	{
+		int lastError = setArbitraryBaudRate(port, baudRate);
+		if (lastError != 0)
+		{
+			throw PeripheralConfigurationException(jace::java_new<PeripheralConfigurationException>(
+				L"Unsupported baud rate: " + toWString((jint) baudRate) + L". ioctl(TCSETS2) failed with error: " +
+				getErrorMessage(lastError), Throwable()));
+		}
+	}
+
+	jint result;
+	if (getActualBaudRate(port, result) != 0)
+	{
+		// Kernels without termios2 cannot report the rate that the driver applied
+		result = baudRate;
+	}
+	return result;
+}
+
+void SerialChannel::nativeClose()
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	int port = context->getPort();
+	vector<boost::shared_ptr<Task> > tasksAborted;
+	boost::shared_ptr<ModemWatch> watchAborted;
+	{
+		boost::mutex::scoped_lock lock(context->getMutex());
+		context->setClosed();
+		watchAborted.swap(context->getModemWatch());
+		if (context->getReadTask())
+		{
+			tasksAborted.push_back(context->getReadTask());
+			context->getReadTask().reset();
+		}
+		if (context->getWriteTask())
+		{
+			tasksAborted.push_back(context->getWriteTask());
+			context->getWriteTask().reset();
+		}
+	}
+	// The spinner must stop polling the file descriptor before it is closed
+	context->stopSpinning();
+	// The engine deletes the context asynchronously
+	context->getEngine().remove(context);
+	for (vector<boost::shared_ptr<Task> >::iterator i = tasksAborted.begin(); i != tasksAborted.end(); ++i)
+	{
+		(*i)->fail(AsynchronousCloseException(jace::java_new<AsynchronousCloseException>()));
+		(*i)->notifyHandler();
+	}
+	if (watchAborted)
+	{
+		watchAborted->fail(AsynchronousCloseException(jace::java_new<AsynchronousCloseException>()));
+		watchAborted->notifyHandler();
+	}
+	if (::close(port) == -1)
+	{
+		int lastError = errno;
+		throw IOException(jace::java_new<IOException>(L"close() failed with error: " +
+			getErrorMessage(lastError)));
+	}
+}
+
+String SerialChannel::nativeUnlockSlave()
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	int port = context->getPort();
+	if (unlockpt(port) == -1)
+	{
+		int lastError = errno;
+		throw IOException(jace::java_new<IOException>(L"unlockpt() failed with error: " +
+			getErrorMessage(lastError)));
+	}
+	char name[PATH_MAX];
+	int lastError = ptsname_r(port, name, sizeof(name));
+	if (lastError != 0)
+	{
+		throw IOException(jace::java_new<IOException>(L"ptsname_r() failed with error: " +
+			getErrorMessage(lastError)));
+	}
+	return String(name);
+}
+
+JArray<JLong> SerialChannel::nativeGetPortOwners(JArray<String> names)
+{
+	vector<string> paths;
+	for (int i = 0; i < names.length(); ++i)
+	{
+		String name = names[i];
+		paths.push_back(getPath(name));
+	}
+	vector<pid_t> owners = getPortOwners(paths);
+	JArray<JLong> result(names.length());
+	for (int i = 0; i < names.length(); ++i)
+	{
+		// SerialChannel.PORT_NOT_FOUND
+		if (access(paths[i].c_str(), F_OK) == -1)
+			result[i] = static_cast<jlong>(-2);
+		else
+			result[i] = static_cast<jlong>(owners[i]);
+	}
+	return result;
+}
+
+void SerialChannel::nativeSetReadThreshold(JInt minimum, JLong interByteTimeout)
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	boost::mutex::scoped_lock lock(context->getMutex());
+	context->setReadThreshold(minimum, interByteTimeout);
+}
+
+void SerialChannel::nativeSetDrainOnWrite(JBoolean drain)
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	boost::mutex::scoped_lock lock(context->getMutex());
+	context->setDrainOnWrite(drain);
+}
+
+JBoolean SerialChannel::nativeSetLowLatency(JBoolean enabled, JLong spinTime)
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	int port = context->getPort();
+	{
+		boost::mutex::scoped_lock lock(context->getMutex());
+		context->setSpinTime(spinTime);
+	}
+
+	// Drivers that honor ASYNC_LOW_LATENCY push received bytes to the line discipline right away
+	// instead of batching them. Pseudo-terminals and many USB adapters do not support the flag.
+	serial_struct serial;
+	if (ioctl(port, TIOCGSERIAL, &serial) == -1)
+	{
+		int lastError = errno;
+		if (lastError == ENOTTY || lastError == EINVAL || lastError == ENOTSUP)
+			return false;
+		throw IOException(jace::java_new<IOException>(L"ioctl(TIOCGSERIAL) failed with error: " +
+			getErrorMessage(lastError)));
+	}
+	if (enabled)
+		serial.flags |= ASYNC_LOW_LATENCY;
+	else
+		serial.flags &= ~ASYNC_LOW_LATENCY;
+	if (ioctl(port, TIOCSSERIAL, &serial) == -1)
+	{
+		int lastError = errno;
+		if (lastError == ENOTTY || lastError == EINVAL || lastError == ENOTSUP)
+			return false;
+		throw IOException(jace::java_new<IOException>(L"ioctl(TIOCSSERIAL) failed with error: " +
+			getErrorMessage(lastError)));
+	}
+	return true;
+}
+
+JInt SerialChannel::nativeGetModemLines()
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	return getModemLines(context->getPort());
+}
+
+void SerialChannel::nativeSetModemLine(SerialPort_ModemLine line, JBoolean asserted)
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	int lines;
+	switch (line.ordinal())
+	{
+		case SerialPort_ModemLine::Ordinals::RTS:
+		{
+			lines = TIOCM_RTS;
+			break;
+		}
+		case SerialPort_ModemLine::Ordinals::DTR:
+		{
+			lines = TIOCM_DTR;
+			break;
+		}
+		default:
+			throw AssertionError(jace::java_new<AssertionError>(line));
+	}
+	if (ioctl(context->getPort(), asserted ? TIOCMBIS : TIOCMBIC, &lines) == -1)
+	{
+		int lastError = errno;
+		throw IOException(jace::java_new<IOException>(wstring(asserted ? L"ioctl(TIOCMBIS)" :
+			L"ioctl(TIOCMBIC)") + L" failed with error: " + getErrorMessage(lastError)));
+	}
+}
+
+JArray<JLong> SerialChannel::nativeGetLineStatistics()
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	serial_icounter_struct counters;
+	if (ioctl(context->getPort(), TIOCGICOUNT, &counters) == -1)
+	{
+		int lastError = errno;
+		if (lastError == ENOTTY || lastError == EINVAL)
+		{
+			throw UnsupportedOperationException(jace::java_new<UnsupportedOperationException>(
+				L"The driver does not maintain line statistics"));
+		}
+		throw IOException(jace::java_new<IOException>(L"ioctl(TIOCGICOUNT) failed with error: " +
+			getErrorMessage(lastError)));
+	}
+	// The kernel counters are 32-bit values that wrap around
+	int values[] =
+	{
+		counters.rx, counters.tx, counters.frame, counters.parity, counters.overrun, counters.buf_overrun,
+		counters.brk
+	};
+	const int COUNT = sizeof(values) / sizeof(values[0]);
+	JArray<JLong> result(COUNT);
+	for (int i = 0; i < COUNT; ++i)
+		result[i] = static_cast<jlong>(static_cast<unsigned int>(values[i]));
+	return result;
+}
+
+JInt SerialChannel::nativeGetInputQueueSize()
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	int result;
+	if (ioctl(context->getPort(), TIOCINQ, &result) == -1)
+	{
+		int lastError = errno;
+		throw IOException(jace::java_new<IOException>(L"ioctl(TIOCINQ) failed with error: " +
+			getErrorMessage(lastError)));
+	}
+	return result;
+}
+
+JInt SerialChannel::nativeGetOutputQueueSize()
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	int result;
+	if (ioctl(context->getPort(), TIOCOUTQ, &result) == -1)
+	{
+		int lastError = errno;
+		throw IOException(jace::java_new<IOException>(L"ioctl(TIOCOUTQ) failed with error: " +
+			getErrorMessage(lastError)));
+	}
+	return result;
+}
+
+void SerialChannel::nativeWatchModemLines(JInt mask, Object attachment, CompletionHandler handler)
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+
+	boost::shared_ptr<ModemWatch> watch(new ModemWatch(*context, mask, attachment, handler));
+	{
+		boost::mutex::scoped_lock lock(context->getMutex());
+		if (context->isOpen())
+		{
+			context->getModemWatch() = watch;
+			context->getEngine().watch(*context);
+			return;
+		}
+	}
+	watch->fail(AsynchronousCloseException(jace::java_new<AsynchronousCloseException>()));
+	watch->notifyHandler();
+}
+
+void SerialChannel::nativeRead(ByteBuffer target, JLong timeout, Object attachment, CompletionHandler handler)
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+
+	boost::shared_ptr<Task> task(new ReadTask(*context, target, timeout, attachment, handler));
+	context->getEngine().submit(*context, task, true);
+}
+
+void SerialChannel::nativeWrite(ByteBuffer source, JLong timeout, Object attachment, CompletionHandler handler)
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+
+	boost::shared_ptr<Task> task(new WriteTask(*context, source, timeout, attachment, handler));
+	context->getEngine().submit(*context, task, false);
+}
+
+void SerialChannel::nativeReadScattering(JArray<ByteBuffer> targets, JInt offset, JInt length, JLong timeout,
+																				 Object attachment, CompletionHandler handler)
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+
+	boost::shared_ptr<Task> task(new VectorTask(*context, true, targets, offset, length, timeout,
+		attachment, handler));
+	context->getEngine().submit(*context, task, true);
+}
+
+void SerialChannel::nativeWriteGathering(JArray<ByteBuffer> sources, JInt offset, JInt length, JLong timeout,
+																				 Object attachment, CompletionHandler handler)
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+
+	boost::shared_ptr<Task> task(new VectorTask(*context, false, sources, offset, length, timeout,
+		attachment, handler));
+	context->getEngine().submit(*context, task, false);
+}
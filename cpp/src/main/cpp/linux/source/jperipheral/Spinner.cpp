@@ -0,0 +1,142 @@
+#include "jperipheral/Spinner.h"
+using jperipheral::Spinner;
+
+#include "jperipheral/IoEngine.h"
+using jperipheral::IoEngine;
+
+#include "jperipheral/SerialPortHelper.h"
+using jperipheral::SerialPortContext;
+using jperipheral::getErrorMessage;
+using jperipheral::getSourceCodePosition;
+using jperipheral::getMonotonicNanoTime;
+
+#include "jace/proxy/java/lang/Throwable.h"
+using jace::proxy::java::lang::Throwable;
+
+#include "jace/Jace.h"
+
+#include <boost/bind.hpp>
+
+#include <errno.h>
+#include <poll.h>
+
+#include <iostream>
+using std::wcerr;
+using std::endl;
+
+
+boost::shared_ptr<Spinner> Spinner::create(SerialPortContext& port)
+{
+	boost::shared_ptr<Spinner> result(new Spinner(port));
+	// The thread is detached because it may be the one that closes the port, in which case nobody
+	// can join it
+	boost::thread thread(boost::bind(&Spinner::run, result));
+	{
+		boost::mutex::scoped_lock lock(result->mutex);
+		result->threadId = thread.get_id();
+	}
+	thread.detach();
+	return result;
+}
+
+Spinner::Spinner(SerialPortContext& _port):
+	port(_port), pendingEvents(0), pendingSpinTime(0), stopRequested(false), exited(false)
+{}
+
+Spinner::~Spinner()
+{}
+
+void Spinner::start(short events, jlong spinTime)
+{
+	boost::mutex::scoped_lock lock(mutex);
+	pendingEvents |= events;
+	pendingSpinTime = spinTime;
+	changed.notify_all();
+}
+
+void Spinner::stop()
+{
+	boost::mutex::scoped_lock lock(mutex);
+	stopRequested = true;
+	changed.notify_all();
+	if (boost::this_thread::get_id() == threadId)
+	{
+		// A completion handler closed the port. The thread exits once the handler returns.
+		return;
+	}
+	while (!exited)
+		changed.wait(lock);
+}
+
+void Spinner::run(boost::shared_ptr<Spinner> spinner)
+{
+	// Completion handlers are invoked from this thread
+	jace::attach(0, "jperipheral-spinner", true);
+	spinner->spin();
+	{
+		boost::mutex::scoped_lock lock(spinner->mutex);
+		spinner->exited = true;
+		spinner->changed.notify_all();
+	}
+	jace::detach();
+}
+
+void Spinner::spin()
+{
+	short events = 0;
+	jlong deadline = 0;
+	while (true)
+	{
+		{
+			boost::mutex::scoped_lock lock(mutex);
+			while (!stopRequested && events == 0 && pendingEvents == 0)
+				changed.wait(lock);
+			if (stopRequested)
+				return;
+			if (pendingEvents != 0)
+			{
+				events |= pendingEvents;
+				deadline = getMonotonicNanoTime() + pendingSpinTime;
+				pendingEvents = 0;
+			}
+		}
+		// stop() waits for this thread before the port is closed, so the descriptor remains valid
+		pollfd descriptor;
+		descriptor.fd = port.getPort();
+		descriptor.events = events;
+		descriptor.revents = 0;
+		int count = poll(&descriptor, 1, 0);
+		if (count == -1)
+		{
+			if (errno == EINTR)
+				continue;
+			wcerr << getSourceCodePosition(WIDEN(__FILE__), __LINE__) << L" poll() failed with error: " <<
+				getErrorMessage(errno) << endl;
+			events = 0;
+			continue;
+		}
+		if (count == 0)
+		{
+			if (getMonotonicNanoTime() >= deadline)
+			{
+				// Leave the port to the engine
+				events = 0;
+			}
+			continue;
+		}
+		// The engine asks for another busy-poll if the operations remain pending
+		if (descriptor.revents & (POLLERR | POLLHUP | POLLNVAL))
+			events = 0;
+		else
+			events &= ~descriptor.revents;
+		try
+		{
+			port.getEngine().ready(port, descriptor.revents);
+		}
+		catch (Throwable& t)
+		{
+			wcerr << __FILE__ << ":" << __LINE__ << endl;
+			t.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,31 @@
+#include "jperipheral/Termios2.h"
+
+#include <asm/termbits.h>
+#include <errno.h>
+#include <sys/ioctl.h>
+
+
+int jperipheral::setArbitraryBaudRate(int port, jint baudRate)
+{
+	termios2 options;
+	if (ioctl(port, TCGETS2, &options) == -1)
+		return errno;
+	options.c_cflag &= ~(CBAUD | (CBAUD << IBSHIFT));
+	options.c_cflag |= BOTHER | (BOTHER << IBSHIFT);
+	options.c_ispeed = static_cast<speed_t>(baudRate);
+	options.c_ospeed = static_cast<speed_t>(baudRate);
+	if (ioctl(port, TCSETS2, &options) == -1)
+		return errno;
+	return 0;
+}
+
+int jperipheral::getActualBaudRate(int port, jint& baudRate)
+{
+	termios2 options;
+	if (ioctl(port, TCGETS2, &options) == -1)
+		return errno;
+	// The kernel updates c_ospeed to reflect the rate that the driver applied, even if the speed was
+	// set using one of the Bxxx constants
+	baudRate = static_cast<jint>(options.c_ospeed);
+	return 0;
+}
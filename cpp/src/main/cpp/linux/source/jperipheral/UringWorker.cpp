@@ -0,0 +1,680 @@
+#include "jperipheral/UringWorker.h"
+using jperipheral::IoEngine;
+
+#include <boost/thread/mutex.hpp>
+
+#ifdef JPERIPHERAL_HAVE_LIBURING
+using jperipheral::UringWorker;
+
+#include "jperipheral/SerialPortHelper.h"
+using jperipheral::getErrorMessage;
+using jperipheral::getSourceCodePosition;
+using jperipheral::SerialPortContext;
+using jperipheral::Task;
+using jperipheral::ModemWatch;
+using jperipheral::DeadlineQueue;
+using jperipheral::getMonotonicTime;
+
+#include "jace/proxy/java/lang/AssertionError.h"
+using jace::proxy::java::lang::AssertionError;
+
+#include "jace/proxy/java/io/IOException.h"
+using jace::proxy::java::io::IOException;
+
+#include "jace/proxy/java/lang/Throwable.h"
+using jace::proxy::java::lang::Throwable;
+
+#include "jace/proxy/java/nio/channels/AsynchronousCloseException.h"
+using jace::proxy::java::nio::channels::AsynchronousCloseException;
+
+#include "jace/Jace.h"
+
+#include <boost/bind.hpp>
+
+#include <errno.h>
+#include <poll.h>
+#include <stdint.h>
+#include <sys/eventfd.h>
+#include <unistd.h>
+
+#include <utility>
+using std::pair;
+
+#include <algorithm>
+
+#include <iostream>
+using std::wcerr;
+using std::endl;
+
+using std::multimap;
+using std::vector;
+
+
+/**
+ * The number of submission queue entries. The completion queue is twice as large.
+ */
+static const unsigned QUEUE_DEPTH = 512;
+
+/**
+ * The maximum number of completions to reap at once.
+ */
+static const unsigned MAX_COMPLETIONS = 64;
+
+UringWorker::Request::Request(Type _type, SerialPortContext* _port, boost::shared_ptr<Task> _task):
+	type(_type), port(_port), task(_task), events(0)
+{}
+
+UringWorker* UringWorker::create()
+{
+	io_uring ring;
+	int result = io_uring_queue_init(QUEUE_DEPTH, &ring, 0);
+	if (result < 0)
+		return 0;
+
+	// IORING_OP_READ and IORING_OP_WRITE were introduced in Linux 5.6
+	io_uring_probe* probe = io_uring_get_probe_ring(&ring);
+	bool supported = probe != 0 && io_uring_opcode_supported(probe, IORING_OP_READ) &&
+		io_uring_opcode_supported(probe, IORING_OP_WRITE) &&
+		io_uring_opcode_supported(probe, IORING_OP_POLL_ADD);
+	if (probe != 0)
+		io_uring_free_probe(probe);
+	if (!supported)
+	{
+		io_uring_queue_exit(&ring);
+		return 0;
+	}
+	return new UringWorker(ring);
+}
+
+UringWorker::UringWorker(const io_uring& _ring):
+	ring(_ring), thread(0), wakeupFd(-1), shutdownRequested(false), wakeupPending(false),
+	nextModemPoll(0)
+{
+	wakeupFd = eventfd(0, EFD_CLOEXEC | EFD_NONBLOCK);
+	if (wakeupFd == -1)
+	{
+		int lastError = errno;
+		io_uring_queue_exit(&ring);
+		throw AssertionError(jace::java_new<AssertionError>(L"eventfd() failed with error: " +
+			getErrorMessage(lastError)));
+	}
+
+	boost::mutex::scoped_lock lock(mutex);
+	thread = new boost::thread(boost::bind(&UringWorker::run, this));
+	running.wait(lock);
+}
+
+UringWorker::~UringWorker()
+{
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		shutdownRequested = true;
+	}
+	wakeup();
+	thread->join();
+	delete thread;
+
+	// Cancels any requests in flight
+	io_uring_queue_exit(&ring);
+	for (vector<Request*>::iterator i = pendingRequests.begin(); i != pendingRequests.end(); ++i)
+		delete *i;
+	for (multimap<SerialPortContext*, Request*>::iterator i = requestsInFlight.begin();
+		i != requestsInFlight.end(); ++i)
+	{
+		delete i->second;
+	}
+	for (std::set<SerialPortContext*>::iterator i = removedPorts.begin(); i != removedPorts.end(); ++i)
+		delete *i;
+	if (close(wakeupFd) == -1)
+	{
+		// Destructors may not throw exceptions
+		wcerr << getSourceCodePosition(WIDEN(__FILE__), __LINE__) << L" close(eventfd) failed with error: " <<
+			getErrorMessage(errno) << endl;
+	}
+}
+
+void UringWorker::run()
+{
+	// Completion handlers are invoked from this thread
+	jace::attach(0, "jperipheral-uring-worker", true);
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		running.notify_all();
+	}
+	armWakeup();
+
+	io_uring_cqe* completions[MAX_COMPLETIONS];
+	while (true)
+	{
+		vector<Request*> requests;
+		{
+			boost::mutex::scoped_lock lock(mutex);
+			if (shutdownRequested)
+				break;
+			requests.swap(pendingRequests);
+			wakeupPending = false;
+		}
+		vector<boost::shared_ptr<Task> > tasksDone;
+		for (vector<Request*>::iterator i = requests.begin(); i != requests.end(); ++i)
+			start(*i, tasksDone);
+
+		// Submits everything prepared since the last iteration, including follow-up requests issued
+		// while processing completions, using a single system call.
+		int result;
+		int delay = deadlines.getDelay();
+		if (!watchedPorts.empty())
+		{
+			int modemDelay = static_cast<int>(std::max<jlong>(0, nextModemPoll - getMonotonicTime()));
+			if (delay == -1 || modemDelay < delay)
+				delay = modemDelay;
+		}
+		if (delay == -1)
+			result = io_uring_submit_and_wait(&ring, 1);
+		else
+		{
+			__kernel_timespec timeout;
+			timeout.tv_sec = delay / 1000;
+			timeout.tv_nsec = (delay % 1000) * 1000000L;
+			io_uring_cqe* completion;
+			result = io_uring_submit_and_wait_timeout(&ring, &completion, 1, &timeout, 0);
+			if (result == -ETIME)
+				result = 0;
+		}
+		if (result < 0 && result != -EINTR && result != -EAGAIN && result != -EBUSY)
+		{
+			wcerr << getSourceCodePosition(WIDEN(__FILE__), __LINE__) << L" io_uring_submit_and_wait() failed " <<
+				L"with error: " << getErrorMessage(-result) << endl;
+			break;
+		}
+
+		while (true)
+		{
+			unsigned count = io_uring_peek_batch_cqe(&ring, completions, MAX_COMPLETIONS);
+			if (count == 0)
+				break;
+			vector<pair<void*, int> > batch;
+			batch.reserve(count);
+			for (unsigned i = 0; i < count; ++i)
+				batch.push_back(pair<void*, int>(io_uring_cqe_get_data(completions[i]), completions[i]->res));
+			// Release the completion queue entries before handling them, as handling may submit new requests
+			io_uring_cq_advance(&ring, count);
+
+			for (vector<pair<void*, int> >::iterator i = batch.begin(); i != batch.end(); ++i)
+			{
+				if (i->first == this)
+				{
+					// Woken up by wakeup()
+					uint64_t value;
+					if (read(wakeupFd, &value, sizeof(value)) == -1 && errno != EAGAIN)
+					{
+						wcerr << getSourceCodePosition(WIDEN(__FILE__), __LINE__) << L" read(eventfd) failed with error: " <<
+							getErrorMessage(errno) << endl;
+					}
+					armWakeup();
+					continue;
+				}
+				if (i->first == 0)
+				{
+					// Cancellation requests carry no data
+					continue;
+				}
+				complete(static_cast<Request*>(i->first), i->second, tasksDone);
+			}
+		}
+
+		expireTasks(tasksDone);
+		vector<boost::shared_ptr<ModemWatch> > watchesDone;
+		jlong now = getMonotonicTime();
+		if (now >= nextModemPoll)
+		{
+			nextModemPoll = now + ModemWatch::POLL_INTERVAL;
+			pollModemLines(watchesDone);
+		}
+
+		// Handlers may initiate follow-up operations so they must be invoked without holding any port lock
+		for (vector<boost::shared_ptr<Task> >::iterator i = tasksDone.begin(); i != tasksDone.end(); ++i)
+			(*i)->notifyHandler();
+		for (vector<boost::shared_ptr<ModemWatch> >::iterator i = watchesDone.begin(); i != watchesDone.end();
+			++i)
+		{
+			(*i)->notifyHandler();
+		}
+	}
+	jace::detach();
+}
+
+void UringWorker::start(Request* request, vector<boost::shared_ptr<Task> >& tasksDone)
+{
+	SerialPortContext* port = request->port;
+	if (request->type == Request::WATCH)
+	{
+		delete request;
+		// The port's REMOVE request is queued after its WATCH requests
+		watchedPorts.insert(port);
+		return;
+	}
+	if (request->type == Request::READY)
+	{
+		short events = request->events;
+		delete request;
+		// The port's REMOVE request is queued after its READY requests. Cancelling a poll request
+		// completes it right away, at which point complete() transfers the bytes.
+		pair<multimap<SerialPortContext*, Request*>::iterator, multimap<SerialPortContext*, Request*>::iterator>
+			range = requestsInFlight.equal_range(port);
+		for (multimap<SerialPortContext*, Request*>::iterator i = range.first; i != range.second; ++i)
+		{
+			Request* poll = i->second;
+			if (poll->type != Request::POLL)
+				continue;
+			short signaled = poll->task->isRead() ? POLLIN : POLLOUT;
+			if ((events & (signaled | POLLERR | POLLHUP)) == 0)
+				continue;
+			io_uring_sqe* sqe = getSqe();
+			io_uring_prep_cancel(sqe, poll, 0);
+			io_uring_sqe_set_data(sqe, 0);
+		}
+		return;
+	}
+	if (request->type == Request::REMOVE)
+	{
+		delete request;
+		removedPorts.insert(port);
+		deadlines.remove(port);
+		watchedPorts.erase(port);
+		pair<multimap<SerialPortContext*, Request*>::iterator, multimap<SerialPortContext*, Request*>::iterator>
+			range = requestsInFlight.equal_range(port);
+		for (multimap<SerialPortContext*, Request*>::iterator i = range.first; i != range.second; ++i)
+		{
+			io_uring_sqe* sqe = getSqe();
+			io_uring_prep_cancel(sqe, i->second, 0);
+			io_uring_sqe_set_data(sqe, 0);
+		}
+		deleteIfIdle(port);
+		return;
+	}
+
+	bool submitted = false;
+	{
+		boost::mutex::scoped_lock lock(port->getMutex());
+		if (isCurrent(*request))
+		{
+			deadlines.add(*port, *request->task);
+			submitted = prepare(request, tasksDone);
+		}
+	}
+	if (!submitted)
+		delete request;
+}
+
+bool UringWorker::prepare(Request* request, vector<boost::shared_ptr<Task> >& tasksDone)
+{
+	SerialPortContext& port = *request->port;
+	Task& task = *request->task;
+	if (request->type == Request::POLL)
+	{
+		io_uring_sqe* sqe = getSqe();
+		io_uring_prep_poll_add(sqe, port.getPort(), task.isRead() ? POLLIN : POLLOUT);
+		io_uring_sqe_set_data(sqe, request);
+	}
+	else
+	{
+		const iovec* vectors;
+		int count;
+		try
+		{
+			task.prepareTransfer(vectors, count);
+		}
+		catch (Throwable& t)
+		{
+			task.fail(t);
+			deadlines.remove(task);
+			tasksDone.push_back(request->task);
+			if (task.isRead())
+				port.getReadTask().reset();
+			else
+				port.getWriteTask().reset();
+			return false;
+		}
+		io_uring_sqe* sqe = getSqe();
+		if (count == 1)
+		{
+			if (task.isRead())
+			{
+				io_uring_prep_read(sqe, port.getPort(), vectors[0].iov_base,
+					static_cast<unsigned>(vectors[0].iov_len), 0);
+			}
+			else
+			{
+				io_uring_prep_write(sqe, port.getPort(), vectors[0].iov_base,
+					static_cast<unsigned>(vectors[0].iov_len), 0);
+			}
+		}
+		else if (task.isRead())
+			io_uring_prep_readv(sqe, port.getPort(), vectors, static_cast<unsigned>(count), 0);
+		else
+			io_uring_prep_writev(sqe, port.getPort(), vectors, static_cast<unsigned>(count), 0);
+		io_uring_sqe_set_data(sqe, request);
+	}
+	requestsInFlight.insert(pair<SerialPortContext* const, Request*>(&port, request));
+	return true;
+}
+
+void UringWorker::complete(Request* request, int result, vector<boost::shared_ptr<Task> >& tasksDone)
+{
+	SerialPortContext* port = request->port;
+	pair<multimap<SerialPortContext*, Request*>::iterator, multimap<SerialPortContext*, Request*>::iterator>
+		range = requestsInFlight.equal_range(port);
+	for (multimap<SerialPortContext*, Request*>::iterator i = range.first; i != range.second; ++i)
+	{
+		if (i->second == request)
+		{
+			requestsInFlight.erase(i);
+			break;
+		}
+	}
+	if (removedPorts.find(port) != removedPorts.end())
+	{
+		delete request;
+		deleteIfIdle(port);
+		return;
+	}
+
+	bool resubmitted = false;
+	{
+		boost::mutex::scoped_lock lock(port->getMutex());
+		if (isCurrent(*request))
+		{
+			Task& task = *request->task;
+			if (request->type == Request::TRANSFER)
+			{
+				task.complete(result);
+				if (task.isDone())
+				{
+					deadlines.remove(task);
+					tasksDone.push_back(request->task);
+					if (task.isRead())
+						port->getReadTask().reset();
+					else
+						port->getWriteTask().reset();
+				}
+				else if (task.isDraining())
+				{
+					// expireTasks() checks the output queue without any request in flight
+					deadlines.update(*port, task);
+				}
+				else if (task.getDeadline() != -1 && task.getDeadline() <= getMonotonicTime())
+				{
+					// expireTasks() skipped the operation because the transfer was in flight
+					expire(*request, tasksDone);
+				}
+				else
+				{
+					// The inter-byte deadline moves whenever bytes are transferred
+					deadlines.update(*port, task);
+					// Wait for the port to become ready
+					request->type = Request::POLL;
+					resubmitted = prepare(request, tasksDone);
+					if (resubmitted)
+						port->spin(task.isRead() ? POLLIN : POLLOUT);
+				}
+			}
+			else
+			{
+				// The port is ready, or in an error state that the transfer will report
+				request->type = Request::TRANSFER;
+				resubmitted = prepare(request, tasksDone);
+			}
+		}
+	}
+	if (!resubmitted)
+		delete request;
+}
+
+void UringWorker::expireTasks(vector<boost::shared_ptr<Task> >& tasksDone)
+{
+	vector<DeadlineQueue::Entry> expired;
+	deadlines.removeExpired(expired);
+	for (vector<DeadlineQueue::Entry>::iterator i = expired.begin(); i != expired.end(); ++i)
+	{
+		SerialPortContext* port = i->first;
+		Task* task = i->second;
+		pair<multimap<SerialPortContext*, Request*>::iterator, multimap<SerialPortContext*, Request*>::iterator>
+			range = requestsInFlight.equal_range(port);
+		Request* poll = 0;
+		bool transferInFlight = false;
+		for (multimap<SerialPortContext*, Request*>::iterator j = range.first; j != range.second; ++j)
+		{
+			if (j->second->task.get() != task)
+				continue;
+			if (j->second->type == Request::TRANSFER)
+				transferInFlight = true;
+			else
+				poll = j->second;
+		}
+		// Failing the operation while a transfer is in flight could lose the bytes it transfers. complete()
+		// expires the operation once the transfer is done.
+		if (transferInFlight)
+			continue;
+		if (poll == 0)
+		{
+			expireDraining(*port, *task, tasksDone);
+			continue;
+		}
+		boost::mutex::scoped_lock lock(port->getMutex());
+		if (!isCurrent(*poll))
+			continue;
+		task->setQueuedDeadline(-1);
+		expire(*poll, tasksDone);
+		// The poll request completes with -ECANCELED, at which point isCurrent() returns false
+		io_uring_sqe* sqe = getSqe();
+		io_uring_prep_cancel(sqe, poll, 0);
+		io_uring_sqe_set_data(sqe, 0);
+	}
+}
+
+void UringWorker::expire(Request& request, vector<boost::shared_ptr<Task> >& tasksDone)
+{
+	SerialPortContext& port = *request.port;
+	Task& task = *request.task;
+	deadlines.remove(task);
+	task.expire();
+	tasksDone.push_back(request.task);
+	if (task.isRead())
+		port.getReadTask().reset();
+	else
+		port.getWriteTask().reset();
+}
+
+void UringWorker::expireDraining(SerialPortContext& port, Task& task,
+	vector<boost::shared_ptr<Task> >& tasksDone)
+{
+	// Removed ports are no longer in the deadline queue, so the port remains valid
+	boost::mutex::scoped_lock lock(port.getMutex());
+	boost::shared_ptr<Task>& writeTask = port.getWriteTask();
+	if (!port.isOpen() || writeTask.get() != &task || !task.isDraining())
+		return;
+	task.setQueuedDeadline(-1);
+	task.expire();
+	if (task.isDone())
+	{
+		tasksDone.push_back(writeTask);
+		writeTask.reset();
+	}
+	else
+		deadlines.update(port, task);
+}
+
+bool UringWorker::isCurrent(const Request& request)
+{
+	SerialPortContext& port = *request.port;
+	if (!port.isOpen())
+		return false;
+	if (request.task->isRead())
+		return port.getReadTask() == request.task;
+	return port.getWriteTask() == request.task;
+}
+
+void UringWorker::pollModemLines(vector<boost::shared_ptr<ModemWatch> >& watchesDone)
+{
+	for (std::set<SerialPortContext*>::iterator i = watchedPorts.begin(); i != watchedPorts.end();)
+	{
+		SerialPortContext& port = **i;
+		boost::mutex::scoped_lock lock(port.getMutex());
+		boost::shared_ptr<ModemWatch>& watch = port.getModemWatch();
+		if (watch)
+		{
+			watch->poll();
+			if (watch->isDone())
+			{
+				watchesDone.push_back(watch);
+				watch.reset();
+			}
+		}
+		if (watch)
+			++i;
+		else
+			watchedPorts.erase(i++);
+	}
+}
+
+void UringWorker::deleteIfIdle(SerialPortContext* port)
+{
+	if (requestsInFlight.find(port) != requestsInFlight.end())
+		return;
+	removedPorts.erase(port);
+	delete port;
+}
+
+io_uring_sqe* UringWorker::getSqe()
+{
+	while (true)
+	{
+		io_uring_sqe* result = io_uring_get_sqe(&ring);
+		if (result != 0)
+			return result;
+		// The submission queue is full
+		io_uring_submit(&ring);
+	}
+}
+
+void UringWorker::armWakeup()
+{
+	io_uring_sqe* sqe = getSqe();
+	io_uring_prep_poll_add(sqe, wakeupFd, POLLIN);
+	io_uring_sqe_set_data(sqe, this);
+}
+
+void UringWorker::add(SerialPortContext&)
+{
+	// Ports do not need to be registered with the ring ahead of time
+}
+
+void UringWorker::remove(SerialPortContext* port)
+{
+	// In-flight requests reference the port, so it is deleted by the worker thread once they complete
+	enqueue(new Request(Request::REMOVE, port, boost::shared_ptr<Task>()));
+}
+
+void UringWorker::submit(SerialPortContext& port, boost::shared_ptr<Task> task, bool read)
+{
+	{
+		boost::mutex::scoped_lock lock(port.getMutex());
+		if (port.isOpen())
+		{
+			if (read)
+				port.getReadTask() = task;
+			else
+				port.getWriteTask() = task;
+			// Enqueue while holding the port lock in order to guarantee that the request precedes the
+			// port's REMOVE request.
+			enqueue(new Request(Request::TRANSFER, &port, task));
+			return;
+		}
+	}
+	task->fail(AsynchronousCloseException(jace::java_new<AsynchronousCloseException>()));
+	task->notifyHandler();
+}
+
+void UringWorker::ready(SerialPortContext& port, short events)
+{
+	boost::mutex::scoped_lock lock(port.getMutex());
+	if (!port.isOpen())
+		return;
+	// Enqueue while holding the port lock in order to guarantee that the request precedes the port's
+	// REMOVE request.
+	Request* request = new Request(Request::READY, &port, boost::shared_ptr<Task>());
+	request->events = events;
+	enqueue(request);
+}
+
+void UringWorker::watch(SerialPortContext& port)
+{
+	// Invoked with the port lock held, which guarantees that the request precedes the port's REMOVE
+	// request
+	enqueue(new Request(Request::WATCH, &port, boost::shared_ptr<Task>()));
+}
+
+void UringWorker::enqueue(Request* request)
+{
+	bool mustWakeup;
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		pendingRequests.push_back(request);
+		// The worker thread picks up pending requests before waiting, so requests issued by it (e.g. by
+		// completion handlers) and requests issued while it is already being woken up are batched.
+		mustWakeup = !wakeupPending && boost::this_thread::get_id() != thread->get_id();
+		if (mustWakeup)
+			wakeupPending = true;
+	}
+	if (mustWakeup)
+		wakeup();
+}
+
+void UringWorker::wakeup()
+{
+	uint64_t value = 1;
+	if (write(wakeupFd, &value, sizeof(value)) == -1)
+	{
+		int lastError = errno;
+		throw IOException(jace::java_new<IOException>(L"write(eventfd) failed with error: " +
+			getErrorMessage(lastError)));
+	}
+}
+
+#endif
+
+/**
+ * The singleton io_uring engine.
+ */
+static IoEngine* uringWorker = 0;
+
+/**
+ * True if an attempt was made to create uringWorker.
+ */
+static bool uringWorkerInitialized = false;
+
+/**
+ * Synchronizes access to uringWorker.
+ */
+static boost::mutex uringWorkerMutex;
+
+IoEngine* jperipheral::getUringWorker()
+{
+	boost::mutex::scoped_lock lock(uringWorkerMutex);
+	if (!uringWorkerInitialized)
+	{
+#ifdef JPERIPHERAL_HAVE_LIBURING
+		uringWorker = UringWorker::create();
+#endif
+		uringWorkerInitialized = true;
+	}
+	return uringWorker;
+}
+
+void jperipheral::destroyUringWorker()
+{
+	boost::mutex::scoped_lock lock(uringWorkerMutex);
+	delete uringWorker;
+	uringWorker = 0;
+	uringWorkerInitialized = false;
+}
@@ -0,0 +1,475 @@
+#include "jperipheral/Worker.h"
+using jperipheral::Worker;
+using jperipheral::DeadlineQueue;
+
+#include "jperipheral/UringWorker.h"
+
+#include "jperipheral/SerialPortHelper.h"
+using jperipheral::getErrorMessage;
+using jperipheral::getSourceCodePosition;
+using jperipheral::SerialPortContext;
+using jperipheral::Task;
+using jperipheral::ModemWatch;
+using jperipheral::getMonotonicTime;
+
+#include "jace/proxy/java/lang/AssertionError.h"
+using jace::proxy::java::lang::AssertionError;
+
+#include "jace/proxy/java/io/IOException.h"
+using jace::proxy::java::io::IOException;
+
+#include "jace/proxy/java/nio/channels/AsynchronousCloseException.h"
+using jace::proxy::java::nio::channels::AsynchronousCloseException;
+
+#include "jace/Jace.h"
+
+#include <boost/bind.hpp>
+
+#include <errno.h>
+#include <poll.h>
+#include <stdint.h>
+#include <sys/epoll.h>
+#include <sys/eventfd.h>
+#include <unistd.h>
+
+#include <string>
+using std::wstring;
+
+#include <vector>
+using std::vector;
+
+#include <set>
+using std::set;
+
+#include <algorithm>
+
+#include <iostream>
+using std::wcerr;
+using std::endl;
+
+
+Worker* jperipheral::worker;
+
+/**
+ * The maximum number of events to process per epoll_wait() invocation.
+ */
+static const int MAX_EVENTS = 64;
+
+/**
+ * Executes any pending tasks.
+ */
+void Worker::run()
+{
+	// Completion handlers are invoked from this thread
+	jace::attach(0, "jperipheral-worker", true);
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		running.notify_all();
+	}
+	epoll_event events[MAX_EVENTS];
+	while (true)
+	{
+		vector<SerialPortContext*> portsToDelete;
+		int delay;
+		{
+			boost::mutex::scoped_lock lock(mutex);
+			if (shutdownRequested)
+				break;
+			// Ports removed before this point were unregistered from epoll before the previous batch of events
+			// was processed, so nothing references them anymore.
+			portsToDelete.swap(removedPorts);
+			delay = deadlines.getDelay();
+			if (!watchedPorts.empty())
+			{
+				int modemDelay = static_cast<int>(std::max<jlong>(0, nextModemPoll - getMonotonicTime()));
+				if (delay == -1 || modemDelay < delay)
+					delay = modemDelay;
+			}
+		}
+		for (vector<SerialPortContext*>::iterator i = portsToDelete.begin(); i != portsToDelete.end(); ++i)
+			delete *i;
+
+		int count = epoll_wait(epollFd, events, MAX_EVENTS, delay);
+		if (count == -1)
+		{
+			if (errno == EINTR)
+				continue;
+			wcerr << getSourceCodePosition(WIDEN(__FILE__), __LINE__) << L" epoll_wait() failed with error: " <<
+				getErrorMessage(errno) << endl;
+			break;
+		}
+		for (int i = 0; i < count; ++i)
+		{
+			if (events[i].data.ptr == 0)
+			{
+				// Woken up by wakeup()
+				uint64_t value;
+				if (read(wakeupFd, &value, sizeof(value)) == -1 && errno != EAGAIN)
+				{
+					wcerr << getSourceCodePosition(WIDEN(__FILE__), __LINE__) << L" read(eventfd) failed with error: " <<
+						getErrorMessage(errno) << endl;
+				}
+				continue;
+			}
+			SerialPortContext* port = static_cast<SerialPortContext*>(events[i].data.ptr);
+			process(*port, events[i].events);
+		}
+		expireTasks();
+		jlong now = getMonotonicTime();
+		if (now >= nextModemPoll)
+		{
+			nextModemPoll = now + ModemWatch::POLL_INTERVAL;
+			pollModemLines();
+		}
+	}
+	jace::detach();
+}
+
+void Worker::process(SerialPortContext& port, uint32_t events)
+{
+	vector<boost::shared_ptr<Task> > tasksDone;
+	{
+		boost::mutex::scoped_lock lock(port.getMutex());
+		if (!port.isOpen())
+			return;
+		// EPOLLONESHOT disarmed the port
+		port.setArmedEvents(0);
+		runTasks(port, events, tasksDone);
+	}
+	// Handlers may initiate follow-up operations so they must be invoked without holding the port lock
+	for (vector<boost::shared_ptr<Task> >::iterator i = tasksDone.begin(); i != tasksDone.end(); ++i)
+		(*i)->notifyHandler();
+}
+
+void Worker::ready(SerialPortContext& port, short events)
+{
+	vector<boost::shared_ptr<Task> > tasksDone;
+	{
+		boost::mutex::scoped_lock lock(port.getMutex());
+		if (!port.isOpen())
+			return;
+		// poll() and epoll use the same values for the events. Unlike process(), the port remains armed.
+		runTasks(port, static_cast<unsigned short>(events), tasksDone);
+	}
+	for (vector<boost::shared_ptr<Task> >::iterator i = tasksDone.begin(); i != tasksDone.end(); ++i)
+		(*i)->notifyHandler();
+}
+
+void Worker::submit(SerialPortContext& port, boost::shared_ptr<Task> task, bool read)
+{
+	vector<boost::shared_ptr<Task> > tasksDone;
+	{
+		boost::mutex::scoped_lock lock(port.getMutex());
+		if (!port.isOpen())
+		{
+			task->fail(AsynchronousCloseException(jace::java_new<AsynchronousCloseException>()));
+			tasksDone.push_back(task);
+		}
+		else
+		{
+			// Attempt the operation right away in case the port is ready
+			uint32_t events;
+			if (read)
+			{
+				port.getReadTask() = task;
+				events = EPOLLIN;
+			}
+			else
+			{
+				port.getWriteTask() = task;
+				events = EPOLLOUT;
+			}
+			runTasks(port, events, tasksDone);
+		}
+	}
+	for (vector<boost::shared_ptr<Task> >::iterator i = tasksDone.begin(); i != tasksDone.end(); ++i)
+		(*i)->notifyHandler();
+}
+
+void Worker::expireTasks()
+{
+	vector<DeadlineQueue::Entry> expired;
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		deadlines.removeExpired(expired);
+	}
+	vector<boost::shared_ptr<Task> > tasksDone;
+	for (vector<DeadlineQueue::Entry>::iterator i = expired.begin(); i != expired.end(); ++i)
+	{
+		SerialPortContext& port = *i->first;
+		boost::mutex::scoped_lock lock(port.getMutex());
+		// The operation is only referenced by the port. Transfers are carried out with the port lock
+		// held, so the operation is between transfers and no bytes are lost.
+		if (!port.isOpen())
+			continue;
+		boost::shared_ptr<Task>* task;
+		if (port.getReadTask().get() == i->second)
+			task = &port.getReadTask();
+		else if (port.getWriteTask().get() == i->second)
+			task = &port.getWriteTask();
+		else
+			continue;
+		(*task)->setQueuedDeadline(-1);
+		(*task)->expire();
+		if (!(*task)->isDone())
+		{
+			// The output queue has yet to drain
+			updateDeadline(port, **task);
+			continue;
+		}
+		tasksDone.push_back(*task);
+		task->reset();
+		update(port);
+	}
+	for (vector<boost::shared_ptr<Task> >::iterator i = tasksDone.begin(); i != tasksDone.end(); ++i)
+		(*i)->notifyHandler();
+}
+
+void Worker::runTasks(SerialPortContext& port, uint32_t events,
+											vector<boost::shared_ptr<Task> >& tasksDone)
+{
+	// The operations that are left waiting for the port to become ready
+	short waiting = 0;
+	boost::shared_ptr<Task>& readTask = port.getReadTask();
+	if (readTask && (events & (EPOLLIN | EPOLLERR | EPOLLHUP)))
+	{
+		readTask->run();
+		updateDeadline(port, *readTask);
+		if (readTask->isDone())
+		{
+			tasksDone.push_back(readTask);
+			readTask.reset();
+		}
+		else
+			waiting |= POLLIN;
+	}
+	boost::shared_ptr<Task>& writeTask = port.getWriteTask();
+	// Operations that are waiting for the output queue to drain are driven by expireTasks()
+	if (writeTask && !writeTask->isDraining() && (events & (EPOLLOUT | EPOLLERR | EPOLLHUP)))
+	{
+		writeTask->run();
+		updateDeadline(port, *writeTask);
+		if (writeTask->isDone())
+		{
+			tasksDone.push_back(writeTask);
+			writeTask.reset();
+		}
+		else if (!writeTask->isDraining())
+			waiting |= POLLOUT;
+	}
+	update(port);
+	if (waiting != 0)
+		port.spin(waiting);
+}
+
+void Worker::updateDeadline(SerialPortContext& port, Task& task)
+{
+	if (task.getQueuedDeadline() == task.getDeadline())
+		return;
+	bool mustWakeup;
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		// The thread must recalculate how long to wait if the deadline precedes all others
+		int oldDelay = deadlines.getDelay();
+		deadlines.update(port, task);
+		int delay = deadlines.getDelay();
+		mustWakeup = delay != -1 && (oldDelay == -1 || delay < oldDelay) &&
+			boost::this_thread::get_id() != thread->get_id();
+	}
+	if (mustWakeup)
+		wakeup();
+}
+
+void Worker::watch(SerialPortContext& port)
+{
+	bool mustWakeup;
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		// The thread must start sampling the lines
+		mustWakeup = watchedPorts.empty() && boost::this_thread::get_id() != thread->get_id();
+		watchedPorts.insert(&port);
+	}
+	if (mustWakeup)
+		wakeup();
+}
+
+void Worker::pollModemLines()
+{
+	vector<SerialPortContext*> ports;
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		ports.assign(watchedPorts.begin(), watchedPorts.end());
+	}
+	// Ports are deleted by this thread, so they remain valid even if they are removed concurrently
+	vector<boost::shared_ptr<ModemWatch> > watchesDone;
+	for (vector<SerialPortContext*>::iterator i = ports.begin(); i != ports.end(); ++i)
+	{
+		SerialPortContext& port = **i;
+		boost::mutex::scoped_lock lock(port.getMutex());
+		boost::shared_ptr<ModemWatch>& watch = port.getModemWatch();
+		if (watch)
+		{
+			watch->poll();
+			if (watch->isDone())
+			{
+				watchesDone.push_back(watch);
+				watch.reset();
+			}
+		}
+		if (!watch)
+		{
+			// Checked with the port lock held so that a new watch cannot be lost
+			boost::mutex::scoped_lock workerLock(mutex);
+			watchedPorts.erase(&port);
+		}
+	}
+	for (vector<boost::shared_ptr<ModemWatch> >::iterator i = watchesDone.begin(); i != watchesDone.end(); ++i)
+		(*i)->notifyHandler();
+}
+
+void Worker::add(SerialPortContext& port)
+{
+	epoll_event event = epoll_event();
+	event.events = EPOLLONESHOT;
+	event.data.ptr = &port;
+	if (epoll_ctl(epollFd, EPOLL_CTL_ADD, port.getPort(), &event) == -1)
+	{
+		int lastError = errno;
+		throw IOException(jace::java_new<IOException>(L"epoll_ctl(EPOLL_CTL_ADD) failed with error: " +
+			getErrorMessage(lastError)));
+	}
+}
+
+void Worker::update(SerialPortContext& port)
+{
+	uint32_t desiredEvents = 0;
+	if (port.getReadTask())
+		desiredEvents |= EPOLLIN;
+	if (port.getWriteTask() && !port.getWriteTask()->isDraining())
+		desiredEvents |= EPOLLOUT;
+	if (desiredEvents == 0 || desiredEvents == port.getArmedEvents())
+	{
+		// If the port remains armed without any outstanding operations, the worker will wake up at most
+		// once and disarm it.
+		return;
+	}
+	epoll_event event = epoll_event();
+	event.events = desiredEvents | EPOLLONESHOT;
+	event.data.ptr = &port;
+	if (epoll_ctl(epollFd, EPOLL_CTL_MOD, port.getPort(), &event) == -1)
+	{
+		int lastError = errno;
+		throw IOException(jace::java_new<IOException>(L"epoll_ctl(EPOLL_CTL_MOD) failed with error: " +
+			getErrorMessage(lastError)));
+	}
+	port.setArmedEvents(desiredEvents);
+}
+
+void Worker::remove(SerialPortContext* port)
+{
+	if (epoll_ctl(epollFd, EPOLL_CTL_DEL, port->getPort(), 0) == -1)
+	{
+		int lastError = errno;
+		if (lastError != ENOENT && lastError != EBADF)
+		{
+			throw IOException(jace::java_new<IOException>(L"epoll_ctl(EPOLL_CTL_DEL) failed with error: " +
+				getErrorMessage(lastError)));
+		}
+	}
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		removedPorts.push_back(port);
+		deadlines.remove(port);
+		watchedPorts.erase(port);
+	}
+	wakeup();
+}
+
+void Worker::wakeup()
+{
+	uint64_t value = 1;
+	if (write(wakeupFd, &value, sizeof(value)) == -1)
+	{
+		int lastError = errno;
+		throw IOException(jace::java_new<IOException>(L"write(eventfd) failed with error: " +
+			getErrorMessage(lastError)));
+	}
+}
+
+Worker::Worker():
+	thread(0), epollFd(-1), wakeupFd(-1), shutdownRequested(false), nextModemPoll(0)
+{
+	// One thread multiplexes all ports. Handling readiness costs far less than the I/O itself, making it
+	// hard to justify the use of multiple threads.
+	epollFd = epoll_create1(EPOLL_CLOEXEC);
+	if (epollFd == -1)
+	{
+		int lastError = errno;
+		throw AssertionError(jace::java_new<AssertionError>(L"epoll_create1() failed with error: " +
+			getErrorMessage(lastError)));
+	}
+	wakeupFd = eventfd(0, EFD_CLOEXEC | EFD_NONBLOCK);
+	if (wakeupFd == -1)
+	{
+		int lastError = errno;
+		throw AssertionError(jace::java_new<AssertionError>(L"eventfd() failed with error: " +
+			getErrorMessage(lastError)));
+	}
+	epoll_event event = epoll_event();
+	event.events = EPOLLIN;
+	event.data.ptr = 0;
+	if (epoll_ctl(epollFd, EPOLL_CTL_ADD, wakeupFd, &event) == -1)
+	{
+		int lastError = errno;
+		throw AssertionError(jace::java_new<AssertionError>(L"epoll_ctl(EPOLL_CTL_ADD) failed with error: " +
+			getErrorMessage(lastError)));
+	}
+
+	boost::mutex::scoped_lock lock(mutex);
+	thread = new boost::thread(boost::bind(&Worker::run, this));
+	running.wait(lock);
+}
+
+Worker::~Worker()
+{
+	{
+		boost::mutex::scoped_lock lock(mutex);
+		shutdownRequested = true;
+	}
+	wakeup();
+	thread->join();
+	delete thread;
+	for (vector<SerialPortContext*>::iterator i = removedPorts.begin(); i != removedPorts.end(); ++i)
+		delete *i;
+	if (close(wakeupFd) == -1)
+	{
+		// Destructors may not throw exceptions
+		wcerr << getSourceCodePosition(WIDEN(__FILE__), __LINE__) << L" close(eventfd) failed with error: " <<
+			getErrorMessage(errno) << endl;
+	}
+	if (close(epollFd) == -1)
+	{
+		// Destructors may not throw exceptions
+		wcerr << getSourceCodePosition(WIDEN(__FILE__), __LINE__) << L" close(epoll) failed with error: " <<
+			getErrorMessage(errno) << endl;
+	}
+}
+
+/**
+ * @see http://java.sun.com/javase/6/docs/technotes/guides/jni/spec/invocation.html#library_version
+ */
+extern "C" JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM*, void*)
+{
+	jperipheral::worker = new Worker();
+	return JNI_VERSION_1_6;
+}
+
+/**
+ * @see http://java.sun.com/javase/6/docs/technotes/guides/jni/spec/invocation.html#library_version
+ */
+extern "C" JNIEXPORT void JNICALL JNI_OnUnload(JavaVM*, void*)
+{
+	jperipheral::destroyUringWorker();
+	delete jperipheral::worker;
+	jperipheral::worker = 0;
+}
@@ -0,0 +1,66 @@
+#include "jperipheral/OutputQueue.h"
+using jperipheral::isOutputDrained;
+
+#include <stdio.h>
+#include <sys/socket.h>
+#include <unistd.h>
+
+#include <iostream>
+using std::cerr;
+using std::endl;
+
+/**
+ * Tests isOutputDrained() against a pair of sockets. Their output queue (SIOCOUTQ, which shares its
+ * value with TIOCOUTQ) holds the bytes written to one end until the other end reads them.
+ * Pseudo-terminals hand written bytes to the other side right away, so the Java tests cannot reach
+ * the case where bytes are still queued.
+ *
+ * @return 0 on success, 1 on failure
+ */
+int main()
+{
+	int sockets[2];
+	if (socketpair(AF_UNIX, SOCK_STREAM, 0, sockets) == -1)
+	{
+		perror("socketpair()");
+		return 1;
+	}
+	int result = 0;
+	if (!isOutputDrained(sockets[0]))
+	{
+		cerr << "An idle socket was reported as busy" << endl;
+		result = 1;
+	}
+
+	char bytes[100] = {0};
+	if (write(sockets[0], bytes, sizeof(bytes)) != static_cast<ssize_t>(sizeof(bytes)))
+	{
+		perror("write()");
+		return 1;
+	}
+	if (isOutputDrained(sockets[0]))
+	{
+		cerr << "Queued bytes were reported as drained" << endl;
+		result = 1;
+	}
+
+	size_t count = 0;
+	while (count < sizeof(bytes))
+	{
+		ssize_t bytesRead = read(sockets[1], bytes + count, sizeof(bytes) - count);
+		if (bytesRead <= 0)
+		{
+			perror("read()");
+			return 1;
+		}
+		count += static_cast<size_t>(bytesRead);
+	}
+	if (!isOutputDrained(sockets[0]))
+	{
+		cerr << "Bytes that were read were reported as queued" << endl;
+		result = 1;
+	}
+	close(sockets[0]);
+	close(sockets[1]);
+	return result;
+}
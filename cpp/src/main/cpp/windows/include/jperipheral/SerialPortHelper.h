@@ -271,6 +271,25 @@ public:
 	 * @return true if the port is open
 	 */
 	bool isOpen();
+
+	/**
+	 * Returns the status of the port. ClearCommError() clears the error flags of the port as a
+	 * side-effect, so the errors are retained until clearErrors() is invoked. The caller must hold
+	 * getMutex().
+	 *
+	 * @param status the status of the port
+	 * @return false if ClearCommError() failed, in which case GetLastError() returns the cause
+	 */
+	bool getStatus(COMSTAT& status);
+
+	/**
+	 * Returns and clears the errors that were detected since the last invocation. The caller must
+	 * hold getMutex().
+	 *
+	 * @param errors the errors that were detected
+	 * @return false if ClearCommError() failed, in which case GetLastError() returns the cause
+	 */
+	bool clearErrors(DWORD& errors);
 private:
 	/**
 	 * Prevent assignment.
@@ -294,6 +313,10 @@ private:
 	 * True if the port is open.
 	 */
 	bool open;
+	/**
+	 * The errors that getStatus() cleared from the port.
+	 */
+	DWORD retainedErrors;
 };
 
 /**
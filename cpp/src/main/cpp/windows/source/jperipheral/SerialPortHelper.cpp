@@ -127,7 +127,7 @@ Task::~Task()
 }
 
 SerialPortContext::SerialPortContext(HANDLE _port):
-	port(_port), open(true)
+	port(_port), open(true), retainedErrors(0)
 {}
 
 SerialPortContext::~SerialPortContext()
@@ -198,6 +198,24 @@ bool SerialPortContext::isOpen()
 	return open;
 }
 
+bool SerialPortContext::getStatus(COMSTAT& status)
+{
+	DWORD errors;
+	if (!ClearCommError(port, &errors, &status))
+		return false;
+	retainedErrors |= errors;
+	return true;
+}
+
+bool SerialPortContext::clearErrors(DWORD& errors)
+{
+	if (!ClearCommError(port, &errors, 0))
+		return false;
+	errors |= retainedErrors;
+	retainedErrors = 0;
+	return true;
+}
+
 /**
  * Returns the String representation of the current source-code position.
  */
@@ -6,9 +6,7 @@ using jace::proxy::java::util::concurrent::Future;
 using jace::proxy::types::JLong;
 using jace::proxy::types::JInt;
 using jace::proxy::types::JByte;
-
-#include "jace/proxy/org/jperipheral/SerialPort_BaudRate.h"
-using jace::proxy::org::jperipheral::SerialPort_BaudRate;
+using jace::proxy::types::JBoolean;
 
 #include "jace/proxy/org/jperipheral/SerialPort_DataBits.h"
 using jace::proxy::org::jperipheral::SerialPort_DataBits;
@@ -22,6 +20,12 @@ using jace::proxy::org::jperipheral::SerialPort_Parity;
 #include "jace/proxy/org/jperipheral/SerialPort_FlowControl.h"
 using jace::proxy::org::jperipheral::SerialPort_FlowControl;
 
+#include "jace/proxy/org/jperipheral/SerialPort_ModemLine.h"
+using jace::proxy::org::jperipheral::SerialPort_ModemLine;
+
+#include "jace/proxy/org/jperipheral/PeripheralChannelGroup_IoEngine.h"
+using jace::proxy::org::jperipheral::PeripheralChannelGroup_IoEngine;
+
 #include "jperipheral/Worker.h"
 
 #include "jperipheral/SerialPortHelper.h"
@@ -71,6 +75,9 @@ using jace::proxy::java::nio::channels::InterruptedByTimeoutException;
 #include "jace/proxy/java/nio/channels/AsynchronousCloseException.h"
 using jace::proxy::java::nio::channels::AsynchronousCloseException;
 
+#include "jace/proxy/java/lang/UnsupportedOperationException.h"
+using jace::proxy::java::lang::UnsupportedOperationException;
+
 #include "jace/Jace.h"
 using jace::toWString;
 
@@ -83,6 +90,13 @@ using std::wstring;
 using std::wcerr;
 using std::endl;
 
+#include <vector>
+using std::vector;
+
+#include <algorithm>
+
+#include <climits>
+
 /**
  * Sets the port read timeout.
  *
@@ -229,19 +243,9 @@ public:
 			return;
 		}
 
-		// Update the Java read buffer
-		if (nativeBuffer==javaBuffer)
-			javaBuffer->position(javaBuffer->position() + bytesTransfered);
-		else
-		{
-			nativeBuffer->limit(bytesTransfered);
-			javaBuffer->put(*nativeBuffer);
-		}
-
 		try
 		{
-			Integer bytesTransferredAsInteger = Integer::valueOf(bytesTransfered);
-			handler->completed(bytesTransferredAsInteger, *attachment);
+			complete(bytesTransfered);
 		}
 		catch (Throwable& t)
 		{
@@ -263,7 +267,12 @@ public:
 		{
 			// Get and clear current errors on the port
 			DWORD errors;
-			if (!ClearCommError(portContext.getPort(), &errors, 0))
+			bool errorsCleared;
+			{
+				boost::mutex::scoped_lock lock(portContext.getMutex());
+				errorsCleared = portContext.clearErrors(errors);
+			}
+			if (!errorsCleared)
 			{
 				DWORD lastError = GetLastError();
 				handler->failed(jace::java_new<IOException>(
@@ -349,7 +358,7 @@ public:
 			DWORD errors;
 			boost::mutex::scoped_lock lock(portContext.getMutex());
 			HANDLE port = portContext.getPort();
-			if (!ClearCommError(port, &errors, 0))
+			if (!portContext.clearErrors(errors))
 			{
 				DWORD lastError = GetLastError();
 				handler->failed(jace::java_new<IOException>(L"ClearCommError() failed with error: " + 
@@ -396,6 +405,25 @@ public:
 			}
 		}
 	}
+protected:
+	/**
+	 * Updates the Java buffer and notifies the handler that the read completed.
+	 *
+	 * @param bytesTransfered the number of bytes read
+	 */
+	virtual void complete(int bytesTransfered)
+	{
+		// Update the Java read buffer
+		if (nativeBuffer==javaBuffer)
+			javaBuffer->position(javaBuffer->position() + bytesTransfered);
+		else
+		{
+			nativeBuffer->limit(bytesTransfered);
+			javaBuffer->put(*nativeBuffer);
+		}
+		Integer bytesTransferredAsInteger = Integer::valueOf(bytesTransfered);
+		handler->completed(bytesTransferredAsInteger, *attachment);
+	}
 };
 
 class WriteTask: public Task
@@ -429,13 +457,9 @@ public:
 			return;
 		}
 
-		// Update the Java write buffer
-		javaBuffer->position(javaBuffer->position() + bytesTransfered);
-
 		try
 		{
-			Integer bytesTransferredAsInteger = Integer::valueOf(bytesTransfered);
-			handler->completed(bytesTransferredAsInteger, *attachment);
+			complete(bytesTransfered);
 		}
 		catch (Throwable& t)
 		{
@@ -535,9 +559,159 @@ public:
 			}
 		}
 	}
+protected:
+	/**
+	 * Updates the Java buffer and notifies the handler that the write completed.
+	 *
+	 * @param bytesTransfered the number of bytes written
+	 */
+	virtual void complete(int bytesTransfered)
+	{
+		// Update the Java write buffer
+		javaBuffer->position(javaBuffer->position() + bytesTransfered);
+
+		Integer bytesTransferredAsInteger = Integer::valueOf(bytesTransfered);
+		handler->completed(bytesTransferredAsInteger, *attachment);
+	}
+};
+
+/**
+ * Returns the number of bytes that a scattering or gathering operation transfers.
+ *
+ * @param buffers the buffers
+ * @param offset the index of the first buffer
+ * @param length the number of buffers
+ * @return the number of bytes remaining in the buffers, capped at INT_MAX
+ */
+static jint getRemaining(JArray<ByteBuffer> buffers, JInt offset, JInt length)
+{
+	jlong result = 0;
+	for (jint i = offset; i < offset + length && result < INT_MAX; ++i)
+	{
+		ByteBuffer buffer = buffers[i];
+		result += buffer.remaining();
+	}
+	return static_cast<jint>(std::min<jlong>(result, INT_MAX));
+}
+
+/**
+ * Copies a sequence of buffers into a single direct buffer.
+ *
+ * @param sources the buffers to copy from. Their positions are left unchanged.
+ * @param offset the index of the first buffer
+ * @param length the number of buffers
+ * @return a direct buffer containing the bytes remaining in the sources
+ */
+static ByteBuffer gather(JArray<ByteBuffer> sources, JInt offset, JInt length)
+{
+	jint remaining = getRemaining(sources, offset, length);
+	ByteBuffer result = ByteBuffer::allocateDirect(remaining);
+	for (jint i = offset; i < offset + length && remaining > 0; ++i)
+	{
+		ByteBuffer source = sources[i];
+		JInt oldPosition = source.position();
+		JInt oldLimit = source.limit();
+		jint count = std::min<jint>(source.remaining(), remaining);
+		source.limit(oldPosition + count);
+		result.put(source);
+		source.limit(oldLimit);
+		source.position(oldPosition);
+		remaining -= count;
+	}
+	result.flip();
+	return result;
+}
+
+/**
+ * Reads into a sequence of buffers. Windows only scatters reads across page-sized buffers of
+ * unbuffered files (ReadFileScatter()) so the bytes are staged through a single buffer.
+ */
+class ScatteringReadTask: public ReadTask
+{
+public:
+	ScatteringReadTask(SerialPortContext& _port, JArray<ByteBuffer> _javaBuffers, JInt offset,
+		JInt length, JLong _timeout, ::jace::proxy::java::lang::Object _attachment,
+		::jace::proxy::java::nio::channels::CompletionHandler _handler):
+			ReadTask(_port, ByteBuffer::allocateDirect(getRemaining(_javaBuffers, offset, length)),
+				_timeout, _attachment, _handler)
+	{
+		for (jint i = offset; i < offset + length; ++i)
+			javaBuffers.push_back(new ByteBuffer(_javaBuffers[i]));
+	}
+
+	virtual ~ScatteringReadTask()
+	{
+		for (vector<ByteBuffer*>::iterator i = javaBuffers.begin(); i != javaBuffers.end(); ++i)
+			delete *i;
+	}
+protected:
+	virtual void complete(int bytesTransfered)
+	{
+		// Distribute the staged bytes across the Java buffers
+		jint position = 0;
+		for (vector<ByteBuffer*>::iterator i = javaBuffers.begin();
+			i != javaBuffers.end() && position < bytesTransfered; ++i)
+		{
+			ByteBuffer& javaBuffer = **i;
+			jint count = std::min<jint>(javaBuffer.remaining(), bytesTransfered - position);
+			nativeBuffer->limit(position + count);
+			nativeBuffer->position(position);
+			javaBuffer.put(*nativeBuffer);
+			position += count;
+		}
+		handler->completed(Long::valueOf(static_cast<jlong>(bytesTransfered)), *attachment);
+	}
+private:
+	/**
+	 * The buffers to read into.
+	 */
+	vector<ByteBuffer*> javaBuffers;
+};
+
+/**
+ * Writes from a sequence of buffers. Windows only gathers writes from page-sized buffers of
+ * unbuffered files (WriteFileGather()) so the bytes are staged through a single buffer.
+ */
+class GatheringWriteTask: public WriteTask
+{
+public:
+	GatheringWriteTask(SerialPortContext& _port, JArray<ByteBuffer> _javaBuffers, JInt offset,
+		JInt length, JLong _timeout, ::jace::proxy::java::lang::Object _attachment,
+		::jace::proxy::java::nio::channels::CompletionHandler _handler):
+			WriteTask(_port, gather(_javaBuffers, offset, length), _timeout, _attachment, _handler)
+	{
+		for (jint i = offset; i < offset + length; ++i)
+			javaBuffers.push_back(new ByteBuffer(_javaBuffers[i]));
+	}
+
+	virtual ~GatheringWriteTask()
+	{
+		for (vector<ByteBuffer*>::iterator i = javaBuffers.begin(); i != javaBuffers.end(); ++i)
+			delete *i;
+	}
+protected:
+	virtual void complete(int bytesTransfered)
+	{
+		// Consume the written bytes from the Java buffers
+		jint remaining = bytesTransfered;
+		for (vector<ByteBuffer*>::iterator i = javaBuffers.begin(); i != javaBuffers.end() && remaining > 0;
+			++i)
+		{
+			ByteBuffer& javaBuffer = **i;
+			jint count = std::min<jint>(javaBuffer.remaining(), remaining);
+			javaBuffer.position(javaBuffer.position() + count);
+			remaining -= count;
+		}
+		handler->completed(Long::valueOf(static_cast<jlong>(bytesTransfered)), *attachment);
+	}
+private:
+	/**
+	 * The buffers to write from.
+	 */
+	vector<ByteBuffer*> javaBuffers;
 };
 
-JLong SerialChannel::nativeOpen(String name, JLong timeout)
+JLong SerialChannel::nativeOpen(String name, JLong timeout, PeripheralChannelGroup_IoEngine)
 {
 	wstring nameWstring = name;
 
@@ -602,7 +776,7 @@ JLong SerialChannel::nativeOpen(String name, JLong timeout)
 	return reinterpret_cast<intptr_t>(result);
 }
 
-void SerialChannel::nativeConfigure(SerialPort_BaudRate baudRate,
+JInt SerialChannel::nativeConfigure(JInt baudRate,
 																		SerialPort_DataBits dataBits,
 																		SerialPort_Parity parity,
 																		SerialPort_StopBits stopBits,
@@ -617,7 +791,7 @@ void SerialChannel::nativeConfigure(SerialPort_BaudRate baudRate,
 		throw PeripheralConfigurationException(jace::java_new<PeripheralConfigurationException>(
 			L"GetCommState() failed with error: " + getErrorMessage(lastError), Throwable()));
 	}
-	dcb.BaudRate = baudRate.toInt();
+	dcb.BaudRate = static_cast<DWORD>(static_cast<jint>(baudRate));
 	dcb.ByteSize = (BYTE) dataBits.toInt();
 	dcb.fBinary = true;
 
@@ -724,6 +898,15 @@ void SerialChannel::nativeConfigure(SerialPort_BaudRate baudRate,
 		throw PeripheralConfigurationException(jace::java_new<PeripheralConfigurationException>(
 			L"SetCommState() failed with error: " + getErrorMessage(lastError), Throwable()));
 	}
+
+	// Read back the rate that the driver applied
+	if (!GetCommState(context->getPort(), &dcb))
+	{
+		DWORD lastError = GetLastError();
+		throw PeripheralConfigurationException(jace::java_new<PeripheralConfigurationException>(
+			L"GetCommState() failed with error: " + getErrorMessage(lastError), Throwable()));
+	}
+	return static_cast<jint>(dcb.BaudRate);
 }
 
 //void SerialChannel::printStatus()
@@ -783,6 +966,12 @@ void SerialChannel::nativeClose()
 	delete context;
 }
 
+String SerialChannel::nativeUnlockSlave()
+{
+	throw UnsupportedOperationException(jace::java_new<UnsupportedOperationException>(
+		L"Pseudo-terminals are not supported under Windows"));
+}
+
 void SerialChannel::nativeRead(ByteBuffer target, JLong timeout, Object attachment, CompletionHandler handler)
 {
 	SerialPortContext* context = getContext(getJaceProxy());
@@ -798,3 +987,143 @@ void SerialChannel::nativeWrite(ByteBuffer source, JLong timeout, Object attachm
 	boost::shared_ptr<Task> task(new WriteTask(*context, source, timeout, attachment, handler));
 	task->run();
 }
+
+void SerialChannel::nativeReadScattering(JArray<ByteBuffer> targets, JInt offset, JInt length, JLong timeout,
+																				 Object attachment, CompletionHandler handler)
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+
+	boost::shared_ptr<Task> task(new ScatteringReadTask(*context, targets, offset, length, timeout,
+		attachment, handler));
+	task->run();
+}
+
+void SerialChannel::nativeWriteGathering(JArray<ByteBuffer> sources, JInt offset, JInt length, JLong timeout,
+																				 Object attachment, CompletionHandler handler)
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+
+	boost::shared_ptr<Task> task(new GatheringWriteTask(*context, sources, offset, length, timeout,
+		attachment, handler));
+	task->run();
+}
+
+JArray<JLong> SerialChannel::nativeGetPortOwners(JArray<String>)
+{
+	// Windows does not reveal which process holds a comport
+	throw UnsupportedOperationException(jace::java_new<UnsupportedOperationException>(
+		L"Identifying the owner of a port is not supported under Windows"));
+}
+
+void SerialChannel::nativeSetReadThreshold(JInt, JLong)
+{
+	throw UnsupportedOperationException(jace::java_new<UnsupportedOperationException>(
+		L"Read thresholds are not supported under Windows"));
+}
+
+void SerialChannel::nativeSetDrainOnWrite(JBoolean)
+{
+	throw UnsupportedOperationException(jace::java_new<UnsupportedOperationException>(
+		L"Draining the output queue on write is not supported under Windows"));
+}
+
+JBoolean SerialChannel::nativeSetLowLatency(JBoolean, JLong)
+{
+	throw UnsupportedOperationException(jace::java_new<UnsupportedOperationException>(
+		L"Low-latency mode is not supported under Windows"));
+}
+
+JInt SerialChannel::nativeGetModemLines()
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	DWORD status;
+	if (!GetCommModemStatus(context->getPort(), &status))
+	{
+		DWORD lastError = GetLastError();
+		throw IOException(jace::java_new<IOException>(L"GetCommModemStatus() failed with error: " +
+			getErrorMessage(lastError)));
+	}
+	// Windows does not report the state of the lines driven by the local end
+	jint result = 0;
+	if (status & MS_CTS_ON)
+		result |= 1 << SerialPort_ModemLine::Ordinals::CTS;
+	if (status & MS_DSR_ON)
+		result |= 1 << SerialPort_ModemLine::Ordinals::DSR;
+	if (status & MS_RLSD_ON)
+		result |= 1 << SerialPort_ModemLine::Ordinals::DCD;
+	if (status & MS_RING_ON)
+		result |= 1 << SerialPort_ModemLine::Ordinals::RI;
+	return result;
+}
+
+void SerialChannel::nativeSetModemLine(SerialPort_ModemLine line, JBoolean asserted)
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	DWORD function;
+	switch (line.ordinal())
+	{
+		case SerialPort_ModemLine::Ordinals::RTS:
+		{
+			function = asserted ? SETRTS : CLRRTS;
+			break;
+		}
+		case SerialPort_ModemLine::Ordinals::DTR:
+		{
+			function = asserted ? SETDTR : CLRDTR;
+			break;
+		}
+		default:
+			throw AssertionError(jace::java_new<AssertionError>(line));
+	}
+	if (!EscapeCommFunction(context->getPort(), function))
+	{
+		DWORD lastError = GetLastError();
+		throw IOException(jace::java_new<IOException>(L"EscapeCommFunction() failed with error: " +
+			getErrorMessage(lastError)));
+	}
+}
+
+JArray<JLong> SerialChannel::nativeGetLineStatistics()
+{
+	// ClearCommError() reports which errors occurred, but not how many times
+	throw UnsupportedOperationException(jace::java_new<UnsupportedOperationException>(
+		L"Line statistics are not supported under Windows"));
+}
+
+/**
+ * Returns the status of a port.
+ *
+ * @param context the port context
+ * @return the status of the port
+ * @throws IOException if an I/O error occurs
+ */
+static COMSTAT getStatus(SerialPortContext& context)
+{
+	COMSTAT result;
+	boost::mutex::scoped_lock lock(context.getMutex());
+	if (!context.getStatus(result))
+	{
+		DWORD lastError = GetLastError();
+		throw IOException(jace::java_new<IOException>(L"ClearCommError() failed with error: " +
+			getErrorMessage(lastError)));
+	}
+	return result;
+}
+
+JInt SerialChannel::nativeGetInputQueueSize()
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	return static_cast<jint>(std::min<DWORD>(getStatus(*context).cbInQue, INT_MAX));
+}
+
+JInt SerialChannel::nativeGetOutputQueueSize()
+{
+	SerialPortContext* context = getContext(getJaceProxy());
+	return static_cast<jint>(std::min<DWORD>(getStatus(*context).cbOutQue, INT_MAX));
+}
+
+void SerialChannel::nativeWatchModemLines(JInt, Object, CompletionHandler)
+{
+	throw UnsupportedOperationException(jace::java_new<UnsupportedOperationException>(
+		L"Watching modem-control lines is not supported under Windows"));
+}
@@ -0,0 +1,1112 @@
+package org.jperipheral.ffm;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.ShutdownChannelGroupException;
+import java.nio.channels.WritePendingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.jperipheral.PeripheralChannelGroup;
+import org.jperipheral.PeripheralConfigurationException;
+import org.jperipheral.PeripheralInUseException;
+import org.jperipheral.PeripheralNotFoundException;
+import org.jperipheral.SerialPort.BaudRate;
+import org.jperipheral.SerialPort.DataBits;
+import org.jperipheral.SerialPort.FlowControl;
+import org.jperipheral.SerialPort.Parity;
+import org.jperipheral.SerialPort.StopBits;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+/**
+ * An asynchronous channel for serial ports, implemented on top of the Foreign Function and Memory
+ * API.
+ * <p>
+ * Bytes are transferred directly between the port and the caller's memory: ByteBuffers (direct or
+ * heap) and MemorySegments are never copied into a staging buffer. Completions are delivered in
+ * order through the channel's mailbox, the same way as those of the JPeripheral native library.
+ *
+ * @author Gili Tzabari
+ */
+public class FfmSerialChannel implements AsynchronousByteChannel
+{
+	/**
+	 * The number of milliseconds to wait between attempts to open a port that is in use.
+	 */
+	private static final long RETRY_INTERVAL = 100;
+	private final FfmSerialPort port;
+	private final PeripheralChannelGroup group;
+	private final int fd;
+	/**
+	 * Owns the native memory used by the channel. Closed by {@link #close()}.
+	 */
+	private final Arena arena = Arena.ofShared();
+	/**
+	 * The call state shared by all native calls. Guarded by {@code lock}.
+	 */
+	private final MemorySegment callState = LibC.newCallState(arena);
+	private final Object lock = new Object();
+	/**
+	 * Delivers the completions of the channel's operations, in order and on one thread at a time.
+	 */
+	private final PeripheralChannelGroup.Mailbox mailbox;
+	/**
+	 * The outstanding read operation. Guarded by {@code lock}.
+	 */
+	private Operation<?> pendingRead;
+	/**
+	 * The outstanding write operation. Guarded by {@code lock}.
+	 */
+	private Operation<?> pendingWrite;
+	/**
+	 * Guarded by {@code lock}.
+	 */
+	private boolean closed;
+	private BaudRate baudRate;
+	private int actualBaudRate;
+	private DataBits dataBits;
+	private StopBits stopBits;
+	private Parity parity;
+	private FlowControl flowControl;
+
+	/**
+	 * Creates a new FfmSerialChannel. The caller is responsible for adding the channel into the
+	 * group.
+	 *
+	 * @param port the serial port
+	 * @param group the group associated with the channel
+	 * @param timeout the minimum amount of time to wait if the port is locked by another process
+	 * before giving up
+	 * @param unit the unit of timeout
+	 * @throws PeripheralNotFoundException if the port does not exist or cannot be opened
+	 * @throws PeripheralInUseException if the port is locked by another process
+	 * @throws NullPointerException if port, group or unit are null
+	 */
+	FfmSerialChannel(FfmSerialPort port, PeripheralChannelGroup group, long timeout, TimeUnit unit)
+		throws PeripheralNotFoundException, PeripheralInUseException
+	{
+		Preconditions.checkNotNull(port, "port may not be null");
+		Preconditions.checkNotNull(group, "group may not be null");
+		Preconditions.checkNotNull(unit, "unit may not be null");
+
+		this.port = port;
+		this.group = group;
+		this.mailbox = new PeripheralChannelGroup.Mailbox(group);
+		try
+		{
+			this.fd = open(port, unit.toNanos(timeout));
+		}
+		catch (PeripheralNotFoundException | PeripheralInUseException | RuntimeException | Error e)
+		{
+			// Unpin the mailbox from its event loop
+			mailbox.close();
+			arena.close();
+			throw e;
+		}
+		Poller.getInstance().add(this);
+	}
+
+	/**
+	 * Opens the port.
+	 *
+	 * @param port the port
+	 * @param timeout the minimum number of nanoseconds to wait if the port is locked by another
+	 * process before giving up
+	 * @return the file descriptor of the port
+	 * @throws PeripheralNotFoundException if the port does not exist or cannot be opened. The cause
+	 * describes why the port could not be opened.
+	 * @throws PeripheralInUseException if the port is locked by another process, or exclusive access
+	 * to it could not be obtained
+	 */
+	private int open(FfmSerialPort port, long timeout)
+		throws PeripheralNotFoundException, PeripheralInUseException
+	{
+		MemorySegment path = arena.allocateFrom(port.getPath());
+		long start = System.nanoTime();
+		int result;
+		while (true)
+		{
+			result = LibC.open(callState, path, LibC.O_RDWR | LibC.O_NOCTTY | LibC.O_NONBLOCK |
+				LibC.O_CLOEXEC);
+			if (result == -1)
+			{
+				int errno = LibC.errno(callState);
+				switch (errno)
+				{
+					case LibC.ENOENT:
+					case LibC.ENXIO:
+					case LibC.ENODEV:
+						throw new PeripheralNotFoundException(port.getName(), null);
+					case LibC.EBUSY:
+					{
+						// Another process opened the port with TIOCEXCL
+						break;
+					}
+					default:
+					{
+						// For example, EACCES if the user may not access the port or EIO if the device is
+						// failing
+						throw new PeripheralNotFoundException(port.getName(), new IOException(
+							"open() failed with error: " + LibC.strerror(errno)));
+					}
+				}
+			}
+			else if (!isPseudoTerminalMaster(result) &&
+				LibC.flock(callState, result, LibC.LOCK_EX | LibC.LOCK_NB) == -1)
+			{
+				// The advisory lock also covers processes running as root, which TIOCEXCL does not stop
+				int errno = LibC.errno(callState);
+				LibC.close(callState, result);
+				result = -1;
+				if (errno != LibC.EWOULDBLOCK)
+				{
+					throw new PeripheralInUseException(port.getName(), new IOException(
+						"flock() failed with error: " + LibC.strerror(errno)));
+				}
+			}
+			if (result != -1)
+				break;
+			if (System.nanoTime() - start >= timeout)
+			{
+				throw new PeripheralInUseException(port.getName(),
+					getPortOwner(Paths.get(port.getPath())), null);
+			}
+			try
+			{
+				Thread.sleep(RETRY_INTERVAL);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new PeripheralInUseException(port.getName(), e);
+			}
+		}
+
+		// Mirror the Windows semantics where comports are opened with exclusive access
+		if (LibC.isatty(result) && LibC.ioctl(callState, result, LibC.TIOCEXCL) == -1)
+		{
+			int errno = LibC.errno(callState);
+			LibC.close(callState, result);
+			throw new PeripheralInUseException(port.getName(), new IOException(
+				"ioctl(TIOCEXCL) failed with error: " + LibC.strerror(errno)));
+		}
+		return result;
+	}
+
+	/**
+	 * Indicates if a file descriptor refers to the master side of a pseudo-terminal.
+	 * <p>
+	 * All masters share the inode of /dev/ptmx, so locking one of them would lock them all.
+	 *
+	 * @param fd the file descriptor
+	 * @return true if the file descriptor refers to the master side of a pseudo-terminal
+	 */
+	private boolean isPseudoTerminalMaster(int fd)
+	{
+		try (Arena local = Arena.ofConfined())
+		{
+			MemorySegment ptyNumber = local.allocate(JAVA_INT);
+			return LibC.ioctl(callState, fd, LibC.TIOCGPTN, ptyNumber) == 0;
+		}
+	}
+
+	/**
+	 * Returns the process that holds a port open or locked.
+	 *
+	 * @param path the path of the port
+	 * @return the process ID, or -1 if no other process was found. Processes that belong to other users
+	 * are only found if they locked the port.
+	 */
+	private static long getPortOwner(Path path)
+	{
+		long device;
+		long inode;
+		long rdev;
+		try
+		{
+			Map<String, Object> attributes = Files.readAttributes(path, "unix:dev,ino,rdev");
+			device = ((Number) attributes.get("dev")).longValue();
+			inode = ((Number) attributes.get("ino")).longValue();
+			rdev = ((Number) attributes.get("rdev")).longValue();
+		}
+		catch (IOException | UnsupportedOperationException e)
+		{
+			return -1;
+		}
+		// Same encoding as glibc's major() and minor()
+		long deviceMajor = ((device >>> 8) & 0xfff) | ((device >>> 32) & ~0xfffL);
+		long deviceMinor = (device & 0xff) | ((device >>> 12) & ~0xffL);
+
+		// Locks are listed along with the device and inode of the file they apply to
+		try (BufferedReader locks = Files.newBufferedReader(Paths.get("/proc/locks"),
+			StandardCharsets.US_ASCII))
+		{
+			for (String line = locks.readLine(); line != null; line = locks.readLine())
+			{
+				// "1: FLOCK  ADVISORY  WRITE 1234 00:05:123 0 EOF". Entries that wait for a lock have "->" in
+				// the second column.
+				String[] columns = line.trim().split("\\s+");
+				if (columns.length < 6 || columns[1].equals("->"))
+					continue;
+				String[] id = columns[5].split(":");
+				if (id.length != 3)
+					continue;
+				if (Long.parseLong(id[0], 16) == deviceMajor && Long.parseLong(id[1], 16) == deviceMinor &&
+					Long.parseLong(id[2]) == inode)
+				{
+					return Long.parseLong(columns[4]);
+				}
+			}
+		}
+		catch (IOException | NumberFormatException e)
+		{
+			// Fall back to the file descriptors
+		}
+
+		// Processes that opened the port using TIOCEXCL alone do not show up as locks. The file
+		// descriptors of processes that belong to other users are not accessible.
+		try (DirectoryStream<Path> processes = Files.newDirectoryStream(Paths.get("/proc"), "[0-9]*"))
+		{
+			for (Path process: processes)
+			{
+				try (DirectoryStream<Path> fds = Files.newDirectoryStream(process.resolve("fd")))
+				{
+					for (Path fd: fds)
+					{
+						Map<String, Object> attributes;
+						try
+						{
+							attributes = Files.readAttributes(fd, "unix:mode,rdev");
+						}
+						catch (IOException e)
+						{
+							// The file descriptor was closed in the meantime
+							continue;
+						}
+						int mode = (Integer) attributes.get("mode");
+						if ((mode & LibC.S_IFMT) == LibC.S_IFCHR &&
+							((Number) attributes.get("rdev")).longValue() == rdev)
+						{
+							return Long.parseLong(process.getFileName().toString());
+						}
+					}
+				}
+				catch (IOException e)
+				{
+					// The process exited or belongs to another user
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			// /proc is not mounted
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the baud rate being used.
+	 *
+	 * @return the baud rate being used, or null if the channel was configured using a rate that does
+	 * not match any BaudRate
+	 * @see #getActualBaudRate()
+	 */
+	public BaudRate getBaudRate()
+	{
+		return baudRate;
+	}
+
+	/**
+	 * Returns the baud rate that the driver applied. Drivers derive the rate from a clock divisor, so
+	 * it may differ slightly from the requested rate.
+	 *
+	 * @return the number of bits per second, or 0 if the channel was never configured
+	 */
+	public int getActualBaudRate()
+	{
+		return actualBaudRate;
+	}
+
+	/**
+	 * Returns the number of data bits being used.
+	 *
+	 * @return the number of data bits being used
+	 */
+	public DataBits getDataBits()
+	{
+		return dataBits;
+	}
+
+	/**
+	 * Returns the number of stop bits being used.
+	 *
+	 * @return the number of stop bits being used
+	 */
+	public StopBits getStopBits()
+	{
+		return stopBits;
+	}
+
+	/**
+	 * Returns the parity type being used.
+	 *
+	 * @return the parity type being used
+	 */
+	public Parity getParity()
+	{
+		return parity;
+	}
+
+	/**
+	 * Returns the flow control mechanism being used.
+	 *
+	 * @return the flow control mechanism being used
+	 */
+	public FlowControl getFlowControl()
+	{
+		return flowControl;
+	}
+
+	/**
+	 * Configures the serial port channel.
+	 *
+	 * @param baudRate the baud rate
+	 * @param dataBits the number of data bits per word
+	 * @param parity the parity mechanism to use
+	 * @param stopBits the number of stop bits to use
+	 * @param flowControl the flow control to use
+	 * @throws PeripheralConfigurationException if an I/O error occurs while configuring the channel
+	 * @throws NullPointerException if any of the arguments are null
+	 * @throws ClosedChannelException if the channel is closed
+	 */
+	public void configure(BaudRate baudRate, DataBits dataBits, Parity parity, StopBits stopBits,
+		FlowControl flowControl) throws PeripheralConfigurationException, ClosedChannelException
+	{
+		Preconditions.checkNotNull(baudRate, "baudRate may not be null");
+
+		configure(baudRate.toInt(), dataBits, parity, stopBits, flowControl);
+	}
+
+	/**
+	 * Configures the serial port channel using an arbitrary baud rate.
+	 *
+	 * @param baudRate the number of bits per second
+	 * @param dataBits the number of data bits per word
+	 * @param parity the parity mechanism to use
+	 * @param stopBits the number of stop bits to use
+	 * @param flowControl the flow control to use
+	 * @return the baud rate that the driver applied
+	 * @throws IllegalArgumentException if baudRate is not positive
+	 * @throws PeripheralConfigurationException if the driver does not support the baud rate or an
+	 * I/O error occurs while configuring the channel
+	 * @throws NullPointerException if any of the arguments are null
+	 * @throws ClosedChannelException if the channel is closed
+	 * @see #getActualBaudRate()
+	 */
+	public int configure(int baudRate, DataBits dataBits, Parity parity, StopBits stopBits,
+		FlowControl flowControl) throws PeripheralConfigurationException, ClosedChannelException
+	{
+		Preconditions.checkArgument(baudRate > 0, "baudRate must be positive");
+		Preconditions.checkNotNull(dataBits, "dataBits may not be null");
+		Preconditions.checkNotNull(parity, "parity may not be null");
+		Preconditions.checkNotNull(stopBits, "stopBits may not be null");
+		Preconditions.checkNotNull(flowControl, "flowControl may not be null");
+
+		int result;
+		synchronized (lock)
+		{
+			if (closed)
+				throw new ClosedChannelException();
+			// Allocated per call, as the channel's arena only frees memory once the channel is closed
+			try (Arena local = Arena.ofConfined())
+			{
+				MemorySegment termios = local.allocate(LibC.TERMIOS);
+				if (LibC.tcgetattr(callState, fd, termios) == -1)
+				{
+					throw new PeripheralConfigurationException("tcgetattr() failed with error: " +
+						LibC.strerror(LibC.errno(callState)), null);
+				}
+				int iflag = termios.get(JAVA_INT, LibC.C_IFLAG);
+				int oflag = termios.get(JAVA_INT, LibC.C_OFLAG);
+				int cflag = termios.get(JAVA_INT, LibC.C_CFLAG);
+				int lflag = termios.get(JAVA_INT, LibC.C_LFLAG);
+
+				// Raw mode: no line editing, echo, signals or character translation
+				iflag &= ~(LibC.IGNBRK | LibC.BRKINT | LibC.PARMRK | LibC.ISTRIP | LibC.INLCR |
+					LibC.IGNCR | LibC.ICRNL | LibC.IXON | LibC.IXOFF | LibC.IXANY | LibC.INPCK);
+				oflag &= ~LibC.OPOST;
+				lflag &= ~(LibC.ECHO | LibC.ECHONL | LibC.ICANON | LibC.ISIG | LibC.IEXTEN);
+				cflag |= LibC.CLOCAL | LibC.CREAD;
+				// Reads return as soon as a single byte is available. O_NONBLOCK overrides this when no
+				// bytes are available.
+				termios.set(JAVA_BYTE, LibC.C_CC + LibC.VMIN, (byte) 1);
+				termios.set(JAVA_BYTE, LibC.C_CC + LibC.VTIME, (byte) 0);
+
+				cflag &= ~LibC.CSIZE;
+				switch (dataBits)
+				{
+					case FIVE:
+					{
+						cflag |= LibC.CS5;
+						break;
+					}
+					case SIX:
+					{
+						cflag |= LibC.CS6;
+						break;
+					}
+					case SEVEN:
+					{
+						cflag |= LibC.CS7;
+						break;
+					}
+					case EIGHT:
+					{
+						cflag |= LibC.CS8;
+						break;
+					}
+					default:
+						throw new AssertionError(dataBits);
+				}
+
+				cflag &= ~(LibC.PARENB | LibC.PARODD | LibC.CMSPAR);
+				switch (parity)
+				{
+					case EVEN:
+					{
+						cflag |= LibC.PARENB;
+						iflag |= LibC.INPCK;
+						break;
+					}
+					case MARK:
+					{
+						cflag |= LibC.PARENB | LibC.PARODD | LibC.CMSPAR;
+						iflag |= LibC.INPCK;
+						break;
+					}
+					case NONE:
+						break;
+					case ODD:
+					{
+						cflag |= LibC.PARENB | LibC.PARODD;
+						iflag |= LibC.INPCK;
+						break;
+					}
+					case SPACE:
+					{
+						cflag |= LibC.PARENB | LibC.CMSPAR;
+						iflag |= LibC.INPCK;
+						break;
+					}
+					default:
+						throw new AssertionError(parity);
+				}
+
+				switch (stopBits)
+				{
+					case ONE:
+					{
+						cflag &= ~LibC.CSTOPB;
+						break;
+					}
+					case ONE_POINT_FIVE:
+					{
+						// UARTs interpret CSTOPB as 1.5 stop bits when using 5 data bits
+						if (dataBits != DataBits.FIVE)
+						{
+							throw new PeripheralConfigurationException("1.5 stop bits requires 5 data bits",
+								null);
+						}
+						cflag |= LibC.CSTOPB;
+						break;
+					}
+					case TWO:
+					{
+						cflag |= LibC.CSTOPB;
+						break;
+					}
+					default:
+						throw new AssertionError(stopBits);
+				}
+
+				switch (flowControl)
+				{
+					case RTS_CTS:
+					{
+						cflag |= LibC.CRTSCTS;
+						break;
+					}
+					case XON_XOFF:
+					{
+						cflag &= ~LibC.CRTSCTS;
+						iflag |= LibC.IXON | LibC.IXOFF;
+						break;
+					}
+					case NONE:
+					{
+						cflag &= ~LibC.CRTSCTS;
+						break;
+					}
+					default:
+						throw new AssertionError(flowControl);
+				}
+
+				termios.set(JAVA_INT, LibC.C_IFLAG, iflag);
+				termios.set(JAVA_INT, LibC.C_OFLAG, oflag);
+				termios.set(JAVA_INT, LibC.C_CFLAG, cflag);
+				termios.set(JAVA_INT, LibC.C_LFLAG, lflag);
+				int speed = toSpeed(baudRate);
+				boolean arbitrarySpeed = speed == LibC.B0;
+				if (arbitrarySpeed)
+				{
+					// Replaced by BOTHER once tcsetattr() returns
+					speed = LibC.B38400;
+				}
+				if (LibC.cfsetispeed(callState, termios, speed) == -1 ||
+					LibC.cfsetospeed(callState, termios, speed) == -1)
+				{
+					throw new PeripheralConfigurationException("Unsupported baud rate: " + baudRate, null);
+				}
+				if (LibC.tcsetattr(callState, fd, LibC.TCSANOW, termios) == -1)
+				{
+					throw new PeripheralConfigurationException("tcsetattr() failed with error: " +
+						LibC.strerror(LibC.errno(callState)), null);
+				}
+
+				MemorySegment termios2 = local.allocate(LibC.TERMIOS2);
+				if (arbitrarySpeed)
+				{
+					int errno = setArbitraryBaudRate(termios2, baudRate);
+					if (errno != 0)
+					{
+						throw new PeripheralConfigurationException("Unsupported baud rate: " + baudRate +
+							". ioctl(TCSETS2) failed with error: " + LibC.strerror(errno), null);
+					}
+				}
+				if (LibC.ioctl(callState, fd, LibC.TCGETS2, termios2) == -1)
+				{
+					// Kernels without termios2 cannot report the rate that the driver applied
+					result = baudRate;
+				}
+				else
+				{
+					// The kernel updates c_ospeed to reflect the rate that the driver applied, even if the
+					// speed was set using one of the Bxxx constants
+					result = termios2.get(JAVA_INT, LibC.TERMIOS2_OSPEED);
+				}
+			}
+		}
+		this.baudRate = toBaudRate(baudRate);
+		this.actualBaudRate = result;
+		this.dataBits = dataBits;
+		this.parity = parity;
+		this.stopBits = stopBits;
+		this.flowControl = flowControl;
+		return result;
+	}
+
+	/**
+	 * Sets a baud rate that termios does not define a constant for. Must be invoked with the channel
+	 * lock held.
+	 *
+	 * @param termios2 the memory to use for {@code struct termios2}
+	 * @param baudRate the number of bits per second
+	 * @return zero on success, the errno value otherwise
+	 */
+	private int setArbitraryBaudRate(MemorySegment termios2, int baudRate)
+	{
+		if (LibC.ioctl(callState, fd, LibC.TCGETS2, termios2) == -1)
+			return LibC.errno(callState);
+		int cflag = termios2.get(JAVA_INT, LibC.TERMIOS2_CFLAG);
+		cflag &= ~(LibC.CBAUD | (LibC.CBAUD << LibC.IBSHIFT));
+		cflag |= LibC.BOTHER | (LibC.BOTHER << LibC.IBSHIFT);
+		termios2.set(JAVA_INT, LibC.TERMIOS2_CFLAG, cflag);
+		termios2.set(JAVA_INT, LibC.TERMIOS2_ISPEED, baudRate);
+		termios2.set(JAVA_INT, LibC.TERMIOS2_OSPEED, baudRate);
+		if (LibC.ioctl(callState, fd, LibC.TCSETS2, termios2) == -1)
+			return LibC.errno(callState);
+		return 0;
+	}
+
+	/**
+	 * Returns the BaudRate associated with a number of bits per second.
+	 *
+	 * @param value the number of bits per second
+	 * @return null if the value does not match any BaudRate
+	 */
+	private static BaudRate toBaudRate(int value)
+	{
+		for (BaudRate baudRate: BaudRate.values())
+		{
+			if (baudRate.toInt() == value)
+				return baudRate;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the termios speed associated with a baud rate.
+	 *
+	 * @param baudRate the baud rate
+	 * @return the termios speed, or {@code B0} if termios does not define a constant for the baud rate
+	 */
+	private static int toSpeed(int baudRate)
+	{
+		switch (baudRate)
+		{
+			case 110:
+				return LibC.B110;
+			case 300:
+				return LibC.B300;
+			case 600:
+				return LibC.B600;
+			case 1200:
+				return LibC.B1200;
+			case 2400:
+				return LibC.B2400;
+			case 4800:
+				return LibC.B4800;
+			case 9600:
+				return LibC.B9600;
+			case 19200:
+				return LibC.B19200;
+			case 38400:
+				return LibC.B38400;
+			case 57600:
+				return LibC.B57600;
+			case 115200:
+				return LibC.B115200;
+			case 230400:
+				return LibC.B230400;
+			case 460800:
+				return LibC.B460800;
+			case 500000:
+				return LibC.B500000;
+			case 576000:
+				return LibC.B576000;
+			case 921600:
+				return LibC.B921600;
+			case 1000000:
+				return LibC.B1000000;
+			case 1152000:
+				return LibC.B1152000;
+			case 1500000:
+				return LibC.B1500000;
+			case 2000000:
+				return LibC.B2000000;
+			case 2500000:
+				return LibC.B2500000;
+			case 3000000:
+				return LibC.B3000000;
+			case 3500000:
+				return LibC.B3500000;
+			case 4000000:
+				return LibC.B4000000;
+			default:
+				return LibC.B0;
+		}
+	}
+
+	@Override
+	public <A> void read(ByteBuffer target, A attachment,
+		CompletionHandler<Integer, ? super A> handler)
+	{
+		Preconditions.checkNotNull(target, "target may not be null");
+		Preconditions.checkNotNull(handler, "handler may not be null");
+		if (target.isReadOnly())
+			throw new IllegalArgumentException("target may not be read-only");
+
+		initiate(new Operation<>(true, MemorySegment.ofBuffer(target), target, attachment, handler));
+	}
+
+	/**
+	 * Reads a sequence of bytes from this channel into the given memory segment.
+	 *
+	 * @param <A> the attachment type
+	 * @param target the memory segment to write into. At most {@code target.byteSize()} bytes are
+	 * read, starting at offset zero.
+	 * @param attachment the object to attach to the I/O operation; can be null
+	 * @param handler the handler for consuming the result. On success, returns the number of bytes
+	 * read or -1 if the other end hung up.
+	 * @throws NullPointerException if target or handler are null
+	 * @throws IllegalArgumentException if target is read-only
+	 * @throws ShutdownChannelGroupException if the channel group is shut down
+	 * @throws ReadPendingException if the channel does not allow more than one read to be outstanding
+	 * and a previous read has not completed
+	 */
+	public <A> void read(MemorySegment target, A attachment,
+		CompletionHandler<Integer, ? super A> handler)
+	{
+		Preconditions.checkNotNull(target, "target may not be null");
+		Preconditions.checkNotNull(handler, "handler may not be null");
+		if (target.isReadOnly())
+			throw new IllegalArgumentException("target may not be read-only");
+
+		initiate(new Operation<>(true, target, null, attachment, handler));
+	}
+
+	@Override
+	public Future<Integer> read(ByteBuffer target)
+	{
+		SettableFuture<Integer> result = SettableFuture.create();
+		read(target, result, FutureHandler.INSTANCE);
+		return result;
+	}
+
+	@Override
+	public <A> void write(ByteBuffer source, A attachment,
+		CompletionHandler<Integer, ? super A> handler)
+	{
+		Preconditions.checkNotNull(source, "source may not be null");
+		Preconditions.checkNotNull(handler, "handler may not be null");
+
+		initiate(new Operation<>(false, MemorySegment.ofBuffer(source), source, attachment, handler));
+	}
+
+	/**
+	 * Writes a sequence of bytes to this channel from the given memory segment.
+	 *
+	 * @param <A> the attachment type
+	 * @param source the memory segment to read from. At most {@code source.byteSize()} bytes are
+	 * written, starting at offset zero.
+	 * @param attachment the object to attach to the I/O operation; can be null
+	 * @param handler the handler for consuming the result. On success, returns the number of bytes
+	 * written.
+	 * @throws NullPointerException if source or handler are null
+	 * @throws ShutdownChannelGroupException if the channel group is shut down
+	 * @throws WritePendingException if the channel does not allow more than one write to be
+	 * outstanding and a previous write has not completed
+	 */
+	public <A> void write(MemorySegment source, A attachment,
+		CompletionHandler<Integer, ? super A> handler)
+	{
+		Preconditions.checkNotNull(source, "source may not be null");
+		Preconditions.checkNotNull(handler, "handler may not be null");
+
+		initiate(new Operation<>(false, source, null, attachment, handler));
+	}
+
+	@Override
+	public Future<Integer> write(ByteBuffer source)
+	{
+		SettableFuture<Integer> result = SettableFuture.create();
+		write(source, result, FutureHandler.INSTANCE);
+		return result;
+	}
+
+	/**
+	 * Initiates an operation. The operation is attempted right away and handed over to the poller if
+	 * the port is not ready.
+	 *
+	 * @param <A> the attachment type
+	 * @param operation the operation
+	 * @throws ShutdownChannelGroupException if the channel group is shut down
+	 * @throws ReadPendingException if a read operation is already outstanding
+	 * @throws WritePendingException if a write operation is already outstanding
+	 */
+	private <A> void initiate(Operation<A> operation)
+	{
+		if (group.isShutdown())
+			throw new ShutdownChannelGroupException();
+		boolean channelClosed;
+		boolean waiting = false;
+		synchronized (lock)
+		{
+			channelClosed = closed;
+			if (!channelClosed)
+			{
+				if (operation.read)
+				{
+					if (pendingRead != null)
+						throw new ReadPendingException();
+				}
+				else if (pendingWrite != null)
+					throw new WritePendingException();
+				// Empty transfers complete right away
+				if (operation.segment.byteSize() > 0 && !operation.transfer())
+				{
+					if (operation.read)
+						pendingRead = operation;
+					else
+						pendingWrite = operation;
+					waiting = true;
+				}
+			}
+		}
+		if (channelClosed)
+			group.failed(operation.handler, new ClosedChannelException(), operation.attachment);
+		else if (waiting)
+			Poller.getInstance().interestChanged(this);
+		else
+		{
+			// Delivered without holding the lock, as the handler may initiate another operation
+			operation.dispatch();
+		}
+	}
+
+	/**
+	 * Returns the file descriptor of the port.
+	 *
+	 * @return the file descriptor of the port
+	 */
+	int getFileDescriptor()
+	{
+		return fd;
+	}
+
+	/**
+	 * Returns the {@code poll()} events that the outstanding operations are waiting on.
+	 *
+	 * @return zero if there are no outstanding operations
+	 */
+	short getInterestOps()
+	{
+		synchronized (lock)
+		{
+			short result = 0;
+			if (pendingRead != null)
+				result |= LibC.POLLIN;
+			if (pendingWrite != null)
+				result |= LibC.POLLOUT;
+			return result;
+		}
+	}
+
+	/**
+	 * Invoked by the poller when the port becomes ready.
+	 *
+	 * @param events the events that occurred
+	 */
+	void onReady(short events)
+	{
+		Operation<?> completedRead = null;
+		Operation<?> completedWrite = null;
+		synchronized (lock)
+		{
+			if (closed)
+				return;
+			// Errors and hang-ups are reported by the transfer itself
+			short anyEvent = LibC.POLLERR | LibC.POLLHUP | LibC.POLLNVAL;
+			if (pendingRead != null && (events & (LibC.POLLIN | anyEvent)) != 0 && pendingRead.transfer())
+			{
+				completedRead = pendingRead;
+				pendingRead = null;
+			}
+			if (pendingWrite != null && (events & (LibC.POLLOUT | anyEvent)) != 0 &&
+				pendingWrite.transfer())
+			{
+				completedWrite = pendingWrite;
+				pendingWrite = null;
+			}
+		}
+		if (completedRead != null)
+			completedRead.dispatch();
+		if (completedWrite != null)
+			completedWrite.dispatch();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		Operation<?> abortedRead;
+		Operation<?> abortedWrite;
+		synchronized (lock)
+		{
+			if (closed)
+				return;
+			closed = true;
+			abortedRead = pendingRead;
+			abortedWrite = pendingWrite;
+			pendingRead = null;
+			pendingWrite = null;
+			Poller.getInstance().remove(this);
+			try
+			{
+				if (LibC.close(callState, fd) == -1)
+					throw new IOException("close() failed with error: " + LibC.strerror(LibC.errno(callState)));
+			}
+			finally
+			{
+				arena.close();
+				// Unpin the mailbox from its event loop. Completions that are still outstanding continue to
+				// be delivered.
+				mailbox.close();
+				group.removeChannel(this);
+			}
+		}
+		if (abortedRead != null)
+			abortedRead.fail(new AsynchronousCloseException());
+		if (abortedWrite != null)
+			abortedWrite.fail(new AsynchronousCloseException());
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		synchronized (lock)
+		{
+			return !closed;
+		}
+	}
+
+	/**
+	 * Returns the serial port associated with the channel.
+	 *
+	 * @return the serial port associated with the channel
+	 */
+	public FfmSerialPort getPort()
+	{
+		return port;
+	}
+
+	@Override
+	public String toString()
+	{
+		return port.getName() + "[" + baudRate + " " + dataBits + "-" + parity + "-" + stopBits + " "
+			+ flowControl + "]";
+	}
+
+	/**
+	 * An outstanding read or write operation.
+	 *
+	 * @param <A> the attachment type
+	 */
+	private final class Operation<A> extends PeripheralChannelGroup.Completion
+	{
+		private final boolean read;
+		private final MemorySegment segment;
+		/**
+		 * The ByteBuffer whose position to update, if any.
+		 */
+		private final ByteBuffer buffer;
+		private final A attachment;
+		private final CompletionHandler<Integer, ? super A> handler;
+		/**
+		 * The number of bytes transferred, or -1 if the other end hung up.
+		 */
+		private int value;
+		/**
+		 * The cause of the failure, null if the operation succeeded.
+		 */
+		private Throwable failure;
+
+		/**
+		 * Creates a new Operation.
+		 *
+		 * @param read true if the operation reads from the port, false if it writes to it
+		 * @param segment the memory to transfer
+		 * @param buffer the ByteBuffer whose position to update, or null
+		 * @param attachment the attachment to pass to handler
+		 * @param handler the handler to notify when the operation completes
+		 */
+		Operation(boolean read, MemorySegment segment, ByteBuffer buffer, A attachment,
+			CompletionHandler<Integer, ? super A> handler)
+		{
+			super(mailbox);
+			this.read = read;
+			this.segment = segment;
+			this.buffer = buffer;
+			this.attachment = attachment;
+			this.handler = handler;
+		}
+
+		/**
+		 * Attempts to transfer bytes without blocking. Must be invoked with the channel lock held. The
+		 * caller is responsible for dispatching the operation once it is done, after releasing the lock.
+		 *
+		 * @return true if the operation is done, false if the port is not ready
+		 */
+		boolean transfer()
+		{
+			long result;
+			do
+			{
+				if (read)
+					result = LibC.read(callState, fd, segment, segment.byteSize());
+				else
+					result = LibC.write(callState, fd, segment, segment.byteSize());
+			}
+			while (result == -1 && LibC.errno(callState) == LibC.EINTR);
+			if (result == -1)
+			{
+				int errno = LibC.errno(callState);
+				if (errno == LibC.EAGAIN)
+					return false;
+				failure = new IOException((read ? "read()" : "write()") + " failed with error: " +
+					LibC.strerror(errno));
+				return true;
+			}
+			if (result == 0)
+			{
+				// Reads return zero bytes once the other end hangs up. Writes that transferred nothing remain
+				// pending.
+				if (!read)
+					return false;
+				value = -1;
+				return true;
+			}
+			if (buffer != null)
+				buffer.position(buffer.position() + (int) result);
+			value = (int) result;
+			return true;
+		}
+
+		/**
+		 * Notifies the handler that the operation failed.
+		 *
+		 * @param t the cause of the failure
+		 */
+		void fail(Throwable t)
+		{
+			failure = t;
+			dispatch();
+		}
+
+		@Override
+		protected void deliver()
+		{
+			if (failure == null)
+				handler.completed(value, attachment);
+			else
+				handler.failed(failure, attachment);
+		}
+	}
+
+	/**
+	 * Completes the SettableFuture passed in as the attachment.
+	 */
+	private static final class FutureHandler
+		implements CompletionHandler<Integer, SettableFuture<Integer>>
+	{
+		public static final FutureHandler INSTANCE = new FutureHandler();
+
+		@Override
+		public void completed(Integer result, SettableFuture<Integer> future)
+		{
+			future.set(result);
+		}
+
+		@Override
+		public void failed(Throwable t, SettableFuture<Integer> future)
+		{
+			future.setException(t);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package org.jperipheral.ffm;
+
+import com.google.common.base.Preconditions;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import org.jperipheral.Peripheral;
+import org.jperipheral.PeripheralChannelGroup;
+import org.jperipheral.PeripheralInUseException;
+import org.jperipheral.PeripheralNotFoundException;
+
+/**
+ * A serial port accessed using the Foreign Function and Memory API instead of the JPeripheral
+ * native library.
+ *
+ * @author Gili Tzabari
+ */
+public final class FfmSerialPort implements Peripheral
+{
+	private final String name;
+
+	/**
+	 * Creates a new FfmSerialPort.
+	 *
+	 * @param name the port name (e.g. "ttyUSB0" or "/dev/ttyUSB0")
+	 * @throws NullPointerException if name is null
+	 * @throws IllegalArgumentException if name.trim().isEmpty()
+	 */
+	public FfmSerialPort(String name)
+	{
+		Preconditions.checkNotNull(name, "name may not be null");
+		Preconditions.checkArgument(!name.trim().isEmpty(), "name may not be an empty string");
+
+		this.name = name;
+	}
+
+	@Override
+	public FfmSerialChannel newAsynchronousChannel(PeripheralChannelGroup group)
+		throws PeripheralNotFoundException, PeripheralInUseException
+	{
+		FfmSerialChannel result = new FfmSerialChannel(this, group, 0, TimeUnit.MILLISECONDS);
+		group.addChannel(result);
+		return result;
+	}
+
+	@Override
+	public FfmSerialChannel newAsynchronousChannel(PeripheralChannelGroup group, long timeout,
+		TimeUnit unit) throws PeripheralNotFoundException, PeripheralInUseException
+	{
+		FfmSerialChannel result = new FfmSerialChannel(this, group, timeout, unit);
+		group.addChannel(result);
+		return result;
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Returns the path of the port. Names that are not absolute paths are resolved against /dev.
+	 *
+	 * @return the path of the port
+	 */
+	String getPath()
+	{
+		if (name.startsWith("/"))
+			return name;
+		return "/dev/" + name;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof FfmSerialPort))
+			return false;
+		final FfmSerialPort other = (FfmSerialPort) o;
+		return name.equals(other.getName());
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(this.name);
+	}
+
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
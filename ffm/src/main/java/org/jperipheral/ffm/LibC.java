@@ -0,0 +1,473 @@
+package org.jperipheral.ffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+/**
+ * Bindings to the subset of the Linux C library used by this package.
+ * <p>
+ * Constants and structure layouts match glibc on x86-64 and AArch64.
+ *
+ * @author Gili Tzabari
+ */
+final class LibC
+{
+	static final int O_RDWR = 02;
+	static final int O_NOCTTY = 0400;
+	static final int O_NONBLOCK = 04000;
+	static final int O_CLOEXEC = 02000000;
+
+	static final int EINTR = 4;
+	static final int ENOENT = 2;
+	static final int ENXIO = 6;
+	static final int EAGAIN = 11;
+	static final int EWOULDBLOCK = EAGAIN;
+	static final int EBUSY = 16;
+	static final int ENODEV = 19;
+
+	static final int EFD_NONBLOCK = O_NONBLOCK;
+	static final int EFD_CLOEXEC = O_CLOEXEC;
+
+	static final short POLLIN = 0x001;
+	static final short POLLOUT = 0x004;
+	static final short POLLERR = 0x008;
+	static final short POLLHUP = 0x010;
+	static final short POLLNVAL = 0x020;
+
+	static final long TIOCEXCL = 0x540C;
+	static final long TIOCGPTN = 0x80045430L;
+	static final long TCGETS2 = 0x802C542AL;
+	static final long TCSETS2 = 0x402C542BL;
+	static final int TCSANOW = 0;
+
+	static final int LOCK_EX = 2;
+	static final int LOCK_NB = 4;
+
+	// st_mode
+	static final int S_IFMT = 0170000;
+	static final int S_IFCHR = 0020000;
+
+	// c_iflag
+	static final int IGNBRK = 0000001;
+	static final int BRKINT = 0000002;
+	static final int PARMRK = 0000010;
+	static final int INPCK = 0000020;
+	static final int ISTRIP = 0000040;
+	static final int INLCR = 0000100;
+	static final int IGNCR = 0000200;
+	static final int ICRNL = 0000400;
+	static final int IXON = 0002000;
+	static final int IXANY = 0004000;
+	static final int IXOFF = 0010000;
+	// c_oflag
+	static final int OPOST = 0000001;
+	// c_lflag
+	static final int ISIG = 0000001;
+	static final int ICANON = 0000002;
+	static final int ECHO = 0000010;
+	static final int ECHONL = 0000100;
+	static final int IEXTEN = 0100000;
+	// c_cflag
+	static final int CSIZE = 0000060;
+	static final int CS5 = 0000000;
+	static final int CS6 = 0000020;
+	static final int CS7 = 0000040;
+	static final int CS8 = 0000060;
+	static final int CSTOPB = 0000100;
+	static final int CREAD = 0000200;
+	static final int PARENB = 0000400;
+	static final int PARODD = 0001000;
+	static final int CLOCAL = 0004000;
+	static final int CMSPAR = 010000000000;
+	static final int CRTSCTS = 020000000000;
+	static final int CBAUD = 0010017;
+	static final int BOTHER = 0010000;
+	/**
+	 * The shift from the output speed bits of c_cflag to the input speed bits.
+	 */
+	static final int IBSHIFT = 16;
+	// Speeds
+	static final int B0 = 0000000;
+	static final int B110 = 0000003;
+	static final int B300 = 0000007;
+	static final int B600 = 0000010;
+	static final int B1200 = 0000011;
+	static final int B2400 = 0000013;
+	static final int B4800 = 0000014;
+	static final int B9600 = 0000015;
+	static final int B19200 = 0000016;
+	static final int B38400 = 0000017;
+	static final int B57600 = 0010001;
+	static final int B115200 = 0010002;
+	static final int B230400 = 0010003;
+	static final int B460800 = 0010004;
+	static final int B500000 = 0010005;
+	static final int B576000 = 0010006;
+	static final int B921600 = 0010007;
+	static final int B1000000 = 0010010;
+	static final int B1152000 = 0010011;
+	static final int B1500000 = 0010012;
+	static final int B2000000 = 0010013;
+	static final int B2500000 = 0010014;
+	static final int B3000000 = 0010015;
+	static final int B3500000 = 0010016;
+	static final int B4000000 = 0010017;
+	// c_cc
+	static final int VTIME = 5;
+	static final int VMIN = 6;
+
+	/**
+	 * {@code struct termios}.
+	 */
+	static final StructLayout TERMIOS = MemoryLayout.structLayout(
+		JAVA_INT.withName("c_iflag"),
+		JAVA_INT.withName("c_oflag"),
+		JAVA_INT.withName("c_cflag"),
+		JAVA_INT.withName("c_lflag"),
+		JAVA_BYTE.withName("c_line"),
+		MemoryLayout.sequenceLayout(32, JAVA_BYTE).withName("c_cc"),
+		MemoryLayout.paddingLayout(3),
+		JAVA_INT.withName("c_ispeed"),
+		JAVA_INT.withName("c_ospeed"));
+	static final long C_IFLAG = TERMIOS.byteOffset(MemoryLayout.PathElement.groupElement("c_iflag"));
+	static final long C_OFLAG = TERMIOS.byteOffset(MemoryLayout.PathElement.groupElement("c_oflag"));
+	static final long C_CFLAG = TERMIOS.byteOffset(MemoryLayout.PathElement.groupElement("c_cflag"));
+	static final long C_LFLAG = TERMIOS.byteOffset(MemoryLayout.PathElement.groupElement("c_lflag"));
+	static final long C_CC = TERMIOS.byteOffset(MemoryLayout.PathElement.groupElement("c_cc"));
+
+	/**
+	 * The kernel's {@code struct termios2}, which carries arbitrary baud rates.
+	 */
+	static final StructLayout TERMIOS2 = MemoryLayout.structLayout(
+		JAVA_INT.withName("c_iflag"),
+		JAVA_INT.withName("c_oflag"),
+		JAVA_INT.withName("c_cflag"),
+		JAVA_INT.withName("c_lflag"),
+		JAVA_BYTE.withName("c_line"),
+		MemoryLayout.sequenceLayout(19, JAVA_BYTE).withName("c_cc"),
+		JAVA_INT.withName("c_ispeed"),
+		JAVA_INT.withName("c_ospeed"));
+	static final long TERMIOS2_CFLAG = TERMIOS2.byteOffset(
+		MemoryLayout.PathElement.groupElement("c_cflag"));
+	static final long TERMIOS2_ISPEED = TERMIOS2.byteOffset(
+		MemoryLayout.PathElement.groupElement("c_ispeed"));
+	static final long TERMIOS2_OSPEED = TERMIOS2.byteOffset(
+		MemoryLayout.PathElement.groupElement("c_ospeed"));
+
+	/**
+	 * {@code struct pollfd}.
+	 */
+	static final StructLayout POLLFD = MemoryLayout.structLayout(
+		JAVA_INT.withName("fd"),
+		JAVA_SHORT.withName("events"),
+		JAVA_SHORT.withName("revents"));
+	static final long POLLFD_FD = POLLFD.byteOffset(MemoryLayout.PathElement.groupElement("fd"));
+	static final long POLLFD_EVENTS = POLLFD.byteOffset(MemoryLayout.PathElement.groupElement("events"));
+	static final long POLLFD_REVENTS = POLLFD.byteOffset(MemoryLayout.PathElement.groupElement("revents"));
+
+	private static final Linker LINKER = Linker.nativeLinker();
+	private static final SymbolLookup LOOKUP = LINKER.defaultLookup();
+	/**
+	 * The layout of the call state captured after each function that reports errors using errno.
+	 */
+	static final StructLayout CALL_STATE = Linker.Option.captureStateLayout();
+	private static final VarHandle ERRNO = CALL_STATE.varHandle(
+		MemoryLayout.PathElement.groupElement("errno"));
+	private static final Linker.Option CAPTURE_ERRNO = Linker.Option.captureCallState("errno");
+
+	private static final MethodHandle OPEN = downcall("open",
+		FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT), CAPTURE_ERRNO);
+	private static final MethodHandle CLOSE = downcall("close",
+		FunctionDescriptor.of(JAVA_INT, JAVA_INT), CAPTURE_ERRNO);
+	// read() and write() never block because file descriptors are opened with O_NONBLOCK. Critical
+	// calls may access heap segments directly, which spares heap ByteBuffers a staging copy.
+	private static final MethodHandle READ = downcall("read",
+		FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG), CAPTURE_ERRNO,
+		Linker.Option.critical(true));
+	private static final MethodHandle WRITE = downcall("write",
+		FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG), CAPTURE_ERRNO,
+		Linker.Option.critical(true));
+	private static final MethodHandle POLL = downcall("poll",
+		FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_LONG, JAVA_INT), CAPTURE_ERRNO);
+	private static final MethodHandle IOCTL = downcall("ioctl",
+		FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG), CAPTURE_ERRNO, Linker.Option.firstVariadicArg(2));
+	private static final MethodHandle IOCTL_POINTER = downcall("ioctl",
+		FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG, ADDRESS), CAPTURE_ERRNO,
+		Linker.Option.firstVariadicArg(2));
+	private static final MethodHandle FLOCK = downcall("flock",
+		FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT), CAPTURE_ERRNO);
+	private static final MethodHandle ISATTY = downcall("isatty",
+		FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+	private static final MethodHandle TCGETATTR = downcall("tcgetattr",
+		FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS), CAPTURE_ERRNO);
+	private static final MethodHandle TCSETATTR = downcall("tcsetattr",
+		FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS), CAPTURE_ERRNO);
+	private static final MethodHandle CFSETISPEED = downcall("cfsetispeed",
+		FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT), CAPTURE_ERRNO);
+	private static final MethodHandle CFSETOSPEED = downcall("cfsetospeed",
+		FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT), CAPTURE_ERRNO);
+	private static final MethodHandle EVENTFD = downcall("eventfd",
+		FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT), CAPTURE_ERRNO);
+	private static final MethodHandle STRERROR = downcall("strerror",
+		FunctionDescriptor.of(ADDRESS, JAVA_INT));
+
+	/**
+	 * Prevent construction.
+	 */
+	private LibC()
+	{
+	}
+
+	/**
+	 * Looks up a function in the C library.
+	 *
+	 * @param name the function name
+	 * @param descriptor the function descriptor
+	 * @param options the linker options
+	 * @return a handle that invokes the function
+	 * @throws UnsatisfiedLinkError if the function does not exist
+	 */
+	private static MethodHandle downcall(String name, FunctionDescriptor descriptor,
+		Linker.Option... options)
+	{
+		MemorySegment address = LOOKUP.find(name).orElseThrow(() -> new UnsatisfiedLinkError(name));
+		return LINKER.downcallHandle(address, descriptor, options);
+	}
+
+	/**
+	 * Returns the errno value captured by the last call that used a call state.
+	 *
+	 * @param callState the call state
+	 * @return the errno value
+	 */
+	static int errno(MemorySegment callState)
+	{
+		return (int) ERRNO.get(callState, 0L);
+	}
+
+	/**
+	 * Returns the String representation of an errno value.
+	 *
+	 * @param errno the errno value
+	 * @return the String representation of the errno value
+	 */
+	static String strerror(int errno)
+	{
+		try
+		{
+			MemorySegment message = (MemorySegment) STRERROR.invokeExact(errno);
+			return message.reinterpret(Long.MAX_VALUE).getString(0) + " (errno " + errno + ")";
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	static int open(MemorySegment callState, MemorySegment path, int flags)
+	{
+		try
+		{
+			return (int) OPEN.invokeExact(callState, path, flags);
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	static int close(MemorySegment callState, int fd)
+	{
+		try
+		{
+			return (int) CLOSE.invokeExact(callState, fd);
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	static long read(MemorySegment callState, int fd, MemorySegment buffer, long count)
+	{
+		try
+		{
+			return (long) READ.invokeExact(callState, fd, buffer, count);
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	static long write(MemorySegment callState, int fd, MemorySegment buffer, long count)
+	{
+		try
+		{
+			return (long) WRITE.invokeExact(callState, fd, buffer, count);
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	static int poll(MemorySegment callState, MemorySegment fds, long count, int timeout)
+	{
+		try
+		{
+			return (int) POLL.invokeExact(callState, fds, count, timeout);
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	static int ioctl(MemorySegment callState, int fd, long request)
+	{
+		try
+		{
+			return (int) IOCTL.invokeExact(callState, fd, request);
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	static int ioctl(MemorySegment callState, int fd, long request, MemorySegment argument)
+	{
+		try
+		{
+			return (int) IOCTL_POINTER.invokeExact(callState, fd, request, argument);
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	static int flock(MemorySegment callState, int fd, int operation)
+	{
+		try
+		{
+			return (int) FLOCK.invokeExact(callState, fd, operation);
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	static boolean isatty(int fd)
+	{
+		try
+		{
+			return (int) ISATTY.invokeExact(fd) == 1;
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	static int tcgetattr(MemorySegment callState, int fd, MemorySegment termios)
+	{
+		try
+		{
+			return (int) TCGETATTR.invokeExact(callState, fd, termios);
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	static int tcsetattr(MemorySegment callState, int fd, int optionalActions, MemorySegment termios)
+	{
+		try
+		{
+			return (int) TCSETATTR.invokeExact(callState, fd, optionalActions, termios);
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	static int cfsetispeed(MemorySegment callState, MemorySegment termios, int speed)
+	{
+		try
+		{
+			return (int) CFSETISPEED.invokeExact(callState, termios, speed);
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	static int cfsetospeed(MemorySegment callState, MemorySegment termios, int speed)
+	{
+		try
+		{
+			return (int) CFSETOSPEED.invokeExact(callState, termios, speed);
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	static int eventfd(MemorySegment callState, int initialValue, int flags)
+	{
+		try
+		{
+			return (int) EVENTFD.invokeExact(callState, initialValue, flags);
+		}
+		catch (Throwable t)
+		{
+			throw propagate(t);
+		}
+	}
+
+	/**
+	 * Allocates a call state.
+	 *
+	 * @param arena the arena to allocate from
+	 * @return a new call state
+	 */
+	static MemorySegment newCallState(Arena arena)
+	{
+		return arena.allocate(CALL_STATE);
+	}
+
+	/**
+	 * Rethrows exceptions thrown by downcall handles. Downcalls do not throw checked exceptions.
+	 *
+	 * @param t the exception
+	 * @return never returns
+	 */
+	private static RuntimeException propagate(Throwable t)
+	{
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		throw new AssertionError(t);
+	}
+}
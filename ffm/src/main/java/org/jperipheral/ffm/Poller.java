@@ -0,0 +1,213 @@
+package org.jperipheral.ffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+/**
+ * Waits for channels with outstanding operations to become ready.
+ * <p>
+ * A single thread invokes {@code poll()} on behalf of all channels. Channels attempt operations on
+ * the calling thread first and only wait on the poller if the port is not ready.
+ *
+ * @author Gili Tzabari
+ */
+final class Poller implements Runnable
+{
+	private static final Poller INSTANCE = new Poller();
+	private final Logger log = LoggerFactory.getLogger(Poller.class);
+	/**
+	 * The open channels.
+	 */
+	private final Set<FfmSerialChannel> channels = ConcurrentHashMap.newKeySet();
+	/**
+	 * An eventfd used to wake up the thread.
+	 */
+	private final int wakeupFd;
+	/**
+	 * The buffer used to signal wakeupFd.
+	 */
+	private final MemorySegment wakeupValue;
+	private final MemorySegment callState;
+	private final Thread thread;
+
+	/**
+	 * Returns the singleton instance.
+	 *
+	 * @return the singleton instance
+	 */
+	static Poller getInstance()
+	{
+		return INSTANCE;
+	}
+
+	/**
+	 * Creates a new Poller.
+	 *
+	 * @throws AssertionError if the eventfd could not be created
+	 */
+	private Poller()
+	{
+		Arena arena = Arena.global();
+		this.callState = LibC.newCallState(arena);
+		this.wakeupValue = arena.allocate(JAVA_LONG);
+		wakeupValue.set(JAVA_LONG, 0, 1L);
+		this.wakeupFd = LibC.eventfd(callState, 0, LibC.EFD_NONBLOCK | LibC.EFD_CLOEXEC);
+		if (wakeupFd == -1)
+			throw new AssertionError("eventfd() failed with error: " + LibC.strerror(LibC.errno(callState)));
+		this.thread = new Thread(this, "jperipheral-ffm-poller");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Registers a channel with the poller.
+	 *
+	 * @param channel the channel
+	 */
+	void add(FfmSerialChannel channel)
+	{
+		channels.add(channel);
+	}
+
+	/**
+	 * Unregisters a channel from the poller.
+	 *
+	 * @param channel the channel
+	 */
+	void remove(FfmSerialChannel channel)
+	{
+		if (channels.remove(channel))
+			wakeup();
+	}
+
+	/**
+	 * Indicates that a channel's {@link FfmSerialChannel#getInterestOps() interest operations}
+	 * changed. The poller invokes {@link FfmSerialChannel#onReady(short)} once the channel becomes
+	 * ready.
+	 *
+	 * @param channel the channel
+	 */
+	void interestChanged(FfmSerialChannel channel)
+	{
+		// The poller thread re-reads the interest operations before polling again
+		if (Thread.currentThread() != thread)
+			wakeup();
+	}
+
+	/**
+	 * Wakes up the thread.
+	 */
+	private void wakeup()
+	{
+		synchronized (wakeupValue)
+		{
+			if (LibC.write(callState, wakeupFd, wakeupValue, JAVA_LONG.byteSize()) == -1)
+			{
+				int errno = LibC.errno(callState);
+				if (errno != LibC.EAGAIN)
+					throw new AssertionError("write(eventfd) failed with error: " + LibC.strerror(errno));
+			}
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		Arena arena = Arena.ofConfined();
+		MemorySegment threadCallState = LibC.newCallState(arena);
+		MemorySegment counter = arena.allocate(JAVA_LONG);
+		MemorySegment pollFds = arena.allocate(LibC.POLLFD, 16);
+		List<FfmSerialChannel> polled = new ArrayList<>();
+		List<Short> interestOps = new ArrayList<>();
+		while (true)
+		{
+			polled.clear();
+			interestOps.clear();
+			for (FfmSerialChannel channel: channels)
+			{
+				short events = channel.getInterestOps();
+				if (events == 0)
+					continue;
+				polled.add(channel);
+				interestOps.add(events);
+			}
+			long count = polled.size() + 1;
+			if (pollFds.byteSize() < count * LibC.POLLFD.byteSize())
+			{
+				// Release the old array along with the arena that owns it
+				arena.close();
+				arena = Arena.ofConfined();
+				threadCallState = LibC.newCallState(arena);
+				counter = arena.allocate(JAVA_LONG);
+				pollFds = arena.allocate(LibC.POLLFD, count * 2);
+			}
+			setPollFd(pollFds, 0, wakeupFd, LibC.POLLIN);
+			for (int i = 0; i < polled.size(); ++i)
+				setPollFd(pollFds, i + 1, polled.get(i).getFileDescriptor(), interestOps.get(i));
+
+			int result = LibC.poll(threadCallState, pollFds, count, -1);
+			if (result == -1)
+			{
+				int errno = LibC.errno(threadCallState);
+				if (errno == LibC.EINTR)
+					continue;
+				log.error("poll() failed with error: " + LibC.strerror(errno));
+				return;
+			}
+			if (getRevents(pollFds, 0) != 0)
+				LibC.read(threadCallState, wakeupFd, counter, JAVA_LONG.byteSize());
+			for (int i = 0; i < polled.size(); ++i)
+			{
+				short revents = getRevents(pollFds, i + 1);
+				if (revents == 0)
+					continue;
+				try
+				{
+					polled.get(i).onReady(revents);
+				}
+				catch (RuntimeException | Error e)
+				{
+					log.error("", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Populates a {@code struct pollfd}.
+	 *
+	 * @param pollFds an array of {@code struct pollfd}
+	 * @param index the index of the element to populate
+	 * @param fd the file descriptor
+	 * @param events the events to wait for
+	 */
+	private static void setPollFd(MemorySegment pollFds, long index, int fd, short events)
+	{
+		long offset = index * LibC.POLLFD.byteSize();
+		pollFds.set(JAVA_INT, offset + LibC.POLLFD_FD, fd);
+		pollFds.set(JAVA_SHORT, offset + LibC.POLLFD_EVENTS, events);
+		pollFds.set(JAVA_SHORT, offset + LibC.POLLFD_REVENTS, (short) 0);
+	}
+
+	/**
+	 * Returns the events returned by {@code poll()}.
+	 *
+	 * @param pollFds an array of {@code struct pollfd}
+	 * @param index the index of the element to read
+	 * @return the events that occurred
+	 */
+	private static short getRevents(MemorySegment pollFds, long index)
+	{
+		return pollFds.get(JAVA_SHORT, index * LibC.POLLFD.byteSize() + LibC.POLLFD_REVENTS);
+	}
+}
@@ -0,0 +1,8 @@
+/**
+ * A pure-Java serial port backend for Linux, built on the Foreign Function and Memory API.
+ * <p>
+ * Unlike {@link org.jperipheral.SerialPort}, this backend does not require the JPeripheral native
+ * library. It requires Java 22 or newer and, to avoid restricted method warnings, the
+ * {@code --enable-native-access=ALL-UNNAMED} JVM option.
+ */
+package org.jperipheral.ffm;
@@ -0,0 +1,269 @@
+package org.jperipheral.ffm;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.jperipheral.PeripheralChannelGroup;
+import org.jperipheral.PeripheralInUseException;
+import org.jperipheral.PeripheralNotFoundException;
+import org.jperipheral.SerialPort.BaudRate;
+import org.jperipheral.SerialPort.DataBits;
+import org.jperipheral.SerialPort.FlowControl;
+import org.jperipheral.SerialPort.Parity;
+import org.jperipheral.SerialPort.StopBits;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * Tests FfmSerialChannel against a pseudo-terminal. Requires Linux.
+ *
+ * @author Gili Tzabari
+ */
+public class TestFfmSerialChannel
+{
+	/**
+	 * Returns the number of the pseudo-terminal's slave.
+	 */
+	private static final long TIOCGPTN = 0x80045430L;
+	/**
+	 * Locks or unlocks the pseudo-terminal's slave.
+	 */
+	private static final long TIOCSPTLCK = 0x40045431L;
+	/**
+	 * {@code ioctl()} requests that take a pointer, which the channel does not use.
+	 */
+	private static final MethodHandle IOCTL = Linker.nativeLinker().downcallHandle(
+		Linker.nativeLinker().defaultLookup().find("ioctl").orElseThrow(),
+		FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG, ADDRESS),
+		Linker.Option.firstVariadicArg(2));
+	private static final int WARMUP_CONFIGURES = 20000;
+	private static final int CONFIGURES = 200000;
+	/**
+	 * The amount by which the resident set may grow while the channel is configured repeatedly. A
+	 * leaked termios structure would grow it by more than 10MB.
+	 */
+	private static final long MAX_RESIDENT_GROWTH = 4 * 1024 * 1024;
+	private PeripheralChannelGroup group;
+	private FfmSerialChannel master;
+	private FfmSerialChannel slave;
+
+	@Before
+	public void openTerminal() throws IOException
+	{
+		group = new PeripheralChannelGroup(Executors.newFixedThreadPool(2));
+		master = new FfmSerialPort("/dev/ptmx").newAsynchronousChannel(group);
+		slave = new FfmSerialPort(getSlavePath(master)).newAsynchronousChannel(group);
+		for (FfmSerialChannel channel: new FfmSerialChannel[]
+			{
+				master, slave
+			})
+		{
+			channel.configure(BaudRate._115200, DataBits.EIGHT, Parity.NONE, StopBits.ONE,
+				FlowControl.NONE);
+		}
+	}
+
+	@After
+	public void closeTerminal() throws IOException
+	{
+		try
+		{
+			slave.close();
+			master.close();
+		}
+		finally
+		{
+			group.shutdownNow();
+		}
+	}
+
+	@Test
+	public void transfer() throws InterruptedException, ExecutionException, TimeoutException
+	{
+		ByteBuffer source = ByteBuffer.wrap("hello".getBytes(StandardCharsets.US_ASCII));
+		while (source.hasRemaining())
+			master.write(source).get(10, TimeUnit.SECONDS);
+
+		// Heap buffers are transferred without staging
+		ByteBuffer target = ByteBuffer.allocate(source.capacity());
+		while (target.hasRemaining())
+		{
+			int count = slave.read(target).get(10, TimeUnit.SECONDS);
+			assert (count > 0): count;
+		}
+		String actual = new String(target.array(), StandardCharsets.US_ASCII);
+		assert (actual.equals("hello")): actual;
+	}
+
+	@Test
+	public void configureEveryBaudRate() throws IOException
+	{
+		// Rates without a Bxxx constant, such as 14400, go through termios2
+		for (BaudRate baudRate: BaudRate.values())
+		{
+			slave.configure(baudRate, DataBits.EIGHT, Parity.NONE, StopBits.ONE, FlowControl.NONE);
+			assert (slave.getBaudRate() == baudRate): slave.getBaudRate();
+			assert (slave.getActualBaudRate() == baudRate.toInt()): slave.getActualBaudRate();
+		}
+	}
+
+	@Test
+	public void configureArbitraryBaudRate() throws IOException
+	{
+		int actual = slave.configure(250000, DataBits.EIGHT, Parity.NONE, StopBits.ONE,
+			FlowControl.NONE);
+		assert (actual == 250000): actual;
+		assert (slave.getActualBaudRate() == 250000): slave.getActualBaudRate();
+		assert (slave.getBaudRate() == null): slave.getBaudRate();
+	}
+
+	@Test
+	public void pseudoTerminalMastersOpenConcurrently() throws IOException
+	{
+		// All masters share the inode of /dev/ptmx, so they may not be locked
+		FfmSerialChannel other = new FfmSerialPort("/dev/ptmx").newAsynchronousChannel(group);
+		other.close();
+	}
+
+	@Test
+	public void openLockedPort() throws IOException
+	{
+		try
+		{
+			new FfmSerialPort(slave.getPort().getName()).newAsynchronousChannel(group);
+			assert (false): "Expected PeripheralInUseException";
+		}
+		catch (PeripheralInUseException e)
+		{
+			long pid = ProcessHandle.current().pid();
+			assert (e.getOwnerPid() == pid): "ownerPid: " + e.getOwnerPid() + ", pid: " + pid;
+		}
+	}
+
+	@Test
+	public void configureDoesNotLeak() throws IOException
+	{
+		configure(slave, WARMUP_CONFIGURES);
+		long before = getResidentBytes();
+		configure(slave, CONFIGURES);
+		long growth = getResidentBytes() - before;
+		assert (growth < MAX_RESIDENT_GROWTH): "Resident set grew by " + growth + " bytes";
+	}
+
+	@Test
+	public void closeRemovesChannelFromGroup() throws IOException
+	{
+		assert (group.getChannels().contains(slave)): group.getChannels();
+		slave.close();
+		assert (!group.getChannels().contains(slave)): group.getChannels();
+	}
+
+	@Test
+	public void openMissingPort() throws IOException
+	{
+		try
+		{
+			new FfmSerialPort("/dev/jperipheral-missing").newAsynchronousChannel(group);
+			assert (false): "Expected PeripheralNotFoundException";
+		}
+		catch (PeripheralNotFoundException e)
+		{
+			assert (e.getCause() == null): e.getCause();
+		}
+	}
+
+	@Test
+	public void openFailureCarriesError() throws IOException
+	{
+		try
+		{
+			// Directories cannot be opened for writing
+			new FfmSerialPort("/").newAsynchronousChannel(group);
+			assert (false): "Expected PeripheralNotFoundException";
+		}
+		catch (PeripheralNotFoundException e)
+		{
+			Throwable cause = e.getCause();
+			assert (cause instanceof IOException): cause;
+			assert (cause.getMessage().startsWith("open() failed with error: ")): cause.getMessage();
+		}
+	}
+
+	/**
+	 * Unlocks the slave of a pseudo-terminal and returns its path.
+	 *
+	 * @param master the master side of the pseudo-terminal
+	 * @return the path of the slave
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static String getSlavePath(FfmSerialChannel master) throws IOException
+	{
+		try (Arena arena = Arena.ofConfined())
+		{
+			MemorySegment value = arena.allocate(JAVA_INT);
+			if ((int) IOCTL.invokeExact(master.getFileDescriptor(), TIOCSPTLCK, value) == -1)
+				throw new IOException("ioctl(TIOCSPTLCK) failed");
+			if ((int) IOCTL.invokeExact(master.getFileDescriptor(), TIOCGPTN, value) == -1)
+				throw new IOException("ioctl(TIOCGPTN) failed");
+			return "/dev/pts/" + value.get(JAVA_INT, 0);
+		}
+		catch (IOException | RuntimeException | Error e)
+		{
+			throw e;
+		}
+		catch (Throwable t)
+		{
+			throw new AssertionError(t);
+		}
+	}
+
+	/**
+	 * Configures a channel repeatedly.
+	 *
+	 * @param channel the channel
+	 * @param count the number of times to configure the channel
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void configure(FfmSerialChannel channel, int count) throws IOException
+	{
+		for (int i = 0; i < count; ++i)
+		{
+			channel.configure(BaudRate._115200, DataBits.EIGHT, Parity.NONE, StopBits.ONE,
+				FlowControl.NONE);
+		}
+	}
+
+	/**
+	 * Returns the size of the process' resident set.
+	 *
+	 * @return the number of bytes in the resident set
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static long getResidentBytes() throws IOException
+	{
+		for (String line: Files.readAllLines(Paths.get("/proc/self/status"),
+			StandardCharsets.US_ASCII))
+		{
+			// VmRSS:	   12345 kB
+			if (line.startsWith("VmRSS:"))
+				return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+		}
+		throw new AssertionError("VmRSS is missing from /proc/self/status");
+	}
+}
@@ -6,11 +6,12 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
 import com.google.common.primitives.Bytes;
-import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.AbstractFuture;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousChannel;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
 import java.nio.channels.ReadPendingException;
@@ -18,12 +19,7 @@ import java.nio.channels.ShutdownChannelGroupException;
 import java.nio.channels.WritePendingException;
 import java.nio.charset.Charset;
 import java.nio.charset.MalformedInputException;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -32,6 +28,10 @@ import org.slf4j.LoggerFactory;
 
 /**
  * An adapter that maps an AsynchronousCharChannel on top of an existing AsynchronousByteChannel.
+ * <p>
+ * Operations that return a {@code Future} are carried out using a {@code CompletionHandler}, without
+ * tying up any thread. {@code cancel(true)} closes the channel, aborting the underlying operation, in
+ * line with {@link AsynchronousChannel}.
  *
  * @author Gili Tzabari
  */
@@ -76,18 +76,40 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 	 * The bytes to write out.
 	 */
 	private final ByteBuffer bytesToWrite = ByteBuffer.allocate(128);
+	/**
+	 * Encodes the characters to write into <code>bytesToWrite</code>.
+	 */
+	private final EncodingReadableByteChannel writeEncoder;
+	/**
+	 * Converts the bytes that were written back into characters.
+	 */
+	private final DecodingWriteableByteChannel writeDecoder;
+	/**
+	 * The bytes of a character that was only partially written.
+	 */
+	private final ByteBuffer partialCharacter;
+	/**
+	 * Delivers the channel's completions in order, on the event loop that the channel is pinned to.
+	 */
+	private final PeripheralChannelGroup.Mailbox mailbox;
+	/**
+	 * Only one read and one write may be outstanding at a time, so the objects that carry them out are
+	 * reused instead of being allocated per operation.
+	 */
+	private final OperationDone<Integer> readDone;
+	private final OperationDone<String> readLineDone;
+	private final OperationDone<Integer> writeDone;
+	private final ReadCharacters<Object> readCharacters = new ReadCharacters<>();
+	private final ReadLine<Object> readLine = new ReadLine<>();
+	private final WriteCharacters<Object> writeCharacters = new WriteCharacters<>();
 
 	/**
 	 * Creates a new AsynchronousByteCharChannel.
 	 * 
 	 * @param channel the underlying AsynchronousByteChannel
 	 * @param charset the character set
-	 * @param group the group associated with the channel. Providing an executor with an insufficient
-	 *   number of threads may lead to deadlocks. This class requires an additional thread per
-	 *   operation. For example, if reading from the underlying channel requires a dedicated thread,
-	 *   the executor should contain at least two threads.
-	 * in a separate executor thread and block the main thread using Future.get().
-
+	 * @param group the group associated with the channel. Operations never block the group's
+	 *   threads, so any number of threads suffices.
 	 * @throws NullPointerException if channel, charset or group are null
 	 * @throws ShutdownChannelGroupException if the channel group is shut down
 	 */
@@ -104,6 +126,15 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 		this.charset = charset;
 		this.group = group;
 		this.readDecoder = new DecodingWriteableByteChannel(charset);
+		this.writeEncoder = new EncodingReadableByteChannel(charset);
+		this.writeDecoder = new DecodingWriteableByteChannel(charset);
+		// A character consists of up to two chars
+		this.partialCharacter = ByteBuffer.allocate((int) Math.ceil(charset.newEncoder().
+			maxBytesPerChar() * 2));
+		this.mailbox = new PeripheralChannelGroup.Mailbox(group);
+		this.readDone = new OperationDone<>(mailbox, reading);
+		this.readLineDone = new OperationDone<>(mailbox, reading);
+		this.writeDone = new OperationDone<>(mailbox, writing);
 	}
 
 	/**
@@ -128,46 +159,33 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 	{
 		if (target.isReadOnly())
 			throw new IllegalArgumentException("target may not be read-only");
+		// The checks are cheap, so they run on the calling thread instead of being handed off to the
+		// executor
+		if (group.isShutdown())
+			throw new ShutdownChannelGroupException();
+		if (closed.get())
+		{
+			group.failed(handler, new ClosedChannelException(), attachment);
+			return;
+		}
+		if (!reading.compareAndSet(false, true))
+			throw new ReadPendingException();
+		OperationDone<Integer> operationDone = readDone.start(handler);
 		try
 		{
-			group.executor().execute(new Runnable()
+			if (target.remaining() <= 0)
 			{
-				@Override
-				public void run()
-				{
-					try
-					{
-						if (closed.get())
-						{
-							handler.failed(new ClosedChannelException(), attachment);
-							return;
-						}
-						if (!reading.compareAndSet(false, true))
-							throw new ReadPendingException();
-						OperationDone<Integer, ? super A> operationDone = new OperationDone<>(handler, reading);
-						if (target.remaining() <= 0)
-						{
-							operationDone.completed(0, attachment);
-							return;
-						}
-						skipNextNewline = false;
-						// Read zero bytes to indicate that the read buffer should be checked before reading from
-						// the underlying channel.
-						new ReadCharacters<>(null, target, operationDone).completed(false, attachment);
-					}
-					catch (RuntimeException | Error e)
-					{
-						handler.failed(e, attachment);
-						throw e;
-					}
-				}
-			});
+				operationDone.completed(0, attachment);
+				return;
+			}
+			skipNextNewline = false;
+			// Read zero bytes to indicate that the read buffer should be checked before reading from
+			// the underlying channel.
+			readCharacters.start(target, operationDone).completed(false, attachment);
 		}
-		catch (RejectedExecutionException e)
+		catch (RuntimeException | Error e)
 		{
-			if (group.isTerminated())
-				throw new ShutdownChannelGroupException();
-			throw e;
+			operationDone.failed(e, attachment);
 		}
 	}
 
@@ -175,85 +193,36 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 	public Future<Integer> read(final CharBuffer target)
 		throws IllegalArgumentException, ReadPendingException
 	{
-		if (target.isReadOnly())
-			throw new IllegalArgumentException("target may not be read-only");
-		return group.executor().submit(new Callable<Integer>()
-		{
-			@Override
-			public Integer call() throws Exception
-			{
-				if (closed.get())
-					throw new ClosedChannelException();
-				if (!reading.compareAndSet(false, true))
-					throw new ReadPendingException();
-				try
-				{
-					if (target.remaining() <= 0)
-						return 0;
-					// Read zero bytes to indicate that the read buffer should be checked before reading from
-					// the underlying channel.
-					ReadCharacters<Void> readCharacters = new ReadCharacters<>(Futures.immediateFuture(false),
-						target, null);
-
-					try
-					{
-						return readCharacters.get();
-					}
-					catch (ExecutionException e)
-					{
-						Throwable cause = e.getCause();
-						if (cause instanceof Exception)
-							throw (Exception) cause;
-						// ExecutionException is only supposed to propogate Exception, not Error
-						throw new AssertionError(cause);
-					}
-				}
-				finally
-				{
-					reading.set(false);
-				}
-			}
-		});
+		OperationFuture<Integer> result = new OperationFuture<>();
+		read(target, null, result);
+		return result;
 	}
 
 	@Override
 	public <A> void readLine(final A attachment, final CompletionHandler<String, ? super A> handler)
 		throws IllegalArgumentException, ReadPendingException, ShutdownChannelGroupException
 	{
+		// The checks are cheap, so they run on the calling thread instead of being handed off to the
+		// executor
+		if (group.isShutdown())
+			throw new ShutdownChannelGroupException();
+		if (closed.get())
+		{
+			group.failed(handler, new ClosedChannelException(), attachment);
+			return;
+		}
+		if (!reading.compareAndSet(false, true))
+			throw new ReadPendingException();
+		OperationDone<String> doneReading = readLineDone.start(handler);
 		try
 		{
-			group.executor().execute(new Runnable()
-			{
-				@Override
-				public void run()
-				{
-					try
-					{
-						if (closed.get())
-						{
-							handler.failed(new ClosedChannelException(), attachment);
-							return;
-						}
-						if (!reading.compareAndSet(false, true))
-							throw new ReadPendingException();
-						OperationDone<String, ? super A> doneReading = new OperationDone<>(handler, reading);
-						// Read zero bytes to indicate that the read buffer should be checked before reading from
-						// the underlying channel.
-						new ReadLine<>(null, doneReading).completed(false, attachment);
-					}
-					catch (RuntimeException | Error e)
-					{
-						handler.failed(e, attachment);
-						throw e;
-					}
-				}
-			});
+			// Read zero bytes to indicate that the read buffer should be checked before reading from
+			// the underlying channel.
+			readLine.start(doneReading).completed(false, attachment);
 		}
-		catch (RejectedExecutionException e)
+		catch (RuntimeException | Error e)
 		{
-			if (group.isTerminated())
-				throw new ShutdownChannelGroupException();
-			throw e;
+			doneReading.failed(e, attachment);
 		}
 	}
 
@@ -261,40 +230,9 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 	public Future<String> readLine()
 		throws IllegalArgumentException, ReadPendingException
 	{
-		return group.executor().submit(new Callable<String>()
-		{
-			@Override
-			public String call() throws Exception
-			{
-				if (closed.get())
-					throw new ClosedChannelException();
-				if (!reading.compareAndSet(false, true))
-					throw new ReadPendingException();
-				try
-				{
-					// Read zero bytes to indicate that the read buffer should be checked before reading from
-					// the underlying channel.
-					ReadLine<Void> readLine = new ReadLine<>(Futures.immediateFuture(false), null);
-
-					try
-					{
-						return readLine.get();
-					}
-					catch (ExecutionException e)
-					{
-						Throwable cause = e.getCause();
-						if (cause instanceof Exception)
-							throw (Exception) cause;
-						// ExecutionException is only supposed to propogate Exception, not Error
-						throw new AssertionError(cause);
-					}
-				}
-				finally
-				{
-					reading.set(false);
-				}
-			}
-		});
+		OperationFuture<String> result = new OperationFuture<>();
+		readLine(null, result);
+		return result;
 	}
 
 	@Override
@@ -302,58 +240,45 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 		final A attachment, final CompletionHandler<Integer, ? super A> handler)
 		throws WritePendingException, ShutdownChannelGroupException
 	{
+		// The checks are cheap, so they run on the calling thread instead of being handed off to the
+		// executor
+		if (group.isShutdown())
+			throw new ShutdownChannelGroupException();
+		if (closed.get())
+		{
+			group.failed(handler, new ClosedChannelException(), attachment);
+			return;
+		}
+		if (!writing.compareAndSet(false, true))
+			throw new WritePendingException();
+		OperationDone<Integer> operationDone = writeDone.start(handler);
 		try
 		{
-			group.executor().execute(new Runnable()
+			if (source.remaining() <= 0)
 			{
-				@Override
-				public void run()
-				{
-					try
-					{
-						if (closed.get())
-						{
-							handler.failed(new ClosedChannelException(), attachment);
-							return;
-						}
-						if (!writing.compareAndSet(false, true))
-							throw new WritePendingException();
-						OperationDone<Integer, ? super A> operationDone = new OperationDone<>(handler, writing);
-						if (source.remaining() <= 0)
-						{
-							operationDone.completed(0, attachment);
-							return;
-						}
-						EncodingReadableByteChannel encoder = new EncodingReadableByteChannel(charset);
-						encoder.append(source);
-						bytesToWrite.clear();
-						try
-						{
-							encoder.read(bytesToWrite);
-							bytesToWrite.flip();
-						}
-						catch (IOException e)
-						{
-							handler.failed(e, attachment);
-							return;
-						}
-						WriteCharacters<? super A> writeCharacters =
-							new WriteCharacters<>(null, source, operationDone);
-						channel.write(bytesToWrite, attachment, writeCharacters);
-					}
-					catch (RuntimeException | Error e)
-					{
-						handler.failed(e, attachment);
-						throw e;
-					}
-				}
-			});
+				operationDone.completed(0, attachment);
+				return;
+			}
+			// Each character encodes to at least one byte, so there is no point in encoding more
+			// characters than bytesToWrite can hold
+			writeEncoder.reset();
+			writeEncoder.append(source, 0, Math.min(source.remaining(), bytesToWrite.capacity()));
+			bytesToWrite.clear();
+			try
+			{
+				writeEncoder.read(bytesToWrite);
+				bytesToWrite.flip();
+			}
+			catch (IOException e)
+			{
+				operationDone.failed(e, attachment);
+				return;
+			}
+			channel.write(bytesToWrite, attachment, writeCharacters.start(source, operationDone));
 		}
-		catch (RejectedExecutionException e)
+		catch (RuntimeException | Error e)
 		{
-			if (group.isTerminated())
-				throw new ShutdownChannelGroupException();
-			throw e;
+			operationDone.failed(e, attachment);
 		}
 	}
 
@@ -361,53 +286,26 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 	public synchronized Future<Integer> write(final CharBuffer source)
 		throws WritePendingException
 	{
-		return group.executor().submit(new Callable<Integer>()
-		{
-			@Override
-			public Integer call() throws Exception
-			{
-				if (closed.get())
-					throw new ClosedChannelException();
-				if (!writing.compareAndSet(false, true))
-					throw new WritePendingException();
-				try
-				{
-					if (source.remaining() <= 0)
-						return 0;
-					EncodingReadableByteChannel encoder = new EncodingReadableByteChannel(charset);
-					encoder.append(source);
-					bytesToWrite.clear();
-					encoder.read(bytesToWrite);
-					bytesToWrite.flip();
-					WriteCharacters<Void> writeCharacters = new WriteCharacters<>(Futures.immediateFuture(0),
-						source, null);
-
-					try
-					{
-						return writeCharacters.get();
-					}
-					catch (ExecutionException e)
-					{
-						Throwable cause = e.getCause();
-						if (cause instanceof Exception)
-							throw (Exception) cause;
-						// ExecutionException is only supposed to propogate Exception, not Error
-						throw new AssertionError(cause);
-					}
-				}
-				finally
-				{
-					writing.set(false);
-				}
-			}
-		});
+		OperationFuture<Integer> result = new OperationFuture<>();
+		write(source, null, result);
+		return result;
 	}
 
 	@Override
 	public void close() throws IOException
 	{
 		if (closed.compareAndSet(false, true))
-			channel.close();
+		{
+			try
+			{
+				channel.close();
+			}
+			finally
+			{
+				// Unpin the mailbox from its event loop
+				mailbox.close();
+			}
+		}
 	}
 
 	@Override
@@ -422,45 +320,25 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 		return getClass().getName() + "[" + channel + "]";
 	}
 
-	/**
-	 * Returns the future parameter if it is not null. Otherwise, returns a Future that throws
-	 * {@code UnsupportedOperationException}.
-	 * 
-	 * @param <V> the return type of the future
-	 * @param future the future to evaluate
-	 * @return a non-null Future
-	 */
-	private static <V> Future<V> notNull(Future<V> future)
-	{
-		if (future != null)
-			return future;
-		return Futures.immediateFailedFuture(new UnsupportedOperationException());
-	}
-
 	/**
 	 * Decodes bytesRead into charactersRead.
 	 *
 	 * @param <A> the type of the object attached to the I/O operation
 	 * @author Gili Tzabari
 	 */
-	private class ByteDecoder<A> extends TransformingFuture<Integer, Boolean>
-		implements CompletionHandler<Integer, A>
+	private class ByteDecoder<A> implements CompletionHandler<Integer, A>
 	{
 		private final CompletionHandler<Boolean, A> handler;
 
 		/**
 		 * Creates a new ByteDecoder.
 		 *
-		 * @param input the Future to read the bytes from. Ignored if set to null.
-		 * @param handler a handler for consuming the result of an asynchronous I/O operation.
-		 *   Ignored if set to null.
-		 * @throws IllegalArgumentException if both input and handler are null
+		 * @param handler a handler for consuming the result of an asynchronous I/O operation
+		 * @throws NullPointerException if handler is null
 		 */
-		public ByteDecoder(Future<Integer> input, CompletionHandler<Boolean, A> handler)
+		public ByteDecoder(CompletionHandler<Boolean, A> handler)
 		{
-			super(notNull(input));
-			Preconditions.checkArgument(input != null || handler != null, "Either input or handler must "
-				+ "be non-null");
+			Preconditions.checkNotNull(handler, "handler may not be null");
 
 			this.handler = handler;
 		}
@@ -468,8 +346,6 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 		@Override
 		public void completed(Integer numBytesRead, A attachment)
 		{
-			if (handler == null)
-				throw new UnsupportedOperationException("handler is null");
 			try
 			{
 				handler.completed(process(numBytesRead), attachment);
@@ -510,25 +386,8 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 		@Override
 		public void failed(Throwable t, A attachment)
 		{
-			if (handler == null)
-				throw new UnsupportedOperationException("handler is null");
 			handler.failed(t, attachment);
 		}
-
-		@Override
-		public Boolean get(long timeout, TimeUnit unit)
-			throws InterruptedException, ExecutionException, TimeoutException
-		{
-			Integer result = delegate.get(timeout, unit);
-			try
-			{
-				return process(result);
-			}
-			catch (IOException | RuntimeException e)
-			{
-				throw new ExecutionException(e);
-			}
-		}
 	}
 
 	/**
@@ -537,98 +396,68 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 	 * @param <A> the type of the object attached to the I/O operation
 	 * @author Gili Tzabari
 	 */
-	private class ReadCharacters<A> extends TransformingFuture<Boolean, Integer>
-		implements CompletionHandler<Boolean, A>
+	private class ReadCharacters<A> implements CompletionHandler<Boolean, A>
 	{
-		private final CharBuffer target;
-		private final CompletionHandler<Integer, A> handler;
+		private CharBuffer target;
+		private CompletionHandler<Integer, A> handler;
+		/**
+		 * Decodes the bytes read on behalf of the handler, null if it has not been created yet.
+		 */
+		private ByteDecoder<A> byteDecoder;
+
+		/**
+		 * Creates a ReadCharacters that is reused across operations.
+		 * {@link #start(CharBuffer, CompletionHandler) start()} must be invoked before each operation.
+		 */
+		public ReadCharacters()
+		{
+		}
 
 		/**
-		 * Creates a new ReadCharacters.
+		 * Prepares for a new asynchronous operation.
 		 *
-		 * @param input the Future to read the bytes from. Ignored if set to null.
 		 * @param target the buffer into which characters are to be transferred
-		 * @param handler a handler for consuming the result of an asynchronous I/O operation.
-		 *   The value denotes the number of characters read by the operation. The current object's
-		 *   attachment is passed to the handler. Ignored if set to null
-		 * @throws NullPointerException if target is null
-		 * @throws IllegalArgumentException if both input and handler are null
+		 * @param handler a handler for consuming the result of the operation
+		 * @return this
+		 * @throws NullPointerException if target or handler are null
 		 */
-		public ReadCharacters(Future<Boolean> input, CharBuffer target,
-			CompletionHandler<Integer, A> handler)
+		public ReadCharacters<A> start(CharBuffer target, CompletionHandler<Integer, A> handler)
 		{
-			super(notNull(input));
 			Preconditions.checkNotNull(target, "target may not be null");
-			Preconditions.checkArgument(input != null || handler != null, "Either input or handler must "
-				+ "be non-null");
+			Preconditions.checkNotNull(handler, "handler may not be null");
 
 			this.target = target;
 			this.handler = handler;
+			return this;
 		}
 
 		@Override
 		public void completed(Boolean endOfStream, A attachment)
 		{
-			if (handler == null)
-				throw new UnsupportedOperationException("handler is null");
 			if (charactersRead.length() == 0)
 			{
 				if (endOfStream)
+				{
 					handler.completed(-1, attachment);
+					return;
+				}
 				// We don't have any buffered characters and there is more data in the stream, so keep on
 				// reading.
-				ByteDecoder<A> byteDecoder = new ByteDecoder<>(null, this);
+				if (byteDecoder == null)
+					byteDecoder = new ByteDecoder<>(this);
 
 				assert (bytesRead.position() == 0): bytesRead;
 				channel.read(bytesRead, attachment, byteDecoder);
 				return;
 			}
-
-			int numCharactersRead = Math.min(charactersRead.length(), target.remaining());
-
-			target.put(charactersRead.substring(0, numCharactersRead));
-			charactersRead.delete(0, numCharactersRead);
-			handler.completed(numCharactersRead, attachment);
+			handler.completed(transferCharacters(target), attachment);
 		}
 
 		@Override
 		public void failed(Throwable t, A attachment)
 		{
-			if (handler == null)
-				throw new UnsupportedOperationException("handler is null");
 			handler.failed(t, attachment);
 		}
-
-		@Override
-		public synchronized Integer get(long timeout, TimeUnit unit)
-			throws InterruptedException, ExecutionException, TimeoutException
-		{
-			long before = System.nanoTime();
-			long timeLeft = timeout;
-			while (true)
-			{
-				boolean endOfStream = delegate.get(timeLeft, unit);
-
-				if (charactersRead.length() == 0)
-				{
-					if (endOfStream)
-						return -1;
-					// We don't have any buffered characters and there is more data in the stream, so keep on
-					// reading.
-					this.delegate = new ByteDecoder<>(channel.read(bytesRead), null);
-					long after = System.nanoTime();
-					timeLeft = timeout - unit.convert(after - before, TimeUnit.NANOSECONDS);
-					before = after;
-					continue;
-				}
-
-				int numCharactersRead = Math.min(charactersRead.length(), target.remaining());
-
-				target.put(charactersRead.substring(0, numCharactersRead));
-				charactersRead.delete(0, numCharactersRead);
-				return numCharactersRead;
-			}
-		}
 	}
 
 	/**
@@ -637,34 +466,38 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 	 * @param <A> the type of the object attached to the I/O operation
 	 * @author Gili Tzabari
 	 */
-	private class ReadLine<A> extends TransformingFuture<Boolean, String>
-		implements CompletionHandler<Boolean, A>
+	private class ReadLine<A> implements CompletionHandler<Boolean, A>
 	{
 		private final StringBuilder target = new StringBuilder();
-		private final CompletionHandler<String, A> handler;
+		private final Matcher matcher = lineDelimiters.matcher(target);
+		private CompletionHandler<String, A> handler;
+		/**
+		 * Decodes the bytes read on behalf of the handler, null if it has not been created yet.
+		 */
+		private ByteDecoder<A> byteDecoder;
 
 		/**
-		 * Creates a new LineListener.
+		 * Prepares for a new asynchronous operation.
 		 *
-		 * @param handler a handler for consuming the result of an asynchronous I/O operation. The
-		 *   value denotes the line read. The current object's attachment is passed to the handler.
+		 * @param handler a handler for consuming the result of the operation
+		 * @return this
 		 * @throws NullPointerException if handler is null
 		 */
-		public ReadLine(Future<Boolean> future, CompletionHandler<String, A> handler)
+		public ReadLine<A> start(CompletionHandler<String, A> handler)
 		{
-			super(notNull(future));
+			Preconditions.checkNotNull(handler, "handler may not be null");
 
 			this.handler = handler;
+			target.setLength(0);
+			return this;
 		}
 
 		@Override
 		public void completed(Boolean endOfStream, A attachment)
 		{
-			if (handler == null)
-				throw new UnsupportedOperationException("handler is null");
 			while (true)
 			{
-				Matcher matcher = lineDelimiters.matcher(charactersRead);
+				matcher.reset(charactersRead);
 				if (!matcher.find())
 				{
 					target.append(charactersRead);
@@ -672,7 +505,8 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 					if (!endOfStream)
 					{
 						// delimiters not found and there is more data in the stream, so keep on reading.
-						ByteDecoder<A> byteDecoder = new ByteDecoder<>(null, this);
+						if (byteDecoder == null)
+							byteDecoder = new ByteDecoder<>(this);
 
 						assert (bytesRead.position() == 0): bytesRead;
 						channel.read(bytesRead, attachment, byteDecoder);
@@ -680,19 +514,18 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 					}
 					break;
 				}
-				// Matcher.group() references the original String so we need to backup the result before
-				// modifying the String.
-				String match = matcher.group();
+				// The delimiters are single characters. Back up the match before modifying the String.
+				char match = charactersRead.charAt(matcher.start());
 				target.append(charactersRead, 0, matcher.start());
 				charactersRead.delete(0, matcher.end());
 				switch (match)
 				{
-					case "\r":
+					case '\r':
 					{
 						skipNextNewline = true;
 						break;
 					}
-					case "\n":
+					case '\n':
 					{
 						if (skipNextNewline && matcher.start() == 0)
 						{
@@ -703,7 +536,7 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 						break;
 					}
 					default:
-						throw new AssertionError("Unexpected delimiter: '" + toHex(match) + "'");
+						throw new AssertionError("Unexpected delimiter: '" + toHex(String.valueOf(match)) + "'");
 				}
 				break;
 			}
@@ -716,127 +549,97 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 		@Override
 		public void failed(Throwable t, A attachment)
 		{
-			if (handler == null)
-				throw new UnsupportedOperationException("handler is null");
 			handler.failed(t, attachment);
 		}
-
-		@Override
-		public String get(long timeout, TimeUnit unit)
-			throws InterruptedException, ExecutionException, TimeoutException
-		{
-			long before = System.nanoTime();
-			long timeLeft = timeout;
-			boolean endOfStream;
-			while (true)
-			{
-				endOfStream = delegate.get(timeLeft, unit);
-				Matcher matcher = lineDelimiters.matcher(charactersRead);
-				if (!matcher.find())
-				{
-					target.append(charactersRead);
-					charactersRead.setLength(0);
-					if (!endOfStream)
-					{
-						// We don't have any buffered characters and there is more data in the stream, so keep on
-						// reading.
-						long after = System.nanoTime();
-						timeLeft = timeout - unit.convert(after - before, TimeUnit.NANOSECONDS);
-						before = after;
-						this.delegate = new ByteDecoder<>(channel.read(bytesRead), null);
-						continue;
-					}
-					break;
-				}
-				// Matcher.group() references the original String so we need to backup the result before
-				// modifying the String.
-				String match = matcher.group();
-				target.append(charactersRead, 0, matcher.start());
-				charactersRead.delete(0, matcher.end());
-				switch (match)
-				{
-					case "\r":
-					{
-						skipNextNewline = true;
-						break;
-					}
-					case "\n":
-					{
-						if (skipNextNewline && matcher.start() == 0)
-						{
-							// Handle the case where \r\n is split across separate reads
-							skipNextNewline = false;
-							continue;
-						}
-						break;
-					}
-					default:
-						throw new AssertionError("Unexpected delimiter: '" + toHex(match) + "'");
-				}
-				break;
-			}
-			String result = target.toString();
-			if (endOfStream && result.isEmpty())
-				result = null;
-			return result;
-		}
 	}
 
 	/**
-	 * Notified when a read operation completes.
+	 * Notified when an operation completes. An instance is reused by subsequent operations of the
+	 * same kind. The outcome is delivered through the channel's mailbox, so the channel's handlers
+	 * run in order on the event loop that it is pinned to.
 	 *
 	 * @param <V> the result type of the I/O operation
-	 * @param <A> the type of the object attached to the I/O operation
 	 * @author Gili Tzabari
 	 */
-	private class OperationDone<V, A> implements CompletionHandler<V, A>
+	private static class OperationDone<V> extends PeripheralChannelGroup.Completion
+		implements CompletionHandler<V, Object>
 	{
-		private final CompletionHandler<V, A> handler;
 		private final AtomicBoolean running;
+		private CompletionHandler<V, Object> handler;
+		private Object attachment;
+		private V value;
+		private Throwable failure;
 
 		/**
-		 * Creates a new DoneReading.
+		 * Creates a new OperationDone.
 		 *
-		 * @param handler the handler to delegate to. The current object's attachment is passed to the
-		 *   delegate.
+		 * @param mailbox the mailbox that delivers the outcome to the handler
 		 * @param running the boolean to set to false when the operation completes
-		 * @throws NullPointerException if handler or running are null
+		 * @throws NullPointerException if mailbox or running are null
 		 */
-		public OperationDone(CompletionHandler<V, A> handler, AtomicBoolean running)
+		public OperationDone(PeripheralChannelGroup.Mailbox mailbox, AtomicBoolean running)
 		{
-			Preconditions.checkNotNull(handler, "handler may not be null");
+			super(mailbox);
 			Preconditions.checkNotNull(running, "running may not be null");
 
-			this.handler = handler;
 			this.running = running;
 		}
 
+		/**
+		 * Prepares for a new operation. The caller must have set <code>running</code> to true.
+		 *
+		 * @param <A> the type of the object attached to the I/O operation
+		 * @param handler the handler to delegate to. The current object's attachment is passed to the
+		 *   delegate.
+		 * @return this
+		 * @throws NullPointerException if handler is null
+		 */
+		@SuppressWarnings("unchecked")
+		public <A> OperationDone<V> start(CompletionHandler<V, ? super A> handler)
+		{
+			Preconditions.checkNotNull(handler, "handler may not be null");
+
+			this.handler = (CompletionHandler<V, Object>) handler;
+			return this;
+		}
+
 		@Override
-		public void completed(V value, A attachment)
+		public void completed(V value, Object attachment)
 		{
-			running.set(false);
-			try
-			{
-				handler.completed(value, attachment);
-			}
-			catch (RuntimeException e)
-			{
-				log.warn("", e);
-			}
+			this.value = value;
+			this.failure = null;
+			this.attachment = attachment;
+			dispatch();
 		}
 
 		@Override
-		public void failed(Throwable t, A attachment)
+		public void failed(Throwable t, Object attachment)
+		{
+			this.value = null;
+			this.failure = t;
+			this.attachment = attachment;
+			dispatch();
+		}
+
+		@Override
+		protected void deliver()
 		{
+			CompletionHandler<V, Object> handler = this.handler;
+			Object attachment = this.attachment;
+			V value = this.value;
+			Throwable failure = this.failure;
+			this.handler = null;
+			this.attachment = null;
+			this.value = null;
+			this.failure = null;
+
+			// Set running before delegating in order to allow the handler to initiate a follow-up
+			// operation.
 			running.set(false);
-			try
-			{
-				handler.failed(t, attachment);
-			}
-			catch (RuntimeException e)
-			{
-				log.warn("", e);
-			}
+			if (failure == null)
+				handler.completed(value, attachment);
+			else
+				handler.failed(failure, attachment);
 		}
 	}
 
@@ -846,40 +649,42 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 	 * @param <A> the type of the object attached to the I/O operation
 	 * @author Gili Tzabari
 	 */
-	private class WriteCharacters<A> extends TransformingFuture<Integer, Integer>
-		implements CompletionHandler<Integer, A>
+	private class WriteCharacters<A> implements CompletionHandler<Integer, A>
 	{
-		private final CharBuffer source;
-		private final CompletionHandler<Integer, A> handler;
-		private final int initialPosition;
+		private CharBuffer source;
+		private CompletionHandler<Integer, A> handler;
+		private int initialPosition;
 
 		/**
-		 * Creates a new WriteCharacters.
+		 * Creates a WriteCharacters that is reused across operations.
+		 * {@link #start(CharBuffer, CompletionHandler) start()} must be invoked before each operation.
+		 */
+		public WriteCharacters()
+		{
+		}
+
+		/**
+		 * Prepares for a new asynchronous operation.
 		 *
 		 * @param source the buffer from which characters are to be transferred
-		 * @param handler a handler for consuming the result of an asynchronous I/O operation.
-		 *   The value denotes the number of characters read by the operation. The current object's
-		 *   attachment is passed to the handler.
-		 * @throws NullPointerException if target or handler are null
+		 * @param handler a handler for consuming the result of the operation
+		 * @return this
+		 * @throws NullPointerException if source or handler are null
 		 */
-		public WriteCharacters(Future<Integer> input, CharBuffer source,
-			CompletionHandler<Integer, A> handler)
+		public WriteCharacters<A> start(CharBuffer source, CompletionHandler<Integer, A> handler)
 		{
-			super(notNull(input));
 			Preconditions.checkNotNull(source, "source may not be null");
-			Preconditions.checkArgument(input != null || handler != null, "Either input or handler must "
-				+ "be non-null");
+			Preconditions.checkNotNull(handler, "handler may not be null");
 
 			this.source = source;
 			this.handler = handler;
 			this.initialPosition = source.position();
+			return this;
 		}
 
 		@Override
 		public void completed(Integer numBytesWritten, A attachment)
 		{
-			if (handler == null)
-				throw new UnsupportedOperationException("handler is null");
 			ByteBuffer outstandingBytes;
 			if (numBytesWritten > 0)
 				outstandingBytes = updateSourcePosition(numBytesWritten);
@@ -901,8 +706,6 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 		@Override
 		public void failed(Throwable t, A attachment)
 		{
-			if (handler == null)
-				throw new UnsupportedOperationException("handler is null");
 			handler.failed(t, attachment);
 		}
 
@@ -917,54 +720,49 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 		private ByteBuffer updateSourcePosition(int numBytesWritten)
 		{
 			// Convert the bytes that were sent back into characters
-			DecodingWriteableByteChannel decoder = new DecodingWriteableByteChannel(charset);
+			writeDecoder.reset();
 			bytesToWrite.flip();
 			try
 			{
 				try
 				{
-					decoder.write(bytesToWrite);
-					decoder.close();
+					writeDecoder.write(bytesToWrite);
+					writeDecoder.close();
 
 					// Move source forward by the number of whole characters written
-					source.position(source.position() + decoder.toStringBuilder().length());
-					return ByteBuffer.allocate(0);
+					source.position(source.position() + writeDecoder.toStringBuilder().length());
+					partialCharacter.clear().flip();
+					return partialCharacter;
 				}
 				catch (MalformedInputException unused)
 				{
 					// continue processing below
 				}
-				// Move source forward by the number of whole characters written
-				CharBuffer wholeCharsWritten = source.duplicate();
-				wholeCharsWritten.limit(wholeCharsWritten.position() + decoder.toStringBuilder().length());
-				source.position(source.position() + wholeCharsWritten.limit());
-
 				// Calculate how many bytes make up the whole characters written
-				EncodingReadableByteChannel encoder = new EncodingReadableByteChannel(charset);
-				encoder.append(wholeCharsWritten);
+				int wholeCharsWritten = writeDecoder.toStringBuilder().length();
+				writeEncoder.reset();
+				writeEncoder.append(source, 0, wholeCharsWritten);
+
+				// Move source forward by the number of whole characters written
+				source.position(source.position() + wholeCharsWritten);
 				bytesToWrite.position(0);
-				encoder.read(bytesToWrite);
+				writeEncoder.read(bytesToWrite);
 				int wholeBytesWritten = bytesToWrite.position();
 				bytesToWrite.compact();
 				int malformedBytesWritten = numBytesWritten - wholeBytesWritten;
 
 				// Encode the partially-written character
-				encoder = new EncodingReadableByteChannel(charset);
-				String codepoint = new String(new int[]
-					{
-						source.toString().codePointAt(0)
-					}, 0, 1);
-				encoder.append(codepoint);
-				ByteBuffer result = ByteBuffer.allocate((int) Math.ceil(charset.newEncoder().
-					maxBytesPerChar() * codepoint.length()));
+				writeEncoder.reset();
+				writeEncoder.append(source, 0, Character.charCount(Character.codePointAt(source, 0)));
+				partialCharacter.clear();
 				while (true)
 				{
-					if (encoder.read(result) == -1)
+					if (writeEncoder.read(partialCharacter) == -1)
 						break;
 				}
-				result.flip();
-				result.position(malformedBytesWritten);
-				return result;
+				partialCharacter.flip();
+				partialCharacter.position(malformedBytesWritten);
+				return partialCharacter;
 			}
 			catch (IOException e)
 			{
@@ -974,44 +772,21 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 				throw new AssertionError(e);
 			}
 		}
+	}
 
-		@Override
-		public Integer get(long timeout, TimeUnit unit)
-			throws InterruptedException, ExecutionException, TimeoutException
-		{
-			try
-			{
-				long before = System.nanoTime();
-				long timeLeft = timeout;
-				while (true)
-				{
-					int numBytesWritten = delegate.get(timeLeft, unit);
-					ByteBuffer outstandingBytes;
-					if (numBytesWritten > 0)
-						outstandingBytes = updateSourcePosition(numBytesWritten);
-					else
-						outstandingBytes = bytesToWrite.duplicate();
-					if (outstandingBytes.hasRemaining())
-					{
-						// bytesToWrite updated by updateSourcePosition()
-						numBytesWritten = bytesToWrite.position();
-						bytesToWrite.put(outstandingBytes);
-						bytesToWrite.flip();
-						bytesToWrite.position(numBytesWritten);
-						this.delegate = channel.write(bytesToWrite);
-						long after = System.nanoTime();
-						timeLeft = timeout - unit.convert(after - before, TimeUnit.NANOSECONDS);
-						before = after;
-						continue;
-					}
-					return source.position() - initialPosition;
-				}
-			}
-			catch (RuntimeException e)
-			{
-				throw new ExecutionException(e);
-			}
-		}
+	/**
+	 * Moves characters from <code>charactersRead</code> into a buffer.
+	 *
+	 * @param target the buffer to transfer into
+	 * @return the number of characters transferred
+	 */
+	private int transferCharacters(CharBuffer target)
+	{
+		int numCharactersRead = Math.min(charactersRead.length(), target.remaining());
+		for (int i = 0; i < numCharactersRead; ++i)
+			target.put(charactersRead.charAt(i));
+		charactersRead.delete(0, numCharactersRead);
+		return numCharactersRead;
 	}
 
 	/**
@@ -1035,4 +810,41 @@ public final class AsynchronousByteCharChannel implements AsynchronousCharChanne
 				}
 			}));
 	}
+
+	/**
+	 * The outcome of an operation initiated using a Future. {@code cancel(true)} closes the channel,
+	 * in line with {@link AsynchronousChannel}.
+	 *
+	 * @param <V> the result type of the operation
+	 * @author Gili Tzabari
+	 */
+	private final class OperationFuture<V> extends AbstractFuture<V>
+		implements CompletionHandler<V, Void>
+	{
+		@Override
+		public void completed(V value, Void unused)
+		{
+			set(value);
+		}
+
+		@Override
+		public void failed(Throwable t, Void unused)
+		{
+			setException(t);
+		}
+
+		@Override
+		protected void interruptTask()
+		{
+			// Exit at the request of Future.cancel(true)
+			try
+			{
+				close();
+			}
+			catch (IOException e)
+			{
+				log.warn("", e);
+			}
+		}
+	}
 }
@@ -0,0 +1,252 @@
+package org.jperipheral;
+
+import com.google.common.base.Preconditions;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A bounded, lock-free ring of bytes with a single producer and a single consumer.
+ * <p>
+ * The producer and consumer each wait for the other by parking a {@link Waiter} in the ring. A
+ * waiter is claimed by whichever thread atomically removes it, so it is resumed or aborted exactly
+ * once.
+ *
+ * @author Gili Tzabari
+ */
+final class ByteRing
+{
+	/**
+	 * An operation waiting for the ring to change state.
+	 */
+	interface Waiter
+	{
+		/**
+		 * Invoked when the state the operation was waiting for may have come about.
+		 */
+		void resume();
+	}
+	private final byte[] buffer;
+	private final int mask;
+	/**
+	 * The number of bytes consumed since the ring was created.
+	 */
+	private final AtomicLong head = new AtomicLong();
+	/**
+	 * The number of bytes published since the ring was created.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+	/**
+	 * The number of bytes copied into the ring by the producer but not yet published. Only accessed
+	 * by the producer.
+	 */
+	private int reserved;
+	private final AtomicBoolean producerClosed = new AtomicBoolean();
+	private final AtomicBoolean consumerClosed = new AtomicBoolean();
+	private final AtomicReference<Waiter> waitingConsumer = new AtomicReference<>();
+	private final AtomicReference<Waiter> waitingProducer = new AtomicReference<>();
+
+	/**
+	 * Creates a new ByteRing.
+	 *
+	 * @param capacity the minimum number of bytes the ring can hold. Rounded up to the next power of
+	 * two.
+	 * @throws IllegalArgumentException if capacity is not positive or greater than 2^30
+	 */
+	ByteRing(int capacity)
+	{
+		Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 30,
+			"capacity must be in the range [1, 2^30]");
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		this.buffer = new byte[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Copies bytes into the ring without making them visible to the consumer. Invoked by the
+	 * producer.
+	 *
+	 * @param source the buffer to read from
+	 * @param max the maximum number of bytes to copy
+	 * @return the number of bytes copied
+	 * @see #publish()
+	 */
+	int reserve(ByteBuffer source, int max)
+	{
+		long start = tail.get() + reserved;
+		int free = (int) (buffer.length - (start - head.get()));
+		int count = Math.min(Math.min(free, max), source.remaining());
+		int offset = (int) start & mask;
+		int first = Math.min(count, buffer.length - offset);
+		source.get(buffer, offset, first);
+		source.get(buffer, 0, count - first);
+		reserved += count;
+		return count;
+	}
+
+	/**
+	 * Makes all reserved bytes visible to the consumer. Invoked by the producer.
+	 */
+	void publish()
+	{
+		if (reserved == 0)
+			return;
+		// The volatile write orders the preceding copy before the consumer's read of tail
+		tail.set(tail.get() + reserved);
+		reserved = 0;
+		resume(waitingConsumer);
+	}
+
+	/**
+	 * Copies published bytes out of the ring. Invoked by the consumer.
+	 *
+	 * @param target the buffer to write into
+	 * @return the number of bytes copied
+	 */
+	int read(ByteBuffer target)
+	{
+		long start = head.get();
+		int available = (int) (tail.get() - start);
+		int count = Math.min(available, target.remaining());
+		if (count == 0)
+			return 0;
+		int offset = (int) start & mask;
+		int first = Math.min(count, buffer.length - offset);
+		target.put(buffer, offset, first);
+		target.put(buffer, 0, count - first);
+		head.set(start + count);
+		resume(waitingProducer);
+		return count;
+	}
+
+	/**
+	 * Indicates if the consumer has bytes to read.
+	 *
+	 * @return true if at least one byte was published and has yet to be consumed
+	 */
+	boolean isReadable()
+	{
+		return tail.get() != head.get();
+	}
+
+	/**
+	 * Indicates if the producer has room to write.
+	 *
+	 * @return true if at least one byte may be reserved
+	 */
+	boolean isWritable()
+	{
+		return tail.get() + reserved - head.get() < buffer.length;
+	}
+
+	/**
+	 * Returns the number of bytes the ring can hold.
+	 *
+	 * @return the number of bytes the ring can hold
+	 */
+	int capacity()
+	{
+		return buffer.length;
+	}
+
+	/**
+	 * Indicates that the producer will not publish any more bytes.
+	 */
+	void closeProducer()
+	{
+		if (producerClosed.compareAndSet(false, true))
+			resume(waitingConsumer);
+	}
+
+	/**
+	 * Indicates that the consumer will not read any more bytes.
+	 */
+	void closeConsumer()
+	{
+		if (consumerClosed.compareAndSet(false, true))
+			resume(waitingProducer);
+	}
+
+	/**
+	 * Indicates if the producer is closed.
+	 *
+	 * @return true if the producer is closed
+	 */
+	boolean isProducerClosed()
+	{
+		return producerClosed.get();
+	}
+
+	/**
+	 * Indicates if the consumer is closed.
+	 *
+	 * @return true if the consumer is closed
+	 */
+	boolean isConsumerClosed()
+	{
+		return consumerClosed.get();
+	}
+
+	/**
+	 * Waits for the ring to become readable or for the producer to close. Invoked by the consumer.
+	 *
+	 * @param waiter the operation to resume
+	 */
+	void awaitReadable(Waiter waiter)
+	{
+		waitingConsumer.set(waiter);
+		// Guard against the producer having published between the caller's check and now
+		if (isReadable() || isProducerClosed())
+			resume(waitingConsumer);
+	}
+
+	/**
+	 * Waits for the ring to become writable or for the consumer to close. Invoked by the producer.
+	 *
+	 * @param waiter the operation to resume
+	 */
+	void awaitWritable(Waiter waiter)
+	{
+		waitingProducer.set(waiter);
+		// Guard against the consumer having read between the caller's check and now
+		if (isWritable() || isConsumerClosed())
+			resume(waitingProducer);
+	}
+
+	/**
+	 * Removes the waiting consumer, if any.
+	 *
+	 * @return the waiter, or null if the consumer is not waiting
+	 */
+	Waiter removeWaitingConsumer()
+	{
+		return waitingConsumer.getAndSet(null);
+	}
+
+	/**
+	 * Removes the waiting producer, if any.
+	 *
+	 * @return the waiter, or null if the producer is not waiting
+	 */
+	Waiter removeWaitingProducer()
+	{
+		return waitingProducer.getAndSet(null);
+	}
+
+	/**
+	 * Resumes a waiting operation, if any.
+	 *
+	 * @param waiting the slot holding the waiting operation
+	 */
+	private static void resume(AtomicReference<Waiter> waiting)
+	{
+		if (waiting.get() == null)
+			return;
+		Waiter waiter = waiting.getAndSet(null);
+		if (waiter != null)
+			waiter.resume();
+	}
+}
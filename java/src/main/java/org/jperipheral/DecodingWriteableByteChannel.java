@@ -50,10 +50,10 @@ class DecodingWriteableByteChannel implements WritableByteChannel
 
 		// Ensure byteBuffer contains at least one character's worth of data
 		int bytesRead = Math.min(byteBuffer.remaining(), src.remaining());
-		ByteBuffer truncated = src.duplicate();
-		truncated.limit(truncated.position() + bytesRead);
-		byteBuffer.put(truncated);
-		src.position(src.position() + bytesRead);
+		int limit = src.limit();
+		src.limit(src.position() + bytesRead);
+		byteBuffer.put(src);
+		src.limit(limit);
 		
 		do
 		{
@@ -62,7 +62,7 @@ class DecodingWriteableByteChannel implements WritableByteChannel
 			if (decodingResult.isError())
 				decodingResult.throwException();
 			charBuffer.flip();
-			result.append(charBuffer.toString());
+			result.append(charBuffer);
 			charBuffer.clear();
 		}
 		while (decodingResult.isOverflow());
@@ -92,7 +92,7 @@ class DecodingWriteableByteChannel implements WritableByteChannel
 					if (decodingResult.isError())
 						decodingResult.throwException();
 					charBuffer.flip();
-					result.append(charBuffer.toString());
+					result.append(charBuffer);
 					charBuffer.clear();
 				}
 				while (decodingResult.isOverflow());
@@ -101,7 +101,7 @@ class DecodingWriteableByteChannel implements WritableByteChannel
 				{
 					decodingResult = decoder.flush(charBuffer);
 					charBuffer.flip();
-					result.append(charBuffer.toString());
+					result.append(charBuffer);
 					charBuffer.clear();
 				}
 				while (decodingResult.isOverflow());
@@ -111,6 +111,19 @@ class DecodingWriteableByteChannel implements WritableByteChannel
 		}
 	}
 
+	/**
+	 * Discards the decoded String and any bytes that are pending, and reopens the channel, so it may
+	 * decode a new stream.
+	 */
+	public void reset()
+	{
+		decoder.reset();
+		result.setLength(0);
+		charBuffer.clear();
+		byteBuffer.clear();
+		closed = false;
+	}
+
 	/**
 	 * Returns the decoded String.
 	 * 
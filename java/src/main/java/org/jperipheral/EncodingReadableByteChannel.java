@@ -63,6 +63,42 @@ class EncodingReadableByteChannel implements ReadableByteChannel
 		input.append(text);
 	}
 
+	/**
+	 * Appends part of the text stream to be encoded.
+	 * 
+	 * @param text the text to be encoded
+	 * @param start the index of the first character to append
+	 * @param end the index after the last character to append
+	 * @throws NullPointerException if text is null
+	 * @throws IndexOutOfBoundsException if start or end are out of bounds
+	 * @throws IllegalStateException if the input stream is terminated
+	 */
+	public void append(CharSequence text, int start, int end)
+	{
+		Preconditions.checkNotNull(text, "text may not be null");
+
+		if (endOfInput)
+			throw new IllegalStateException("Cannot append to a terminated stream");
+		input.append(text, start, end);
+	}
+
+	/**
+	 * Discards the text appended so far and reopens the channel, so it may encode a new stream.
+	 */
+	public void reset()
+	{
+		input.setLength(0);
+		endOfInput = false;
+		flushing = false;
+		endOfStream = false;
+		charBuffer.clear();
+		charBuffer.flip();
+		byteBuffer.clear();
+		byteBuffer.flip();
+		encoder.reset();
+		closed = false;
+	}
+
 	@Override
 	public int read(ByteBuffer dst) throws IOException
 	{
@@ -81,7 +117,8 @@ class EncodingReadableByteChannel implements ReadableByteChannel
 				else
 				{
 					int count = Math.min(input.length(), charBuffer.length());
-					charBuffer.put(input.substring(0, count));
+					for (int i = 0; i < count; ++i)
+						charBuffer.put(input.charAt(i));
 					input.delete(0, count);
 				}
 				charBuffer.flip();
@@ -106,12 +143,11 @@ class EncodingReadableByteChannel implements ReadableByteChannel
 				endOfStream = encodingResult.isUnderflow();
 			}
 		}
-		ByteBuffer truncated = byteBuffer.duplicate();
-		if (byteBuffer.remaining() > dst.remaining())
-			truncated.limit(truncated.position() + dst.remaining());
-		dst.put(truncated);
-		int result = truncated.position() - byteBuffer.position();
-		byteBuffer.position(truncated.position());
+		int result = Math.min(byteBuffer.remaining(), dst.remaining());
+		int limit = byteBuffer.limit();
+		byteBuffer.limit(byteBuffer.position() + result);
+		dst.put(byteBuffer);
+		byteBuffer.limit(limit);
 		if (result == 0 && flushing)
 			return -1;
 		return result;
@@ -0,0 +1,160 @@
+package org.jperipheral;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An executor made up of a fixed number of event loops, each running on a dedicated thread.
+ * <p>
+ * Channels are pinned to the loop with the fewest channels when they are opened, and their
+ * completions and timers run on that loop for as long as they are open. Tasks that are not
+ * associated with a channel are spread across loops in a round-robin fashion.
+ *
+ * @author Gili Tzabari
+ */
+final class EventLoopExecutor extends AbstractExecutorService
+{
+	private final Loop[] loops;
+	/**
+	 * The loop that runs the next task that is not associated with a channel.
+	 */
+	private final AtomicInteger nextLoop = new AtomicInteger();
+
+	/**
+	 * Creates a new EventLoopExecutor.
+	 *
+	 * @param count the number of event loops
+	 * @throws IllegalArgumentException if count is not positive
+	 */
+	public EventLoopExecutor(int count)
+	{
+		Preconditions.checkArgument(count > 0, "count must be positive");
+
+		this.loops = new Loop[count];
+		for (int i = 0; i < count; ++i)
+		{
+			loops[i] = new Loop(Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().
+				setDaemon(true).setNameFormat("jperipheral-loop-" + i).build()));
+		}
+	}
+
+	/**
+	 * Pins a channel to the loop with the fewest channels.
+	 *
+	 * @return the loop that the channel is pinned to. The caller must invoke {@link Loop#release()}
+	 * once the channel is closed.
+	 */
+	synchronized Loop acquire()
+	{
+		// Channels are opened rarely, so a linear scan is cheaper than keeping the loops sorted. The
+		// lock keeps concurrent opens from picking the same loop before either one claims it. Releases
+		// only ever lower the counts, so they need not take it.
+		Loop result = loops[0];
+		for (int i = 1; i < loops.length; ++i)
+		{
+			if (loops[i].channels.get() < result.channels.get())
+				result = loops[i];
+		}
+		result.channels.incrementAndGet();
+		return result;
+	}
+
+	@Override
+	public void execute(Runnable task)
+	{
+		int index = (nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length;
+		loops[index].executor.execute(task);
+	}
+
+	@Override
+	public void shutdown()
+	{
+		for (Loop loop: loops)
+			loop.executor.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow()
+	{
+		List<Runnable> result = Lists.newArrayList();
+		for (Loop loop: loops)
+			result.addAll(loop.executor.shutdownNow());
+		return result;
+	}
+
+	@Override
+	public boolean isShutdown()
+	{
+		for (Loop loop: loops)
+		{
+			if (!loop.executor.isShutdown())
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isTerminated()
+	{
+		for (Loop loop: loops)
+		{
+			if (!loop.executor.isTerminated())
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Loop loop: loops)
+		{
+			if (!loop.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * An event loop.
+	 *
+	 * @author Gili Tzabari
+	 */
+	static final class Loop
+	{
+		/**
+		 * Runs the loop's tasks on a single thread.
+		 */
+		final ScheduledExecutorService executor;
+		/**
+		 * The number of channels pinned to the loop.
+		 */
+		private final AtomicInteger channels = new AtomicInteger();
+
+		/**
+		 * Creates a new Loop.
+		 *
+		 * @param executor runs the loop's tasks on a single thread
+		 */
+		Loop(ScheduledExecutorService executor)
+		{
+			this.executor = executor;
+		}
+
+		/**
+		 * Unpins a channel from the loop.
+		 */
+		void release()
+		{
+			channels.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package org.jperipheral;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A snapshot of the counters that the driver maintains for a serial port.
+ * <p>
+ * Counters are maintained by the driver for as long as the port exists, are shared by all processes
+ * that open it and wrap around once they exceed 32 bits. Callers should therefore compare snapshots
+ * using {@link #since(LineStatistics)} rather than look at absolute values.
+ *
+ * @author Gili Tzabari
+ */
+public final class LineStatistics
+{
+	/**
+	 * The number of counters returned by the native code.
+	 */
+	static final int COUNTERS = 7;
+	private static final long COUNTER_MASK = 0xFFFFFFFFL;
+	private final long bytesReceived;
+	private final long bytesTransmitted;
+	private final long framingErrors;
+	private final long parityErrors;
+	private final long overruns;
+	private final long bufferOverruns;
+	private final long breaks;
+
+	/**
+	 * Creates a new LineStatistics.
+	 *
+	 * @param counters the number of bytes received, bytes transmitted, framing errors, parity errors,
+	 * hardware overruns, buffer overruns and breaks, in that order
+	 * @throws NullPointerException if counters is null
+	 * @throws IllegalArgumentException if counters does not contain {@link #COUNTERS} elements
+	 */
+	LineStatistics(long[] counters)
+	{
+		Preconditions.checkNotNull(counters, "counters may not be null");
+		Preconditions.checkArgument(counters.length == COUNTERS, "counters.length must be " + COUNTERS);
+		this.bytesReceived = counters[0];
+		this.bytesTransmitted = counters[1];
+		this.framingErrors = counters[2];
+		this.parityErrors = counters[3];
+		this.overruns = counters[4];
+		this.bufferOverruns = counters[5];
+		this.breaks = counters[6];
+	}
+
+	/**
+	 * Returns the change in counters between an earlier snapshot and this one.
+	 *
+	 * @param earlier a snapshot of the same port taken before this one
+	 * @return the number of events counted in between
+	 * @throws NullPointerException if earlier is null
+	 */
+	public LineStatistics since(LineStatistics earlier)
+	{
+		Preconditions.checkNotNull(earlier, "earlier may not be null");
+		return new LineStatistics(new long[]
+			{
+				delta(bytesReceived, earlier.bytesReceived),
+				delta(bytesTransmitted, earlier.bytesTransmitted),
+				delta(framingErrors, earlier.framingErrors),
+				delta(parityErrors, earlier.parityErrors),
+				delta(overruns, earlier.overruns),
+				delta(bufferOverruns, earlier.bufferOverruns),
+				delta(breaks, earlier.breaks)
+			});
+	}
+
+	/**
+	 * Returns the difference between two values of a 32-bit counter.
+	 *
+	 * @param current the current value
+	 * @param earlier an earlier value
+	 * @return the number of events counted in between, accounting for wrap-around
+	 */
+	private static long delta(long current, long earlier)
+	{
+		return (current - earlier) & COUNTER_MASK;
+	}
+
+	/**
+	 * Returns the number of bytes received.
+	 *
+	 * @return the number of bytes received
+	 */
+	public long getBytesReceived()
+	{
+		return bytesReceived;
+	}
+
+	/**
+	 * Returns the number of bytes transmitted.
+	 *
+	 * @return the number of bytes transmitted
+	 */
+	public long getBytesTransmitted()
+	{
+		return bytesTransmitted;
+	}
+
+	/**
+	 * Returns the number of words received without a valid stop bit, typically caused by a baud rate
+	 * mismatch or line noise.
+	 *
+	 * @return the number of framing errors
+	 */
+	public long getFramingErrors()
+	{
+		return framingErrors;
+	}
+
+	/**
+	 * Returns the number of words received with an invalid parity bit.
+	 *
+	 * @return the number of parity errors
+	 */
+	public long getParityErrors()
+	{
+		return parityErrors;
+	}
+
+	/**
+	 * Returns the number of times the UART received a word before the driver emptied its FIFO. Bytes
+	 * are lost each time.
+	 *
+	 * @return the number of hardware overruns
+	 */
+	public long getOverruns()
+	{
+		return overruns;
+	}
+
+	/**
+	 * Returns the number of times the driver received bytes while its buffer was full. Bytes are lost
+	 * each time, typically because the application is not reading fast enough.
+	 *
+	 * @return the number of buffer overruns
+	 */
+	public long getBufferOverruns()
+	{
+		return bufferOverruns;
+	}
+
+	/**
+	 * Returns the number of break conditions received.
+	 *
+	 * @return the number of breaks
+	 */
+	public long getBreaks()
+	{
+		return breaks;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "[rx=" + bytesReceived + ", tx=" + bytesTransmitted + ", frame=" + framingErrors +
+			", parity=" + parityErrors + ", overrun=" + overruns + ", bufferOverrun=" + bufferOverruns +
+			", break=" + breaks + "]";
+	}
+}
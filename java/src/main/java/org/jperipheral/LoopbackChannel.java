@@ -0,0 +1,479 @@
+package org.jperipheral;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.WritePendingException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One end of an in-memory pair of connected channels.
+ * <p>
+ * Bytes written to one end are read from the other end without involving the kernel. Each
+ * direction is backed by a bounded lock-free ring; writes wait for room in the ring and reads wait
+ * for bytes to arrive. Useful for benchmarking and load-testing code that sits on top of
+ * AsynchronousByteChannel.
+ * <p>
+ * Optionally, the pair simulates the line rate of a serial link: bytes only become visible to the
+ * reader, and writes only complete, once the time needed to transmit them has elapsed.
+ * <p>
+ * Operations initiated using a {@code CompletionHandler} notify it using the channel's mailbox,
+ * which the group's executor drains in order.
+ * Operations initiated using a {@code Future} complete it directly. Only one read and one write may
+ * be outstanding at a time, so each end reuses the same two operations instead of allocating them.
+ *
+ * @author Gili Tzabari
+ */
+public final class LoopbackChannel implements AsynchronousByteChannel
+{
+	/**
+	 * The number of chunks a second's worth of bytes is split into when simulating a line rate.
+	 */
+	private static final int CHUNKS_PER_SECOND = 100;
+	private final PeripheralChannelGroup group;
+	/**
+	 * Delivers the completions of the channel's operations and runs its timers.
+	 */
+	private final PeripheralChannelGroup.Mailbox mailbox;
+	/**
+	 * The bytes written by the peer.
+	 */
+	private final ByteRing inbound;
+	/**
+	 * The bytes written by this channel.
+	 */
+	private final ByteRing outbound;
+	/**
+	 * The simulated line rate in bytes per second, 0 if unlimited.
+	 */
+	private final long bytesPerSecond;
+	/**
+	 * The maximum number of bytes transmitted at once.
+	 */
+	private final int chunkSize;
+	private LoopbackChannel peer;
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private final AtomicBoolean reading = new AtomicBoolean();
+	private final AtomicBoolean writing = new AtomicBoolean();
+	private final ReadOperation readOperation;
+	private final WriteOperation writeOperation;
+
+	/**
+	 * Opens a new pair of connected channels.
+	 *
+	 * @param group the group associated with the channels
+	 * @param capacity the number of bytes that may be written by each end before it waits for the
+	 * other end to read them
+	 * @param bytesPerSecond the simulated line rate, 0 if unlimited. A serial link transmitting 10
+	 * bits per byte (start bit, 8 data bits and stop bit) at 115200 baud transmits 11520 bytes per
+	 * second.
+	 * @return one end of the pair. The other end is returned by {@link #getPeer()}.
+	 * @throws NullPointerException if group is null
+	 * @throws IllegalArgumentException if capacity is not positive or bytesPerSecond is negative
+	 */
+	public static LoopbackChannel open(PeripheralChannelGroup group, int capacity,
+		long bytesPerSecond)
+	{
+		Preconditions.checkNotNull(group, "group may not be null");
+		Preconditions.checkArgument(bytesPerSecond >= 0, "bytesPerSecond may not be negative");
+
+		ByteRing first = new ByteRing(capacity);
+		ByteRing second = new ByteRing(capacity);
+		LoopbackChannel result = new LoopbackChannel(group, second, first, bytesPerSecond);
+		LoopbackChannel peer = new LoopbackChannel(group, first, second, bytesPerSecond);
+		result.peer = peer;
+		peer.peer = result;
+		group.addChannel(result);
+		group.addChannel(peer);
+		return result;
+	}
+
+	/**
+	 * Creates a new LoopbackChannel.
+	 *
+	 * @param group the group associated with the channel
+	 * @param inbound the bytes written by the peer
+	 * @param outbound the bytes written by this channel
+	 * @param bytesPerSecond the simulated line rate, 0 if unlimited
+	 */
+	private LoopbackChannel(PeripheralChannelGroup group, ByteRing inbound, ByteRing outbound,
+		long bytesPerSecond)
+	{
+		this.group = group;
+		this.mailbox = new PeripheralChannelGroup.Mailbox(group);
+		this.inbound = inbound;
+		this.outbound = outbound;
+		this.bytesPerSecond = bytesPerSecond;
+		if (bytesPerSecond == 0)
+			this.chunkSize = Integer.MAX_VALUE;
+		else
+			this.chunkSize = (int) Math.max(1, Math.min(bytesPerSecond / CHUNKS_PER_SECOND,
+				outbound.capacity()));
+		this.readOperation = new ReadOperation();
+		this.writeOperation = new WriteOperation();
+	}
+
+	/**
+	 * Returns the other end of the pair.
+	 *
+	 * @return the other end of the pair
+	 */
+	public LoopbackChannel getPeer()
+	{
+		return peer;
+	}
+
+	@Override
+	public <A> void read(ByteBuffer target, A attachment, CompletionHandler<Integer, ? super A> handler)
+		throws IllegalArgumentException, ReadPendingException
+	{
+		read(target, attachment, handler, false);
+	}
+
+	@Override
+	public Future<Integer> read(ByteBuffer target) throws IllegalArgumentException,
+		ReadPendingException
+	{
+		SettableFuture<Integer> result = SettableFuture.create();
+		read(target, null, new CompletionHandlerToFuture<>(result), true);
+		return result;
+	}
+
+	/**
+	 * Reads bytes from the channel.
+	 *
+	 * @param <A> the attachment type
+	 * @param target the buffer to write into
+	 * @param attachment the attachment associated with handler
+	 * @param handler the handler to notify when the operation completes
+	 * @param direct true if handler may be invoked by whatever thread completes the operation
+	 * @throws IllegalArgumentException if target is read-only
+	 * @throws ReadPendingException if a read operation is already in progress
+	 */
+	private <A> void read(ByteBuffer target, A attachment,
+		CompletionHandler<Integer, ? super A> handler, boolean direct)
+	{
+		Preconditions.checkNotNull(handler, "handler may not be null");
+		if (target.isReadOnly())
+			throw new IllegalArgumentException("target may not be read-only");
+		if (!reading.compareAndSet(false, true))
+			throw new ReadPendingException();
+		readOperation.start(target, attachment, handler, direct);
+		if (closed.get())
+		{
+			readOperation.failed(new ClosedChannelException());
+			return;
+		}
+		readOperation.resume();
+	}
+
+	@Override
+	public <A> void write(ByteBuffer source, A attachment,
+		CompletionHandler<Integer, ? super A> handler) throws WritePendingException
+	{
+		write(source, attachment, handler, false);
+	}
+
+	@Override
+	public Future<Integer> write(ByteBuffer source) throws WritePendingException
+	{
+		SettableFuture<Integer> result = SettableFuture.create();
+		write(source, null, new CompletionHandlerToFuture<>(result), true);
+		return result;
+	}
+
+	/**
+	 * Writes bytes to the channel.
+	 *
+	 * @param <A> the attachment type
+	 * @param source the buffer to read from
+	 * @param attachment the attachment associated with handler
+	 * @param handler the handler to notify when the operation completes
+	 * @param direct true if handler may be invoked by whatever thread completes the operation
+	 * @throws WritePendingException if a write operation is already in progress
+	 */
+	private <A> void write(ByteBuffer source, A attachment,
+		CompletionHandler<Integer, ? super A> handler, boolean direct)
+	{
+		Preconditions.checkNotNull(handler, "handler may not be null");
+		if (!writing.compareAndSet(false, true))
+			throw new WritePendingException();
+		writeOperation.start(source, attachment, handler, direct);
+		if (closed.get())
+		{
+			writeOperation.failed(new ClosedChannelException());
+			return;
+		}
+		writeOperation.resume();
+	}
+
+	/**
+	 * Closes the channel. Bytes that were already written remain available to the peer, which reads
+	 * end-of-stream once it consumes them.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (!closed.compareAndSet(false, true))
+			return;
+		outbound.closeProducer();
+		inbound.closeConsumer();
+		abort((Operation) inbound.removeWaitingConsumer());
+		abort((Operation) outbound.removeWaitingProducer());
+		mailbox.close();
+		group.removeChannel(this);
+	}
+
+	/**
+	 * Fails an operation that was waiting when the channel was closed.
+	 *
+	 * @param operation the operation, or null if no operation was waiting
+	 */
+	private static void abort(Operation operation)
+	{
+		if (operation != null)
+			operation.failed(new AsynchronousCloseException());
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		return !closed.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		String rate;
+		if (bytesPerSecond == 0)
+			rate = "unlimited";
+		else
+			rate = bytesPerSecond + " bytes/second";
+		return LoopbackChannel.class.getSimpleName() + "[" + rate + "]";
+	}
+
+	/**
+	 * A read or write operation. An instance is reused by subsequent operations of the same kind.
+	 */
+	private abstract class Operation extends PeripheralChannelGroup.Completion
+		implements ByteRing.Waiter
+	{
+		protected ByteBuffer buffer;
+		private Object attachment;
+		private CompletionHandler<Integer, Object> handler;
+		private boolean direct;
+		/**
+		 * Set to false when the operation completes.
+		 */
+		private final AtomicBoolean running;
+		private int result;
+		private Throwable failure;
+
+		/**
+		 * Creates a new Operation.
+		 *
+		 * @param running set to false when the operation completes
+		 */
+		Operation(AtomicBoolean running)
+		{
+			super(mailbox);
+			this.running = running;
+		}
+
+		/**
+		 * Prepares for a new operation. The caller must have set <code>running</code> to true.
+		 *
+		 * @param <A> the type of the object attached to the operation
+		 * @param buffer the buffer to transfer bytes from or to
+		 * @param attachment the attachment associated with handler
+		 * @param handler the handler to notify when the operation completes
+		 * @param direct true if handler may be invoked by whatever thread completes the operation
+		 */
+		@SuppressWarnings("unchecked")
+		<A> void start(ByteBuffer buffer, A attachment, CompletionHandler<Integer, ? super A> handler,
+			boolean direct)
+		{
+			this.buffer = buffer;
+			this.attachment = attachment;
+			this.handler = (CompletionHandler<Integer, Object>) handler;
+			this.direct = direct;
+		}
+
+		/**
+		 * Completes the operation.
+		 *
+		 * @param result the number of bytes transferred
+		 */
+		protected void completed(int result)
+		{
+			this.result = result;
+			this.failure = null;
+			if (direct)
+				deliver();
+			else
+				dispatch();
+		}
+
+		/**
+		 * Fails the operation.
+		 *
+		 * @param t the cause of failure
+		 */
+		protected void failed(Throwable t)
+		{
+			this.failure = t;
+			if (direct)
+				deliver();
+			else
+				dispatch();
+		}
+
+		@Override
+		protected void deliver()
+		{
+			Object attachment = this.attachment;
+			CompletionHandler<Integer, Object> handler = this.handler;
+			int result = this.result;
+			Throwable failure = this.failure;
+			this.buffer = null;
+			this.attachment = null;
+			this.handler = null;
+			this.failure = null;
+
+			// Clear running before notifying the handler in order to allow it to initiate a follow-up
+			// operation.
+			running.set(false);
+			if (failure == null)
+				handler.completed(result, attachment);
+			else
+				handler.failed(failure, attachment);
+		}
+	}
+
+	/**
+	 * A read operation.
+	 */
+	private final class ReadOperation extends Operation
+	{
+		/**
+		 * Creates a new ReadOperation.
+		 */
+		ReadOperation()
+		{
+			super(reading);
+		}
+
+		@Override
+		public void resume()
+		{
+			if (closed.get())
+			{
+				failed(new AsynchronousCloseException());
+				return;
+			}
+			if (!buffer.hasRemaining())
+			{
+				completed(0);
+				return;
+			}
+			int count = inbound.read(buffer);
+			if (count > 0)
+			{
+				completed(count);
+				return;
+			}
+			if (inbound.isProducerClosed())
+			{
+				// Bytes published before the peer closed take precedence over end-of-stream
+				count = inbound.read(buffer);
+				if (count > 0)
+					completed(count);
+				else
+					completed(-1);
+				return;
+			}
+			inbound.awaitReadable(this);
+			if (closed.get() && inbound.removeWaitingConsumer() == this)
+				failed(new AsynchronousCloseException());
+		}
+	}
+
+	/**
+	 * A write operation.
+	 */
+	private final class WriteOperation extends Operation
+	{
+		/**
+		 * The number of bytes reserved in the ring that are waiting for their simulated transmission to
+		 * end.
+		 */
+		private int transmitting;
+		/**
+		 * Publishes the bytes once their simulated transmission ends.
+		 */
+		private final Runnable transmitted = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				outbound.publish();
+				completed(transmitting);
+			}
+		};
+
+		/**
+		 * Creates a new WriteOperation.
+		 */
+		WriteOperation()
+		{
+			super(writing);
+		}
+
+		@Override
+		public void resume()
+		{
+			if (closed.get())
+			{
+				failed(new AsynchronousCloseException());
+				return;
+			}
+			if (outbound.isConsumerClosed())
+			{
+				failed(new IOException("The peer is closed"));
+				return;
+			}
+			if (!buffer.hasRemaining())
+			{
+				completed(0);
+				return;
+			}
+			int count = outbound.reserve(buffer, chunkSize);
+			if (count == 0)
+			{
+				outbound.awaitWritable(this);
+				if (closed.get() && outbound.removeWaitingProducer() == this)
+					failed(new AsynchronousCloseException());
+				return;
+			}
+			if (bytesPerSecond == 0)
+			{
+				outbound.publish();
+				completed(count);
+				return;
+			}
+			transmitting = count;
+			long transmissionTime = count * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+			mailbox.schedule(transmitted, transmissionTime, TimeUnit.NANOSECONDS);
+		}
+	}
+}
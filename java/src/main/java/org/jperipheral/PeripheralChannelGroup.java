@@ -2,12 +2,31 @@ package org.jperipheral;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ShutdownChannelGroupException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * An AsynchronousChannelGroup for peripherals.
@@ -16,18 +35,124 @@ import java.util.concurrent.TimeUnit;
  */
 public class PeripheralChannelGroup extends AsynchronousChannelGroup
 {
+	/**
+	 * The mechanism used by the native code to carry out I/O operations.
+	 */
+	public enum IoEngine
+	{
+		/**
+		 * The platform's default mechanism: epoll under Linux, I/O completion ports under Windows.
+		 */
+		DEFAULT,
+		/**
+		 * io_uring under Linux. Operations across all ports are submitted and reaped in batches, trading
+		 * one system call per operation for one system call per batch. Falls back to {@link #DEFAULT} if
+		 * the kernel or native library does not support io_uring.
+		 */
+		IO_URING
+	}
+	/**
+	 * The maximum number of completion handlers that may be nested on the stack of a thread before
+	 * handlers are handed off to the executor.
+	 */
+	private static final int MAX_HANDLER_DEPTH = 16;
+	/**
+	 * The maximum number of completions that a mailbox delivers before yielding its thread to other
+	 * tasks.
+	 */
+	private static final int MAILBOX_BATCH_SIZE = 64;
+
+	/**
+	 * Runs the timers of channels that are not pinned to an event loop.
+	 */
+	private static final class TimerHolder
+	{
+		static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jperipheral-timer").build());
+	}
 	private final ExecutorService executor;
-	private final List<Closeable> channels = Lists.newArrayList();
+	private final IoEngine ioEngine;
+	/**
+	 * The completion handlers that the current thread is running on behalf of the group, null if the
+	 * thread has never done so. The context is allocated once per thread.
+	 */
+	private final ThreadLocal<HandlerContext> handlerContext = new ThreadLocal<>();
+	private final Logger log = LoggerFactory.getLogger(PeripheralChannelGroup.class);
+	/**
+	 * The channels that are open. Channels remove themselves once they are closed.
+	 */
+	private final Set<Closeable> channels =
+		Sets.newSetFromMap(new ConcurrentHashMap<Closeable, Boolean>());
+	/**
+	 * The group used by network channels, null if it has not been created yet.
+	 */
+	private AsynchronousChannelGroup socketGroup;
 
 	/**
-	 * Creates a new PeripheralChannelGroup.
+	 * Creates a new PeripheralChannelGroup that uses the default I/O engine.
 	 * 
 	 * @param executor the executor used to schedule tasks
 	 */
 	public PeripheralChannelGroup(ExecutorService executor)
+	{
+		this(executor, IoEngine.DEFAULT);
+	}
+
+	/**
+	 * Creates a new PeripheralChannelGroup.
+	 * 
+	 * @param executor the executor used to schedule tasks
+	 * @param ioEngine the I/O engine used by channels in the group
+	 * @throws NullPointerException if ioEngine is null
+	 */
+	public PeripheralChannelGroup(ExecutorService executor, IoEngine ioEngine)
 	{
 		super(null);
+		Preconditions.checkNotNull(ioEngine, "ioEngine may not be null");
+
 		this.executor = executor;
+		this.ioEngine = ioEngine;
+	}
+
+	/**
+	 * Creates a PeripheralChannelGroup with one event loop per processor, using the default I/O
+	 * engine.
+	 *
+	 * @return a new PeripheralChannelGroup
+	 * @see #withEventLoops(int, IoEngine)
+	 */
+	public static PeripheralChannelGroup withEventLoops()
+	{
+		return withEventLoops(Runtime.getRuntime().availableProcessors(), IoEngine.DEFAULT);
+	}
+
+	/**
+	 * Creates a PeripheralChannelGroup made up of event loops. Each loop runs on a dedicated thread.
+	 * Each channel is pinned to the loop with the fewest channels when it is opened, and its
+	 * completion handlers and timers run on that loop until it is closed. Reads and writes never block
+	 * a loop, so a group with a single loop can serve any number of channels.
+	 * <p>
+	 * Completion handlers must not block either, since they hold up every other channel on their loop.
+	 * In particular, they must not invoke:
+	 * <ul>
+	 * <li>{@link RemoteSerialChannel#configure RemoteSerialChannel.configure()}, which waits for
+	 * acknowledgements that are received by the group's loops.</li>
+	 * <li>{@link SerialPort#newAsynchronousChannel(PeripheralChannelGroup)
+	 * SerialPort.newAsynchronousChannel()}, which opens the port on the calling thread.</li>
+	 * </ul>
+	 * {@link SerialPort#openAsync(PeripheralChannelGroup, long, TimeUnit, SerialPort.Configuration,
+	 * Object, CompletionHandler) SerialPort.openAsync()} opens ports using the group's executor. Under
+	 * this group, the open runs on one of the loops and holds it up for as long as the open takes.
+	 *
+	 * @param loops the number of event loops
+	 * @param ioEngine the I/O engine used by channels in the group
+	 * @return a new PeripheralChannelGroup
+	 * @throws IllegalArgumentException if loops is not positive
+	 * @throws NullPointerException if ioEngine is null
+	 */
+	public static PeripheralChannelGroup withEventLoops(int loops, IoEngine ioEngine)
+	{
+		return new PeripheralChannelGroup(new EventLoopExecutor(loops), ioEngine);
 	}
 
 	@Override
@@ -45,15 +170,107 @@ public class PeripheralChannelGroup extends AsynchronousChannelGroup
 	@Override
 	public void shutdown()
 	{
+		synchronized (this)
+		{
+			if (socketGroup != null)
+				socketGroup.shutdown();
+		}
 		executor.shutdown();
 	}
 
 	@Override
 	public void shutdownNow() throws IOException
 	{
+		synchronized (this)
+		{
+			if (socketGroup != null)
+				socketGroup.shutdownNow();
+		}
 		executor.shutdownNow();
-		for (Closeable channel: channels)
-			channel.close();
+		closeChannels();
+	}
+
+	/**
+	 * Closes all open channels in parallel. Closing a channel may block until its ongoing operations
+	 * complete, so closing them one at a time would add up their delays.
+	 *
+	 * @throws IOException if an I/O error occurs. Errors thrown by other channels are suppressed by
+	 * the first one.
+	 */
+	private void closeChannels() throws IOException
+	{
+		List<Closeable> open = Lists.newArrayList(channels);
+		if (open.isEmpty())
+			return;
+		if (open.size() == 1)
+		{
+			open.get(0).close();
+			return;
+		}
+		// The group's executor was shut down, so the channels are closed by threads of their own
+		ExecutorService closer = Executors.newFixedThreadPool(Math.min(open.size(),
+			Runtime.getRuntime().availableProcessors()), new ThreadFactoryBuilder().setDaemon(true).
+			setNameFormat("jperipheral-close-%d").build());
+		try
+		{
+			List<Future<Void>> closing = Lists.newArrayListWithCapacity(open.size());
+			for (final Closeable channel: open)
+			{
+				closing.add(closer.submit(new Callable<Void>()
+				{
+					@Override
+					public Void call() throws IOException
+					{
+						channel.close();
+						return null;
+					}
+				}));
+			}
+			IOException error = null;
+			boolean interrupted = false;
+			for (Future<Void> future: closing)
+			{
+				Throwable cause;
+				while (true)
+				{
+					try
+					{
+						future.get();
+						cause = null;
+						break;
+					}
+					catch (InterruptedException e)
+					{
+						// Finish closing the channels before restoring the interrupt
+						interrupted = true;
+					}
+					catch (ExecutionException e)
+					{
+						cause = e.getCause();
+						break;
+					}
+				}
+				if (cause == null)
+					continue;
+				if (error == null)
+				{
+					if (cause instanceof IOException)
+						error = (IOException) cause;
+					else
+						error = new IOException(cause);
+				}
+				else
+					error.addSuppressed(cause);
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (error != null)
+				throw error;
+		}
+		finally
+		{
+			closer.shutdown();
+		}
 	}
 
 	@Override
@@ -74,6 +291,30 @@ public class PeripheralChannelGroup extends AsynchronousChannelGroup
 
 		channels.add(channel);
 	}
+
+	/**
+	 * Removes a channel from the group. Channels invoke this method once they are closed.
+	 *
+	 * @param channel the channel
+	 * @throws NullPointerException if channel is null
+	 */
+	public void removeChannel(Closeable channel)
+	{
+		Preconditions.checkNotNull(channel, "channel may not be null");
+
+		channels.remove(channel);
+	}
+
+	/**
+	 * Returns the channels that are open. The set is a live view that reflects channels as they are
+	 * opened and closed, and may be iterated while other threads do so.
+	 *
+	 * @return an unmodifiable view of the channels that are open
+	 */
+	public Set<Closeable> getChannels()
+	{
+		return Collections.unmodifiableSet(channels);
+	}
 	
 	/**
 	 * Returns the executor associated with the group.
@@ -84,4 +325,643 @@ public class PeripheralChannelGroup extends AsynchronousChannelGroup
 	{
 		return executor;
 	}
+
+	/**
+	 * Notifies a handler that an operation succeeded. The handler runs on the current thread if it is
+	 * already running a handler on behalf of the group and the number of nested handlers is bounded,
+	 * saving a hand-off to the executor. Otherwise, the handler is invoked by the executor.
+	 *
+	 * @param <V> the result type of the I/O operation
+	 * @param <A> the type of the object attached to the I/O operation
+	 * @param handler the handler to notify
+	 * @param value the result of the operation
+	 * @param attachment the object attached to the operation
+	 */
+	public <V, A> void completed(final CompletionHandler<V, ? super A> handler, final V value,
+		final A attachment)
+	{
+		if (enterHandler(null))
+		{
+			try
+			{
+				handler.completed(value, attachment);
+			}
+			finally
+			{
+				exitHandler();
+			}
+			return;
+		}
+		execute(new Completion(this)
+		{
+			@Override
+			protected void deliver()
+			{
+				handler.completed(value, attachment);
+			}
+		});
+	}
+
+	/**
+	 * Notifies a handler that an operation failed. The handler runs on the current thread under the
+	 * same conditions as {@link #completed(CompletionHandler, Object, Object) completed}.
+	 *
+	 * @param <V> the result type of the I/O operation
+	 * @param <A> the type of the object attached to the I/O operation
+	 * @param handler the handler to notify
+	 * @param t the cause of the failure
+	 * @param attachment the object attached to the operation
+	 */
+	public <V, A> void failed(final CompletionHandler<V, ? super A> handler, final Throwable t,
+		final A attachment)
+	{
+		if (enterHandler(null))
+		{
+			try
+			{
+				handler.failed(t, attachment);
+			}
+			finally
+			{
+				exitHandler();
+			}
+			return;
+		}
+		execute(new Completion(this)
+		{
+			@Override
+			protected void deliver()
+			{
+				handler.failed(t, attachment);
+			}
+		});
+	}
+
+	/**
+	 * Delivers a completion. A completion without a mailbox runs on the current thread under the same
+	 * conditions as {@link #completed(CompletionHandler, Object, Object) completed}. A completion with
+	 * a mailbox only does so if the thread is also draining that mailbox. Otherwise, the completion is
+	 * posted to its mailbox, if it has one, or handed off to the executor.
+	 * <p>
+	 * A completion that ran on the thread draining another mailbox would escape the event loop that
+	 * its channel is pinned to, and could overtake completions that are waiting in its own mailbox.
+	 * Once posted, however, the mailbox may be drained by a nested call if the thread belongs to the
+	 * same event loop. See {@link #drainNested(Mailbox)}.
+	 *
+	 * @param completion the completion to deliver
+	 */
+	private void dispatch(Completion completion)
+	{
+		if (enterHandler(completion.mailbox))
+		{
+			try
+			{
+				completion.deliver();
+			}
+			finally
+			{
+				exitHandler();
+			}
+			return;
+		}
+		if (completion.mailbox != null)
+			completion.mailbox.post(completion);
+		else
+			execute(completion);
+	}
+
+	/**
+	 * Increments the number of handlers on the stack of the current thread, if the thread is running
+	 * a handler on behalf of the group, is draining the specified mailbox and the maximum depth has
+	 * not been reached.
+	 *
+	 * @param mailbox the mailbox that delivers the handler, null if the handler may run on any thread
+	 * that is running a handler on behalf of the group
+	 * @return true if the handler may run on the current thread, in which case the caller must
+	 * invoke {@link #exitHandler()} once it returns
+	 */
+	private boolean enterHandler(Mailbox mailbox)
+	{
+		HandlerContext context = handlerContext.get();
+		if (context == null || context.depth <= 0 || context.depth >= MAX_HANDLER_DEPTH ||
+			(mailbox != null && context.mailbox != mailbox))
+		{
+			return false;
+		}
+		++context.depth;
+		return true;
+	}
+
+	/**
+	 * Drains a mailbox that was just scheduled on the current thread, if the thread is draining
+	 * another mailbox that is pinned to the same event loop and the maximum depth has not been
+	 * reached. This saves handing the mailbox off to the loop, which allocates a task, when channels
+	 * that are layered on top of each other share a loop.
+	 *
+	 * @param mailbox the mailbox, which the caller has marked as scheduled
+	 * @return false if the mailbox must be handed off to its loop
+	 */
+	private boolean drainNested(Mailbox mailbox)
+	{
+		HandlerContext context = handlerContext.get();
+		if (mailbox.loop == null || context == null || context.depth <= 0 ||
+			context.depth >= MAX_HANDLER_DEPTH || context.mailbox == null ||
+			context.mailbox.loop != mailbox.loop)
+		{
+			return false;
+		}
+		drain(mailbox, context.depth);
+		return true;
+	}
+
+	/**
+	 * Decrements the number of handlers on the stack of the current thread.
+	 */
+	private void exitHandler()
+	{
+		--handlerContext.get().depth;
+	}
+
+	/**
+	 * Returns the handler context of the current thread, creating it if necessary.
+	 *
+	 * @return the handler context of the current thread
+	 */
+	private HandlerContext getHandlerContext()
+	{
+		HandlerContext result = handlerContext.get();
+		if (result == null)
+		{
+			result = new HandlerContext();
+			handlerContext.set(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Hands a task off to the group's executor.
+	 *
+	 * @param task the task
+	 */
+	private void execute(Runnable task)
+	{
+		execute(executor, task);
+	}
+
+	/**
+	 * Hands a task off to an executor.
+	 *
+	 * @param executor the executor
+	 * @param task the task
+	 */
+	private void execute(Executor executor, Runnable task)
+	{
+		try
+		{
+			executor.execute(task);
+		}
+		catch (RejectedExecutionException e)
+		{
+			if (isShutdown())
+			{
+				// Channels that are still open when the group shuts down fail their pending operations
+				log.debug("Discarding a completion that arrived after shutdown", e);
+				return;
+			}
+			log.error("", e);
+		}
+		catch (RuntimeException | Error e)
+		{
+			log.error("", e);
+		}
+	}
+
+	/**
+	 * Invoked by the executor to deliver a completion, marking the executing thread as running a
+	 * handler on behalf of the group.
+	 *
+	 * @param completion the completion
+	 */
+	private void run(Completion completion)
+	{
+		HandlerContext context = getHandlerContext();
+		// The executor may be shared with other groups, so the mark only lasts as long as the task
+		int oldDepth = context.depth;
+		Mailbox oldMailbox = context.mailbox;
+		context.depth = 1;
+		context.mailbox = null;
+		try
+		{
+			completion.deliver();
+		}
+		finally
+		{
+			context.depth = oldDepth;
+			context.mailbox = oldMailbox;
+		}
+	}
+
+	/**
+	 * Invoked by the executor, or by {@link #drainNested(Mailbox)}, to deliver a batch of completions
+	 * from a mailbox, marking the executing thread as running a handler on behalf of the group.
+	 *
+	 * @param mailbox the mailbox
+	 * @param depth the number of handlers on the stack of the current thread, 0 if the mailbox was
+	 * handed off to the executor
+	 */
+	private void drain(Mailbox mailbox, int depth)
+	{
+		HandlerContext context = getHandlerContext();
+		int oldDepth = context.depth;
+		Mailbox oldMailbox = context.mailbox;
+		context.mailbox = mailbox;
+		try
+		{
+			for (int i = 0; i < MAILBOX_BATCH_SIZE; ++i)
+			{
+				Completion completion = mailbox.poll();
+				if (completion == null)
+					break;
+				context.depth = depth + 1;
+				try
+				{
+					completion.deliver();
+				}
+				catch (RuntimeException e)
+				{
+					// Do not hold up the remaining completions
+					log.error("", e);
+				}
+			}
+		}
+		finally
+		{
+			context.depth = oldDepth;
+			context.mailbox = oldMailbox;
+			mailbox.endBatch();
+		}
+	}
+
+	/**
+	 * The completion handlers that a thread is running on behalf of a group. Only accessed by the
+	 * thread that owns it.
+	 *
+	 * @author Gili Tzabari
+	 */
+	private static final class HandlerContext
+	{
+		/**
+		 * The number of completion handlers on the stack of the thread, 0 if the thread is not running
+		 * a handler on behalf of the group.
+		 */
+		int depth;
+		/**
+		 * The mailbox that the thread is draining, null if the thread is running a completion that was
+		 * handed off to the executor.
+		 */
+		Mailbox mailbox;
+	}
+
+	/**
+	 * Delivers the outcome of an operation to a completion handler on behalf of a group.
+	 * <p>
+	 * Channels that allow one operation of each kind at a time may keep one instance per kind and
+	 * dispatch it again for every operation instead of allocating a new one. Subclasses are
+	 * responsible for ensuring that an instance is not dispatched again before it is delivered.
+	 * <p>
+	 * Channels implemented outside of this package use it to deliver their completions the same way.
+	 *
+	 * @author Gili Tzabari
+	 */
+	public abstract static class Completion implements Runnable
+	{
+		private static final AtomicReferenceFieldUpdater<Completion, Completion> NEXT =
+			AtomicReferenceFieldUpdater.newUpdater(Completion.class, Completion.class, "next");
+		private final PeripheralChannelGroup group;
+		/**
+		 * The mailbox that the completion is posted to, null if it is handed off to the executor.
+		 */
+		private final Mailbox mailbox;
+		/**
+		 * The next completion in the mailbox.
+		 */
+		private volatile Completion next;
+
+		/**
+		 * Creates a Completion that is handed off to the executor.
+		 *
+		 * @param group the group on whose behalf the completion is delivered
+		 * @throws NullPointerException if group is null
+		 */
+		public Completion(PeripheralChannelGroup group)
+		{
+			Preconditions.checkNotNull(group, "group may not be null");
+
+			this.group = group;
+			this.mailbox = null;
+		}
+
+		/**
+		 * Creates a Completion that is posted to a mailbox.
+		 *
+		 * @param mailbox the mailbox of the channel whose operation completed
+		 * @throws NullPointerException if mailbox is null
+		 */
+		public Completion(Mailbox mailbox)
+		{
+			Preconditions.checkNotNull(mailbox, "mailbox may not be null");
+
+			this.group = mailbox.group;
+			this.mailbox = mailbox;
+		}
+
+		/**
+		 * Invokes the completion handler.
+		 */
+		protected abstract void deliver();
+
+		/**
+		 * Delivers the completion, on the current thread if it is already delivering completions of the
+		 * same mailbox on behalf of the group, and using the mailbox or executor otherwise.
+		 */
+		public final void dispatch()
+		{
+			group.dispatch(this);
+		}
+
+		/**
+		 * Posts the completion to its mailbox, without ever delivering it on the current thread. Used by
+		 * channels that complete operations while holding a lock.
+		 *
+		 * @throws IllegalStateException if the completion has no mailbox
+		 */
+		final void post()
+		{
+			Preconditions.checkState(mailbox != null, "The completion has no mailbox");
+			mailbox.post(this, false);
+		}
+
+		@Override
+		public final void run()
+		{
+			group.run(this);
+		}
+	}
+
+	/**
+	 * Returns the group used by network channels. Completion handlers run on the group's executor.
+	 * 
+	 * @return the group used by network channels
+	 * @throws IOException if an I/O error occurs while creating the group
+	 * @throws ShutdownChannelGroupException if the group is shut down
+	 */
+	synchronized AsynchronousChannelGroup socketGroup() throws IOException
+	{
+		if (socketGroup == null)
+		{
+			if (executor.isShutdown())
+				throw new ShutdownChannelGroupException();
+			// The JDK polls on its own internal thread and hands completions off to the executor, so no
+			// executor threads are tied up waiting for network events.
+			socketGroup = AsynchronousChannelGroup.withCachedThreadPool(executor, 0);
+		}
+		return socketGroup;
+	}
+
+	/**
+	 * Returns the I/O engine used by channels in the group.
+	 * 
+	 * @return the I/O engine used by channels in the group
+	 */
+	public IoEngine getIoEngine()
+	{
+		return ioEngine;
+	}
+
+	/**
+	 * Delivers the completions of a single channel in the order that they were posted. At most one
+	 * thread drains a mailbox at a time, handing completions to the channel's handlers in batches, so
+	 * a channel's completions do not migrate between threads under load and are scheduled once per
+	 * batch instead of once per completion.
+	 * <p>
+	 * Any number of threads may post to a mailbox. Completions are linked into an intrusive
+	 * multiple-producer, single-consumer queue, so posting a completion does not allocate memory or
+	 * acquire locks.
+	 *
+	 * @author Gili Tzabari
+	 */
+	public static final class Mailbox implements Executor, Runnable
+	{
+		private final PeripheralChannelGroup group;
+		/**
+		 * The event loop that the mailbox is pinned to, null if completions are handed off to the
+		 * group's executor.
+		 */
+		private final EventLoopExecutor.Loop loop;
+		/**
+		 * Separates the consumer from the producers when the queue is empty.
+		 */
+		private final Completion stub;
+		/**
+		 * The next completion to deliver. Only accessed by the thread that drains the mailbox.
+		 */
+		private Completion head;
+		/**
+		 * The most recently posted completion.
+		 */
+		private final AtomicReference<Completion> tail;
+		/**
+		 * True if the mailbox has been handed off to the executor and has not finished draining yet.
+		 */
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		/**
+		 * True once the mailbox has been unpinned from its event loop.
+		 */
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		/**
+		 * Creates a new Mailbox. If the group is made up of event loops, the mailbox is pinned to one of
+		 * them until it is closed.
+		 *
+		 * @param group the group that drains the mailbox
+		 * @throws NullPointerException if group is null
+		 */
+		public Mailbox(PeripheralChannelGroup group)
+		{
+			Preconditions.checkNotNull(group, "group may not be null");
+
+			this.group = group;
+			if (group.executor instanceof EventLoopExecutor)
+				this.loop = ((EventLoopExecutor) group.executor).acquire();
+			else
+				this.loop = null;
+			this.stub = new Completion(group)
+			{
+				@Override
+				protected void deliver()
+				{
+					throw new AssertionError("The stub may not be delivered");
+				}
+			};
+			this.head = stub;
+			this.tail = new AtomicReference<>(stub);
+		}
+
+		/**
+		 * Posts a completion, scheduling the mailbox to be drained if it is not already scheduled. The
+		 * mailbox is drained on the current thread instead if the thread belongs to the mailbox's event
+		 * loop and is running a handler on behalf of the group.
+		 *
+		 * @param completion the completion
+		 */
+		void post(Completion completion)
+		{
+			post(completion, true);
+		}
+
+		/**
+		 * Posts a completion, scheduling the mailbox to be drained if it is not already scheduled.
+		 *
+		 * @param completion the completion
+		 * @param nested true if the mailbox may be drained on the current thread, as described in
+		 * {@link #post(Completion)}
+		 */
+		void post(Completion completion, boolean nested)
+		{
+			enqueue(completion);
+			if (scheduled.compareAndSet(false, true) && !(nested && group.drainNested(this)))
+				schedule();
+		}
+
+		/**
+		 * Hands the mailbox off to its event loop, or to the group's executor if it is not pinned.
+		 */
+		private void schedule()
+		{
+			if (loop == null)
+				group.execute(this);
+			else
+				group.execute(loop.executor, this);
+		}
+
+		/**
+		 * Runs a task after a delay, on the mailbox's event loop if it is pinned to one.
+		 *
+		 * @param task the task
+		 * @param delay the delay
+		 * @param unit the unit of delay
+		 * @throws NullPointerException if task or unit are null
+		 */
+		void schedule(Runnable task, long delay, TimeUnit unit)
+		{
+			if (loop == null)
+				TimerHolder.TIMER.schedule(task, delay, unit);
+			else
+				loop.executor.schedule(task, delay, unit);
+		}
+
+		/**
+		 * Unpins the mailbox from its event loop. Invoked once the channel is closed. Completions that
+		 * are still outstanding continue to be delivered.
+		 */
+		public void close()
+		{
+			if (loop != null && closed.compareAndSet(false, true))
+				loop.release();
+		}
+
+		/**
+		 * Appends a completion to the queue.
+		 *
+		 * @param completion the completion
+		 */
+		private void enqueue(Completion completion)
+		{
+			Completion.NEXT.lazySet(completion, null);
+			Completion previous = tail.getAndSet(completion);
+			// The queue is disconnected until this line runs. The consumer treats it as empty and the
+			// producer schedules it again.
+			previous.next = completion;
+		}
+
+		/**
+		 * Removes the next completion from the queue. Invoked by the thread that drains the mailbox.
+		 *
+		 * @return null if no completion is available
+		 */
+		private Completion poll()
+		{
+			Completion first = head;
+			Completion next = first.next;
+			if (first == stub)
+			{
+				if (next == null)
+					return null;
+				head = next;
+				first = next;
+				next = next.next;
+			}
+			if (next != null)
+			{
+				head = next;
+				return first;
+			}
+			if (first != tail.get())
+			{
+				// A producer is in the middle of posting a completion
+				return null;
+			}
+			enqueue(stub);
+			next = first.next;
+			if (next != null)
+			{
+				head = next;
+				return first;
+			}
+			return null;
+		}
+
+		/**
+		 * Invoked once a batch is delivered. Schedules the mailbox again if completions remain.
+		 */
+		private void endBatch()
+		{
+			Completion first = head;
+			scheduled.set(false);
+			// Another thread may start draining the mailbox as soon as scheduled is cleared, so head may
+			// not be read past this point. A completion posted in the meantime either changes the tail or
+			// schedules the mailbox itself. Unless the head is the stub, it has yet to be delivered.
+			boolean empty = first == stub && first.next == null && tail.get() == first;
+			if (!empty && scheduled.compareAndSet(false, true))
+				schedule();
+		}
+
+		/**
+		 * Runs a task after all completions that were posted before it. The task never runs on the
+		 * current thread.
+		 *
+		 * @param task the task
+		 * @throws NullPointerException if task is null
+		 */
+		@Override
+		public void execute(final Runnable task)
+		{
+			Preconditions.checkNotNull(task, "task may not be null");
+
+			post(new Completion(this)
+			{
+				@Override
+				protected void deliver()
+				{
+					task.run();
+				}
+			}, false);
+		}
+
+		@Override
+		public void run()
+		{
+			group.drain(this, 0);
+		}
+	}
 }
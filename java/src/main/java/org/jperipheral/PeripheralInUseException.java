@@ -11,6 +11,7 @@ public class PeripheralInUseException extends IOException
 {
 	private static final long serialVersionUID = 0L;
 	private final String name;
+	private final long ownerPid;
 
 	/**
 	 * Creates a new PeripheralInUseException.
@@ -20,8 +21,22 @@ public class PeripheralInUseException extends IOException
 	 */
 	public PeripheralInUseException(String name, Throwable cause)
 	{
-		super("Peripheral in use: " + name, cause);
+		this(name, -1, cause);
+	}
+
+	/**
+	 * Creates a new PeripheralInUseException.
+	 *
+	 * @param name the peripheral name
+	 * @param ownerPid the ID of the process that holds the peripheral, or -1 if it is unknown
+	 * @param cause the underlying cause
+	 */
+	public PeripheralInUseException(String name, long ownerPid, Throwable cause)
+	{
+		super("Peripheral in use: " + name + (ownerPid == -1 ? "" : " (held by process " + ownerPid +
+			")"), cause);
 		this.name = name;
+		this.ownerPid = ownerPid;
 	}
 
 	/**
@@ -33,4 +48,15 @@ public class PeripheralInUseException extends IOException
 	{
 		return name;
 	}
+
+	/**
+	 * Returns the ID of the process that holds the peripheral. Processes that belong to other users
+	 * can only be identified if they locked the peripheral.
+	 *
+	 * @return the process ID, or -1 if it is unknown
+	 */
+	public long getOwnerPid()
+	{
+		return ownerPid;
+	}
 }
@@ -1,8 +1,24 @@
 package org.jperipheral;
 
+import com.google.common.base.Preconditions;
 import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Returns peripherals.
@@ -12,16 +28,334 @@ import java.util.List;
 @Singleton
 public final class Peripherals
 {
+	private final Logger log = LoggerFactory.getLogger(Peripherals.class);
+	/**
+	 * Enumerates serial ports, null if the system does not expose sysfs.
+	 */
+	private final SysfsScanner scanner;
+	/**
+	 * The path of {@code /dev}.
+	 */
+	private final Path devices;
+	/**
+	 * Synchronizes access to serialPorts, knownPorts and watcher.
+	 */
+	private final Object lock = new Object();
+	/**
+	 * The result of the last scan, null if the next call must scan again.
+	 */
+	private List<SerialPortInfo> serialPorts;
+	/**
+	 * The ports that listeners were last notified about, indexed by name. Null if there are no
+	 * listeners.
+	 */
+	private Map<String, SerialPortInfo> knownPorts;
+	private final List<SerialPortListener> listeners = new CopyOnWriteArrayList<>();
+	/**
+	 * Invalidates serialPorts when a device is added or removed, null if the thread is not running.
+	 */
+	private Thread watcher;
+
+	/**
+	 * Creates a new Peripherals.
+	 */
+	public Peripherals()
+	{
+		this(Paths.get("/sys/class/tty"), Paths.get("/dev"));
+	}
+
+	/**
+	 * Creates a new Peripherals.
+	 *
+	 * @param sysClassTty the path of {@code /sys/class/tty}
+	 * @param devices the path of {@code /dev}
+	 */
+	Peripherals(Path sysClassTty, Path devices)
+	{
+		if (Files.isDirectory(sysClassTty))
+			this.scanner = new SysfsScanner(sysClassTty, devices);
+		else
+			this.scanner = null;
+		this.devices = devices;
+	}
+
 	/**
 	 * Returns a list of all peripherals.
-	 * 
+	 * <p>
+	 * Under Linux, only serial ports that are attached to the system are returned. Other platforms
+	 * return all possible serial ports, whether or not they exist.
+	 *
 	 * @return a list of all peripherals
 	 */
 	public List<Peripheral> all()
 	{
 		List<Peripheral> result = new ArrayList<>();
-		for (int i = 1; i <= 256; i++)
-			result.add(new SerialPort("COM" + i));
+		if (scanner == null)
+		{
+			for (int i = 1; i <= 256; i++)
+				result.add(new SerialPort("COM" + i));
+			return result;
+		}
+		try
+		{
+			for (SerialPortInfo info: getSerialPorts())
+				result.add(info.getPort());
+		}
+		catch (IOException e)
+		{
+			log.warn("Failed to enumerate serial ports", e);
+		}
 		return result;
 	}
+
+	/**
+	 * Returns the serial ports that are attached to the system. The result is cached until a device
+	 * is added to or removed from {@code /dev}.
+	 *
+	 * @return the serial ports that are attached to the system, sorted by name
+	 * @throws UnsupportedOperationException if the system does not expose sysfs
+	 * @throws IOException if an I/O error occurs while reading sysfs
+	 */
+	public List<SerialPortInfo> getSerialPorts() throws IOException
+	{
+		if (scanner == null)
+			throw new UnsupportedOperationException("Port enumeration requires sysfs");
+		synchronized (lock)
+		{
+			if (serialPorts != null)
+				return serialPorts;
+			// Start watching before scanning so that changes made during the scan invalidate its result
+			boolean watching;
+			try
+			{
+				startWatcher();
+				watching = true;
+			}
+			catch (IOException e)
+			{
+				log.debug("Cannot watch " + devices + ", port enumeration will not be cached", e);
+				watching = false;
+			}
+			List<SerialPortInfo> result = Collections.unmodifiableList(scanner.scan());
+			if (watching)
+				serialPorts = result;
+			return result;
+		}
+	}
+
+	/**
+	 * Registers a listener that is notified when serial ports are attached to or detached from the
+	 * system. Changes are detected by watching {@code /dev}, so listeners are typically notified
+	 * within milliseconds.
+	 * <p>
+	 * The listener is only notified of changes that occur after this method returns. Listeners are
+	 * invoked sequentially, by a single thread, and should hand off long-running operations to
+	 * another thread.
+	 *
+	 * @param listener the listener
+	 * @throws NullPointerException if listener is null
+	 * @throws UnsupportedOperationException if the system does not expose sysfs
+	 * @throws IOException if {@code /dev} cannot be watched or an I/O error occurs while reading sysfs
+	 */
+	public void addListener(SerialPortListener listener) throws IOException
+	{
+		Preconditions.checkNotNull(listener, "listener may not be null");
+		if (scanner == null)
+			throw new UnsupportedOperationException("Port enumeration requires sysfs");
+		synchronized (lock)
+		{
+			startWatcher();
+			if (knownPorts == null)
+				knownPorts = indexByName(getSerialPorts());
+			listeners.add(listener);
+		}
+	}
+
+	/**
+	 * Unregisters a listener.
+	 *
+	 * @param listener the listener
+	 * @throws NullPointerException if listener is null
+	 */
+	public void removeListener(SerialPortListener listener)
+	{
+		Preconditions.checkNotNull(listener, "listener may not be null");
+		synchronized (lock)
+		{
+			listeners.remove(listener);
+			if (listeners.isEmpty())
+				knownPorts = null;
+		}
+	}
+
+	/**
+	 * Indexes ports by name.
+	 *
+	 * @param ports the ports
+	 * @return the ports indexed by name, in the same order
+	 */
+	private static Map<String, SerialPortInfo> indexByName(List<SerialPortInfo> ports)
+	{
+		Map<String, SerialPortInfo> result = new LinkedHashMap<>();
+		for (SerialPortInfo port: ports)
+			result.put(port.getPort().getName(), port);
+		return result;
+	}
+
+	/**
+	 * Starts the thread that invalidates the cached scan. Must be invoked with the lock held.
+	 *
+	 * @throws IOException if the devices cannot be watched
+	 */
+	private void startWatcher() throws IOException
+	{
+		assert (Thread.holdsLock(lock));
+		if (watcher != null)
+			return;
+		final WatchService watchService = devices.getFileSystem().newWatchService();
+		try
+		{
+			devices.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE);
+		}
+		catch (IOException e)
+		{
+			watchService.close();
+			throw e;
+		}
+		watcher = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					watch(watchService);
+				}
+				finally
+				{
+					try
+					{
+						watchService.close();
+					}
+					catch (IOException e)
+					{
+						log.warn("", e);
+					}
+					synchronized (lock)
+					{
+						watcher = null;
+						serialPorts = null;
+						if (!listeners.isEmpty())
+						{
+							log.warn("Stopped watching " + devices + ", listeners will no longer be " +
+								"notified");
+						}
+					}
+				}
+			}
+		}, "jperipheral-device-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Invalidates the cached scan and notifies listeners whenever a serial port is added or removed.
+	 * Returns once the devices can no longer be watched.
+	 *
+	 * @param watchService the service watching the devices
+	 */
+	private void watch(WatchService watchService)
+	{
+		while (true)
+		{
+			WatchKey key;
+			try
+			{
+				key = watchService.take();
+			}
+			catch (InterruptedException | ClosedWatchServiceException e)
+			{
+				return;
+			}
+			boolean changed = false;
+			for (WatchEvent<?> event: key.pollEvents())
+			{
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+				{
+					changed = true;
+					continue;
+				}
+				Path name = (Path) event.context();
+				if (SysfsScanner.isSerialPortName(name.toString()))
+					changed = true;
+			}
+			if (changed)
+				onChange();
+			if (!key.reset())
+				return;
+		}
+	}
+
+	/**
+	 * Invoked by the watcher thread when a serial port may have been added or removed.
+	 */
+	private void onChange()
+	{
+		List<SerialPortInfo> added = new ArrayList<>();
+		List<SerialPortInfo> removed = new ArrayList<>();
+		synchronized (lock)
+		{
+			serialPorts = null;
+			if (knownPorts == null)
+				return;
+			Map<String, SerialPortInfo> current;
+			try
+			{
+				current = indexByName(getSerialPorts());
+			}
+			catch (IOException e)
+			{
+				log.warn("Failed to enumerate serial ports", e);
+				return;
+			}
+			for (SerialPortInfo port: knownPorts.values())
+			{
+				// A different device may have been attached under the same name in the meantime
+				if (!port.equals(current.get(port.getPort().getName())))
+					removed.add(port);
+			}
+			for (SerialPortInfo port: current.values())
+			{
+				if (!port.equals(knownPorts.get(port.getPort().getName())))
+					added.add(port);
+			}
+			knownPorts = current;
+		}
+		for (SerialPortListener listener: listeners)
+		{
+			for (SerialPortInfo port: removed)
+			{
+				try
+				{
+					listener.serialPortRemoved(port);
+				}
+				catch (RuntimeException e)
+				{
+					log.error("", e);
+				}
+			}
+			for (SerialPortInfo port: added)
+			{
+				try
+				{
+					listener.serialPortAdded(port);
+				}
+				catch (RuntimeException e)
+				{
+					log.error("", e);
+				}
+			}
+		}
+	}
 }
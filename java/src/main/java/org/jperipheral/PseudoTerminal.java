@@ -0,0 +1,73 @@
+package org.jperipheral;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pseudo-terminal: a pair of connected channels that behave like the two ends of a serial link.
+ * <p>
+ * Useful for testing code that talks to serial ports without physical hardware. Each invocation
+ * of {@code newAsynchronousChannel()} creates a new pseudo-terminal and returns its master side.
+ * The slave side is returned by {@link PseudoTerminalChannel#getSlave()}. Pseudo-terminals are
+ * only supported under Linux.
+ *
+ * @author Gili Tzabari
+ */
+public final class PseudoTerminal implements Peripheral
+{
+	/**
+	 * The pseudo-terminal multiplexer.
+	 */
+	private static final String MULTIPLEXER = "/dev/ptmx";
+
+	@Override
+	public String getName()
+	{
+		return MULTIPLEXER;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws UnsupportedOperationException if the platform does not support pseudo-terminals
+	 */
+	@Override
+	public PseudoTerminalChannel newAsynchronousChannel(PeripheralChannelGroup group)
+		throws PeripheralNotFoundException, PeripheralInUseException
+	{
+		return newAsynchronousChannel(group, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws UnsupportedOperationException if the platform does not support pseudo-terminals
+	 */
+	@Override
+	public PseudoTerminalChannel newAsynchronousChannel(PeripheralChannelGroup group, long timeout,
+		TimeUnit unit) throws PeripheralNotFoundException, PeripheralInUseException
+	{
+		PseudoTerminalChannel result = new PseudoTerminalChannel(new SerialPort(MULTIPLEXER), group,
+			timeout, unit);
+		group.addChannel(result);
+		group.addChannel(result.getSlave());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		return o instanceof PseudoTerminal;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return MULTIPLEXER.hashCode();
+	}
+
+	@Override
+	public String toString()
+	{
+		return MULTIPLEXER;
+	}
+}
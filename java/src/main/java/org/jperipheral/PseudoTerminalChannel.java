@@ -0,0 +1,97 @@
+package org.jperipheral;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The master side of a pseudo-terminal.
+ * <p>
+ * Bytes written to the master side are read from the slave side and vice-versa. Both sides may be
+ * configured; the kernel applies the line discipline settings (e.g. raw mode, character size,
+ * flow control) but ignores the baud rate. Closing the master side also closes the slave side.
+ *
+ * @author Gili Tzabari
+ */
+public final class PseudoTerminalChannel extends SerialChannel
+{
+	private final SerialChannel slave;
+
+	/**
+	 * Creates a new PseudoTerminalChannel. The caller is responsible for adding the channel and its
+	 * slave into the group.
+	 *
+	 * @param multiplexer the pseudo-terminal multiplexer
+	 * @param group the group associated with the channel
+	 * @param timeout the minimum amount of time to wait if the port is locked by another process
+	 * before giving up
+	 * @param unit the unit of timeout
+	 * @throws PeripheralNotFoundException if the platform does not provide pseudo-terminals
+	 * @throws PeripheralInUseException if the slave side is locked by another process
+	 * @throws NullPointerException if multiplexer, group or unit are null
+	 * @throws UnsupportedOperationException if the platform does not support pseudo-terminals
+	 */
+	PseudoTerminalChannel(SerialPort multiplexer, PeripheralChannelGroup group, long timeout,
+		TimeUnit unit) throws PeripheralNotFoundException, PeripheralInUseException
+	{
+		super(multiplexer, group, timeout, unit);
+		SerialChannel slave = null;
+		try
+		{
+			String slaveName = nativeUnlockSlave();
+			slave = new SerialChannel(new SerialPort(slaveName), group, timeout, unit);
+		}
+		catch (IOException e)
+		{
+			closeQuietly();
+			if (e instanceof PeripheralNotFoundException)
+				throw (PeripheralNotFoundException) e;
+			if (e instanceof PeripheralInUseException)
+				throw (PeripheralInUseException) e;
+			throw new PeripheralNotFoundException(multiplexer.getName(), e);
+		}
+		catch (RuntimeException | Error e)
+		{
+			closeQuietly();
+			throw e;
+		}
+		this.slave = slave;
+	}
+
+	/**
+	 * Closes the master side, suppressing any exceptions.
+	 */
+	private void closeQuietly()
+	{
+		try
+		{
+			super.close();
+		}
+		catch (IOException unused)
+		{
+			// The original exception is more important
+		}
+	}
+
+	/**
+	 * Returns the slave side of the pseudo-terminal.
+	 *
+	 * @return the slave side of the pseudo-terminal
+	 */
+	public SerialChannel getSlave()
+	{
+		return slave;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			slave.close();
+		}
+		finally
+		{
+			super.close();
+		}
+	}
+}
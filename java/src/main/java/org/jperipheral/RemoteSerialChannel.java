@@ -0,0 +1,1053 @@
+package org.jperipheral;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.WritePendingException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jperipheral.SerialPort.BaudRate;
+import org.jperipheral.SerialPort.DataBits;
+import org.jperipheral.SerialPort.FlowControl;
+import org.jperipheral.SerialPort.Parity;
+import org.jperipheral.SerialPort.StopBits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An asynchronous channel for serial ports that are exposed over TCP.
+ * <p>
+ * Bytes are received from the connection continuously, whether or not a read is outstanding, so
+ * that the Telnet commands embedded in the stream are processed promptly. Receiving pauses once
+ * 16 KB of data is waiting to be read, so commands that follow it are only processed as the
+ * application reads the data. Writes complete as soon as their bytes are queued for transmission.
+ * Bytes queued while a previous transmission is in progress are sent together, so consecutive
+ * small writes are coalesced into a single segment.
+ *
+ * @author Gili Tzabari
+ */
+public final class RemoteSerialChannel implements AsynchronousByteChannel
+{
+	/**
+	 * The size of the inbound and outbound buffers.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+	/**
+	 * The number of bytes at the end of the outbound buffer that are reserved for Telnet commands.
+	 */
+	private static final int COMMAND_RESERVE = 256;
+	/**
+	 * The number of nanoseconds to wait for the server to acknowledge a configuration change.
+	 */
+	private static final long CONFIGURE_TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+	private final Logger log = LoggerFactory.getLogger(RemoteSerialChannel.class);
+	private final RemoteSerialPort port;
+	private final PeripheralChannelGroup group;
+	/**
+	 * Delivers the completions of the channel's operations.
+	 */
+	private final PeripheralChannelGroup.Mailbox mailbox;
+	private final AsynchronousSocketChannel socket;
+	/**
+	 * Separates data from Telnet commands, null if the connection is raw.
+	 */
+	private final Telnet.Decoder decoder;
+	/**
+	 * Synchronizes access to the channel state.
+	 */
+	private final Object lock = new Object();
+	/**
+	 * Bytes received from the connection that have yet to be decoded.
+	 */
+	private final ByteBuffer received = ByteBuffer.allocate(BUFFER_SIZE);
+	/**
+	 * Decoded bytes that have yet to be read.
+	 */
+	private final ByteBuffer inbound = ByteBuffer.allocate(BUFFER_SIZE);
+	/**
+	 * Decoded bytes that did not fit into inbound. Commands keep being decoded while inbound is full,
+	 * until this buffer fills up as well.
+	 */
+	private final ByteBuffer overflow = ByteBuffer.allocate(BUFFER_SIZE);
+	/**
+	 * Bytes queued for transmission.
+	 */
+	private ByteBuffer outbound = ByteBuffer.allocate(BUFFER_SIZE);
+	/**
+	 * Bytes being transmitted.
+	 */
+	private ByteBuffer inFlight = ByteBuffer.allocate(BUFFER_SIZE);
+	/**
+	 * True if receiving was suspended because overflow is full.
+	 */
+	private boolean receivePaused;
+	private boolean endOfStream;
+	private Throwable receiveFailure;
+	private boolean sending;
+	private Throwable sendFailure;
+	/**
+	 * The read that is waiting for data, null if none.
+	 */
+	private Operation pendingRead;
+	/**
+	 * The write that is waiting for room in the outbound buffer, null if none.
+	 */
+	private Operation pendingWrite;
+	/**
+	 * True from the time a read is initiated until its handler is notified.
+	 */
+	private final AtomicBoolean reading = new AtomicBoolean();
+	/**
+	 * True from the time a write is initiated until its handler is notified.
+	 */
+	private final AtomicBoolean writing = new AtomicBoolean();
+	/**
+	 * Only one read and one write may be outstanding at a time, so the objects that carry them out are
+	 * reused instead of being allocated per operation.
+	 */
+	private final Operation readOperation;
+	private final Operation writeOperation;
+	private boolean closed;
+	/**
+	 * True if the server agreed to the com port control option, false if it refused, null if it has
+	 * yet to respond.
+	 */
+	private Boolean comPortEnabled;
+	/**
+	 * The value that the server applied for each com port command that it acknowledged.
+	 */
+	private final Map<Integer, byte[]> replies = new HashMap<>();
+	private final CompletionHandler<Integer, Void> receiveHandler = new ReceiveHandler();
+	private final CompletionHandler<Integer, Void> sendHandler = new SendHandler();
+	private final Telnet.Handler commandHandler = new CommandHandler();
+	private BaudRate baudRate;
+	private DataBits dataBits;
+	private StopBits stopBits;
+	private Parity parity;
+	private FlowControl flowControl;
+
+	/**
+	 * Creates a new RemoteSerialChannel. The caller is responsible for adding the channel into the
+	 * group.
+	 *
+	 * @param port the serial port
+	 * @param group the group associated with the channel
+	 * @param timeout the maximum amount of time to wait for the connection to be established. 0 means
+	 * "wait as long as the operating system allows".
+	 * @param unit the unit of timeout
+	 * @throws PeripheralNotFoundException if the connection to the terminal server fails
+	 * @throws NullPointerException if port, group or unit are null
+	 */
+	RemoteSerialChannel(RemoteSerialPort port, PeripheralChannelGroup group, long timeout,
+		TimeUnit unit) throws PeripheralNotFoundException
+	{
+		Preconditions.checkNotNull(port, "port may not be null");
+		Preconditions.checkNotNull(group, "group may not be null");
+		Preconditions.checkNotNull(unit, "unit may not be null");
+
+		this.port = port;
+		this.group = group;
+		try
+		{
+			this.socket = AsynchronousSocketChannel.open(group.socketGroup());
+		}
+		catch (IOException e)
+		{
+			throw new PeripheralNotFoundException(port.getName(), e);
+		}
+		try
+		{
+			// Writes are coalesced by the channel
+			socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			Future<Void> connected = socket.connect(port.getAddress());
+			if (timeout > 0)
+				connected.get(timeout, unit);
+			else
+				connected.get();
+		}
+		catch (IOException | TimeoutException e)
+		{
+			closeSocket();
+			throw new PeripheralNotFoundException(port.getName(), e);
+		}
+		catch (ExecutionException e)
+		{
+			closeSocket();
+			throw new PeripheralNotFoundException(port.getName(), e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			closeSocket();
+			Thread.currentThread().interrupt();
+			throw new PeripheralNotFoundException(port.getName(), e);
+		}
+		// Pins the channel to an event loop, so it is created once the channel can no longer fail to open
+		this.mailbox = new PeripheralChannelGroup.Mailbox(group);
+		this.readOperation = new Operation(reading);
+		this.writeOperation = new Operation(writing);
+
+		if (port.getProtocol() == RemoteSerialPort.Protocol.RFC2217)
+		{
+			this.decoder = new Telnet.Decoder();
+			synchronized (lock)
+			{
+				Telnet.negotiate(outbound, Telnet.WILL, Telnet.BINARY);
+				Telnet.negotiate(outbound, Telnet.DO, Telnet.BINARY);
+				Telnet.negotiate(outbound, Telnet.DO, Telnet.SUPPRESS_GO_AHEAD);
+				Telnet.negotiate(outbound, Telnet.WILL, Telnet.COM_PORT_OPTION);
+				startSend();
+			}
+		}
+		else
+			this.decoder = null;
+		synchronized (lock)
+		{
+			startReceive();
+		}
+	}
+
+	/**
+	 * Returns the baud rate being used.
+	 *
+	 * @return null if the channel was not configured
+	 */
+	public BaudRate getBaudRate()
+	{
+		return baudRate;
+	}
+
+	/**
+	 * Returns the number of data bits being used.
+	 *
+	 * @return null if the channel was not configured
+	 */
+	public DataBits getDataBits()
+	{
+		return dataBits;
+	}
+
+	/**
+	 * Returns the number of stop bits being used.
+	 *
+	 * @return null if the channel was not configured
+	 */
+	public StopBits getStopBits()
+	{
+		return stopBits;
+	}
+
+	/**
+	 * Returns the parity type being used.
+	 *
+	 * @return null if the channel was not configured
+	 */
+	public Parity getParity()
+	{
+		return parity;
+	}
+
+	/**
+	 * Returns the flow control mechanism being used.
+	 *
+	 * @return null if the channel was not configured
+	 */
+	public FlowControl getFlowControl()
+	{
+		return flowControl;
+	}
+
+	/**
+	 * Returns the serial port associated with the channel.
+	 *
+	 * @return the serial port associated with the channel
+	 */
+	public RemoteSerialPort getPort()
+	{
+		return port;
+	}
+
+	@Override
+	public <A> void read(ByteBuffer target, A attachment, CompletionHandler<Integer, ? super A> handler)
+		throws IllegalArgumentException, ReadPendingException
+	{
+		Preconditions.checkNotNull(handler, "handler may not be null");
+		if (target.isReadOnly())
+			throw new IllegalArgumentException("target may not be read-only");
+		synchronized (lock)
+		{
+			if (!reading.compareAndSet(false, true))
+				throw new ReadPendingException();
+			Operation operation = readOperation.start(target, attachment, handler);
+			if (closed)
+			{
+				operation.failed(new ClosedChannelException());
+				return;
+			}
+			if (!target.hasRemaining())
+			{
+				operation.completed(0);
+				return;
+			}
+			pendingRead = operation;
+			deliver();
+		}
+	}
+
+	@Override
+	public Future<Integer> read(ByteBuffer target) throws IllegalArgumentException,
+		ReadPendingException
+	{
+		SettableFuture<Integer> result = SettableFuture.create();
+		read(target, null, new CompletionHandlerToFuture<>(result));
+		return result;
+	}
+
+	@Override
+	public <A> void write(ByteBuffer source, A attachment,
+		CompletionHandler<Integer, ? super A> handler) throws WritePendingException
+	{
+		Preconditions.checkNotNull(handler, "handler may not be null");
+		synchronized (lock)
+		{
+			if (!writing.compareAndSet(false, true))
+				throw new WritePendingException();
+			Operation operation = writeOperation.start(source, attachment, handler);
+			if (closed)
+			{
+				operation.failed(new ClosedChannelException());
+				return;
+			}
+			if (sendFailure != null)
+			{
+				operation.failed(sendFailure);
+				return;
+			}
+			if (!source.hasRemaining())
+			{
+				operation.completed(0);
+				return;
+			}
+			pendingWrite = operation;
+			accept();
+			startSend();
+		}
+	}
+
+	@Override
+	public Future<Integer> write(ByteBuffer source) throws WritePendingException
+	{
+		SettableFuture<Integer> result = SettableFuture.create();
+		write(source, null, new CompletionHandlerToFuture<>(result));
+		return result;
+	}
+
+	/**
+	 * Configures the remote serial port. Blocks the calling thread until the server acknowledges the
+	 * configuration. The acknowledgements are received by the group's executor, so under a group made
+	 * up of {@link PeripheralChannelGroup#withEventLoops(int, PeripheralChannelGroup.IoEngine) event
+	 * loops} this method must not be invoked by a completion handler. It could block the loop that
+	 * receives them until it times out. Likewise, if the port receives more than 16 KB of data that
+	 * nobody reads, acknowledgements that follow that data are not received until it is read.
+	 *
+	 * @param baudRate the baud rate
+	 * @param dataBits the number of data bits per word
+	 * @param parity the parity mechanism to use
+	 * @param stopBits the number of stop bits to use
+	 * @param flowControl the flow control to use
+	 * @throws PeripheralConfigurationException if the server refuses the configuration, applies a
+	 * value other than the one requested or fails to acknowledge it in a timely manner
+	 * @throws UnsupportedOperationException if the connection is raw
+	 */
+	public void configure(BaudRate baudRate, DataBits dataBits, Parity parity, StopBits stopBits,
+		FlowControl flowControl) throws PeripheralConfigurationException
+	{
+		if (decoder == null)
+			throw new UnsupportedOperationException("Raw connections cannot be configured");
+		long deadline = System.nanoTime() + CONFIGURE_TIMEOUT;
+		synchronized (lock)
+		{
+			while (comPortEnabled == null)
+				awaitConfiguration(deadline);
+			if (!comPortEnabled)
+			{
+				throw new PeripheralConfigurationException(port.getName(),
+					new IOException("The server does not support RFC 2217"));
+			}
+			// Data cannot encroach upon the space reserved for commands, but responses to the server's
+			// negotiations may have used some of it
+			while (outbound.remaining() < COMMAND_RESERVE / 2)
+				awaitConfiguration(deadline);
+			replies.clear();
+			int baud = baudRate.toInt();
+			Map<Integer, byte[]> requests = new LinkedHashMap<>();
+			requests.put((int) Telnet.SET_BAUDRATE, new byte[]{(byte) (baud >>> 24), (byte) (baud >>> 16),
+				(byte) (baud >>> 8), (byte) baud});
+			requests.put((int) Telnet.SET_DATASIZE, new byte[]{(byte) dataBits.toInt()});
+			requests.put((int) Telnet.SET_PARITY, new byte[]{toCommandValue(parity)});
+			requests.put((int) Telnet.SET_STOPSIZE, new byte[]{toCommandValue(stopBits)});
+			requests.put((int) Telnet.SET_CONTROL, new byte[]{toCommandValue(flowControl)});
+			for (Map.Entry<Integer, byte[]> request: requests.entrySet())
+				Telnet.comPortCommand(outbound, request.getKey().byteValue(), request.getValue());
+			startSend();
+			while (!replies.keySet().containsAll(requests.keySet()))
+				awaitConfiguration(deadline);
+			// The server replies with the value that it applied, which differs from the request if it
+			// refused it
+			for (Map.Entry<Integer, byte[]> request: requests.entrySet())
+			{
+				byte[] reply = replies.get(request.getKey());
+				if (!Arrays.equals(reply, request.getValue()))
+				{
+					throw new PeripheralConfigurationException(port.getName(), new IOException(
+						"The server refused " + toCommandName(request.getKey()) + " " +
+						toUnsignedInt(request.getValue()) + ", it applied " + toUnsignedInt(reply)));
+				}
+			}
+		}
+		this.baudRate = baudRate;
+		this.dataBits = dataBits;
+		this.parity = parity;
+		this.stopBits = stopBits;
+		this.flowControl = flowControl;
+	}
+
+	/**
+	 * Waits for the server to respond to a configuration request. Must be invoked with the lock
+	 * held.
+	 *
+	 * @param deadline the value of System.nanoTime() at which point the server is deemed
+	 * unresponsive
+	 * @throws PeripheralConfigurationException if the channel is closed, the deadline expires or the
+	 * thread is interrupted
+	 */
+	private void awaitConfiguration(long deadline) throws PeripheralConfigurationException
+	{
+		assert (Thread.holdsLock(lock));
+		if (closed)
+			throw new PeripheralConfigurationException(port.getName(), new ClosedChannelException());
+		if (receiveFailure != null)
+			throw new PeripheralConfigurationException(port.getName(), receiveFailure);
+		if (endOfStream)
+		{
+			throw new PeripheralConfigurationException(port.getName(),
+				new IOException("The server closed the connection"));
+		}
+		long remaining = deadline - System.nanoTime();
+		if (remaining <= 0)
+		{
+			throw new PeripheralConfigurationException(port.getName(),
+				new TimeoutException("The server did not acknowledge the configuration"));
+		}
+		try
+		{
+			TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new PeripheralConfigurationException(port.getName(), e);
+		}
+	}
+
+	/**
+	 * Returns the name of a com port command.
+	 *
+	 * @param command the command
+	 * @return the name of the command
+	 */
+	private static String toCommandName(int command)
+	{
+		switch (command)
+		{
+			case Telnet.SET_BAUDRATE:
+				return "SET-BAUDRATE";
+			case Telnet.SET_DATASIZE:
+				return "SET-DATASIZE";
+			case Telnet.SET_PARITY:
+				return "SET-PARITY";
+			case Telnet.SET_STOPSIZE:
+				return "SET-STOPSIZE";
+			case Telnet.SET_CONTROL:
+				return "SET-CONTROL";
+			default:
+				throw new AssertionError(command);
+		}
+	}
+
+	/**
+	 * Returns the value of a com port command.
+	 *
+	 * @param value the value, in network byte order
+	 * @return the value as an unsigned integer
+	 */
+	private static long toUnsignedInt(byte[] value)
+	{
+		long result = 0;
+		for (byte b: value)
+			result = (result << 8) | (b & 0xFF);
+		return result;
+	}
+
+	/**
+	 * Returns the RFC 2217 representation of a parity.
+	 *
+	 * @param parity the parity
+	 * @return the value of the SET-PARITY command
+	 */
+	private static byte toCommandValue(Parity parity)
+	{
+		switch (parity)
+		{
+			case NONE:
+				return 1;
+			case ODD:
+				return 2;
+			case EVEN:
+				return 3;
+			case MARK:
+				return 4;
+			case SPACE:
+				return 5;
+			default:
+				throw new AssertionError(parity);
+		}
+	}
+
+	/**
+	 * Returns the RFC 2217 representation of the number of stop bits.
+	 *
+	 * @param stopBits the number of stop bits
+	 * @return the value of the SET-STOPSIZE command
+	 */
+	private static byte toCommandValue(StopBits stopBits)
+	{
+		switch (stopBits)
+		{
+			case ONE:
+				return 1;
+			case TWO:
+				return 2;
+			case ONE_POINT_FIVE:
+				return 3;
+			default:
+				throw new AssertionError(stopBits);
+		}
+	}
+
+	/**
+	 * Returns the RFC 2217 representation of a flow control mechanism.
+	 *
+	 * @param flowControl the flow control mechanism
+	 * @return the value of the SET-CONTROL command
+	 */
+	private static byte toCommandValue(FlowControl flowControl)
+	{
+		switch (flowControl)
+		{
+			case NONE:
+				return 1;
+			case XON_XOFF:
+				return 2;
+			case RTS_CTS:
+				return 3;
+			default:
+				throw new AssertionError(flowControl);
+		}
+	}
+
+	/**
+	 * Closes the channel. Bytes that were already queued by {@code write()} are transmitted before
+	 * the connection is closed.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		synchronized (lock)
+		{
+			if (closed)
+				return;
+			closed = true;
+			if (pendingRead != null)
+			{
+				Operation operation = pendingRead;
+				pendingRead = null;
+				operation.failed(new AsynchronousCloseException());
+			}
+			if (pendingWrite != null)
+			{
+				Operation operation = pendingWrite;
+				pendingWrite = null;
+				operation.failed(new AsynchronousCloseException());
+			}
+			lock.notifyAll();
+			mailbox.close();
+			group.removeChannel(this);
+			if (sending)
+			{
+				// SendHandler closes the socket once the outbound bytes are transmitted
+				return;
+			}
+		}
+		socket.close();
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		synchronized (lock)
+		{
+			return !closed;
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return port.getName() + "[" + baudRate + " " + dataBits + "-" + parity + "-" + stopBits + " "
+			+ flowControl + "]";
+	}
+
+	/**
+	 * Closes the socket, logging any errors.
+	 */
+	private void closeSocket()
+	{
+		try
+		{
+			socket.close();
+		}
+		catch (IOException e)
+		{
+			log.warn("", e);
+		}
+	}
+
+	/**
+	 * Copies as many bytes as possible from one buffer to another.
+	 *
+	 * @param source the buffer to read from
+	 * @param target the buffer to write into
+	 * @return the number of bytes copied
+	 */
+	private static int transfer(ByteBuffer source, ByteBuffer target)
+	{
+		int count = Math.min(source.remaining(), target.remaining());
+		if (count == source.remaining())
+		{
+			target.put(source);
+			return count;
+		}
+		int limit = source.limit();
+		source.limit(source.position() + count);
+		target.put(source);
+		source.limit(limit);
+		return count;
+	}
+
+	/**
+	 * Completes the pending read if possible. Must be invoked with the lock held.
+	 */
+	private void deliver()
+	{
+		assert (Thread.holdsLock(lock));
+		if (pendingRead == null)
+			return;
+		if (inbound.position() > 0)
+		{
+			Operation operation = pendingRead;
+			pendingRead = null;
+			inbound.flip();
+			int count = transfer(inbound, operation.buffer);
+			inbound.compact();
+			// Move the bytes that overflowed into the space that was freed
+			overflow.flip();
+			transfer(overflow, inbound);
+			overflow.compact();
+			operation.completed(count);
+			if (receivePaused)
+				resumeReceive();
+			return;
+		}
+		if (receiveFailure != null)
+		{
+			Operation operation = pendingRead;
+			pendingRead = null;
+			operation.failed(receiveFailure);
+		}
+		else if (endOfStream)
+		{
+			Operation operation = pendingRead;
+			pendingRead = null;
+			operation.completed(-1);
+		}
+	}
+
+	/**
+	 * Decodes all received bytes into the inbound buffer, or the overflow buffer once inbound is full.
+	 * Must be invoked with the lock held.
+	 */
+	private void decode()
+	{
+		assert (Thread.holdsLock(lock));
+		received.flip();
+		if (decoder == null)
+		{
+			if (overflow.position() == 0)
+				transfer(received, inbound);
+			transfer(received, overflow);
+		}
+		else
+			decoder.decode(received, inbound, overflow, commandHandler);
+		assert (!received.hasRemaining()): received;
+		received.clear();
+	}
+
+	/**
+	 * Receives bytes from the connection unless the overflow buffer is full. Must be invoked with the
+	 * lock held.
+	 */
+	private void startReceive()
+	{
+		assert (Thread.holdsLock(lock));
+		if (closed)
+			return;
+		if (!overflow.hasRemaining())
+		{
+			// The next read resumes receiving
+			receivePaused = true;
+			return;
+		}
+		// Decoding never produces more bytes than it consumes, so everything that is received fits and
+		// every command is processed
+		received.limit(Math.min(received.capacity(), overflow.remaining()));
+		socket.read(received, null, receiveHandler);
+	}
+
+	/**
+	 * Resumes receiving after inbound was drained. Must be invoked with the lock held.
+	 */
+	private void resumeReceive()
+	{
+		assert (Thread.holdsLock(lock));
+		receivePaused = false;
+		startReceive();
+	}
+
+	/**
+	 * Queues the bytes of the pending write for transmission, completing it if any bytes were
+	 * queued. Must be invoked with the lock held.
+	 */
+	private void accept()
+	{
+		assert (Thread.holdsLock(lock));
+		if (pendingWrite == null)
+			return;
+		int dataLimit = outbound.capacity() - COMMAND_RESERVE;
+		if (outbound.position() >= dataLimit)
+			return;
+		outbound.limit(dataLimit);
+		int count;
+		if (decoder == null)
+			count = transfer(pendingWrite.buffer, outbound);
+		else
+			count = Telnet.escape(pendingWrite.buffer, outbound);
+		outbound.limit(outbound.capacity());
+		if (count > 0)
+		{
+			Operation operation = pendingWrite;
+			pendingWrite = null;
+			operation.completed(count);
+		}
+	}
+
+	/**
+	 * Transmits the queued bytes unless a transmission is already in progress. Must be invoked with
+	 * the lock held.
+	 */
+	private void startSend()
+	{
+		assert (Thread.holdsLock(lock));
+		if (sending || outbound.position() == 0)
+			return;
+		ByteBuffer queued = outbound;
+		outbound = inFlight;
+		inFlight = queued;
+		inFlight.flip();
+		sending = true;
+		// Make room for the pending write now that outbound is empty
+		accept();
+		socket.write(inFlight, null, sendHandler);
+	}
+
+	/**
+	 * Queues a Telnet negotiation for transmission. Must be invoked with the lock held.
+	 *
+	 * @param verb WILL, WONT, DO or DONT
+	 * @param option the option
+	 */
+	private void sendNegotiation(byte verb, byte option)
+	{
+		assert (Thread.holdsLock(lock));
+		if (outbound.remaining() < 3)
+		{
+			log.warn("Outbound buffer is full, dropping response to option " + (option & 0xFF));
+			return;
+		}
+		Telnet.negotiate(outbound, verb, option);
+		startSend();
+	}
+
+	/**
+	 * An outstanding read or write. An instance is reused by subsequent operations of the same kind.
+	 * <p>
+	 * Operations complete while the lock is held, so their handlers are always notified through the
+	 * mailbox, never on the current thread.
+	 */
+	private final class Operation extends PeripheralChannelGroup.Completion
+	{
+		/**
+		 * Set to false once the handler is notified.
+		 */
+		private final AtomicBoolean running;
+		private ByteBuffer buffer;
+		private Object attachment;
+		private CompletionHandler<Integer, Object> handler;
+		private int result;
+		private Throwable failure;
+
+		/**
+		 * Creates a new Operation.
+		 *
+		 * @param running set to false once the handler is notified
+		 */
+		Operation(AtomicBoolean running)
+		{
+			super(mailbox);
+			this.running = running;
+		}
+
+		/**
+		 * Prepares for a new operation. The caller must have set <code>running</code> to true.
+		 *
+		 * @param <A> the type of the object attached to the operation
+		 * @param buffer the buffer to transfer bytes from or to
+		 * @param attachment the attachment associated with handler
+		 * @param handler the handler to notify when the operation completes
+		 * @return this
+		 */
+		@SuppressWarnings("unchecked")
+		<A> Operation start(ByteBuffer buffer, A attachment,
+			CompletionHandler<Integer, ? super A> handler)
+		{
+			this.buffer = buffer;
+			this.attachment = attachment;
+			this.handler = (CompletionHandler<Integer, Object>) handler;
+			return this;
+		}
+
+		/**
+		 * Completes the operation.
+		 *
+		 * @param result the number of bytes transferred
+		 */
+		void completed(int result)
+		{
+			this.result = result;
+			this.failure = null;
+			post();
+		}
+
+		/**
+		 * Fails the operation.
+		 *
+		 * @param t the cause of failure
+		 */
+		void failed(Throwable t)
+		{
+			this.failure = t;
+			post();
+		}
+
+		@Override
+		protected void deliver()
+		{
+			Object attachment = this.attachment;
+			CompletionHandler<Integer, Object> handler = this.handler;
+			int result = this.result;
+			Throwable failure = this.failure;
+			this.buffer = null;
+			this.attachment = null;
+			this.handler = null;
+			this.failure = null;
+
+			// Clear running before notifying the handler in order to allow it to initiate a follow-up
+			// operation.
+			running.set(false);
+			if (failure == null)
+				handler.completed(result, attachment);
+			else
+				handler.failed(failure, attachment);
+		}
+	}
+
+	/**
+	 * Notified when bytes are received from the connection.
+	 */
+	private final class ReceiveHandler implements CompletionHandler<Integer, Void>
+	{
+		@Override
+		public void completed(Integer result, Void attachment)
+		{
+			synchronized (lock)
+			{
+				if (result == -1)
+				{
+					endOfStream = true;
+					deliver();
+					lock.notifyAll();
+					return;
+				}
+				decode();
+				deliver();
+				startReceive();
+			}
+		}
+
+		@Override
+		public void failed(Throwable t, Void attachment)
+		{
+			synchronized (lock)
+			{
+				if (closed)
+					return;
+				receiveFailure = t;
+				deliver();
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Notified when bytes are transmitted over the connection.
+	 */
+	private final class SendHandler implements CompletionHandler<Integer, Void>
+	{
+		@Override
+		public void completed(Integer result, Void attachment)
+		{
+			synchronized (lock)
+			{
+				if (inFlight.hasRemaining())
+				{
+					socket.write(inFlight, null, sendHandler);
+					return;
+				}
+				inFlight.clear();
+				sending = false;
+				lock.notifyAll();
+				if (closed)
+				{
+					if (outbound.position() > 0)
+						startSend();
+					else
+						closeSocket();
+					return;
+				}
+				accept();
+				startSend();
+			}
+		}
+
+		@Override
+		public void failed(Throwable t, Void attachment)
+		{
+			synchronized (lock)
+			{
+				sending = false;
+				sendFailure = t;
+				if (pendingWrite != null)
+				{
+					Operation operation = pendingWrite;
+					pendingWrite = null;
+					operation.failed(t);
+				}
+				if (closed)
+					closeSocket();
+			}
+		}
+	}
+
+	/**
+	 * Processes the Telnet commands sent by the server.
+	 */
+	private final class CommandHandler implements Telnet.Handler
+	{
+		@Override
+		public void negotiate(byte verb, byte option)
+		{
+			switch (verb)
+			{
+				case Telnet.WILL:
+				{
+					// We asked the server to enable BINARY and SUPPRESS_GO_AHEAD
+					if (option != Telnet.BINARY && option != Telnet.SUPPRESS_GO_AHEAD)
+						sendNegotiation(Telnet.DONT, option);
+					break;
+				}
+				case Telnet.DO:
+				{
+					if (option == Telnet.COM_PORT_OPTION)
+					{
+						comPortEnabled = true;
+						lock.notifyAll();
+					}
+					else if (option != Telnet.BINARY)
+						sendNegotiation(Telnet.WONT, option);
+					break;
+				}
+				case Telnet.DONT:
+				{
+					if (option == Telnet.COM_PORT_OPTION)
+					{
+						comPortEnabled = false;
+						lock.notifyAll();
+					}
+					break;
+				}
+				case Telnet.WONT:
+					break;
+				default:
+					throw new AssertionError(verb);
+			}
+		}
+
+		@Override
+		public void subnegotiate(byte option, ByteBuffer data)
+		{
+			if (option != Telnet.COM_PORT_OPTION || !data.hasRemaining())
+				return;
+			int command = (data.get() & 0xFF) - Telnet.SERVER_OFFSET;
+			byte[] value = new byte[data.remaining()];
+			data.get(value);
+			replies.put(command, value);
+			lock.notifyAll();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package org.jperipheral;
+
+import com.google.common.base.Preconditions;
+import java.net.InetSocketAddress;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A serial port that is exposed over TCP by a terminal server.
+ *
+ * @author Gili Tzabari
+ * @see "http://tools.ietf.org/html/rfc2217"
+ */
+public final class RemoteSerialPort implements Peripheral
+{
+	/**
+	 * The protocol spoken by the terminal server.
+	 */
+	public enum Protocol
+	{
+		/**
+		 * The connection carries the serial data as-is. The port cannot be configured remotely.
+		 */
+		RAW,
+		/**
+		 * The connection carries the serial data using Telnet, and the port is configured using the
+		 * com port control option.
+		 */
+		RFC2217
+	}
+	private final InetSocketAddress address;
+	private final Protocol protocol;
+
+	/**
+	 * Creates a new RemoteSerialPort.
+	 *
+	 * @param address the address of the terminal server
+	 * @param protocol the protocol spoken by the terminal server
+	 * @throws NullPointerException if address or protocol are null
+	 */
+	public RemoteSerialPort(InetSocketAddress address, Protocol protocol)
+	{
+		Preconditions.checkNotNull(address, "address may not be null");
+		Preconditions.checkNotNull(protocol, "protocol may not be null");
+
+		this.address = address;
+		this.protocol = protocol;
+	}
+
+	/**
+	 * Returns the address of the terminal server.
+	 *
+	 * @return the address of the terminal server
+	 */
+	public InetSocketAddress getAddress()
+	{
+		return address;
+	}
+
+	/**
+	 * Returns the protocol spoken by the terminal server.
+	 *
+	 * @return the protocol spoken by the terminal server
+	 */
+	public Protocol getProtocol()
+	{
+		return protocol;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws PeripheralNotFoundException if the connection to the terminal server fails
+	 */
+	@Override
+	public RemoteSerialChannel newAsynchronousChannel(PeripheralChannelGroup group)
+		throws PeripheralNotFoundException, PeripheralInUseException
+	{
+		return newAsynchronousChannel(group, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @param timeout the maximum amount of time to wait for the connection to be established. 0 means
+	 * "wait as long as the operating system allows".
+	 * @throws PeripheralNotFoundException if the connection to the terminal server fails
+	 */
+	@Override
+	public RemoteSerialChannel newAsynchronousChannel(PeripheralChannelGroup group, long timeout,
+		TimeUnit unit) throws PeripheralNotFoundException, PeripheralInUseException
+	{
+		RemoteSerialChannel result = new RemoteSerialChannel(this, group, timeout, unit);
+		group.addChannel(result);
+		return result;
+	}
+
+	@Override
+	public String getName()
+	{
+		String scheme;
+		switch (protocol)
+		{
+			case RAW:
+			{
+				scheme = "tcp";
+				break;
+			}
+			case RFC2217:
+			{
+				scheme = "rfc2217";
+				break;
+			}
+			default:
+				throw new AssertionError(protocol);
+		}
+		return scheme + "://" + address.getHostString() + ":" + address.getPort();
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof RemoteSerialPort))
+			return false;
+		final RemoteSerialPort other = (RemoteSerialPort) o;
+		return address.equals(other.address) && protocol == other.protocol;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(address, protocol);
+	}
+
+	@Override
+	public String toString()
+	{
+		return getName();
+	}
+}
@@ -1,18 +1,23 @@
 package org.jperipheral;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
-import java.util.concurrent.Callable;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.concurrent.Future;
 import java.util.concurrent.Phaser;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import org.jperipheral.PeripheralChannelGroup.IoEngine;
 import org.jperipheral.SerialPort.BaudRate;
 import org.jperipheral.SerialPort.DataBits;
 import org.jperipheral.SerialPort.FlowControl;
+import org.jperipheral.SerialPort.ModemLine;
 import org.jperipheral.SerialPort.Parity;
 import org.jperipheral.SerialPort.StopBits;
 import org.slf4j.Logger;
@@ -23,26 +28,61 @@ import org.slf4j.LoggerFactory;
  *
  * <h4>Timeouts</h4>
  *
- * The {@link #read(java.nio.ByteBuffer, java.lang.Object, java.nio.channels.CompletionHandler) read}
- * and {@link #write(java.nio.ByteBuffer, java.lang.Object, java.nio.channels.CompletionHandler) write}
+ * The {@link #read(java.nio.ByteBuffer, long, java.util.concurrent.TimeUnit, java.lang.Object,
+ * java.nio.channels.CompletionHandler) read} and {@link #write(java.nio.ByteBuffer, long,
+ * java.util.concurrent.TimeUnit, java.lang.Object, java.nio.channels.CompletionHandler) write}
  * methods defined by this class allow a timeout to be specified when initiating a read or write
  * operation. If the timeout elapses before an operation completes then the operation completes with
- * the exception {@link InterruptedByTimeoutException}. A timeout may leave the channel, or the
- * underlying connection, in an inconsistent state. Where the implementation cannot guarantee that
- * bytes have not been read from the channel then it puts the channel into an implementation
- * specific <em>error state</em>. A subsequent attempt to initiate a {
- * @code read} operation causes an unspecified runtime exception to be thrown. Similarly if a {@code write}
- * operation times out and the implementation cannot guarantee bytes have not been written to the
- * channel then further attempts to {@code write} to the channel cause an unspecified runtime
- * exception to be thrown. When a timeout elapses then the state of the {@link ByteBuffer}, or the
- * sequence of buffers, for the I/O operation is not defined. Buffers should be discarded or at
- * least care must be taken to ensure that the buffers are not accessed while the channel remains
- * open.
+ * the exception {@link InterruptedByTimeoutException}. Deadlines are enforced by the native event
+ * loop between transfers, so an operation that times out has not transferred any bytes and the
+ * channel remains usable. A timeout of {@code Long.MAX_VALUE} means "wait forever".
+ *
+ * <h4>Read completion</h4>
+ *
+ * By default, a read completes as soon as any bytes are available. {@link #setReadThreshold(int,
+ * long, java.util.concurrent.TimeUnit) setReadThreshold} causes reads to keep accumulating bytes,
+ * without waking up the application, until a minimum number of bytes arrive or the line goes idle.
+ * Much like the {@code VMIN} and {@code VTIME} terminal settings, this turns a packet that arrives a
+ * few bytes at a time into a single completion. A read whose deadline elapses after it transferred
+ * some bytes completes successfully with those bytes.
+ *
+ * <h4>Write completion</h4>
+ *
+ * By default, a write completes as soon as the driver accepts the bytes, which may be long before
+ * they leave the port. {@link #setDrainOnWrite(boolean) setDrainOnWrite} causes writes to complete
+ * only once the output queue drains and the transmitter goes idle, which half-duplex protocols need
+ * before turning the line around. The native event loop checks the output queue every millisecond
+ * instead of blocking a thread in {@code tcdrain()}. Drivers that do not report the state of the
+ * transmitter, such as pseudo-terminals and most USB adapters, are considered drained once their
+ * output queue is empty; USB adapters may still hold bytes in their own buffers at that point.
+ *
+ * <h4>Low latency</h4>
+ *
+ * Request/response protocols are often bound by the time it takes received bytes to reach the
+ * application rather than by the line rate. {@link #setLowLatency(boolean, long,
+ * java.util.concurrent.TimeUnit) setLowLatency} asks the driver to deliver bytes as soon as they
+ * arrive and optionally busy-polls the port before waiting for it to become ready. Each port that
+ * busy-polls does so on a thread of its own, so neither the thread that initiated the operation nor
+ * any other port waits while it spins. That thread consumes a CPU core for up to the spin time
+ * whenever an operation would otherwise wait, so busy-polling should only be enabled on ports whose
+ * latency matters.
+ *
+ * <h4>Modem-control lines</h4>
+ *
+ * {@link #watchModemLines(java.util.Set, java.lang.Object, java.nio.channels.CompletionHandler)
+ * watchModemLines} notifies a handler when any of the selected lines changes state, without tying
+ * up a thread per port. The lines are sampled by the native event loop every few milliseconds while
+ * a watch is outstanding. Drivers that count the transitions of the lines, such as most UARTs, also
+ * report pulses that end between two samples; under other drivers such pulses may go unnoticed.
  *
  * @author Gili Tzabari
  */
 public class SerialChannel implements AsynchronousByteChannel
 {
+	/**
+	 * Returned by {@link #nativeGetPortOwners(String[])} for ports that do not exist.
+	 */
+	static final long PORT_NOT_FOUND = -2;
 	private final Logger log = LoggerFactory.getLogger(SerialChannel.class);
 	private final PeripheralChannelGroup group;
 	/**
@@ -56,6 +96,7 @@ public class SerialChannel implements AsynchronousByteChannel
 	private final long nativeObject;
 	private final SerialPort port;
 	private BaudRate baudRate;
+	private int actualBaudRate;
 	private DataBits dataBits;
 	private StopBits stopBits;
 	private Parity parity;
@@ -65,7 +106,25 @@ public class SerialChannel implements AsynchronousByteChannel
 	private final AtomicBoolean readInterrupted = new AtomicBoolean();
 	private final AtomicBoolean writing = new AtomicBoolean();
 	private final AtomicBoolean writeInterrupted = new AtomicBoolean();
+	private final AtomicBoolean watching = new AtomicBoolean();
 	private final Phaser ongoingOperations = new Phaser();
+	/**
+	 * Delivers the completions of the channel's operations, in order and on one thread at a time.
+	 * <p>
+	 * Only one read, one write and one modem watch may be outstanding at a time, so their completions
+	 * are reused instead of being allocated per operation.
+	 */
+	private final PeripheralChannelGroup.Mailbox mailbox;
+	private final OperationDone<Integer> readDone;
+	private final OperationDone<Long> scatteringReadDone;
+	private final OperationDone<Integer> writeDone;
+	private final OperationDone<Long> gatheringWriteDone;
+	private final OperationDone<Set<ModemLine>> watchDone;
+	/**
+	 * Converts the bitmask reported by the native watch into the lines that are asserted, before
+	 * handing it to <code>watchDone</code>.
+	 */
+	private final CompletionHandler<Integer, Void> modemLinesChanged;
 
 	/**
 	 * Creates a new SerialChannel. The caller is responsible for adding the channel into the group.
@@ -87,19 +146,62 @@ public class SerialChannel implements AsynchronousByteChannel
 
 		this.port = port;
 		this.group = group;
-		this.nativeObject = nativeOpen(port.getName(), TimeUnit.MILLISECONDS.convert(timeout, unit));
+		this.mailbox = new PeripheralChannelGroup.Mailbox(group);
+		this.readDone = new OperationDone<>(mailbox, reading, ongoingOperations);
+		this.scatteringReadDone = new OperationDone<>(mailbox, reading, ongoingOperations);
+		this.writeDone = new OperationDone<>(mailbox, writing, ongoingOperations);
+		this.gatheringWriteDone = new OperationDone<>(mailbox, writing, ongoingOperations);
+		this.watchDone = new OperationDone<>(mailbox, watching, ongoingOperations);
+		this.modemLinesChanged = new CompletionHandler<Integer, Void>()
+		{
+			@Override
+			public void completed(Integer value, Void unused)
+			{
+				watchDone.completed(toModemLines(value), null);
+			}
+
+			@Override
+			public void failed(Throwable t, Void unused)
+			{
+				watchDone.failed(t, null);
+			}
+		};
+		try
+		{
+			this.nativeObject = nativeOpen(port.getName(), TimeUnit.MILLISECONDS.convert(timeout, unit),
+				group.getIoEngine());
+		}
+		catch (PeripheralNotFoundException | PeripheralInUseException | RuntimeException e)
+		{
+			// Unpin the mailbox from its event loop
+			mailbox.close();
+			throw e;
+		}
 	}
 
 	/**
 	 * Returns the baud rate being used.
 	 *
-	 * @return the baud rate being used
+	 * @return the baud rate being used, or null if the channel was configured using a rate that does
+	 * not match any BaudRate
+	 * @see #getActualBaudRate()
 	 */
 	public BaudRate getBaudRate()
 	{
 		return baudRate;
 	}
 
+	/**
+	 * Returns the baud rate that the driver applied. Drivers derive the rate from a clock divisor, so
+	 * it may differ slightly from the requested rate.
+	 *
+	 * @return the number of bits per second, or 0 if the channel was never configured
+	 */
+	public int getActualBaudRate()
+	{
+		return actualBaudRate;
+	}
+
 	/**
 	 * Returns the number of data bits being used.
 	 *
@@ -141,194 +243,389 @@ public class SerialChannel implements AsynchronousByteChannel
 	}
 
 	@Override
-	public <A> void read(final ByteBuffer target, final A attachment,
+	public <A> void read(ByteBuffer target, A attachment, CompletionHandler<Integer, ? super A> handler)
+		throws IllegalArgumentException, ReadPendingException, ShutdownChannelGroupException
+	{
+		read(target, Long.MAX_VALUE, TimeUnit.MILLISECONDS, attachment, handler);
+	}
+
+	/**
+	 * Reads a sequence of bytes from this channel into the given buffer.
+	 *
+	 * @param <A> the type of the attachment
+	 * @param target the buffer into which bytes are to be transferred
+	 * @param timeout the maximum time for the I/O operation to complete. {@code Long.MAX_VALUE} means
+	 * "wait forever"
+	 * @param unit the time unit of the timeout argument
+	 * @param attachment the object to attach to the I/O operation; can be {@code null}
+	 * @param handler the handler for consuming the result. On success, returns the number of bytes
+	 * read or -1 if the end of stream was reached.
+	 * @throws IllegalArgumentException if target is read-only or timeout is negative
+	 * @throws ReadPendingException if a read operation is already in progress on this channel
+	 * @throws ShutdownChannelGroupException if the channel group has terminated
+	 */
+	public <A> void read(final ByteBuffer target, long timeout, TimeUnit unit, final A attachment,
 		final CompletionHandler<Integer, ? super A> handler)
 		throws IllegalArgumentException, ReadPendingException, ShutdownChannelGroupException
 	{
+		final long timeoutMillis = toMillis(timeout, unit);
 		if (target.isReadOnly())
 			throw new IllegalArgumentException("target may not be read-only");
-		group.executor().submit(new Runnable()
+		// The checks are cheap, so they run on the calling thread instead of being handed off to the
+		// executor
+		if (group.isShutdown())
+			throw new ShutdownChannelGroupException();
+		if (closed.get())
 		{
-			@Override
-			public void run()
-			{
-				if (closed.get())
-				{
-					handler.failed(new ClosedChannelException(), attachment);
-					return;
-				}
-				if (!reading.compareAndSet(false, true))
-					throw new ReadPendingException();
-				ongoingOperations.register();
-				OperationDone<Integer, ? super A> operationDone = new OperationDone<>(attachment, handler,
-					reading, ongoingOperations);
-				if (readInterrupted.get())
-				{
-					operationDone.failed(new IllegalStateException("The previous read cancellation left the channel in an"
-						+ "inconsistent state. See java.nio.channels.AsynchronousChannel section Cancellation"
-						+ "for more information."), true);
-					return;
-				}
-				if (target.remaining() <= 0)
-				{
-					operationDone.completed(0, true);
-					return;
-				}
-				try
-				{
-					nativeRead(target, Long.MAX_VALUE, false, operationDone);
-				}
-				catch (RuntimeException | Error e)
-				{
-					operationDone.failed(e, true);
-				}
-			}
-		});
+			group.failed(handler, new ClosedChannelException(), attachment);
+			return;
+		}
+		if (!reading.compareAndSet(false, true))
+			throw new ReadPendingException();
+		ongoingOperations.register();
+		OperationDone<Integer> operationDone = readDone.start(attachment, handler);
+		if (readInterrupted.get())
+		{
+			operationDone.failed(new IllegalStateException("The previous read cancellation left the channel in an"
+				+ "inconsistent state. See java.nio.channels.AsynchronousChannel section Cancellation"
+				+ "for more information."), null);
+			return;
+		}
+		if (target.remaining() <= 0)
+		{
+			operationDone.completed(0, null);
+			return;
+		}
+		try
+		{
+			nativeRead(target, timeoutMillis, null, operationDone);
+		}
+		catch (RuntimeException | Error e)
+		{
+			operationDone.failed(e, null);
+		}
 	}
 
 	@Override
 	public Future<Integer> read(final ByteBuffer target)
-		throws IllegalArgumentException, ReadPendingException
+		throws IllegalArgumentException, ReadPendingException, ShutdownChannelGroupException
 	{
 		if (target.isReadOnly())
 			throw new IllegalArgumentException("target may not be read-only");
-		return group.executor().submit(new Callable<Integer>()
+		if (group.isShutdown())
+			throw new ShutdownChannelGroupException();
+		if (closed.get())
+			return Futures.immediateFailedFuture(new ClosedChannelException());
+		if (!reading.compareAndSet(false, true))
+			throw new ReadPendingException();
+		ongoingOperations.register();
+		OperationFuture<Integer> result = new OperationFuture<>(reading, readInterrupted);
+		if (readInterrupted.get())
 		{
-			@Override
-			public Integer call() throws Exception
-			{
-				if (closed.get())
-					throw new ClosedChannelException();
-				if (!reading.compareAndSet(false, true))
-					throw new ReadPendingException();
-				ongoingOperations.register();
-				try
-				{
-					if (readInterrupted.get())
-					{
-						throw new IllegalStateException("The previous read cancellation left the channel in an"
-							+ "inconsistent state. See java.nio.channels.AsynchronousChannel section Cancellation"
-							+ "for more information.");
-					}
-					if (target.remaining() <= 0)
-						return 0;
-
-					SettableFuture<Integer> result = SettableFuture.create();
-					CompletionHandlerToFuture<Integer> handlerToFuture =
-						new CompletionHandlerToFuture<>(result);
-					try
-					{
-						nativeRead(target, Long.MAX_VALUE, null, handlerToFuture);
-						return result.get();
-					}
-					catch (InterruptedException e)
-					{
-						// Exit at the request of Future.cancel(true)
-						readInterrupted.set(true);
-						close();
-						throw e;
-					}
-				}
-				finally
-				{
-					reading.set(false);
-					ongoingOperations.arriveAndDeregister();
-				}
-			}
-		});
+			result.failed(new IllegalStateException("The previous read cancellation left the channel in an"
+				+ "inconsistent state. See java.nio.channels.AsynchronousChannel section Cancellation"
+				+ "for more information."), null);
+			return result;
+		}
+		if (target.remaining() <= 0)
+		{
+			result.completed(0, null);
+			return result;
+		}
+		try
+		{
+			nativeRead(target, Long.MAX_VALUE, null, result);
+		}
+		catch (RuntimeException | Error e)
+		{
+			result.failed(e, null);
+		}
+		return result;
 	}
 
 	@Override
-	public <A> void write(final ByteBuffer source, final A attachment,
+	public <A> void write(ByteBuffer source, A attachment, CompletionHandler<Integer, ? super A> handler)
+		throws IllegalArgumentException, WritePendingException, ShutdownChannelGroupException
+	{
+		write(source, Long.MAX_VALUE, TimeUnit.MILLISECONDS, attachment, handler);
+	}
+
+	/**
+	 * Writes a sequence of bytes to this channel from the given buffer.
+	 *
+	 * @param <A> the type of the attachment
+	 * @param source the buffer from which bytes are to be retrieved
+	 * @param timeout the maximum time for the I/O operation to complete. {@code Long.MAX_VALUE} means
+	 * "wait forever"
+	 * @param unit the time unit of the timeout argument
+	 * @param attachment the object to attach to the I/O operation; can be {@code null}
+	 * @param handler the handler for consuming the result. On success, returns the number of bytes
+	 * written.
+	 * @throws IllegalArgumentException if timeout is negative
+	 * @throws WritePendingException if a write operation is already in progress on this channel
+	 * @throws ShutdownChannelGroupException if the channel group has terminated
+	 */
+	public <A> void write(final ByteBuffer source, long timeout, TimeUnit unit, final A attachment,
 		final CompletionHandler<Integer, ? super A> handler)
 		throws IllegalArgumentException, WritePendingException, ShutdownChannelGroupException
 	{
-		group.executor().submit(new Runnable()
+		final long timeoutMillis = toMillis(timeout, unit);
+		// The checks are cheap, so they run on the calling thread instead of being handed off to the
+		// executor
+		if (group.isShutdown())
+			throw new ShutdownChannelGroupException();
+		if (closed.get())
 		{
-			@Override
-			public void run()
-			{
-				if (closed.get())
-				{
-					handler.failed(new ClosedChannelException(), attachment);
-					return;
-				}
-				if (!writing.compareAndSet(false, true))
-					throw new WritePendingException();
-				ongoingOperations.register();
-				OperationDone<Integer, ? super A> operationDone = new OperationDone<>(attachment, handler,
-					writing, ongoingOperations);
-				if (writeInterrupted.get())
-				{
-					operationDone.failed(new IllegalStateException("The previous write cancellation left the channel in an"
-						+ "inconsistent state. See java.nio.channels.AsynchronousChannel section Cancellation"
-						+ "for more information."), true);
-					return;
-				}
-				if (source.remaining() <= 0)
-				{
-					operationDone.completed(0, true);
-					return;
-				}
-				try
-				{
-					nativeWrite(source, Long.MAX_VALUE, false, operationDone);
-				}
-				catch (RuntimeException | Error e)
-				{
-					operationDone.failed(e, true);
-				}
-			}
-		});
+			group.failed(handler, new ClosedChannelException(), attachment);
+			return;
+		}
+		if (!writing.compareAndSet(false, true))
+			throw new WritePendingException();
+		ongoingOperations.register();
+		OperationDone<Integer> operationDone = writeDone.start(attachment, handler);
+		if (writeInterrupted.get())
+		{
+			operationDone.failed(new IllegalStateException("The previous write cancellation left the channel in an"
+				+ "inconsistent state. See java.nio.channels.AsynchronousChannel section Cancellation"
+				+ "for more information."), null);
+			return;
+		}
+		if (source.remaining() <= 0)
+		{
+			operationDone.completed(0, null);
+			return;
+		}
+		try
+		{
+			nativeWrite(source, timeoutMillis, null, operationDone);
+		}
+		catch (RuntimeException | Error e)
+		{
+			operationDone.failed(e, null);
+		}
 	}
 
 	@Override
 	public Future<Integer> write(final ByteBuffer source)
-		throws WritePendingException
+		throws WritePendingException, ShutdownChannelGroupException
 	{
-		return group.executor().submit(new Callable<Integer>()
+		if (group.isShutdown())
+			throw new ShutdownChannelGroupException();
+		if (closed.get())
+			return Futures.immediateFailedFuture(new ClosedChannelException());
+		if (!writing.compareAndSet(false, true))
+			throw new WritePendingException();
+		ongoingOperations.register();
+		OperationFuture<Integer> result = new OperationFuture<>(writing, writeInterrupted);
+		if (writeInterrupted.get())
 		{
-			@Override
-			public Integer call() throws Exception
-			{
-				if (closed.get())
-					throw new ClosedChannelException();
-				if (!writing.compareAndSet(false, true))
-					throw new WritePendingException();
-				ongoingOperations.register();
-				try
-				{
-					if (writeInterrupted.get())
-					{
-						throw new IllegalStateException("The previous write cancellation left the channel in an"
-							+ "inconsistent state. See java.nio.channels.AsynchronousChannel section Cancellation"
-							+ "for more information.");
-					}
-					if (source.remaining() <= 0)
-						return 0;
-					SettableFuture<Integer> result = SettableFuture.create();
-					CompletionHandlerToFuture<Integer> handlerToFuture =
-						new CompletionHandlerToFuture<>(result);
-					try
-					{
-						nativeWrite(source, Long.MAX_VALUE, null, handlerToFuture);
-						return result.get();
-					}
-					catch (InterruptedException e)
-					{
-						// Exit at the request of Future.cancel(true)
-						readInterrupted.set(true);
-						close();
-						throw e;
-					}
-				}
-				finally
-				{
-					writing.set(false);
-					ongoingOperations.arriveAndDeregister();
-				}
-			}
-		});
+			result.failed(new IllegalStateException("The previous write cancellation left the channel in an"
+				+ "inconsistent state. See java.nio.channels.AsynchronousChannel section Cancellation"
+				+ "for more information."), null);
+			return result;
+		}
+		if (source.remaining() <= 0)
+		{
+			result.completed(0, null);
+			return result;
+		}
+		try
+		{
+			nativeWrite(source, Long.MAX_VALUE, null, result);
+		}
+		catch (RuntimeException | Error e)
+		{
+			result.failed(e, null);
+		}
+		return result;
+	}
+
+	/**
+	 * Reads a sequence of bytes from this channel into a subsequence of the given buffers. This
+	 * operation, sometimes called a <em>scattering read</em>, is useful when implementing network
+	 * protocols that group data into segments consisting of one or more fixed-length headers followed
+	 * by a variable-length body. The handler is invoked with the number of bytes read or -1 if no
+	 * bytes could be read because the end of stream was reached.
+	 * <p>
+	 * Bytes are transferred into the buffers in the order in which they appear in the array. At most
+	 * {@code IOV_MAX} buffers and {@code Integer.MAX_VALUE} bytes are transferred by a single
+	 * operation.
+	 *
+	 * @param <A> the type of the attachment
+	 * @param targets the buffers into which bytes are to be transferred
+	 * @param offset the offset within the buffer array of the first buffer into which bytes are to be
+	 * transferred; must be non-negative and no larger than {@code targets.length}
+	 * @param length the maximum number of buffers to be accessed; must be non-negative and no larger
+	 * than {@code targets.length - offset}
+	 * @param timeout the maximum time for the I/O operation to complete. {@code Long.MAX_VALUE} means
+	 * "wait forever"
+	 * @param unit the time unit of the timeout argument
+	 * @param attachment the object to attach to the I/O operation; can be {@code null}
+	 * @param handler the handler for consuming the result
+	 * @throws IndexOutOfBoundsException if the pre-conditions for the offset and length parameter
+	 * aren't met
+	 * @throws IllegalArgumentException if a buffer is read-only or timeout is negative
+	 * @throws ReadPendingException if a read operation is already in progress on this channel
+	 * @throws ShutdownChannelGroupException if the channel group has terminated
+	 * @throws UnsupportedOperationException if the platform does not support scattering reads
+	 */
+	public <A> void read(final ByteBuffer[] targets, final int offset, final int length, long timeout,
+		TimeUnit unit, final A attachment, final CompletionHandler<Long, ? super A> handler)
+		throws IndexOutOfBoundsException, IllegalArgumentException, ReadPendingException,
+		ShutdownChannelGroupException
+	{
+		final long timeoutMillis = toMillis(timeout, unit);
+		if (offset < 0 || length < 0 || offset > targets.length - length)
+			throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length);
+		for (int i = offset; i < offset + length; ++i)
+		{
+			if (targets[i].isReadOnly())
+				throw new IllegalArgumentException("targets[" + i + "] may not be read-only");
+		}
+		// The checks are cheap, so they run on the calling thread instead of being handed off to the
+		// executor
+		if (group.isShutdown())
+			throw new ShutdownChannelGroupException();
+		if (closed.get())
+		{
+			group.failed(handler, new ClosedChannelException(), attachment);
+			return;
+		}
+		if (!reading.compareAndSet(false, true))
+			throw new ReadPendingException();
+		ongoingOperations.register();
+		OperationDone<Long> operationDone = scatteringReadDone.start(attachment, handler);
+		if (readInterrupted.get())
+		{
+			operationDone.failed(new IllegalStateException("The previous read cancellation left the channel in an"
+				+ "inconsistent state. See java.nio.channels.AsynchronousChannel section Cancellation"
+				+ "for more information."), null);
+			return;
+		}
+		if (!hasRemaining(targets, offset, length))
+		{
+			operationDone.completed(0L, null);
+			return;
+		}
+		try
+		{
+			nativeReadScattering(targets, offset, length, timeoutMillis, null, operationDone);
+		}
+		catch (RuntimeException | Error e)
+		{
+			operationDone.failed(e, null);
+		}
+	}
+
+	/**
+	 * Writes a sequence of bytes to this channel from a subsequence of the given buffers. This
+	 * operation, sometimes called a <em>gathering write</em>, is useful when implementing network
+	 * protocols that group data into segments consisting of one or more fixed-length headers followed
+	 * by a variable-length body. The handler is invoked with the number of bytes written.
+	 * <p>
+	 * Bytes are transferred from the buffers in the order in which they appear in the array. At most
+	 * {@code IOV_MAX} buffers and {@code Integer.MAX_VALUE} bytes are transferred by a single
+	 * operation.
+	 *
+	 * @param <A> the type of the attachment
+	 * @param sources the buffers from which bytes are to be retrieved
+	 * @param offset the offset within the buffer array of the first buffer from which bytes are to be
+	 * retrieved; must be non-negative and no larger than {@code sources.length}
+	 * @param length the maximum number of buffers to be accessed; must be non-negative and no larger
+	 * than {@code sources.length - offset}
+	 * @param timeout the maximum time for the I/O operation to complete. {@code Long.MAX_VALUE} means
+	 * "wait forever"
+	 * @param unit the time unit of the timeout argument
+	 * @param attachment the object to attach to the I/O operation; can be {@code null}
+	 * @param handler the handler for consuming the result
+	 * @throws IndexOutOfBoundsException if the pre-conditions for the offset and length parameter
+	 * aren't met
+	 * @throws IllegalArgumentException if timeout is negative
+	 * @throws WritePendingException if a write operation is already in progress on this channel
+	 * @throws ShutdownChannelGroupException if the channel group has terminated
+	 * @throws UnsupportedOperationException if the platform does not support gathering writes
+	 */
+	public <A> void write(final ByteBuffer[] sources, final int offset, final int length, long timeout,
+		TimeUnit unit, final A attachment, final CompletionHandler<Long, ? super A> handler)
+		throws IndexOutOfBoundsException, IllegalArgumentException, WritePendingException,
+		ShutdownChannelGroupException
+	{
+		final long timeoutMillis = toMillis(timeout, unit);
+		if (offset < 0 || length < 0 || offset > sources.length - length)
+			throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length);
+		// The checks are cheap, so they run on the calling thread instead of being handed off to the
+		// executor
+		if (group.isShutdown())
+			throw new ShutdownChannelGroupException();
+		if (closed.get())
+		{
+			group.failed(handler, new ClosedChannelException(), attachment);
+			return;
+		}
+		if (!writing.compareAndSet(false, true))
+			throw new WritePendingException();
+		ongoingOperations.register();
+		OperationDone<Long> operationDone = gatheringWriteDone.start(attachment, handler);
+		if (writeInterrupted.get())
+		{
+			operationDone.failed(new IllegalStateException("The previous write cancellation left the channel in an"
+				+ "inconsistent state. See java.nio.channels.AsynchronousChannel section Cancellation"
+				+ "for more information."), null);
+			return;
+		}
+		if (!hasRemaining(sources, offset, length))
+		{
+			operationDone.completed(0L, null);
+			return;
+		}
+		try
+		{
+			nativeWriteGathering(sources, offset, length, timeoutMillis, null, operationDone);
+		}
+		catch (RuntimeException | Error e)
+		{
+			operationDone.failed(e, null);
+		}
+	}
+
+	/**
+	 * Converts a timeout to milliseconds, rounding up.
+	 *
+	 * @param timeout the timeout
+	 * @param unit the unit of timeout
+	 * @return the number of milliseconds, or {@code Long.MAX_VALUE} if timeout is
+	 * {@code Long.MAX_VALUE}
+	 * @throws NullPointerException if unit is null
+	 * @throws IllegalArgumentException if timeout is negative
+	 */
+	private static long toMillis(long timeout, TimeUnit unit)
+	{
+		Preconditions.checkNotNull(unit, "unit may not be null");
+		Preconditions.checkArgument(timeout >= 0, "timeout may not be negative");
+		if (timeout == Long.MAX_VALUE)
+			return Long.MAX_VALUE;
+		long result = unit.toMillis(timeout);
+		if (result < Long.MAX_VALUE && unit.convert(result, TimeUnit.MILLISECONDS) < timeout)
+			++result;
+		return result;
+	}
+
+	/**
+	 * Indicates if any of the buffers have remaining bytes.
+	 *
+	 * @param buffers the buffers
+	 * @param offset the index of the first buffer to check
+	 * @param length the number of buffers to check
+	 * @return true if at least one buffer has remaining bytes
+	 */
+	private static boolean hasRemaining(ByteBuffer[] buffers, int offset, int length)
+	{
+		for (int i = offset; i < offset + length; ++i)
+		{
+			if (buffers[i].hasRemaining())
+				return true;
+		}
+		return false;
 	}
 
 	/**
@@ -345,12 +642,260 @@ public class SerialChannel implements AsynchronousByteChannel
 		final StopBits stopBits, final FlowControl flowControl)
 		throws PeripheralConfigurationException
 	{
-		nativeConfigure(baudRate, dataBits, parity, stopBits, flowControl);
-		this.baudRate = baudRate;
+		configure(baudRate.toInt(), dataBits, parity, stopBits, flowControl);
+	}
+
+	/**
+	 * Configures the serial port channel using an arbitrary baud rate.
+	 *
+	 * @param baudRate the number of bits per second
+	 * @param dataBits the number of data bits per word
+	 * @param parity the parity mechanism to use
+	 * @param stopBits the number of stop bits to use
+	 * @param flowControl the flow control to use
+	 * @return the baud rate that the driver applied
+	 * @throws IllegalArgumentException if baudRate is not positive
+	 * @throws PeripheralConfigurationException if the driver does not support the baud rate or an
+	 * I/O error occurs while configuring the channel
+	 * @see #getActualBaudRate()
+	 */
+	public int configure(final int baudRate, final DataBits dataBits, final Parity parity,
+		final StopBits stopBits, final FlowControl flowControl)
+		throws PeripheralConfigurationException
+	{
+		Preconditions.checkArgument(baudRate > 0, "baudRate must be positive");
+		int result = nativeConfigure(baudRate, dataBits, parity, stopBits, flowControl);
+		this.baudRate = BaudRate.fromInt(baudRate);
+		this.actualBaudRate = result;
 		this.dataBits = dataBits;
 		this.parity = parity;
 		this.stopBits = stopBits;
 		this.flowControl = flowControl;
+		return result;
+	}
+
+	/**
+	 * Sets the conditions under which subsequent reads complete. A read completes once
+	 * {@code min(minimumBytes, target.remaining())} bytes arrive, or once {@code interByteTimeout}
+	 * elapses between two bytes after the first byte arrived, whichever comes first. Reads that are
+	 * already in progress are unaffected.
+	 *
+	 * @param minimumBytes the minimum number of bytes to read. 1 restores the default behavior.
+	 * @param interByteTimeout the maximum amount of time to wait for the next byte once bytes have
+	 * been read. 0 means "wait for minimumBytes".
+	 * @param unit the unit of interByteTimeout
+	 * @throws NullPointerException if unit is null
+	 * @throws IllegalArgumentException if minimumBytes is not positive or interByteTimeout is negative
+	 * @throws UnsupportedOperationException if the platform does not support read thresholds
+	 */
+	public void setReadThreshold(int minimumBytes, long interByteTimeout, TimeUnit unit)
+	{
+		Preconditions.checkArgument(minimumBytes > 0, "minimumBytes must be positive");
+		long interByteMillis = toMillis(interByteTimeout, unit);
+		if (interByteMillis == Long.MAX_VALUE)
+			interByteMillis = 0;
+		nativeSetReadThreshold(minimumBytes, interByteMillis);
+	}
+
+	/**
+	 * Sets whether subsequent writes complete only once their bytes have left the port. Writes that
+	 * are already in progress are unaffected. A write whose deadline elapses while the output queue
+	 * drains completes successfully with the bytes it transferred.
+	 *
+	 * @param enabled true if writes should wait for the output queue to drain, false if they should
+	 * complete as soon as the driver accepts the bytes
+	 * @throws UnsupportedOperationException if the platform does not support draining the output
+	 * queue on write
+	 */
+	public void setDrainOnWrite(boolean enabled)
+	{
+		nativeSetDrainOnWrite(enabled);
+	}
+
+	/**
+	 * Configures the channel for low latency at the cost of CPU time.
+	 *
+	 * @param enabled true if the driver should deliver received bytes right away instead of batching
+	 * them
+	 * @param spinTime the maximum amount of time that the port is busy-polled, on a thread dedicated to
+	 * it, before its operations wait for it to become ready. 0 disables busy-polling.
+	 * @param unit the unit of spinTime
+	 * @return true if the driver honored {@code enabled}, false if it does not support the setting.
+	 * Busy-polling is applied either way.
+	 * @throws NullPointerException if unit is null
+	 * @throws IllegalArgumentException if spinTime is negative
+	 * @throws IOException if an I/O error occurs
+	 * @throws UnsupportedOperationException if the platform does not support low-latency mode
+	 */
+	public boolean setLowLatency(boolean enabled, long spinTime, TimeUnit unit) throws IOException
+	{
+		Preconditions.checkNotNull(unit, "unit may not be null");
+		Preconditions.checkArgument(spinTime >= 0, "spinTime may not be negative");
+		return nativeSetLowLatency(enabled, unit.toNanos(spinTime));
+	}
+
+	/**
+	 * Returns the modem-control lines that are asserted.
+	 *
+	 * @return the lines that are asserted
+	 * @throws IOException if an I/O error occurs
+	 */
+	public Set<ModemLine> getModemLines() throws IOException
+	{
+		return toModemLines(nativeGetModemLines());
+	}
+
+	/**
+	 * Asserts or clears a modem-control line driven by the local end, without reconfiguring the port.
+	 * Lines managed by hardware flow control may be overridden by the driver.
+	 *
+	 * @param line {@link ModemLine#RTS} or {@link ModemLine#DTR}
+	 * @param asserted true if the line should be asserted, false if it should be cleared
+	 * @throws NullPointerException if line is null
+	 * @throws IllegalArgumentException if the line is driven by the remote end
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void setModemLine(ModemLine line, boolean asserted) throws IOException
+	{
+		Preconditions.checkNotNull(line, "line may not be null");
+		Preconditions.checkArgument(line == ModemLine.RTS || line == ModemLine.DTR,
+			"line must be RTS or DTR");
+		nativeSetModemLine(line, asserted);
+	}
+
+	/**
+	 * Waits for any of the specified modem-control lines to change state. Changes are measured
+	 * against the state of the lines when this method is invoked.
+	 *
+	 * @param <A> the type of the attachment
+	 * @param lines the lines to watch
+	 * @param attachment the object to attach to the operation; can be {@code null}
+	 * @param handler the handler for consuming the result. On success, returns the lines that are
+	 * asserted.
+	 * @throws NullPointerException if lines or handler are null
+	 * @throws IllegalArgumentException if lines is empty
+	 * @throws IllegalStateException if a watch is already pending on this channel
+	 * @throws UnsupportedOperationException if the platform does not support watching modem-control
+	 * lines
+	 * @throws ShutdownChannelGroupException if the channel group has terminated
+	 */
+	public <A> void watchModemLines(Set<ModemLine> lines, A attachment,
+		final CompletionHandler<Set<ModemLine>, ? super A> handler)
+		throws ShutdownChannelGroupException
+	{
+		Preconditions.checkNotNull(lines, "lines may not be null");
+		Preconditions.checkNotNull(handler, "handler may not be null");
+		Preconditions.checkArgument(!lines.isEmpty(), "lines may not be empty");
+		if (group.isShutdown())
+			throw new ShutdownChannelGroupException();
+		if (closed.get())
+		{
+			group.failed(handler, new ClosedChannelException(), attachment);
+			return;
+		}
+		if (!watching.compareAndSet(false, true))
+			throw new IllegalStateException("A watch is already pending on this channel");
+		ongoingOperations.register();
+		OperationDone<Set<ModemLine>> operationDone = watchDone.start(attachment, handler);
+		int mask = 0;
+		for (ModemLine line: lines)
+			mask |= 1 << line.ordinal();
+		try
+		{
+			nativeWatchModemLines(mask, null, modemLinesChanged);
+		}
+		catch (UnsupportedOperationException e)
+		{
+			// The watch never started
+			watching.set(false);
+			ongoingOperations.arriveAndDeregister();
+			throw e;
+		}
+		catch (IOException | RuntimeException | Error e)
+		{
+			operationDone.failed(e, null);
+		}
+	}
+
+	/**
+	 * Waits for any of the specified modem-control lines to change state.
+	 *
+	 * @param lines the lines to watch
+	 * @return a Future representing the lines that are asserted once the change is detected
+	 * @throws NullPointerException if lines is null
+	 * @throws IllegalArgumentException if lines is empty
+	 * @throws IllegalStateException if a watch is already pending on this channel
+	 * @throws UnsupportedOperationException if the platform does not support watching modem-control
+	 * lines
+	 * @throws ShutdownChannelGroupException if the channel group has terminated
+	 * @see #watchModemLines(java.util.Set, java.lang.Object, java.nio.channels.CompletionHandler)
+	 */
+	public Future<Set<ModemLine>> watchModemLines(Set<ModemLine> lines)
+		throws ShutdownChannelGroupException
+	{
+		SettableFuture<Set<ModemLine>> result = SettableFuture.create();
+		watchModemLines(lines, null, new CompletionHandlerToFuture<>(result));
+		return result;
+	}
+
+	/**
+	 * Returns the error and traffic counters that the driver maintains for the port. Reading them
+	 * costs a single system call.
+	 *
+	 * @return a snapshot of the counters
+	 * @throws IOException if an I/O error occurs
+	 * @throws UnsupportedOperationException if the driver or platform does not maintain counters
+	 */
+	public LineStatistics getLineStatistics() throws IOException
+	{
+		return new LineStatistics(nativeGetLineStatistics());
+	}
+
+	/**
+	 * Returns the number of bytes that the driver has received but that have not been read yet.
+	 * <p>
+	 * Readers may use this to size a buffer that drains the input queue in a single operation. The
+	 * value is a snapshot: more bytes may arrive before the next read.
+	 *
+	 * @return the number of bytes waiting in the input queue
+	 * @throws IOException if an I/O error occurs
+	 * @throws UnsupportedOperationException if the platform does not report queue sizes
+	 */
+	public int getInputQueueSize() throws IOException
+	{
+		return nativeGetInputQueueSize();
+	}
+
+	/**
+	 * Returns the number of bytes that have been written but that the driver has not transmitted yet.
+	 * <p>
+	 * Writers may use this to avoid getting too far ahead of a slow device. A value that keeps
+	 * growing indicates that the port is falling behind.
+	 *
+	 * @return the number of bytes waiting in the output queue
+	 * @throws IOException if an I/O error occurs
+	 * @throws UnsupportedOperationException if the platform does not report queue sizes
+	 */
+	public int getOutputQueueSize() throws IOException
+	{
+		return nativeGetOutputQueueSize();
+	}
+
+	/**
+	 * Converts a bitmask returned by the native code to a set of modem-control lines.
+	 *
+	 * @param mask a bitmask indexed by {@link ModemLine#ordinal()}
+	 * @return the lines whose bit is set
+	 */
+	private static Set<ModemLine> toModemLines(int mask)
+	{
+		Set<ModemLine> result = EnumSet.noneOf(ModemLine.class);
+		for (ModemLine line: ModemLine.values())
+		{
+			if ((mask & (1 << line.ordinal())) != 0)
+				result.add(line);
+		}
+		return result;
 	}
 
 	@Override
@@ -359,6 +904,8 @@ public class SerialChannel implements AsynchronousByteChannel
 		if (closed.compareAndSet(false, true))
 		{
 			nativeClose();
+			mailbox.close();
+			group.removeChannel(this);
 			boolean ongoingRead = reading.get();
 			boolean ongoingWrite = writing.get();
 			if (ongoingRead || ongoingWrite)
@@ -410,7 +957,7 @@ public class SerialChannel implements AsynchronousByteChannel
 	@Override
 	public String toString()
 	{
-		return port.getName() + "[" + baudRate + " " + dataBits + "-" + parity + "-" + stopBits + " "
+		return port.getName() + "[" + actualBaudRate + " " + dataBits + "-" + parity + "-" + stopBits + " "
 			+ flowControl + "]";
 	}
 
@@ -420,24 +967,38 @@ public class SerialChannel implements AsynchronousByteChannel
 	 * @param name the port name
 	 * @param timeout the minimum number of milliseconds to wait if the port is locked by another
 	 * process before giving up
+	 * @param ioEngine the I/O engine to use
 	 * @return the native context associated with the port
 	 * @throws PeripheralNotFoundException if the comport does not exist
 	 * @throws PeripheralInUseException if the comport is locked by another process
 	 */
-	private native long nativeOpen(String name, long timeout)
+	private native long nativeOpen(String name, long timeout, IoEngine ioEngine)
 		throws PeripheralNotFoundException, PeripheralInUseException;
 
+	/**
+	 * Returns the processes that hold ports open or locked. A single scan of the system serves all of
+	 * the ports.
+	 *
+	 * @param names the port names
+	 * @return the process ID per port, -1 if no process was found, or {@link #PORT_NOT_FOUND} if the
+	 * port does not exist
+	 * @throws UnsupportedOperationException if the platform cannot identify the process that holds a
+	 * port
+	 */
+	static native long[] nativeGetPortOwners(String[] names);
+
 	/**
 	 * Sets the port configuration.
 	 *
-	 * @param baudRate the baud rate
+	 * @param baudRate the number of bits per second
 	 * @param dataBits the number of data bits per word
 	 * @param parity the parity mechanism to use
 	 * @param stopBits the number of stop bits to use
 	 * @param flowControl the flow control to use
+	 * @return the baud rate that the driver applied
 	 * @throws PeripheralConfigurationException if an I/O error occurs while configuring the channel
 	 */
-	private native void nativeConfigure(BaudRate baudRate, DataBits dataBits, Parity parity,
+	private native int nativeConfigure(int baudRate, DataBits dataBits, Parity parity,
 		StopBits stopBits, FlowControl flowControl) throws PeripheralConfigurationException;
 
 	/**
@@ -447,12 +1008,22 @@ public class SerialChannel implements AsynchronousByteChannel
 	 */
 	private native void nativeClose() throws IOException;
 
+	/**
+	 * Unlocks the slave side of the pseudo-terminal whose master side is associated with this
+	 * channel.
+	 *
+	 * @return the path of the slave side
+	 * @throws IOException if an I/O error occurs
+	 * @throws UnsupportedOperationException if the platform does not support pseudo-terminals
+	 */
+	native String nativeUnlockSlave() throws IOException;
+
 	/**
 	 * Reads data from the port.
 	 *
 	 * @param <A> the attachment type
 	 * @param target the buffer to write into
-	 * @param timeout the number of milliseconds to wait before throwing
+	 * @param timeout the number of milliseconds to wait before failing with
 	 * InterruptedByTimeoutException. 0 means "return right away". Long.MAX_VALUE means "wait forever"
 	 * @param attachment the attachment associated with handler
 	 * @param handler a handler for consuming the result of an asynchronous I/O operation. On success,
@@ -466,7 +1037,7 @@ public class SerialChannel implements AsynchronousByteChannel
 	 *
 	 * @param <A> the attachment type
 	 * @param source the buffer to read from
-	 * @param timeout the number of milliseconds to wait before throwing
+	 * @param timeout the number of milliseconds to wait before failing with
 	 * InterruptedByTimeoutException. 0 means "return right away". Long.MAX_VALUE means "wait forever"
 	 * @param attachment the attachment associated with handler
 	 * @param handler a handler for consuming the result of an asynchronous I/O operation. On success,
@@ -476,70 +1047,291 @@ public class SerialChannel implements AsynchronousByteChannel
 		CompletionHandler<Integer, A> handler);
 
 	/**
-	 * Notified when a read or write operation completes.
+	 * Reads data from the port into a sequence of buffers.
+	 *
+	 * @param <A> the attachment type
+	 * @param targets the buffers to write into
+	 * @param offset the index of the first buffer to write into
+	 * @param length the number of buffers to write into
+	 * @param timeout the number of milliseconds to wait before failing with
+	 * InterruptedByTimeoutException. 0 means "return right away". Long.MAX_VALUE means "wait forever"
+	 * @param attachment the attachment associated with handler
+	 * @param handler a handler for consuming the result of an asynchronous I/O operation. On success,
+	 * returns the number of bytes read.
+	 * @throws UnsupportedOperationException if the platform does not support scattering reads
+	 */
+	private native <A> void nativeReadScattering(ByteBuffer[] targets, int offset, int length,
+		long timeout, A attachment, CompletionHandler<Long, A> handler);
+
+	/**
+	 * Writes data to the port from a sequence of buffers.
 	 *
-	 * The attachment indicates whether the delegate completion handler may be invoked directly, or
-	 * whether it must be scheduled for asynchronous execution by the AsynchronousChannelGroup.
+	 * @param <A> the attachment type
+	 * @param sources the buffers to read from
+	 * @param offset the index of the first buffer to read from
+	 * @param length the number of buffers to read from
+	 * @param timeout the number of milliseconds to wait before failing with
+	 * InterruptedByTimeoutException. 0 means "return right away". Long.MAX_VALUE means "wait forever"
+	 * @param attachment the attachment associated with handler
+	 * @param handler a handler for consuming the result of an asynchronous I/O operation. On success,
+	 * returns the number of bytes written.
+	 * @throws UnsupportedOperationException if the platform does not support gathering writes
+	 */
+	private native <A> void nativeWriteGathering(ByteBuffer[] sources, int offset, int length,
+		long timeout, A attachment, CompletionHandler<Long, A> handler);
+
+	/**
+	 * Sets the conditions under which subsequent reads complete.
+	 *
+	 * @param minimum the minimum number of bytes to read
+	 * @param interByteTimeout the number of milliseconds to wait for the next byte once bytes have
+	 * been read. 0 means "wait for minimum".
+	 * @throws UnsupportedOperationException if the platform does not support read thresholds
+	 */
+	private native void nativeSetReadThreshold(int minimum, long interByteTimeout);
+
+	/**
+	 * Sets whether subsequent writes complete only once the output queue drains.
+	 *
+	 * @param enabled true if writes should wait for the output queue to drain
+	 * @throws UnsupportedOperationException if the platform does not support draining the output
+	 * queue on write
+	 */
+	private native void nativeSetDrainOnWrite(boolean enabled);
+
+	/**
+	 * Configures the channel for low latency.
+	 *
+	 * @param enabled true if the driver should deliver received bytes right away
+	 * @param spinTime the number of nanoseconds that operations busy-poll the port for
+	 * @return true if the driver honored {@code enabled}
+	 * @throws IOException if an I/O error occurs
+	 * @throws UnsupportedOperationException if the platform does not support low-latency mode
+	 */
+	private native boolean nativeSetLowLatency(boolean enabled, long spinTime) throws IOException;
+
+	/**
+	 * Returns the modem-control lines that are asserted.
+	 *
+	 * @return a bitmask indexed by {@link ModemLine#ordinal()}
+	 * @throws IOException if an I/O error occurs
+	 */
+	private native int nativeGetModemLines() throws IOException;
+
+	/**
+	 * Asserts or clears a modem-control line driven by the local end.
+	 *
+	 * @param line the line
+	 * @param asserted true if the line should be asserted, false if it should be cleared
+	 * @throws IOException if an I/O error occurs
+	 */
+	private native void nativeSetModemLine(ModemLine line, boolean asserted) throws IOException;
+
+	/**
+	 * Waits for modem-control lines to change state.
+	 *
+	 * @param <A> the attachment type
+	 * @param mask the lines to watch, as a bitmask indexed by {@link ModemLine#ordinal()}
+	 * @param attachment the attachment associated with handler
+	 * @param handler a handler for consuming the result of an asynchronous I/O operation. On success,
+	 * returns the lines that are asserted, as a bitmask indexed by {@link ModemLine#ordinal()}.
+	 * @throws IOException if the initial state of the lines cannot be read
+	 * @throws UnsupportedOperationException if the platform does not support watching modem-control
+	 * lines
+	 */
+	private native <A> void nativeWatchModemLines(int mask, A attachment,
+		CompletionHandler<Integer, A> handler) throws IOException;
+
+	/**
+	 * Returns the error and traffic counters that the driver maintains for the port.
+	 *
+	 * @return {@link LineStatistics#COUNTERS} counters in the order expected by
+	 * {@link LineStatistics#LineStatistics(long[])}
+	 * @throws IOException if an I/O error occurs
+	 * @throws UnsupportedOperationException if the driver or platform does not maintain counters
+	 */
+	private native long[] nativeGetLineStatistics() throws IOException;
+
+	/**
+	 * Returns the number of bytes waiting in the input queue.
+	 *
+	 * @return the number of bytes waiting in the input queue
+	 * @throws IOException if an I/O error occurs
+	 * @throws UnsupportedOperationException if the platform does not report queue sizes
+	 */
+	private native int nativeGetInputQueueSize() throws IOException;
+
+	/**
+	 * Returns the number of bytes waiting in the output queue.
+	 *
+	 * @return the number of bytes waiting in the output queue
+	 * @throws IOException if an I/O error occurs
+	 * @throws UnsupportedOperationException if the platform does not report queue sizes
+	 */
+	private native int nativeGetOutputQueueSize() throws IOException;
+
+	/**
+	 * Notified when a read or write operation completes.
+	 * <p>
+	 * An instance may be reused by subsequent operations of the same kind. The operation is only
+	 * marked as finished once the delegate is about to be invoked, so a subsequent operation cannot
+	 * overwrite the outcome of this one before it is delivered. The delegate runs on the notifying
+	 * thread if that thread is already draining the channel's mailbox, and is posted to the mailbox
+	 * otherwise. Threads of the native library never run the delegate themselves.
 	 *
 	 * @param <V> the result type expected by the delegate completion handler
-	 * @param <A> the type of the object attached to the delegate handler
 	 * @author Gili Tzabari
 	 */
-	private class OperationDone<V, A> implements CompletionHandler<V, Boolean>
+	private static class OperationDone<V> extends PeripheralChannelGroup.Completion
+		implements CompletionHandler<V, Void>
 	{
-		private final A attachment;
-		private final CompletionHandler<V, A> delegate;
 		private final AtomicBoolean running;
 		private final Phaser phaser;
-		private final Logger log = LoggerFactory.getLogger(OperationDone.class);
+		private CompletionHandler<V, Object> delegate;
+		private Object attachment;
+		private V value;
+		private Throwable failure;
 
 		/**
 		 * Creates a new OperationDone.
 		 *
-		 * @param attachment the attachment to pass to
-		 * <code>delegate</code>
-		 * @param delegate the handler to delegate to
+		 * @param mailbox the mailbox that delivers the outcome to the delegate
 		 * @param running an AtomicBoolean to set to false when the operation completes.
 		 * @param phaser a Phaser that should arriveAndDeregister() when the operation completes.
-		 * @throws NullPointerException if delegate or running are null
+		 * @throws NullPointerException if mailbox, running or phaser are null
 		 */
-		public OperationDone(A attachment, CompletionHandler<V, A> delegate, AtomicBoolean running,
+		public OperationDone(PeripheralChannelGroup.Mailbox mailbox, AtomicBoolean running,
 			Phaser phaser)
 		{
-			Preconditions.checkNotNull(delegate, "delegate may not be null");
+			super(mailbox);
 			Preconditions.checkNotNull(running, "running may not be null");
 			Preconditions.checkNotNull(phaser, "phaser may not be null");
 
-			this.attachment = attachment;
-			this.delegate = delegate;
 			this.running = running;
 			this.phaser = phaser;
 		}
 
+		/**
+		 * Prepares for a new operation. The caller must have set <code>running</code> to true.
+		 *
+		 * @param <A> the type of the object attached to the operation
+		 * @param attachment the attachment to pass to
+		 * <code>delegate</code>
+		 * @param delegate the handler to delegate to
+		 * @return this
+		 * @throws NullPointerException if delegate is null
+		 */
+		@SuppressWarnings("unchecked")
+		public <A> OperationDone<V> start(A attachment, CompletionHandler<V, ? super A> delegate)
+		{
+			Preconditions.checkNotNull(delegate, "delegate may not be null");
+
+			this.attachment = attachment;
+			this.delegate = (CompletionHandler<V, Object>) delegate;
+			return this;
+		}
+
 		@Override
-		public void completed(final V value, Boolean groupThread)
+		public void completed(V value, Void unused)
 		{
+			this.value = value;
+			this.failure = null;
+			// close() waits on the phaser, so it must not depend on the executor delivering the outcome
+			phaser.arriveAndDeregister();
+			dispatch();
+		}
+
+		@Override
+		public void failed(Throwable t, Void unused)
+		{
+			this.value = null;
+			this.failure = t;
+			phaser.arriveAndDeregister();
+			dispatch();
+		}
+
+		@Override
+		protected void deliver()
+		{
+			CompletionHandler<V, Object> delegate = this.delegate;
+			Object attachment = this.attachment;
+			V value = this.value;
+			Throwable failure = this.failure;
+			this.delegate = null;
+			this.attachment = null;
+			this.value = null;
+			this.failure = null;
+
 			// Set running before delegating in order to allow the delegate to initiate a follow-up
 			// operation.
 			running.set(false);
-			phaser.arriveAndDeregister();
-			if (groupThread)
+			if (failure == null)
 				delegate.completed(value, attachment);
 			else
-				new CompletionHandlerExecutor<>(delegate, group.executor()).completed(value, attachment);
+				delegate.failed(failure, attachment);
+		}
+	}
+
+	/**
+	 * The outcome of an operation initiated using a Future. The operation is carried out without
+	 * tying up any thread. {@code cancel(true)} closes the channel, in line with
+	 * {@link AsynchronousChannel}.
+	 *
+	 * @param <V> the result type of the operation
+	 * @author Gili Tzabari
+	 */
+	private final class OperationFuture<V> extends AbstractFuture<V>
+		implements CompletionHandler<V, Void>
+	{
+		private final AtomicBoolean running;
+		private final AtomicBoolean interrupted;
+
+		/**
+		 * Creates a new OperationFuture.
+		 *
+		 * @param running an AtomicBoolean to set to false when the operation completes
+		 * @param interrupted an AtomicBoolean to set to true if the operation is cancelled while in
+		 * progress
+		 * @throws NullPointerException if running or interrupted are null
+		 */
+		public OperationFuture(AtomicBoolean running, AtomicBoolean interrupted)
+		{
+			Preconditions.checkNotNull(running, "running may not be null");
+			Preconditions.checkNotNull(interrupted, "interrupted may not be null");
+
+			this.running = running;
+			this.interrupted = interrupted;
 		}
 
 		@Override
-		public void failed(final Throwable t, Boolean groupThread)
+		public void completed(V value, Void unused)
 		{
-			// Set running before delegating in order to allow the delegate to initiate a follow-up
-			// operation.
 			running.set(false);
-			phaser.arriveAndDeregister();
-			if (groupThread)
-				delegate.failed(t, attachment);
-			else
-				new CompletionHandlerExecutor<>(delegate, group.executor()).failed(t, attachment);
+			ongoingOperations.arriveAndDeregister();
+			set(value);
+		}
+
+		@Override
+		public void failed(Throwable t, Void unused)
+		{
+			running.set(false);
+			ongoingOperations.arriveAndDeregister();
+			setException(t);
+		}
+
+		@Override
+		protected void interruptTask()
+		{
+			// Exit at the request of Future.cancel(true)
+			interrupted.set(true);
+			try
+			{
+				close();
+			}
+			catch (IOException e)
+			{
+				log.warn("", e);
+			}
 		}
 	}
 }
@@ -1,11 +1,31 @@
 package org.jperipheral;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ShutdownChannelGroupException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A serial port.
+ * <p>
+ * Under Linux, ports are opened with an advisory lock as well as {@code TIOCEXCL}, so opening a port
+ * that another process holds fails right away with {@link PeripheralInUseException} unless a timeout
+ * is specified. Instead of retrying, applications may use
+ * {@link #awaitRelease(PeripheralChannelGroup, Object, CompletionHandler) awaitRelease} to find out
+ * when the port becomes available, or {@link #openAsync(PeripheralChannelGroup, long, TimeUnit,
+ * Configuration, Object, CompletionHandler) openAsync} to open it once it does.
  * 
  * @author Gili Tzabari
  * @see "http://www.lammertbies.nl/comm/info/RS-232_specs.html"
@@ -13,13 +33,28 @@ import java.util.concurrent.TimeUnit;
 public final class SerialPort implements Peripheral
 {
 	/**
+	 * Commonly used baud rates. {@link SerialChannel#configure(int, DataBits, Parity, StopBits,
+	 * FlowControl)} accepts any other rate that the hardware supports.
+	 *
 	 * @author Gili Tzabari
 	 * @see "http://en.wikipedia.org/wiki/baud"
 	 */
 	public enum BaudRate
 	{
-		_110, _300, _600, _1200, _2400, _4800, _9600, _14400, _19200, _28800, _38400, _56000, _57600,
-		_115200;
+		_110(110), _300(300), _600(600), _1200(1200), _2400(2400), _4800(4800), _9600(9600),
+		_14400(14400), _19200(19200), _28800(28800), _38400(38400), _56000(56000), _57600(57600),
+		_115200(115200), _230400(230400), _460800(460800), _921600(921600);
+		private final int value;
+
+		/**
+		 * Creates a new BaudRate.
+		 *
+		 * @param value the number of bits per second
+		 */
+		BaudRate(int value)
+		{
+			this.value = value;
+		}
 
 		/**
 		 * Constructs a BaudRate from an int.
@@ -30,7 +65,26 @@ public final class SerialPort implements Peripheral
 		 */
 		public static BaudRate valueOf(int value)
 		{
-			return BaudRate.valueOf("_" + value);
+			BaudRate result = fromInt(value);
+			if (result == null)
+				throw new IllegalArgumentException("No BaudRate matches " + value);
+			return result;
+		}
+
+		/**
+		 * Constructs a BaudRate from an int.
+		 *
+		 * @param value the int
+		 * @return null if the specified value does not match any BaudRate
+		 */
+		static BaudRate fromInt(int value)
+		{
+			for (BaudRate baudRate: values())
+			{
+				if (baudRate.value == value)
+					return baudRate;
+			}
+			return null;
 		}
 
 		/**
@@ -40,7 +94,7 @@ public final class SerialPort implements Peripheral
 		 */
 		public int toInt()
 		{
-			return Integer.parseInt(name().substring(1));
+			return value;
 		}
 	}
 
@@ -249,12 +303,361 @@ public final class SerialPort implements Peripheral
 			}
 		}
 	}
+
+	/**
+	 * The modem-control lines of the port.
+	 */
+	public enum ModemLine
+	{
+		/**
+		 * Clear to Send, driven by the remote end.
+		 */
+		CTS,
+		/**
+		 * Data Set Ready, driven by the remote end.
+		 */
+		DSR,
+		/**
+		 * Data Carrier Detect, driven by the remote end.
+		 */
+		DCD,
+		/**
+		 * Ring Indicator, driven by the remote end.
+		 */
+		RI,
+		/**
+		 * Request to Send, driven by the local end.
+		 */
+		RTS,
+		/**
+		 * Data Terminal Ready, driven by the local end.
+		 */
+		DTR
+	}
+	/**
+	 * The settings applied to a port once it is opened.
+	 */
+	public static final class Configuration
+	{
+		private final int baudRate;
+		private final DataBits dataBits;
+		private final Parity parity;
+		private final StopBits stopBits;
+		private final FlowControl flowControl;
+
+		/**
+		 * Creates a new Configuration.
+		 *
+		 * @param baudRate the number of bits per second
+		 * @param dataBits the number of data bits per word
+		 * @param parity the parity mechanism to use
+		 * @param stopBits the number of stop bits to use
+		 * @param flowControl the flow control to use
+		 * @throws NullPointerException if any of the arguments are null
+		 * @throws IllegalArgumentException if baudRate is not positive
+		 */
+		public Configuration(int baudRate, DataBits dataBits, Parity parity, StopBits stopBits,
+			FlowControl flowControl)
+		{
+			Preconditions.checkArgument(baudRate > 0, "baudRate must be positive");
+			Preconditions.checkNotNull(dataBits, "dataBits may not be null");
+			Preconditions.checkNotNull(parity, "parity may not be null");
+			Preconditions.checkNotNull(stopBits, "stopBits may not be null");
+			Preconditions.checkNotNull(flowControl, "flowControl may not be null");
+
+			this.baudRate = baudRate;
+			this.dataBits = dataBits;
+			this.parity = parity;
+			this.stopBits = stopBits;
+			this.flowControl = flowControl;
+		}
+
+		/**
+		 * Applies the configuration to a channel.
+		 *
+		 * @param channel the channel
+		 * @throws PeripheralConfigurationException if the driver does not support the configuration or
+		 * an I/O error occurs while configuring the channel
+		 */
+		void applyTo(SerialChannel channel) throws PeripheralConfigurationException
+		{
+			channel.configure(baudRate, dataBits, parity, stopBits, flowControl);
+		}
+
+		@Override
+		public String toString()
+		{
+			return baudRate + " " + dataBits + "-" + parity + "-" + stopBits + ", flowControl=" +
+				flowControl;
+		}
+	}
+
+	/**
+	 * Opens ports one after another, keeping a fixed number of opens in flight.
+	 */
+	private static final class BulkOpener implements CompletionHandler<SerialChannel, Integer>
+	{
+		private final List<SerialPort> ports;
+		private final List<SettableFuture<SerialChannel>> results;
+		private final PeripheralChannelGroup group;
+		private final long timeout;
+		private final TimeUnit unit;
+		private final Configuration configuration;
+		/**
+		 * The index of the next port to open.
+		 */
+		private final AtomicInteger next = new AtomicInteger();
+
+		/**
+		 * Creates a new BulkOpener.
+		 *
+		 * @param ports the ports to open
+		 * @param results the outcome of opening each port
+		 * @param group the group to open the ports in
+		 * @param timeout the minimum amount of time to wait for each port to be released
+		 * @param unit the unit of timeout
+		 * @param configuration the configuration to apply to each port, or null to leave the ports as they
+		 * are
+		 */
+		BulkOpener(List<SerialPort> ports, List<SettableFuture<SerialChannel>> results,
+			PeripheralChannelGroup group, long timeout, TimeUnit unit, Configuration configuration)
+		{
+			this.ports = ports;
+			this.results = results;
+			this.group = group;
+			this.timeout = timeout;
+			this.unit = unit;
+			this.configuration = configuration;
+		}
+
+		/**
+		 * Opens the next port, if any.
+		 */
+		public void openNext()
+		{
+			int index = next.getAndIncrement();
+			if (index >= ports.size())
+				return;
+			try
+			{
+				ports.get(index).openAsync(group, timeout, unit, configuration, index, this);
+			}
+			catch (RuntimeException e)
+			{
+				failed(e, index);
+			}
+		}
+
+		@Override
+		public void completed(SerialChannel result, Integer index)
+		{
+			results.get(index).set(result);
+			openNext();
+		}
+
+		@Override
+		public void failed(Throwable t, Integer index)
+		{
+			results.get(index).setException(t);
+			openNext();
+		}
+	}
+
+	/**
+	 * The number of milliseconds between checks of a port that is being waited upon.
+	 */
+	private static final long RELEASE_POLL_INTERVAL = 100;
 	private final String name;
 
+	/**
+	 * Checks ports that are being waited upon. Each check scans the system once on behalf of all the
+	 * waits. The thread is only created on first use.
+	 */
+	private static final class ReleaseWatcher implements Runnable
+	{
+		static final ReleaseWatcher INSTANCE = new ReleaseWatcher();
+		private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jperipheral-release-watcher").build());
+		/**
+		 * The waits to check next. Only accessed by the executor's thread.
+		 */
+		private final List<ReleaseWait<?>> waits = new ArrayList<>();
+
+		/**
+		 * Checks a port periodically until its wait is over.
+		 *
+		 * @param wait the wait
+		 */
+		public void add(final ReleaseWait<?> wait)
+		{
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					waits.add(wait);
+					if (waits.size() == 1)
+						executor.schedule(ReleaseWatcher.this, RELEASE_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				}
+			});
+		}
+
+		/**
+		 * Runs a task once {@value SerialPort#RELEASE_POLL_INTERVAL} milliseconds have elapsed. The task
+		 * must not block the watcher's thread.
+		 *
+		 * @param task the task
+		 */
+		public void schedule(Runnable task)
+		{
+			executor.schedule(task, RELEASE_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public void run()
+		{
+			long now = System.nanoTime();
+			List<ReleaseWait<?>> pending = new ArrayList<>(waits.size());
+			for (Iterator<ReleaseWait<?>> i = waits.iterator(); i.hasNext();)
+			{
+				ReleaseWait<?> wait = i.next();
+				if (wait.isDue(now))
+				{
+					pending.add(wait);
+					i.remove();
+				}
+			}
+			String[] names = new String[pending.size()];
+			for (int i = 0; i < names.length; ++i)
+				names[i] = pending.get(i).getName();
+			long[] owners;
+			try
+			{
+				owners = SerialChannel.nativeGetPortOwners(names);
+			}
+			catch (RuntimeException e)
+			{
+				for (ReleaseWait<?> wait: pending)
+					wait.failed(e);
+				return;
+			}
+			for (int i = 0; i < owners.length; ++i)
+			{
+				ReleaseWait<?> wait = pending.get(i);
+				if (!wait.update(owners[i]))
+					waits.add(wait);
+			}
+			if (!waits.isEmpty())
+				executor.schedule(this, RELEASE_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * A handler that is waiting for the port to be released.
+	 *
+	 * @param <A> the attachment type
+	 */
+	private final class ReleaseWait<A>
+	{
+		private final PeripheralChannelGroup group;
+		private final long start;
+		private final long timeout;
+		private final long firstCheck;
+		private final A attachment;
+		private final CompletionHandler<Void, ? super A> handler;
+		private final CompletionHandler<Void, A> target;
+
+		/**
+		 * Creates a new ReleaseWait.
+		 *
+		 * @param group the group whose executor invokes the handler
+		 * @param start the value of {@link System#nanoTime()} when the wait began
+		 * @param timeout the number of nanoseconds after which the handler is notified even if the port
+		 * is still held. {@code Long.MAX_VALUE} means "wait forever".
+		 * @param firstCheck the value of {@link System#nanoTime()} before which the port is not checked
+		 * @param attachment the object to attach to the operation
+		 * @param handler the handler to notify once the port is released
+		 * @param target the handler, invoked by the group's executor
+		 */
+		ReleaseWait(PeripheralChannelGroup group, long start, long timeout, long firstCheck,
+			A attachment, CompletionHandler<Void, ? super A> handler, CompletionHandler<Void, A> target)
+		{
+			this.group = group;
+			this.start = start;
+			this.timeout = timeout;
+			this.firstCheck = firstCheck;
+			this.attachment = attachment;
+			this.handler = handler;
+			this.target = target;
+		}
+
+		/**
+		 * Returns the name of the port.
+		 *
+		 * @return the name of the port
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * Indicates if the port may be checked.
+		 *
+		 * @param now the value of {@link System#nanoTime()}
+		 * @return true if the port may be checked
+		 */
+		public boolean isDue(long now)
+		{
+			return now - firstCheck >= 0;
+		}
+
+		/**
+		 * Notifies the handler if the wait is over.
+		 *
+		 * @param owner the process that holds the port, -1 if no process was found, or
+		 * {@link SerialChannel#PORT_NOT_FOUND} if the port does not exist
+		 * @return true if the handler was notified
+		 */
+		public boolean update(long owner)
+		{
+			if (group.isShutdown())
+			{
+				// The group's executor no longer accepts tasks
+				handler.failed(new ShutdownChannelGroupException(), attachment);
+				return true;
+			}
+			if (owner == SerialChannel.PORT_NOT_FOUND)
+			{
+				target.failed(new PeripheralNotFoundException(name, null), attachment);
+				return true;
+			}
+			if (owner == -1 || System.nanoTime() - start >= timeout)
+			{
+				target.completed(null, attachment);
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Notifies the handler that the port could not be checked.
+		 *
+		 * @param t the cause of the failure
+		 */
+		public void failed(Throwable t)
+		{
+			if (group.isShutdown())
+				handler.failed(new ShutdownChannelGroupException(), attachment);
+			else
+				target.failed(t, attachment);
+		}
+	}
+
 	/**
 	 * Creates a new SerialPort.
 	 *
-	 * @param name the port name
+	 * @param name the port name (e.g. "COM1" under Windows, "ttyUSB0" or "/dev/ttyUSB0" under Linux)
 	 * @throws NullPointerException if name is null
 	 * @throws IllegalStateException if name.trim().isEmpty()
 	 */
@@ -284,6 +687,301 @@ public final class SerialPort implements Peripheral
 		return result;
 	}
 
+	/**
+	 * Notifies a handler once no other process holds the port. The port is checked every
+	 * {@value #RELEASE_POLL_INTERVAL} milliseconds without opening it, and without tying up a thread
+	 * of the group. Processes that belong to other users can only be detected if they locked the port,
+	 * so opening the port may still fail with {@link PeripheralInUseException}.
+	 *
+	 * @param <A> the attachment type
+	 * @param group the group whose executor invokes the handler
+	 * @param attachment the object to attach to the operation; can be null
+	 * @param handler the handler to notify once the port is released
+	 * @throws NullPointerException if group or handler are null
+	 * @throws UnsupportedOperationException if the platform cannot identify the process that holds a
+	 * port
+	 */
+	public <A> void awaitRelease(final PeripheralChannelGroup group, final A attachment,
+		final CompletionHandler<Void, ? super A> handler)
+	{
+		Preconditions.checkNotNull(group, "group may not be null");
+		Preconditions.checkNotNull(handler, "handler may not be null");
+
+		CompletionHandler<Void, A> target = new CompletionHandlerExecutor<Void, A>(handler,
+			group.executor());
+		// Fail right away if the platform cannot identify the owner
+		long start = System.nanoTime();
+		checkReleased(new ReleaseWait<>(group, start, Long.MAX_VALUE, start, attachment, handler,
+			target));
+	}
+
+	/**
+	 * Waits for no other process to hold the port.
+	 *
+	 * @param group the group whose executor completes the future
+	 * @return a Future that completes once the port is released
+	 * @throws NullPointerException if group is null
+	 * @throws UnsupportedOperationException if the platform cannot identify the process that holds a
+	 * port
+	 * @see #awaitRelease(PeripheralChannelGroup, Object, CompletionHandler)
+	 */
+	public Future<Void> awaitRelease(PeripheralChannelGroup group)
+	{
+		SettableFuture<Void> result = SettableFuture.create();
+		awaitRelease(group, null, new CompletionHandlerToFuture<>(result));
+		return result;
+	}
+
+	/**
+	 * Opens the port without blocking the calling thread. The port is opened, locked and configured by
+	 * the group's executor. If another process holds the port, the executor is released while waiting
+	 * for it to let go, as described in {@link #awaitRelease(PeripheralChannelGroup, Object,
+	 * CompletionHandler) awaitRelease}. Platforms that cannot identify the process that holds a port
+	 * retry the open every {@value #RELEASE_POLL_INTERVAL} milliseconds instead.
+	 * <p>
+	 * Each attempt fails fast if the port is held, so the executor's threads never wait for another
+	 * process. Under a group made up of
+	 * {@link PeripheralChannelGroup#withEventLoops(int, PeripheralChannelGroup.IoEngine) event loops},
+	 * the other channels on the same loop are only held up while the port is opened and configured.
+	 *
+	 * @param <A> the attachment type
+	 * @param group the group to open the channel in
+	 * @param timeout the minimum amount of time to wait if the port is locked by another process
+	 * before giving up
+	 * @param unit the unit of timeout
+	 * @param configuration the configuration to apply to the channel, or null to leave the port as it
+	 * is
+	 * @param attachment the object to attach to the operation; can be null
+	 * @param handler the handler to notify once the channel is open and configured. The channel is
+	 * closed if it cannot be configured.
+	 * @throws NullPointerException if group, unit or handler are null
+	 * @throws IllegalArgumentException if timeout is negative
+	 * @throws ShutdownChannelGroupException if the group is shut down
+	 */
+	public <A> void openAsync(final PeripheralChannelGroup group, long timeout, TimeUnit unit,
+		final Configuration configuration, final A attachment,
+		final CompletionHandler<SerialChannel, ? super A> handler)
+	{
+		Preconditions.checkNotNull(group, "group may not be null");
+		Preconditions.checkNotNull(unit, "unit may not be null");
+		Preconditions.checkArgument(timeout >= 0, "timeout may not be negative");
+		Preconditions.checkNotNull(handler, "handler may not be null");
+		if (group.isShutdown())
+			throw new ShutdownChannelGroupException();
+
+		final long start = System.nanoTime();
+		final long timeoutNanos = unit.toNanos(timeout);
+		group.executor().execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				tryOpen(group, start, timeoutNanos, configuration, attachment, handler);
+			}
+		});
+	}
+
+	/**
+	 * Opens the port without blocking the calling thread.
+	 *
+	 * @param group the group to open the channel in
+	 * @param timeout the minimum amount of time to wait if the port is locked by another process
+	 * before giving up
+	 * @param unit the unit of timeout
+	 * @param configuration the configuration to apply to the channel, or null to leave the port as it
+	 * is
+	 * @return a Future representing the open and configured channel
+	 * @throws NullPointerException if group or unit are null
+	 * @throws IllegalArgumentException if timeout is negative
+	 * @throws ShutdownChannelGroupException if the group is shut down
+	 * @see #openAsync(PeripheralChannelGroup, long, TimeUnit, Configuration, Object,
+	 * CompletionHandler)
+	 */
+	public Future<SerialChannel> openAsync(PeripheralChannelGroup group, long timeout, TimeUnit unit,
+		Configuration configuration)
+	{
+		SettableFuture<SerialChannel> result = SettableFuture.create();
+		openAsync(group, timeout, unit, configuration, null, new CompletionHandlerToFuture<>(result));
+		return result;
+	}
+
+	/**
+	 * Opens many ports concurrently without blocking the calling thread. At most {@code parallelism}
+	 * ports are opened at a time, so a few busy ports do not hold up the rest, and the group's executor
+	 * is not flooded.
+	 *
+	 * @param ports the ports to open
+	 * @param group the group to open the channels in
+	 * @param timeout the minimum amount of time to wait for each port if it is locked by another
+	 * process before giving up
+	 * @param unit the unit of timeout
+	 * @param configuration the configuration to apply to each channel, or null to leave the ports as
+	 * they are
+	 * @param parallelism the maximum number of ports to open at a time
+	 * @return a Future per port, in the same order as {@code ports}, representing the open and
+	 * configured channel
+	 * @throws NullPointerException if ports, group or unit are null, or if ports contains null
+	 * @throws IllegalArgumentException if timeout is negative or parallelism is not positive
+	 * @see #openAsync(PeripheralChannelGroup, long, TimeUnit, Configuration, Object,
+	 * CompletionHandler)
+	 */
+	public static List<Future<SerialChannel>> openAllAsync(List<SerialPort> ports,
+		PeripheralChannelGroup group, long timeout, TimeUnit unit, Configuration configuration,
+		int parallelism)
+	{
+		Preconditions.checkNotNull(ports, "ports may not be null");
+		Preconditions.checkNotNull(group, "group may not be null");
+		Preconditions.checkNotNull(unit, "unit may not be null");
+		Preconditions.checkArgument(timeout >= 0, "timeout may not be negative");
+		Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+		for (SerialPort port: ports)
+			Preconditions.checkNotNull(port, "ports may not contain null");
+
+		List<SerialPort> snapshot = new ArrayList<>(ports);
+		List<SettableFuture<SerialChannel>> results = new ArrayList<>(snapshot.size());
+		for (int i = 0; i < snapshot.size(); ++i)
+			results.add(SettableFuture.<SerialChannel>create());
+		BulkOpener opener = new BulkOpener(snapshot, results, group, timeout, unit, configuration);
+		for (int i = 0; i < parallelism && i < snapshot.size(); ++i)
+			opener.openNext();
+		return Collections.<Future<SerialChannel>>unmodifiableList(results);
+	}
+
+	/**
+	 * Attempts to open the port, and waits for it to be released if another process holds it. Invoked
+	 * by the group's executor.
+	 *
+	 * @param <A> the attachment type
+	 * @param group the group to open the channel in
+	 * @param start the value of {@link System#nanoTime()} when the operation began
+	 * @param timeout the number of nanoseconds to wait for the port to be released
+	 * @param configuration the configuration to apply to the channel, or null
+	 * @param attachment the object to attach to the operation
+	 * @param handler the handler to notify once the channel is open and configured
+	 */
+	private <A> void tryOpen(final PeripheralChannelGroup group, final long start,
+		final long timeout, final Configuration configuration, final A attachment,
+		final CompletionHandler<SerialChannel, ? super A> handler)
+	{
+		SerialChannel channel;
+		try
+		{
+			channel = newAsynchronousChannel(group);
+		}
+		catch (PeripheralInUseException e)
+		{
+			if (System.nanoTime() - start >= timeout)
+			{
+				handler.failed(e, attachment);
+				return;
+			}
+			// Retry once the port is released or the timeout elapses, whichever comes first
+			final CompletionHandler<Void, A> retry = new CompletionHandler<Void, A>()
+			{
+				@Override
+				public void completed(Void result, A attachment)
+				{
+					tryOpen(group, start, timeout, configuration, attachment, handler);
+				}
+
+				@Override
+				public void failed(Throwable t, A attachment)
+				{
+					handler.failed(t, attachment);
+				}
+			};
+			final CompletionHandler<Void, A> target = new CompletionHandlerExecutor<Void, A>(retry,
+				group.executor());
+			try
+			{
+				// Fail right away if the platform cannot identify the owner
+				SerialChannel.nativeGetPortOwners(new String[0]);
+
+				// The holder may be invisible to nativeGetPortOwners(), in which case the port looks
+				// released right away. Wait before retrying so that the open does not spin.
+				long firstCheck = System.nanoTime() +
+					TimeUnit.MILLISECONDS.toNanos(RELEASE_POLL_INTERVAL);
+				ReleaseWatcher.INSTANCE.add(new ReleaseWait<>(group, start, timeout, firstCheck,
+					attachment, retry, target));
+				return;
+			}
+			catch (UnsupportedOperationException unused)
+			{
+				// The platform cannot tell when the port is released. Opening the port with a timeout would
+				// block the group's thread, so poll it instead.
+				ReleaseWatcher.INSTANCE.schedule(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if (group.isShutdown())
+							handler.failed(new ShutdownChannelGroupException(), attachment);
+						else
+							target.completed(null, attachment);
+					}
+				});
+				return;
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			handler.failed(e, attachment);
+			return;
+		}
+		if (configuration != null)
+		{
+			try
+			{
+				configuration.applyTo(channel);
+			}
+			catch (IOException | RuntimeException e)
+			{
+				try
+				{
+					channel.close();
+				}
+				catch (IOException suppressed)
+				{
+					e.addSuppressed(suppressed);
+				}
+				handler.failed(e, attachment);
+				return;
+			}
+		}
+		handler.completed(channel, attachment);
+	}
+
+	/**
+	 * Notifies a waiting handler if the port is released, and hands the wait to the
+	 * {@link ReleaseWatcher} otherwise.
+	 *
+	 * @param wait the wait
+	 * @throws UnsupportedOperationException if the platform cannot identify the process that holds a
+	 * port
+	 */
+	private void checkReleased(ReleaseWait<?> wait)
+	{
+		long[] owners;
+		try
+		{
+			owners = SerialChannel.nativeGetPortOwners(new String[]
+				{
+					name
+				});
+		}
+		catch (UnsupportedOperationException e)
+		{
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			wait.failed(e);
+			return;
+		}
+		if (!wait.update(owners[0]))
+			ReleaseWatcher.INSTANCE.add(wait);
+	}
+
 	@Override
 	public String getName()
 	{
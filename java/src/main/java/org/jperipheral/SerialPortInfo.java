@@ -0,0 +1,150 @@
+package org.jperipheral;
+
+import com.google.common.base.Preconditions;
+import java.util.Objects;
+
+/**
+ * Describes a serial port that is attached to the system.
+ *
+ * @author Gili Tzabari
+ */
+public final class SerialPortInfo
+{
+	private final SerialPort port;
+	private final String driver;
+	private final String vendorId;
+	private final String productId;
+	private final String manufacturer;
+	private final String product;
+	private final String serialNumber;
+
+	/**
+	 * Creates a new SerialPortInfo.
+	 *
+	 * @param port the serial port
+	 * @param driver the name of the kernel driver bound to the port, null if unknown
+	 * @param vendorId the USB vendor id, null if the port is not a USB device
+	 * @param productId the USB product id, null if the port is not a USB device
+	 * @param manufacturer the USB manufacturer string, null if unknown
+	 * @param product the USB product string, null if unknown
+	 * @param serialNumber the USB serial number, null if unknown
+	 * @throws NullPointerException if port is null
+	 */
+	SerialPortInfo(SerialPort port, String driver, String vendorId, String productId,
+		String manufacturer, String product, String serialNumber)
+	{
+		Preconditions.checkNotNull(port, "port may not be null");
+
+		this.port = port;
+		this.driver = driver;
+		this.vendorId = vendorId;
+		this.productId = productId;
+		this.manufacturer = manufacturer;
+		this.product = product;
+		this.serialNumber = serialNumber;
+	}
+
+	/**
+	 * Returns the serial port.
+	 *
+	 * @return the serial port
+	 */
+	public SerialPort getPort()
+	{
+		return port;
+	}
+
+	/**
+	 * Returns the name of the kernel driver bound to the port (e.g. "serial8250", "ftdi_sio" or
+	 * "cdc_acm").
+	 *
+	 * @return null if unknown
+	 */
+	public String getDriver()
+	{
+		return driver;
+	}
+
+	/**
+	 * Returns the USB vendor id (e.g. "0403").
+	 *
+	 * @return null if the port is not a USB device
+	 */
+	public String getVendorId()
+	{
+		return vendorId;
+	}
+
+	/**
+	 * Returns the USB product id (e.g. "6001").
+	 *
+	 * @return null if the port is not a USB device
+	 */
+	public String getProductId()
+	{
+		return productId;
+	}
+
+	/**
+	 * Returns the USB manufacturer string.
+	 *
+	 * @return null if unknown
+	 */
+	public String getManufacturer()
+	{
+		return manufacturer;
+	}
+
+	/**
+	 * Returns the USB product string.
+	 *
+	 * @return null if unknown
+	 */
+	public String getProduct()
+	{
+		return product;
+	}
+
+	/**
+	 * Returns the USB serial number.
+	 *
+	 * @return null if unknown
+	 */
+	public String getSerialNumber()
+	{
+		return serialNumber;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof SerialPortInfo))
+			return false;
+		final SerialPortInfo other = (SerialPortInfo) o;
+		return port.equals(other.port) && Objects.equals(driver, other.driver) &&
+			Objects.equals(vendorId, other.vendorId) && Objects.equals(productId, other.productId) &&
+			Objects.equals(manufacturer, other.manufacturer) && Objects.equals(product, other.product) &&
+			Objects.equals(serialNumber, other.serialNumber);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(port, driver, vendorId, productId, manufacturer, product, serialNumber);
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder result = new StringBuilder(port.getName());
+		result.append("[driver=").append(driver);
+		if (vendorId != null)
+			result.append(", usb=").append(vendorId).append(':').append(productId);
+		if (product != null)
+			result.append(", product=").append(product);
+		if (serialNumber != null)
+			result.append(", serial=").append(serialNumber);
+		result.append(']');
+		return result.toString();
+	}
+}
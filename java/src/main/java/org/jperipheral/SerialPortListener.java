@@ -0,0 +1,24 @@
+package org.jperipheral;
+
+/**
+ * Listens for serial ports being attached to or detached from the system.
+ *
+ * @author Gili Tzabari
+ * @see Peripherals#addListener(SerialPortListener)
+ */
+public interface SerialPortListener
+{
+	/**
+	 * Invoked after a serial port is attached to the system.
+	 *
+	 * @param port the port
+	 */
+	void serialPortAdded(SerialPortInfo port);
+
+	/**
+	 * Invoked after a serial port is detached from the system.
+	 *
+	 * @param port the port
+	 */
+	void serialPortRemoved(SerialPortInfo port);
+}
@@ -0,0 +1,193 @@
+package org.jperipheral;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Enumerates the serial ports that are attached to a Linux system by reading
+ * {@code /sys/class/tty}.
+ *
+ * @author Gili Tzabari
+ */
+final class SysfsScanner
+{
+	/**
+	 * The name prefixes of serial ports.
+	 */
+	private static final String[] SERIAL_PORT_PREFIXES =
+	{
+		"ttyS", "ttyUSB", "ttyACM"
+	};
+	/**
+	 * The number of directories to search above a USB interface for the device attributes.
+	 */
+	private static final int USB_DEVICE_DEPTH = 3;
+	/**
+	 * The value of a port's {@code type} attribute if no UART is present.
+	 */
+	private static final String PORT_UNKNOWN = "0";
+	private final Path sysClassTty;
+	private final Path devices;
+
+	/**
+	 * Creates a new SysfsScanner.
+	 *
+	 * @param sysClassTty the path of {@code /sys/class/tty}
+	 * @param devices the path of {@code /dev}
+	 * @throws NullPointerException if sysClassTty or devices are null
+	 */
+	SysfsScanner(Path sysClassTty, Path devices)
+	{
+		Preconditions.checkNotNull(sysClassTty, "sysClassTty may not be null");
+		Preconditions.checkNotNull(devices, "devices may not be null");
+
+		this.sysClassTty = sysClassTty;
+		this.devices = devices;
+	}
+
+	/**
+	 * Indicates if a device name denotes a serial port.
+	 *
+	 * @param name the device name (e.g. "ttyUSB0")
+	 * @return true if the device is a serial port
+	 */
+	static boolean isSerialPortName(String name)
+	{
+		for (String prefix: SERIAL_PORT_PREFIXES)
+		{
+			if (name.length() > prefix.length() && name.startsWith(prefix) &&
+				Character.isDigit(name.charAt(prefix.length())))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the serial ports that are attached to the system, sorted by name.
+	 *
+	 * @return the serial ports that are attached to the system
+	 * @throws IOException if an I/O error occurs while reading sysfs
+	 */
+	List<SerialPortInfo> scan() throws IOException
+	{
+		List<SerialPortInfo> result = new ArrayList<>();
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(sysClassTty))
+		{
+			for (Path entry: entries)
+			{
+				String name = entry.getFileName().toString();
+				if (!isSerialPortName(name))
+					continue;
+				SerialPortInfo info = getInfo(entry);
+				if (info != null)
+					result.add(info);
+			}
+		}
+		Collections.sort(result, new Comparator<SerialPortInfo>()
+		{
+			@Override
+			public int compare(SerialPortInfo first, SerialPortInfo second)
+			{
+				return first.getPort().getName().compareTo(second.getPort().getName());
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Describes a single port.
+	 *
+	 * @param entry the port's entry in {@code /sys/class/tty}
+	 * @return null if the entry does not correspond to a physical port
+	 */
+	private SerialPortInfo getInfo(Path entry)
+	{
+		Path device = entry.resolve("device");
+		if (!Files.exists(device))
+		{
+			// Virtual terminals do not have a backing device
+			return null;
+		}
+		// The 8250 driver registers a fixed number of ports whether or not a UART is present
+		if (PORT_UNKNOWN.equals(readAttribute(entry.resolve("type"))))
+			return null;
+		String name = entry.getFileName().toString();
+		Path node = devices.resolve(name);
+		if (!Files.exists(node))
+		{
+			// The device node is removed before the sysfs entry. Ignoring the port until then keeps
+			// the result consistent with the events observed on the devices directory.
+			return null;
+		}
+		SerialPort port = new SerialPort(node.toString());
+
+		String driver = null;
+		Path driverLink = device.resolve("driver");
+		try
+		{
+			if (Files.exists(driverLink))
+				driver = driverLink.toRealPath().getFileName().toString();
+		}
+		catch (IOException unused)
+		{
+			// The device was removed while we were reading it
+			return null;
+		}
+
+		// USB-serial adapters expose their attributes on the USB device, above the interface
+		Path usbDevice;
+		try
+		{
+			usbDevice = device.toRealPath();
+		}
+		catch (IOException unused)
+		{
+			return null;
+		}
+		for (int i = 0; i < USB_DEVICE_DEPTH && usbDevice != null; ++i)
+		{
+			if (Files.exists(usbDevice.resolve("idVendor")))
+			{
+				return new SerialPortInfo(port, driver, readAttribute(usbDevice.resolve("idVendor")),
+					readAttribute(usbDevice.resolve("idProduct")),
+					readAttribute(usbDevice.resolve("manufacturer")),
+					readAttribute(usbDevice.resolve("product")), readAttribute(usbDevice.resolve("serial")));
+			}
+			usbDevice = usbDevice.getParent();
+		}
+		return new SerialPortInfo(port, driver, null, null, null, null, null);
+	}
+
+	/**
+	 * Reads a sysfs attribute.
+	 *
+	 * @param path the path of the attribute
+	 * @return null if the attribute does not exist or could not be read
+	 */
+	private static String readAttribute(Path path)
+	{
+		if (!Files.isRegularFile(path))
+			return null;
+		try
+		{
+			List<String> lines = Files.readAllLines(path, Charsets.UTF_8);
+			if (lines.isEmpty())
+				return null;
+			return lines.get(0).trim();
+		}
+		catch (IOException unused)
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package org.jperipheral;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The subset of the Telnet protocol needed to tunnel a serial port over TCP.
+ *
+ * @author Gili Tzabari
+ * @see "http://tools.ietf.org/html/rfc854"
+ * @see "http://tools.ietf.org/html/rfc2217"
+ */
+final class Telnet
+{
+	/**
+	 * Interpret as command.
+	 */
+	static final byte IAC = (byte) 255;
+	static final byte DONT = (byte) 254;
+	static final byte DO = (byte) 253;
+	static final byte WONT = (byte) 252;
+	static final byte WILL = (byte) 251;
+	/**
+	 * Subnegotiation begin.
+	 */
+	static final byte SB = (byte) 250;
+	/**
+	 * Subnegotiation end.
+	 */
+	static final byte SE = (byte) 240;
+	/**
+	 * The binary transmission option.
+	 */
+	static final byte BINARY = 0;
+	/**
+	 * The suppress go-ahead option.
+	 */
+	static final byte SUPPRESS_GO_AHEAD = 3;
+	/**
+	 * The RFC 2217 com port control option.
+	 */
+	static final byte COM_PORT_OPTION = 44;
+	/**
+	 * The offset added to com port commands sent by the server.
+	 */
+	static final int SERVER_OFFSET = 100;
+	static final byte SET_BAUDRATE = 1;
+	static final byte SET_DATASIZE = 2;
+	static final byte SET_PARITY = 3;
+	static final byte SET_STOPSIZE = 4;
+	static final byte SET_CONTROL = 5;
+	/**
+	 * The maximum length of a subnegotiation that is retained.
+	 */
+	private static final int MAX_SUBNEGOTIATION = 64;
+
+	/**
+	 * Receives the commands embedded in the inbound stream.
+	 */
+	interface Handler
+	{
+		/**
+		 * Invoked when the peer sends WILL, WONT, DO or DONT.
+		 *
+		 * @param verb the verb
+		 * @param option the option
+		 */
+		void negotiate(byte verb, byte option);
+
+		/**
+		 * Invoked when the peer sends a subnegotiation.
+		 *
+		 * @param option the option
+		 * @param data the data between the option and {@code IAC SE}, unescaped
+		 */
+		void subnegotiate(byte option, ByteBuffer data);
+	}
+
+	/**
+	 * Separates data from the commands embedded in the inbound stream.
+	 */
+	static final class Decoder
+	{
+		/**
+		 * The decoder state.
+		 */
+		private enum State
+		{
+			DATA, IAC, NEGOTIATION, SUBNEGOTIATION, SUBNEGOTIATION_IAC
+		}
+		private State state = State.DATA;
+		private byte verb;
+		private final ByteBuffer subnegotiation = ByteBuffer.allocate(MAX_SUBNEGOTIATION);
+
+		/**
+		 * Decodes all of the source, so that the commands it contains are processed even if the target
+		 * is full. Data goes into the target until it fills up, and into the overflow after that.
+		 *
+		 * @param source the bytes received from the peer
+		 * @param target the buffer to write data into
+		 * @param overflow the buffer to write data into once target is full. Data goes into the target
+		 * only while the overflow is empty.
+		 * @param handler the handler to notify of commands
+		 * @throws BufferOverflowException if the overflow fills up as well
+		 */
+		void decode(ByteBuffer source, ByteBuffer target, ByteBuffer overflow, Handler handler)
+		{
+			while (source.hasRemaining())
+			{
+				byte value = source.get();
+				switch (state)
+				{
+					case DATA:
+					{
+						if (value == IAC)
+						{
+							state = State.IAC;
+							break;
+						}
+						put(value, target, overflow);
+						break;
+					}
+					case IAC:
+					{
+						switch (value)
+						{
+							case IAC:
+							{
+								state = State.DATA;
+								put(value, target, overflow);
+								break;
+							}
+							case WILL:
+							case WONT:
+							case DO:
+							case DONT:
+							{
+								verb = value;
+								state = State.NEGOTIATION;
+								break;
+							}
+							case SB:
+							{
+								subnegotiation.clear();
+								state = State.SUBNEGOTIATION;
+								break;
+							}
+							default:
+							{
+								// Ignore commands that have no effect on a binary stream (NOP, GA, etc)
+								state = State.DATA;
+								break;
+							}
+						}
+						break;
+					}
+					case NEGOTIATION:
+					{
+						state = State.DATA;
+						handler.negotiate(verb, value);
+						break;
+					}
+					case SUBNEGOTIATION:
+					{
+						if (value == IAC)
+							state = State.SUBNEGOTIATION_IAC;
+						else if (subnegotiation.hasRemaining())
+							subnegotiation.put(value);
+						break;
+					}
+					case SUBNEGOTIATION_IAC:
+					{
+						if (value == SE)
+						{
+							state = State.DATA;
+							subnegotiation.flip();
+							if (subnegotiation.hasRemaining())
+							{
+								byte option = subnegotiation.get();
+								handler.subnegotiate(option, subnegotiation.slice());
+							}
+							break;
+						}
+						state = State.SUBNEGOTIATION;
+						if (subnegotiation.hasRemaining())
+							subnegotiation.put(value);
+						break;
+					}
+					default:
+						throw new AssertionError(state);
+				}
+			}
+		}
+
+		/**
+		 * Writes a data byte, preserving the order of the data across the target and overflow.
+		 *
+		 * @param value the data byte
+		 * @param target the buffer to write data into
+		 * @param overflow the buffer to write data into once target is full
+		 * @throws BufferOverflowException if both buffers are full
+		 */
+		private static void put(byte value, ByteBuffer target, ByteBuffer overflow)
+		{
+			if (overflow.position() == 0 && target.hasRemaining())
+				target.put(value);
+			else
+				overflow.put(value);
+		}
+	}
+
+	/**
+	 * Copies data into the outbound stream, escaping bytes that would otherwise be interpreted as
+	 * commands. Stops when the source is exhausted or the target is full.
+	 *
+	 * @param source the data to send
+	 * @param target the outbound stream
+	 * @return the number of bytes consumed from source
+	 */
+	static int escape(ByteBuffer source, ByteBuffer target)
+	{
+		int start = source.position();
+		while (source.hasRemaining() && target.hasRemaining())
+		{
+			byte value = source.get(source.position());
+			if (value == IAC)
+			{
+				if (target.remaining() < 2)
+					break;
+				target.put(IAC);
+			}
+			target.put(value);
+			source.position(source.position() + 1);
+		}
+		return source.position() - start;
+	}
+
+	/**
+	 * Appends a negotiation to the outbound stream.
+	 *
+	 * @param target the outbound stream
+	 * @param verb WILL, WONT, DO or DONT
+	 * @param option the option
+	 */
+	static void negotiate(ByteBuffer target, byte verb, byte option)
+	{
+		target.put(IAC).put(verb).put(option);
+	}
+
+	/**
+	 * Appends a com port subnegotiation to the outbound stream.
+	 *
+	 * @param target the outbound stream
+	 * @param command the command
+	 * @param value the command value, in network byte order
+	 */
+	static void comPortCommand(ByteBuffer target, byte command, byte... value)
+	{
+		target.put(IAC).put(SB).put(COM_PORT_OPTION).put(command);
+		for (byte b: value)
+		{
+			if (b == IAC)
+				target.put(IAC);
+			target.put(b);
+		}
+		target.put(IAC).put(SE);
+	}
+
+	/**
+	 * Prevent construction.
+	 */
+	private Telnet()
+	{
+	}
+}
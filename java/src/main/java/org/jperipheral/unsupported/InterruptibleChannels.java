@@ -20,6 +20,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.jperipheral.AsynchronousCharChannel;
+import org.jperipheral.SerialChannel;
 
 /**
  * @author Gili Tzabari
@@ -81,6 +82,12 @@ public class InterruptibleChannels
 		{
 			if (target.isReadOnly())
 				throw new IllegalArgumentException("target may not be read-only");
+			if (delegate instanceof SerialChannel)
+			{
+				// Times out without closing the channel
+				((SerialChannel) delegate).read(target, timeout, unit, attachment, handler);
+				return;
+			}
 			// TODO: interrupted should persist across read/write operations
 			final AtomicBoolean interrupted = new AtomicBoolean();
 			Future<Void> timeoutTimer;
@@ -99,6 +106,12 @@ public class InterruptibleChannels
 			throws IllegalArgumentException, WritePendingException, ShutdownChannelGroupException,
 			UnsupportedOperationException
 		{
+			if (delegate instanceof SerialChannel)
+			{
+				// Times out without closing the channel
+				((SerialChannel) delegate).write(source, timeout, unit, attachment, handler);
+				return;
+			}
 			final AtomicBoolean interrupted = new AtomicBoolean();
 			Future<Void> timeoutTimer;
 			if (timeout == Long.MAX_VALUE)
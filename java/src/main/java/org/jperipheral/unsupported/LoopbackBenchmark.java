@@ -0,0 +1,118 @@
+package org.jperipheral.unsupported;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.jperipheral.AsynchronousByteCharChannel;
+import org.jperipheral.LoopbackChannel;
+import org.jperipheral.PeripheralChannelGroup;
+
+/**
+ * Measures the latency and throughput of AsynchronousByteCharChannel over an in-memory loopback,
+ * excluding the cost of the kernel.
+ *
+ * @author Gili Tzabari
+ */
+public class LoopbackBenchmark
+{
+	private static final int ROUND_TRIPS = 100000;
+	private static final int BULK_BYTES = 256 * 1024 * 1024;
+	private static final int RING_CAPACITY = 64 * 1024;
+	/**
+	 * Blocking reads and writes each tie up a thread until they complete.
+	 */
+	private final ExecutorService executor =
+		Executors.newFixedThreadPool(4, new ThreadFactoryBuilder().setDaemon(true).
+		setNameFormat(LoopbackBenchmark.class.getSimpleName() + "-%d").build());
+	private final PeripheralChannelGroup channelGroup = new PeripheralChannelGroup(executor);
+
+	public static void main(String[] args) throws Exception
+	{
+		new LoopbackBenchmark().run();
+	}
+
+	private void run() throws Exception
+	{
+		try (LoopbackChannel first = LoopbackChannel.open(channelGroup, RING_CAPACITY, 0))
+		{
+			LoopbackChannel second = first.getPeer();
+			measureLatency(first, second);
+			measureThroughput(first, second);
+		}
+		finally
+		{
+			channelGroup.shutdownNow();
+		}
+	}
+
+	/**
+	 * Measures the round-trip time of a line sent from one end to the other and back.
+	 *
+	 * @param first one end
+	 * @param second the other end
+	 * @throws Exception if an error occurs
+	 */
+	private void measureLatency(LoopbackChannel first, LoopbackChannel second) throws Exception
+	{
+		Charset charset = Charset.forName("UTF-8");
+		AsynchronousByteCharChannel firstChars = AsynchronousByteCharChannel.open(first, charset,
+			channelGroup);
+		AsynchronousByteCharChannel secondChars = AsynchronousByteCharChannel.open(second, charset,
+			channelGroup);
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUND_TRIPS; ++i)
+		{
+			String line = i + ": 0123456789\n";
+			firstChars.write(CharBuffer.wrap(line)).get(30, TimeUnit.SECONDS);
+			String echo = secondChars.readLine().get(30, TimeUnit.SECONDS);
+			secondChars.write(CharBuffer.wrap(echo + "\n")).get(30, TimeUnit.SECONDS);
+			firstChars.readLine().get(30, TimeUnit.SECONDS);
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println("Round-trip latency: " + TimeUnit.NANOSECONDS.toMicros(elapsed / ROUND_TRIPS) +
+			" us");
+	}
+
+	/**
+	 * Measures the number of bytes per second transferred from one end to the other.
+	 *
+	 * @param first one end
+	 * @param second the other end
+	 * @throws Exception if an error occurs
+	 */
+	private void measureThroughput(final LoopbackChannel first, LoopbackChannel second)
+		throws Exception
+	{
+		final ByteBuffer source = ByteBuffer.allocate(4096);
+		ByteBuffer target = ByteBuffer.allocate(4096);
+		long start = System.nanoTime();
+		executor.submit(new Callable<Void>()
+		{
+			@Override
+			public Void call() throws Exception
+			{
+				for (int written = 0; written < BULK_BYTES;)
+				{
+					source.clear();
+					source.limit(Math.min(source.capacity(), BULK_BYTES - written));
+					while (source.hasRemaining())
+						written += first.write(source).get();
+				}
+				return null;
+			}
+		});
+		for (int read = 0; read < BULK_BYTES;)
+		{
+			target.clear();
+			read += second.read(target).get(30, TimeUnit.SECONDS);
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println("Throughput: " + (BULK_BYTES * 1000L / Math.max(1, elapsed / 1000000L)) +
+			" bytes/second");
+	}
+}
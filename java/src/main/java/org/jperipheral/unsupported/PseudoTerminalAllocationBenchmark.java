@@ -0,0 +1,105 @@
+package org.jperipheral.unsupported;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.jperipheral.PeripheralChannelGroup;
+import org.jperipheral.PseudoTerminalChannel;
+import org.jperipheral.SerialChannel;
+
+/**
+ * Measures the memory allocated by SerialChannel when transferring heap buffers over a
+ * pseudo-terminal, without requiring any hardware.
+ * <p>
+ * Direct buffers are only reclaimed when the garbage collector runs, so a channel that allocates a
+ * direct buffer per operation shows up as a growing number of direct buffers.
+ *
+ * @author Gili Tzabari
+ */
+public class PseudoTerminalAllocationBenchmark
+{
+	private static final int WARMUP_TRANSFERS = 1000;
+	private static final int TRANSFERS = 100000;
+	private static final int BUFFER_SIZE = 512;
+	private final ExecutorService executor =
+		Executors.newFixedThreadPool(4, new ThreadFactoryBuilder().setDaemon(true).
+		setNameFormat(PseudoTerminalAllocationBenchmark.class.getSimpleName() + "-%d").build());
+	private final PeripheralChannelGroup channelGroup = new PeripheralChannelGroup(executor);
+
+	public static void main(String[] args) throws Exception
+	{
+		new PseudoTerminalAllocationBenchmark().run();
+	}
+
+	private void run() throws Exception
+	{
+		try (PseudoTerminalChannel master = PseudoTerminals.openRaw(channelGroup))
+		{
+			SerialChannel slave = master.getSlave();
+			ByteBuffer source = ByteBuffer.allocate(BUFFER_SIZE);
+			ByteBuffer target = ByteBuffer.allocate(BUFFER_SIZE);
+			transfer(master, slave, source, target, WARMUP_TRANSFERS);
+
+			BufferPoolMXBean directPool = getDirectPool();
+			long directBuffersBefore = directPool.getCount();
+			long directBytesBefore = directPool.getTotalCapacity();
+			transfer(master, slave, source, target, TRANSFERS);
+			long directBuffers = directPool.getCount() - directBuffersBefore;
+			long directBytes = directPool.getTotalCapacity() - directBytesBefore;
+			System.out.println("Direct buffers allocated per transfer: " + ((double) directBuffers /
+				TRANSFERS));
+			System.out.println("Direct bytes allocated per transfer: " + ((double) directBytes /
+				TRANSFERS));
+		}
+		finally
+		{
+			channelGroup.shutdownNow();
+		}
+	}
+
+	/**
+	 * Transfers heap buffers from the master side to the slave side.
+	 *
+	 * @param master the master side
+	 * @param slave the slave side
+	 * @param source the buffer to write from
+	 * @param target the buffer to read into
+	 * @param count the number of buffers to transfer
+	 * @throws Exception if an error occurs
+	 */
+	private void transfer(SerialChannel master, SerialChannel slave, ByteBuffer source,
+		ByteBuffer target, int count) throws Exception
+	{
+		for (int i = 0; i < count; ++i)
+		{
+			source.clear();
+			target.clear();
+			// The buffer is smaller than the pseudo-terminal's queue so it may be written in full before
+			// it is read
+			while (source.hasRemaining())
+				master.write(source).get(30, TimeUnit.SECONDS);
+			while (target.hasRemaining())
+				slave.read(target).get(30, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Returns the pool of direct buffers.
+	 *
+	 * @return the pool of direct buffers
+	 * @throws AssertionError if the pool is not found
+	 */
+	private static BufferPoolMXBean getDirectPool()
+	{
+		for (BufferPoolMXBean pool: ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+		{
+			if (pool.getName().equals("direct"))
+				return pool;
+		}
+		throw new AssertionError("Direct buffer pool not found");
+	}
+}
@@ -0,0 +1,117 @@
+package org.jperipheral.unsupported;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.jperipheral.AsynchronousByteCharChannel;
+import org.jperipheral.PeripheralChannelGroup;
+import org.jperipheral.PseudoTerminalChannel;
+import org.jperipheral.SerialChannel;
+
+/**
+ * Measures the latency and throughput of SerialChannel and AsynchronousByteCharChannel over a
+ * pseudo-terminal, without requiring any hardware.
+ *
+ * @author Gili Tzabari
+ */
+public class PseudoTerminalBenchmark
+{
+	private static final int ROUND_TRIPS = 10000;
+	private static final int BULK_BYTES = 16 * 1024 * 1024;
+	/**
+	 * Blocking reads and writes each tie up a thread until they complete.
+	 */
+	private final ExecutorService executor =
+		Executors.newFixedThreadPool(4, new ThreadFactoryBuilder().setDaemon(true).
+		setNameFormat(PseudoTerminalBenchmark.class.getSimpleName() + "-%d").build());
+	private final PeripheralChannelGroup channelGroup = new PeripheralChannelGroup(executor);
+
+	public static void main(String[] args) throws Exception
+	{
+		new PseudoTerminalBenchmark().run();
+	}
+
+	private void run() throws Exception
+	{
+		try (PseudoTerminalChannel master = PseudoTerminals.openRaw(channelGroup))
+		{
+			SerialChannel slave = master.getSlave();
+			measureLatency(master, slave);
+			measureThroughput(master, slave);
+		}
+		finally
+		{
+			channelGroup.shutdownNow();
+		}
+	}
+
+	/**
+	 * Measures the round-trip time of a line sent from the master side to the slave side and back.
+	 *
+	 * @param master the master side
+	 * @param slave the slave side
+	 * @throws Exception if an error occurs
+	 */
+	private void measureLatency(SerialChannel master, SerialChannel slave) throws Exception
+	{
+		Charset charset = Charset.forName("UTF-8");
+		AsynchronousByteCharChannel masterChars = AsynchronousByteCharChannel.open(master, charset,
+			channelGroup);
+		AsynchronousByteCharChannel slaveChars = AsynchronousByteCharChannel.open(slave, charset,
+			channelGroup);
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUND_TRIPS; ++i)
+		{
+			String line = i + ": 0123456789\n";
+			masterChars.write(CharBuffer.wrap(line)).get(30, TimeUnit.SECONDS);
+			String echo = slaveChars.readLine().get(30, TimeUnit.SECONDS);
+			slaveChars.write(CharBuffer.wrap(echo + "\n")).get(30, TimeUnit.SECONDS);
+			masterChars.readLine().get(30, TimeUnit.SECONDS);
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println("Round-trip latency: " + TimeUnit.NANOSECONDS.toMicros(elapsed / ROUND_TRIPS) +
+			" us");
+	}
+
+	/**
+	 * Measures the number of bytes per second transferred from the master side to the slave side.
+	 *
+	 * @param master the master side
+	 * @param slave the slave side
+	 * @throws Exception if an error occurs
+	 */
+	private void measureThroughput(final SerialChannel master, SerialChannel slave) throws Exception
+	{
+		final ByteBuffer source = ByteBuffer.allocateDirect(4096);
+		ByteBuffer target = ByteBuffer.allocateDirect(4096);
+		long start = System.nanoTime();
+		executor.submit(new Callable<Void>()
+		{
+			@Override
+			public Void call() throws Exception
+			{
+				for (int written = 0; written < BULK_BYTES;)
+				{
+					source.clear();
+					source.limit(Math.min(source.capacity(), BULK_BYTES - written));
+					while (source.hasRemaining())
+						written += master.write(source).get();
+				}
+				return null;
+			}
+		});
+		for (int read = 0; read < BULK_BYTES;)
+		{
+			target.clear();
+			read += slave.read(target).get(30, TimeUnit.SECONDS);
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println("Throughput: " + (BULK_BYTES * 1000L / Math.max(1, elapsed / 1000000L)) +
+			" bytes/second");
+	}
+}
@@ -0,0 +1,121 @@
+package org.jperipheral.unsupported;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jperipheral.PeripheralChannelGroup;
+import org.jperipheral.PseudoTerminalChannel;
+import org.jperipheral.SerialChannel;
+
+/**
+ * Measures the per-operation cost of chaining writes from completion handlers, without requiring
+ * any hardware.
+ * <p>
+ * Each write is initiated from the completion handler of the previous one, which is the pattern
+ * that benefits from operations being initiated on the calling thread.
+ *
+ * @author Gili Tzabari
+ */
+public class PseudoTerminalDispatchBenchmark
+{
+	private static final int WARMUP_OPERATIONS = 10000;
+	private static final int OPERATIONS = 200000;
+	private static final int MESSAGE_SIZE = 1;
+	private final ExecutorService executor =
+		Executors.newFixedThreadPool(4, new ThreadFactoryBuilder().setDaemon(true).
+		setNameFormat(PseudoTerminalDispatchBenchmark.class.getSimpleName() + "-%d").build());
+	private final PeripheralChannelGroup channelGroup = new PeripheralChannelGroup(executor);
+
+	public static void main(String[] args) throws Exception
+	{
+		new PseudoTerminalDispatchBenchmark().run();
+	}
+
+	private void run() throws Exception
+	{
+		try (PseudoTerminalChannel master = PseudoTerminals.openRaw(channelGroup))
+		{
+			final SerialChannel slave = master.getSlave();
+			// Consume everything the master writes so the slave's input queue never fills up
+			ExecutorService drainer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().
+				setDaemon(true).build());
+			drainer.submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+					try
+					{
+						while (!Thread.currentThread().isInterrupted())
+						{
+							buffer.clear();
+							slave.read(buffer).get();
+						}
+					}
+					catch (Exception e)
+					{
+						// The channel was closed
+					}
+				}
+			});
+			measure(master, WARMUP_OPERATIONS);
+			long elapsed = measure(master, OPERATIONS);
+			System.out.println("Chained writes: " + elapsed / OPERATIONS +
+				" ns per operation, " + OPERATIONS * TimeUnit.SECONDS.toNanos(1) / elapsed +
+				" operations per second");
+			drainer.shutdownNow();
+		}
+		finally
+		{
+			channelGroup.shutdownNow();
+		}
+	}
+
+	/**
+	 * Issues a chain of writes, each one initiated by the completion handler of the previous one.
+	 *
+	 * @param channel the channel to write to
+	 * @param operations the number of writes to issue
+	 * @return the elapsed time in nanoseconds
+	 * @throws Exception if an error occurs
+	 */
+	private long measure(final SerialChannel channel, final int operations) throws Exception
+	{
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(MESSAGE_SIZE);
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		long start = System.nanoTime();
+		channel.write(buffer, 30, TimeUnit.SECONDS, operations, new CompletionHandler<Integer, Integer>()
+		{
+			@Override
+			public void completed(Integer written, Integer remaining)
+			{
+				if (remaining == 0)
+				{
+					done.countDown();
+					return;
+				}
+				buffer.clear();
+				channel.write(buffer, 30, TimeUnit.SECONDS, remaining - 1, this);
+			}
+
+			@Override
+			public void failed(Throwable t, Integer remaining)
+			{
+				error.set(t);
+				done.countDown();
+			}
+		});
+		done.await();
+		long result = System.nanoTime() - start;
+		if (error.get() != null)
+			throw new AssertionError(error.get());
+		return result;
+	}
+}
@@ -0,0 +1,109 @@
+package org.jperipheral.unsupported;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.jperipheral.PeripheralChannelGroup;
+import org.jperipheral.PseudoTerminalChannel;
+import org.jperipheral.SerialChannel;
+
+/**
+ * Compares the round-trip latency of a pseudo-terminal with and without low-latency mode, without
+ * requiring any hardware.
+ * <p>
+ * Pseudo-terminals do not support the driver's low-latency flag, so the difference comes from
+ * busy-polling alone.
+ *
+ * @author Gili Tzabari
+ */
+public class PseudoTerminalLatencyBenchmark
+{
+	private static final int WARMUP_ROUND_TRIPS = 1000;
+	private static final int ROUND_TRIPS = 20000;
+	private static final int MESSAGE_SIZE = 16;
+	private static final long SPIN_MICROSECONDS = 200;
+	private final ExecutorService executor =
+		Executors.newFixedThreadPool(4, new ThreadFactoryBuilder().setDaemon(true).
+		setNameFormat(PseudoTerminalLatencyBenchmark.class.getSimpleName() + "-%d").build());
+	private final PeripheralChannelGroup channelGroup = new PeripheralChannelGroup(executor);
+
+	public static void main(String[] args) throws Exception
+	{
+		new PseudoTerminalLatencyBenchmark().run();
+	}
+
+	private void run() throws Exception
+	{
+		try (PseudoTerminalChannel master = PseudoTerminals.openRaw(channelGroup))
+		{
+			SerialChannel slave = master.getSlave();
+			measure("Default", master, slave);
+			for (SerialChannel channel: new SerialChannel[]
+				{
+					master, slave
+				})
+			{
+				channel.setLowLatency(true, SPIN_MICROSECONDS, TimeUnit.MICROSECONDS);
+			}
+			measure("Low latency", master, slave);
+		}
+		finally
+		{
+			channelGroup.shutdownNow();
+		}
+	}
+
+	/**
+	 * Measures the time it takes a message to travel from the master side to the slave side and back.
+	 *
+	 * @param name the name of the configuration being measured
+	 * @param master the master side
+	 * @param slave the slave side
+	 * @throws Exception if an error occurs
+	 */
+	private void measure(String name, SerialChannel master, SerialChannel slave) throws Exception
+	{
+		ByteBuffer buffer = ByteBuffer.allocateDirect(MESSAGE_SIZE);
+		for (int i = 0; i < WARMUP_ROUND_TRIPS; ++i)
+			roundTrip(master, slave, buffer);
+		long[] latencies = new long[ROUND_TRIPS];
+		for (int i = 0; i < ROUND_TRIPS; ++i)
+		{
+			long start = System.nanoTime();
+			roundTrip(master, slave, buffer);
+			latencies[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(latencies);
+		System.out.println(name + ": median " + TimeUnit.NANOSECONDS.toMicros(latencies[ROUND_TRIPS / 2]) +
+			" us, 99th percentile " + TimeUnit.NANOSECONDS.toMicros(latencies[ROUND_TRIPS * 99 / 100]) +
+			" us");
+	}
+
+	/**
+	 * Sends a message from the master side to the slave side and back.
+	 *
+	 * @param master the master side
+	 * @param slave the slave side
+	 * @param buffer the buffer to transfer
+	 * @throws Exception if an error occurs
+	 */
+	private void roundTrip(SerialChannel master, SerialChannel slave, ByteBuffer buffer)
+		throws Exception
+	{
+		buffer.clear();
+		while (buffer.hasRemaining())
+			master.write(buffer).get(30, TimeUnit.SECONDS);
+		buffer.clear();
+		while (buffer.hasRemaining())
+			slave.read(buffer).get(30, TimeUnit.SECONDS);
+		buffer.flip();
+		while (buffer.hasRemaining())
+			slave.write(buffer).get(30, TimeUnit.SECONDS);
+		buffer.clear();
+		while (buffer.hasRemaining())
+			master.read(buffer).get(30, TimeUnit.SECONDS);
+	}
+}
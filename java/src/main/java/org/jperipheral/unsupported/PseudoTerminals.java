@@ -0,0 +1,60 @@
+package org.jperipheral.unsupported;
+
+import java.io.IOException;
+import org.jperipheral.PeripheralChannelGroup;
+import org.jperipheral.PseudoTerminal;
+import org.jperipheral.PseudoTerminalChannel;
+import org.jperipheral.SerialChannel;
+import org.jperipheral.SerialPort.BaudRate;
+import org.jperipheral.SerialPort.DataBits;
+import org.jperipheral.SerialPort.FlowControl;
+import org.jperipheral.SerialPort.Parity;
+import org.jperipheral.SerialPort.StopBits;
+
+/**
+ * Opens pseudo-terminals for benchmarks and tests.
+ *
+ * @author Gili Tzabari
+ */
+public final class PseudoTerminals
+{
+	/**
+	 * Opens a pseudo-terminal and configures both of its sides to transfer raw bytes at 115200 baud,
+	 * using 8 data bits, no parity, 1 stop bit and no flow control.
+	 *
+	 * @param group the group associated with the channels
+	 * @return the master side of the pseudo-terminal. Its slave side is returned by
+	 * {@link PseudoTerminalChannel#getSlave()}.
+	 * @throws IOException if an I/O error occurs
+	 * @throws NullPointerException if group is null
+	 * @throws UnsupportedOperationException if the platform does not support pseudo-terminals
+	 */
+	public static PseudoTerminalChannel openRaw(PeripheralChannelGroup group) throws IOException
+	{
+		PseudoTerminalChannel result = new PseudoTerminal().newAsynchronousChannel(group);
+		try
+		{
+			for (SerialChannel channel: new SerialChannel[]
+				{
+					result, result.getSlave()
+				})
+			{
+				channel.configure(BaudRate._115200, DataBits.EIGHT, Parity.NONE, StopBits.ONE,
+					FlowControl.NONE);
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			result.close();
+			throw e;
+		}
+		return result;
+	}
+
+	/**
+	 * Prevent construction.
+	 */
+	private PseudoTerminals()
+	{
+	}
+}
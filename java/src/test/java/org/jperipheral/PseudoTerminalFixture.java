@@ -0,0 +1,108 @@
+package org.jperipheral;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import org.jperipheral.unsupported.PseudoTerminals;
+
+/**
+ * A pseudo-terminal and the group associated with it, shared by tests that run against a
+ * pseudo-terminal. Requires Linux.
+ *
+ * @author Gili Tzabari
+ */
+final class PseudoTerminalFixture implements Closeable
+{
+	private final PeripheralChannelGroup group;
+	private final PseudoTerminalChannel master;
+
+	/**
+	 * Opens a pseudo-terminal whose sides are configured to transfer raw bytes.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	PseudoTerminalFixture() throws IOException
+	{
+		this(PeripheralChannelGroup.IoEngine.DEFAULT);
+	}
+
+	/**
+	 * Opens a pseudo-terminal whose sides are configured to transfer raw bytes.
+	 *
+	 * @param ioEngine the I/O engine used by the pseudo-terminal
+	 * @throws IOException if an I/O error occurs
+	 */
+	PseudoTerminalFixture(PeripheralChannelGroup.IoEngine ioEngine) throws IOException
+	{
+		this(new PeripheralChannelGroup(Executors.newFixedThreadPool(2), ioEngine));
+	}
+
+	/**
+	 * Opens a pseudo-terminal whose sides are configured to transfer raw bytes.
+	 *
+	 * @param group the group associated with the pseudo-terminal. The fixture shuts it down once it is
+	 * closed.
+	 * @throws IOException if an I/O error occurs
+	 */
+	PseudoTerminalFixture(PeripheralChannelGroup group) throws IOException
+	{
+		this.group = group;
+		try
+		{
+			this.master = PseudoTerminals.openRaw(group);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			group.shutdownNow();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the group associated with the pseudo-terminal.
+	 *
+	 * @return the group associated with the pseudo-terminal
+	 */
+	public PeripheralChannelGroup getGroup()
+	{
+		return group;
+	}
+
+	/**
+	 * Returns the master side of the pseudo-terminal.
+	 *
+	 * @return the master side of the pseudo-terminal
+	 */
+	public PseudoTerminalChannel getMaster()
+	{
+		return master;
+	}
+
+	/**
+	 * Returns the slave side of the pseudo-terminal.
+	 *
+	 * @return the slave side of the pseudo-terminal
+	 */
+	public SerialChannel getSlave()
+	{
+		return master.getSlave();
+	}
+
+	/**
+	 * Closes the pseudo-terminal and shuts down its group.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			master.close();
+		}
+		finally
+		{
+			group.shutdownNow();
+		}
+	}
+}
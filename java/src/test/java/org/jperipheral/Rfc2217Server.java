@@ -0,0 +1,283 @@
+package org.jperipheral;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A terminal server that echoes the data it receives. Implements just enough of RFC 2217 to be
+ * configured by RemoteSerialChannel.
+ *
+ * @author Gili Tzabari
+ */
+final class Rfc2217Server implements Closeable, Runnable
+{
+	private static final int IAC = 255;
+	private static final int WILL = 251;
+	private static final int DO = 253;
+	private static final int SB = 250;
+	private static final int SE = 240;
+	private static final int COM_PORT_OPTION = 44;
+	private final Logger log = LoggerFactory.getLogger(Rfc2217Server.class);
+	private final ServerSocket serverSocket;
+	private final boolean telnet;
+	private final Thread thread;
+	/**
+	 * The size of each segment received from the client.
+	 */
+	private final List<Integer> segments = new CopyOnWriteArrayList<>();
+	private volatile int baudRate;
+	private volatile int dataSize;
+	private volatile int parity;
+	private volatile int stopSize;
+	private volatile int control;
+	/**
+	 * The highest baud rate that the server applies.
+	 */
+	private volatile int maximumBaudRate = Integer.MAX_VALUE;
+	/**
+	 * The number of data bytes to send ahead of the first acknowledgement.
+	 */
+	private volatile int dataBeforeAcknowledgement;
+
+	/**
+	 * Creates a new Rfc2217Server.
+	 *
+	 * @param telnet true if the server speaks RFC 2217, false if the connection is raw
+	 * @throws IOException if an I/O error occurs
+	 */
+	Rfc2217Server(boolean telnet) throws IOException
+	{
+		this.telnet = telnet;
+		this.serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		this.thread = new Thread(this, Rfc2217Server.class.getSimpleName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns the address the server is listening on.
+	 *
+	 * @return the address the server is listening on
+	 */
+	InetSocketAddress getAddress()
+	{
+		return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+	}
+
+	/**
+	 * Returns the size of each segment received from the client.
+	 *
+	 * @return the size of each segment received from the client
+	 */
+	List<Integer> getSegments()
+	{
+		return segments;
+	}
+
+	int getBaudRate()
+	{
+		return baudRate;
+	}
+
+	int getDataSize()
+	{
+		return dataSize;
+	}
+
+	int getParity()
+	{
+		return parity;
+	}
+
+	int getStopSize()
+	{
+		return stopSize;
+	}
+
+	int getControl()
+	{
+		return control;
+	}
+
+	/**
+	 * Sets the highest baud rate that the server applies. Higher rates are refused: the server applies
+	 * the maximum instead and reports it in its acknowledgement.
+	 *
+	 * @param maximumBaudRate the highest baud rate that the server applies
+	 */
+	void setMaximumBaudRate(int maximumBaudRate)
+	{
+		this.maximumBaudRate = maximumBaudRate;
+	}
+
+	/**
+	 * Sets the number of data bytes to send ahead of the first acknowledgement. Byte {@code i} has
+	 * the value {@code i % 251}, so it never needs escaping.
+	 *
+	 * @param count the number of bytes
+	 */
+	void setDataBeforeAcknowledgement(int count)
+	{
+		this.dataBeforeAcknowledgement = count;
+	}
+
+	@Override
+	public void run()
+	{
+		try (Socket socket = serverSocket.accept())
+		{
+			InputStream in = socket.getInputStream();
+			OutputStream out = socket.getOutputStream();
+			byte[] segment = new byte[65536];
+			ByteArrayOutputStream echo = new ByteArrayOutputStream();
+			ByteArrayOutputStream subnegotiation = null;
+			int command = -1;
+			boolean escaped = false;
+			while (true)
+			{
+				int count = in.read(segment);
+				if (count == -1)
+					return;
+				segments.add(count);
+				echo.reset();
+				for (int i = 0; i < count; ++i)
+				{
+					int value = segment[i] & 0xFF;
+					if (!telnet)
+					{
+						echo.write(value);
+						continue;
+					}
+					if (command != -1)
+					{
+						// Accept the com port option, ignore the others
+						if (command == WILL && value == COM_PORT_OPTION)
+							echo.write(new byte[]{(byte) IAC, (byte) DO, (byte) COM_PORT_OPTION});
+						command = -1;
+						continue;
+					}
+					if (escaped)
+					{
+						escaped = false;
+						if (value == IAC)
+						{
+							if (subnegotiation != null)
+								subnegotiation.write(value);
+							else
+								echo.write(new byte[]{(byte) IAC, (byte) IAC});
+						}
+						else if (value == SB)
+							subnegotiation = new ByteArrayOutputStream();
+						else if (value == SE)
+						{
+							onSubnegotiation(subnegotiation.toByteArray(), echo);
+							subnegotiation = null;
+						}
+						else
+							command = value;
+						continue;
+					}
+					if (value == IAC)
+						escaped = true;
+					else if (subnegotiation != null)
+						subnegotiation.write(value);
+					else
+						echo.write(value);
+				}
+				echo.writeTo(out);
+			}
+		}
+		catch (IOException e)
+		{
+			if (!serverSocket.isClosed())
+				log.error("", e);
+		}
+	}
+
+	/**
+	 * Processes a subnegotiation.
+	 *
+	 * @param data the subnegotiation, excluding {@code IAC SB} and {@code IAC SE}
+	 * @param response the stream to write the response into
+	 */
+	private void onSubnegotiation(byte[] data, ByteArrayOutputStream response)
+	{
+		if (data[0] != COM_PORT_OPTION)
+			return;
+		int value = 0;
+		for (int i = 2; i < data.length; ++i)
+			value = (value << 8) | (data[i] & 0xFF);
+		byte[] applied = Arrays.copyOfRange(data, 2, data.length);
+		switch (data[1])
+		{
+			case 1:
+			{
+				if (value > maximumBaudRate)
+				{
+					value = maximumBaudRate;
+					applied = new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8),
+						(byte) value};
+				}
+				baudRate = value;
+				break;
+			}
+			case 2:
+			{
+				dataSize = value;
+				break;
+			}
+			case 3:
+			{
+				parity = value;
+				break;
+			}
+			case 4:
+			{
+				stopSize = value;
+				break;
+			}
+			case 5:
+			{
+				control = value;
+				break;
+			}
+			default:
+				return;
+		}
+		int count = dataBeforeAcknowledgement;
+		dataBeforeAcknowledgement = 0;
+		for (int i = 0; i < count; ++i)
+			response.write(i % 251);
+		// Acknowledge the command by sending back the value that was applied, with the server offset
+		response.write(IAC);
+		response.write(SB);
+		response.write(COM_PORT_OPTION);
+		response.write(data[1] + 100);
+		for (byte b: applied)
+		{
+			if ((b & 0xFF) == IAC)
+				response.write(IAC);
+			response.write(b);
+		}
+		response.write(IAC);
+		response.write(SE);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		serverSocket.close();
+	}
+}
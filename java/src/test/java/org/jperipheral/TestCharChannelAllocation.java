@@ -0,0 +1,399 @@
+package org.jperipheral;
+
+import com.google.common.base.Charsets;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jperipheral.PeripheralChannelGroup.IoEngine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the amount of memory allocated by LoopbackChannel transfers, and by
+ * AsynchronousByteCharChannel reads and writes on top of the memory allocated by the underlying
+ * byte channel. Requires a JVM that measures per-thread allocations.
+ *
+ * @author Gili Tzabari
+ */
+public class TestCharChannelAllocation
+{
+	private static final String LINE = "abc\n";
+	private static final int WARMUP_TRANSFERS = 20000;
+	private static final int TRANSFERS = 20000;
+	/**
+	 * The average number of bytes that a byte write followed by a byte read may allocate.
+	 */
+	private static final long BYTES_PER_TRANSFER = 32;
+	/**
+	 * The average number of bytes that a character read may allocate, on top of the bytes allocated
+	 * by the underlying byte read.
+	 */
+	private static final long BYTES_PER_READ = 32;
+	/**
+	 * The average number of bytes that a readLine may allocate, on top of the bytes allocated by the
+	 * underlying byte read. Covers the String that is returned.
+	 */
+	private static final long BYTES_PER_LINE = 96;
+	/**
+	 * The average number of bytes that a character write may allocate, on top of the bytes allocated
+	 * by the underlying byte write.
+	 */
+	private static final long BYTES_PER_WRITE = 32;
+	private PeripheralChannelGroup group;
+	private LoopbackChannel channel;
+	private AsynchronousCharChannel charChannel;
+
+	@Before
+	public void openChannel()
+	{
+		group = PeripheralChannelGroup.withEventLoops(1, IoEngine.DEFAULT);
+		channel = LoopbackChannel.open(group, 64, 0);
+		charChannel = AsynchronousByteCharChannel.open(channel.getPeer(), Charsets.UTF_8, group);
+	}
+
+	@After
+	public void closeChannel() throws IOException
+	{
+		try
+		{
+			channel.close();
+			charChannel.close();
+		}
+		finally
+		{
+			group.shutdownNow();
+		}
+	}
+
+	@Test
+	public void steadyStateByteTransferDoesNotAllocate() throws InterruptedException
+	{
+		long allocated = getAllocatedBytes(Mode.BYTES);
+		assert (allocated < TRANSFERS * BYTES_PER_TRANSFER): allocated / TRANSFERS +
+			" bytes per transfer";
+	}
+
+	@Test
+	public void steadyStateReadDoesNotAllocate() throws InterruptedException
+	{
+		long allocated = getAllocatedBytes(Mode.CHARACTERS) - getAllocatedBytes(Mode.BYTES);
+		assert (allocated < TRANSFERS * BYTES_PER_READ): allocated / TRANSFERS + " bytes per read";
+	}
+
+	@Test
+	public void steadyStateReadLineOnlyAllocatesResult() throws InterruptedException
+	{
+		long allocated = getAllocatedBytes(Mode.LINES) - getAllocatedBytes(Mode.BYTES);
+		assert (allocated < TRANSFERS * BYTES_PER_LINE): allocated / TRANSFERS + " bytes per line";
+	}
+
+	@Test
+	public void steadyStateWriteDoesNotAllocate() throws InterruptedException
+	{
+		long allocated = getAllocatedBytes(Mode.WRITE_CHARACTERS) - getAllocatedBytes(Mode.WRITE_BYTES);
+		assert (allocated < TRANSFERS * BYTES_PER_WRITE): allocated / TRANSFERS + " bytes per write";
+	}
+
+	/**
+	 * Returns the number of bytes allocated by a steady-state transfer.
+	 *
+	 * @param mode the way that lines are transferred
+	 * @return the number of bytes allocated by {@code TRANSFERS} transfers, after warming up
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	private long getAllocatedBytes(Mode mode) throws InterruptedException
+	{
+		transfer(new Transfer(WARMUP_TRANSFERS, mode));
+		long before = getAllocatedBytes();
+		transfer(new Transfer(TRANSFERS, mode));
+		return getAllocatedBytes() - before;
+	}
+
+	/**
+	 * Runs a transfer to completion.
+	 *
+	 * @param transfer the transfer
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	private static void transfer(Transfer transfer) throws InterruptedException
+	{
+		transfer.writeNext();
+		assert (transfer.done.await(60, TimeUnit.SECONDS)): "Timed out";
+		if (transfer.error.get() != null)
+			throw new AssertionError(transfer.error.get());
+	}
+
+	/**
+	 * The ways that a transfer moves lines.
+	 */
+	private enum Mode
+	{
+		/**
+		 * Reads bytes from the underlying byte channel.
+		 */
+		BYTES,
+		/**
+		 * Reads characters into a CharBuffer.
+		 */
+		CHARACTERS,
+		/**
+		 * Reads lines using readLine().
+		 */
+		LINES,
+		/**
+		 * Writes bytes to the underlying byte channel.
+		 */
+		WRITE_BYTES,
+		/**
+		 * Writes characters from a CharBuffer.
+		 */
+		WRITE_CHARACTERS
+	}
+
+	/**
+	 * Writes a line to one end of the byte channel and reads it back from the other, repeatedly.
+	 * The character channel is used for reading or writing depending on the mode. Each operation is
+	 * initiated by the completion handler of the previous one.
+	 *
+	 * @author Gili Tzabari
+	 */
+	private final class Transfer
+	{
+		private final ByteBuffer source = ByteBuffer.wrap(LINE.getBytes(Charsets.UTF_8));
+		private final ByteBuffer bytes = ByteBuffer.allocate(LINE.length());
+		private final CharBuffer characters = CharBuffer.allocate(LINE.length());
+		private final CharBuffer text = CharBuffer.wrap(LINE);
+		private final Mode mode;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final AtomicReference<Throwable> error = new AtomicReference<>();
+		private int remaining;
+		private final CompletionHandler<Integer, Void> written = new CompletionHandler<Integer, Void>()
+		{
+			@Override
+			public void completed(Integer numBytes, Void attachment)
+			{
+				if (source.hasRemaining())
+				{
+					channel.write(source, null, this);
+					return;
+				}
+				switch (mode)
+				{
+					case BYTES:
+					{
+						channel.getPeer().read(bytes, null, bytesRead);
+						break;
+					}
+					case CHARACTERS:
+					{
+						charChannel.read(characters, null, charactersRead);
+						break;
+					}
+					case LINES:
+					{
+						charChannel.readLine(null, lineRead);
+						break;
+					}
+					default:
+						throw new AssertionError(mode);
+				}
+			}
+
+			@Override
+			public void failed(Throwable t, Void attachment)
+			{
+				fail(t);
+			}
+		};
+		private final CompletionHandler<Integer, Void> peerWritten =
+			new CompletionHandler<Integer, Void>()
+			{
+				@Override
+				public void completed(Integer numBytes, Void attachment)
+				{
+					if (source.hasRemaining())
+					{
+						channel.getPeer().write(source, null, this);
+						return;
+					}
+					channel.read(bytes, null, bytesRead);
+				}
+
+				@Override
+				public void failed(Throwable t, Void attachment)
+				{
+					fail(t);
+				}
+			};
+		private final CompletionHandler<Integer, Void> charactersWritten =
+			new CompletionHandler<Integer, Void>()
+			{
+				@Override
+				public void completed(Integer numCharacters, Void attachment)
+				{
+					if (text.hasRemaining())
+					{
+						charChannel.write(text, null, this);
+						return;
+					}
+					channel.read(bytes, null, bytesRead);
+				}
+
+				@Override
+				public void failed(Throwable t, Void attachment)
+				{
+					fail(t);
+				}
+			};
+		private final CompletionHandler<Integer, Void> bytesRead = new CompletionHandler<Integer, Void>()
+		{
+			@Override
+			public void completed(Integer numBytes, Void attachment)
+			{
+				if (bytes.hasRemaining())
+				{
+					if (mode == Mode.WRITE_BYTES || mode == Mode.WRITE_CHARACTERS)
+						channel.read(bytes, null, this);
+					else
+						channel.getPeer().read(bytes, null, this);
+					return;
+				}
+				transferred();
+			}
+
+			@Override
+			public void failed(Throwable t, Void attachment)
+			{
+				fail(t);
+			}
+		};
+		private final CompletionHandler<Integer, Void> charactersRead =
+			new CompletionHandler<Integer, Void>()
+			{
+				@Override
+				public void completed(Integer numCharacters, Void attachment)
+				{
+					if (characters.hasRemaining())
+					{
+						charChannel.read(characters, null, this);
+						return;
+					}
+					transferred();
+				}
+
+				@Override
+				public void failed(Throwable t, Void attachment)
+				{
+					fail(t);
+				}
+			};
+		private final CompletionHandler<String, Void> lineRead = new CompletionHandler<String, Void>()
+		{
+			@Override
+			public void completed(String line, Void attachment)
+			{
+				if (!"abc".equals(line))
+				{
+					fail(new AssertionError(line));
+					return;
+				}
+				transferred();
+			}
+
+			@Override
+			public void failed(Throwable t, Void attachment)
+			{
+				fail(t);
+			}
+		};
+
+		/**
+		 * Creates a new Transfer.
+		 *
+		 * @param count the number of lines to transfer
+		 * @param mode the way that lines are transferred
+		 */
+		public Transfer(int count, Mode mode)
+		{
+			this.remaining = count;
+			this.mode = mode;
+		}
+
+		/**
+		 * Writes the next line.
+		 */
+		public void writeNext()
+		{
+			source.clear();
+			bytes.clear();
+			characters.clear();
+			text.clear();
+			switch (mode)
+			{
+				case WRITE_BYTES:
+				{
+					channel.getPeer().write(source, null, peerWritten);
+					break;
+				}
+				case WRITE_CHARACTERS:
+				{
+					charChannel.write(text, null, charactersWritten);
+					break;
+				}
+				default:
+				{
+					channel.write(source, null, written);
+					break;
+				}
+			}
+		}
+
+		/**
+		 * Invoked once a line has been read.
+		 */
+		private void transferred()
+		{
+			--remaining;
+			if (remaining == 0)
+				done.countDown();
+			else
+				writeNext();
+		}
+
+		/**
+		 * Invoked if an operation fails.
+		 *
+		 * @param t the cause of the failure
+		 */
+		private void fail(Throwable t)
+		{
+			error.set(t);
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes allocated by all live threads.
+	 *
+	 * @return the number of bytes allocated by all live threads
+	 */
+	private static long getAllocatedBytes()
+	{
+		com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long result = 0;
+		for (long allocated: threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+		{
+			// -1 denotes a thread that terminated in the meantime
+			if (allocated > 0)
+				result += allocated;
+		}
+		return result;
+	}
+}
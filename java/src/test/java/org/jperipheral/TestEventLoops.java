@@ -0,0 +1,265 @@
+package org.jperipheral;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.jperipheral.PeripheralChannelGroup.IoEngine;
+import org.junit.Test;
+
+/**
+ * @author Gili Tzabari
+ */
+public class TestEventLoops
+{
+	@Test
+	public void singleLoopServesCharChannels() throws IOException, InterruptedException,
+		ExecutionException, TimeoutException
+	{
+		PeripheralChannelGroup group = PeripheralChannelGroup.withEventLoops(1, IoEngine.DEFAULT);
+		try
+		{
+			LoopbackChannel channel = LoopbackChannel.open(group, 64, 0);
+			AsynchronousCharChannel writer = AsynchronousByteCharChannel.open(channel, Charsets.UTF_8,
+				group);
+			AsynchronousCharChannel reader = AsynchronousByteCharChannel.open(channel.getPeer(),
+				Charsets.UTF_8, group);
+			writer.write(CharBuffer.wrap("hello\r\nworld\r\n")).get(10, TimeUnit.SECONDS);
+			String line = reader.readLine().get(10, TimeUnit.SECONDS);
+			assert ("hello".equals(line)): line;
+			line = reader.readLine().get(10, TimeUnit.SECONDS);
+			assert ("world".equals(line)): line;
+		}
+		finally
+		{
+			group.shutdownNow();
+		}
+	}
+
+	@Test
+	public void channelsArePinnedToLoops() throws IOException, InterruptedException
+	{
+		final int loops = 2;
+		final int pairs = 4;
+		final int transfers = 100;
+		PeripheralChannelGroup group = PeripheralChannelGroup.withEventLoops(loops, IoEngine.DEFAULT);
+		try
+		{
+			Map<LoopbackChannel, String> threads = Maps.newConcurrentMap();
+			Map<LoopbackChannel, String> errors = Maps.newConcurrentMap();
+			// Each pair counts down once for its writer and once for its reader
+			CountDownLatch done = new CountDownLatch(2 * pairs);
+			for (int i = 0; i < pairs; ++i)
+			{
+				LoopbackChannel writer = LoopbackChannel.open(group, 64, 0);
+				new Transfer(writer, true, transfers, threads, errors, done).next();
+				new Transfer(writer.getPeer(), false, transfers, threads, errors, done).next();
+			}
+			assert (done.await(10, TimeUnit.SECONDS)): "Remaining: " + done.getCount();
+			assert (errors.isEmpty()): errors;
+			// Every loop serves the same number of channels
+			Map<String, Integer> channelsPerThread = Maps.newHashMap();
+			for (String thread: threads.values())
+			{
+				Integer count = channelsPerThread.get(thread);
+				channelsPerThread.put(thread, count == null ? 1 : count + 1);
+			}
+			assert (channelsPerThread.size() == loops): channelsPerThread;
+			for (int count: channelsPerThread.values())
+				assert (count == 2 * pairs / loops): channelsPerThread;
+		}
+		finally
+		{
+			group.shutdownNow();
+		}
+	}
+
+	@Test
+	public void charChannelIsPinnedToLoop() throws IOException, InterruptedException,
+		ExecutionException, TimeoutException
+	{
+		final int lines = 100;
+		PeripheralChannelGroup group = PeripheralChannelGroup.withEventLoops(2, IoEngine.DEFAULT);
+		try
+		{
+			LoopbackChannel channel = LoopbackChannel.open(group, 64, 0);
+			AsynchronousCharChannel writer = AsynchronousByteCharChannel.open(channel, Charsets.UTF_8,
+				group);
+			final AsynchronousCharChannel reader = AsynchronousByteCharChannel.open(channel.getPeer(),
+				Charsets.UTF_8, group);
+			final Set<String> threads = Collections.newSetFromMap(Maps.<String, Boolean>newConcurrentMap());
+			final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+			final CountDownLatch done = new CountDownLatch(1);
+			reader.readLine(null, new CompletionHandler<String, Void>()
+			{
+				@Override
+				public void completed(String line, Void unused)
+				{
+					threads.add(Thread.currentThread().getName());
+					received.add(line);
+					if (received.size() == lines)
+						done.countDown();
+					else
+						reader.readLine(null, this);
+				}
+
+				@Override
+				public void failed(Throwable t, Void unused)
+				{
+					received.add(t.toString());
+					done.countDown();
+				}
+			});
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < lines; ++i)
+				text.append(i).append('\n');
+			CharBuffer source = CharBuffer.wrap(text);
+			while (source.hasRemaining())
+				writer.write(source).get(10, TimeUnit.SECONDS);
+			assert (done.await(10, TimeUnit.SECONDS)): received;
+			for (int i = 0; i < lines; ++i)
+				assert (received.get(i).equals(String.valueOf(i))): received;
+			// The reader's handlers run on the loop that it is pinned to
+			assert (threads.size() == 1): threads;
+		}
+		finally
+		{
+			group.shutdownNow();
+		}
+	}
+
+	@Test
+	public void concurrentAcquiresAreSpreadAcrossLoops() throws InterruptedException
+	{
+		final int loops = 4;
+		final int channelsPerLoop = 8;
+		final EventLoopExecutor executor = new EventLoopExecutor(loops);
+		try
+		{
+			final Map<EventLoopExecutor.Loop, Integer> channels = Maps.newHashMap();
+			final CountDownLatch start = new CountDownLatch(1);
+			List<Thread> threads = new ArrayList<>();
+			for (int i = 0; i < loops * channelsPerLoop; ++i)
+			{
+				Thread thread = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							start.await();
+						}
+						catch (InterruptedException e)
+						{
+							return;
+						}
+						EventLoopExecutor.Loop loop = executor.acquire();
+						synchronized (channels)
+						{
+							Integer count = channels.get(loop);
+							channels.put(loop, count == null ? 1 : count + 1);
+						}
+					}
+				});
+				thread.start();
+				threads.add(thread);
+			}
+			start.countDown();
+			for (Thread thread: threads)
+				thread.join(10000);
+			synchronized (channels)
+			{
+				assert (channels.size() == loops): channels;
+				for (int count: channels.values())
+					assert (count == channelsPerLoop): channels.values();
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads or writes one byte at a time, initiating each operation from the completion handler of the
+	 * previous one. Records the thread that each completion handler runs on.
+	 *
+	 * @author Gili Tzabari
+	 */
+	private static final class Transfer implements CompletionHandler<Integer, Void>
+	{
+		private final LoopbackChannel channel;
+		private final boolean writing;
+		private final Map<LoopbackChannel, String> threads;
+		private final Map<LoopbackChannel, String> errors;
+		private final CountDownLatch done;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1);
+		private int remaining;
+
+		/**
+		 * Creates a new Transfer.
+		 *
+		 * @param channel the channel to transfer bytes through
+		 * @param writing true if the channel should write bytes, false if it should read them
+		 * @param count the number of bytes to transfer
+		 * @param threads the thread that each channel's handlers ran on
+		 * @param errors the error encountered by each channel
+		 * @param done counted down once the transfer completes or fails
+		 */
+		Transfer(LoopbackChannel channel, boolean writing, int count,
+			Map<LoopbackChannel, String> threads, Map<LoopbackChannel, String> errors, CountDownLatch done)
+		{
+			this.channel = channel;
+			this.writing = writing;
+			this.remaining = count;
+			this.threads = threads;
+			this.errors = errors;
+			this.done = done;
+		}
+
+		/**
+		 * Transfers the next byte.
+		 */
+		public void next()
+		{
+			buffer.clear();
+			if (writing)
+				channel.write(buffer, null, this);
+			else
+				channel.read(buffer, null, this);
+		}
+
+		@Override
+		public void completed(Integer numBytes, Void unused)
+		{
+			String thread = Thread.currentThread().getName();
+			String previous = threads.put(channel, thread);
+			if (previous != null && !previous.equals(thread))
+				errors.put(channel, "Moved from " + previous + " to " + thread);
+			--remaining;
+			if (remaining == 0)
+				done.countDown();
+			else
+				next();
+		}
+
+		@Override
+		public void failed(Throwable t, Void unused)
+		{
+			errors.put(channel, t.toString());
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package org.jperipheral;
+
+import org.junit.Test;
+
+/**
+ * @author Gili Tzabari
+ */
+public class TestLineStatistics
+{
+	@Test
+	public void since()
+	{
+		LineStatistics earlier = new LineStatistics(new long[]
+			{
+				100, 200, 1, 2, 3, 4, 5
+			});
+		LineStatistics later = new LineStatistics(new long[]
+			{
+				150, 260, 1, 4, 3, 5, 5
+			});
+		LineStatistics delta = later.since(earlier);
+		assert (delta.getBytesReceived() == 50): delta;
+		assert (delta.getBytesTransmitted() == 60): delta;
+		assert (delta.getFramingErrors() == 0): delta;
+		assert (delta.getParityErrors() == 2): delta;
+		assert (delta.getOverruns() == 0): delta;
+		assert (delta.getBufferOverruns() == 1): delta;
+		assert (delta.getBreaks() == 0): delta;
+	}
+
+	@Test
+	public void sinceWrapsAround()
+	{
+		LineStatistics earlier = new LineStatistics(new long[]
+			{
+				0xFFFFFFF0L, 0, 0, 0, 0, 0, 0
+			});
+		LineStatistics later = new LineStatistics(new long[]
+			{
+				0x10L, 0, 0, 0, 0, 0, 0
+			});
+		LineStatistics delta = later.since(earlier);
+		assert (delta.getBytesReceived() == 0x20): delta;
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void wrongNumberOfCounters()
+	{
+		new LineStatistics(new long[LineStatistics.COUNTERS - 1]);
+	}
+}
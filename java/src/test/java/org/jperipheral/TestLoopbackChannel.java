@@ -0,0 +1,152 @@
+package org.jperipheral;
+
+import com.google.common.base.Charsets;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Gili Tzabari
+ */
+public class TestLoopbackChannel
+{
+	private PeripheralChannelGroup group;
+
+	@Before
+	public void createGroup()
+	{
+		// transferThroughSmallRing() blocks a thread while writing
+		group = new PeripheralChannelGroup(Executors.newFixedThreadPool(4));
+	}
+
+	@After
+	public void shutdownGroup() throws IOException
+	{
+		group.shutdownNow();
+	}
+
+	@Test
+	public void transferThroughSmallRing() throws InterruptedException, ExecutionException,
+		TimeoutException, IOException
+	{
+		final LoopbackChannel writer = LoopbackChannel.open(group, 61, 0);
+		LoopbackChannel reader = writer.getPeer();
+		final int count = 1024 * 1024;
+		Future<Void> written = group.executor().submit(new Callable<Void>()
+		{
+			@Override
+			public Void call() throws Exception
+			{
+				ByteBuffer source = ByteBuffer.allocate(1000);
+				for (int i = 0; i < count;)
+				{
+					source.clear();
+					while (source.hasRemaining() && i + source.position() < count)
+						source.put((byte) (i + source.position()));
+					i += source.position();
+					source.flip();
+					while (source.hasRemaining())
+						writer.write(source).get();
+				}
+				writer.close();
+				return null;
+			}
+		});
+		ByteBuffer target = ByteBuffer.allocate(777);
+		int total = 0;
+		while (true)
+		{
+			target.clear();
+			int result = reader.read(target).get(10, TimeUnit.SECONDS);
+			if (result == -1)
+				break;
+			for (int i = 0; i < result; ++i)
+				assert (target.get(i) == (byte) (total + i)): "index: " + (total + i);
+			total += result;
+		}
+		written.get();
+		assert (total == count): total;
+	}
+
+	@Test
+	public void simulatedLineRate() throws InterruptedException, ExecutionException,
+		TimeoutException
+	{
+		LoopbackChannel writer = LoopbackChannel.open(group, 1024, 1000);
+		LoopbackChannel reader = writer.getPeer();
+		ByteBuffer source = ByteBuffer.allocate(200);
+		long start = System.nanoTime();
+		while (source.hasRemaining())
+			writer.write(source).get(10, TimeUnit.SECONDS);
+		long elapsed = System.nanoTime() - start;
+		// 200 bytes at 1000 bytes/second take 200ms
+		assert (elapsed >= TimeUnit.MILLISECONDS.toNanos(150)): elapsed;
+
+		ByteBuffer target = ByteBuffer.allocate(200);
+		while (target.hasRemaining())
+			reader.read(target).get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void closeAbortsPendingRead() throws InterruptedException, IOException, TimeoutException,
+		ExecutionException
+	{
+		LoopbackChannel channel = LoopbackChannel.open(group, 16, 0);
+		Future<Integer> result = channel.read(ByteBuffer.allocate(1));
+		channel.close();
+		try
+		{
+			result.get(10, TimeUnit.SECONDS);
+			assert (false): "Expected AsynchronousCloseException";
+		}
+		catch (ExecutionException e)
+		{
+			assert (e.getCause() instanceof AsynchronousCloseException): e;
+		}
+		// The peer reads end-of-stream
+		result = channel.getPeer().read(ByteBuffer.allocate(1));
+		assert (result.get(10, TimeUnit.SECONDS) == -1);
+	}
+
+	@Test
+	public void cancelCharChannelFutureClosesChannel() throws InterruptedException,
+		ExecutionException, TimeoutException
+	{
+		LoopbackChannel channel = LoopbackChannel.open(group, 16, 0);
+		AsynchronousCharChannel reader = AsynchronousByteCharChannel.open(channel, Charsets.UTF_8,
+			group);
+		Future<String> result = reader.readLine();
+		assert (result.cancel(true));
+		assert (result.isCancelled());
+		assert (!reader.isOpen());
+		// The peer reads end-of-stream
+		Future<Integer> peerRead = channel.getPeer().read(ByteBuffer.allocate(1));
+		assert (peerRead.get(10, TimeUnit.SECONDS) == -1);
+	}
+
+	@Test
+	public void charChannel() throws IOException, InterruptedException, ExecutionException,
+		TimeoutException
+	{
+		LoopbackChannel channel = LoopbackChannel.open(group, 64, 0);
+		AsynchronousCharChannel writer = AsynchronousByteCharChannel.open(channel, Charsets.UTF_8,
+			group);
+		AsynchronousCharChannel reader = AsynchronousByteCharChannel.open(channel.getPeer(),
+			Charsets.UTF_8, group);
+		writer.write(CharBuffer.wrap("hello\r\nworld\r\n")).get(10, TimeUnit.SECONDS);
+		String line = reader.readLine().get(10, TimeUnit.SECONDS);
+		assert ("hello".equals(line)): line;
+		line = reader.readLine().get(10, TimeUnit.SECONDS);
+		assert ("world".equals(line)): line;
+	}
+}
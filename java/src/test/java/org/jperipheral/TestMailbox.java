@@ -0,0 +1,83 @@
+package org.jperipheral;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jperipheral.PeripheralChannelGroup.Mailbox;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Gili Tzabari
+ */
+public class TestMailbox
+{
+	private static final int PRODUCERS = 4;
+	private static final int TASKS_PER_PRODUCER = 100000;
+	private PeripheralChannelGroup group;
+
+	@Before
+	public void createGroup()
+	{
+		group = new PeripheralChannelGroup(Executors.newFixedThreadPool(4));
+	}
+
+	@After
+	public void shutdownGroup() throws IOException
+	{
+		group.shutdownNow();
+	}
+
+	@Test
+	public void deliversInOrderOnOneThreadAtATime() throws InterruptedException
+	{
+		final Mailbox mailbox = new Mailbox(group);
+		final int[] lastSequence = new int[PRODUCERS];
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicReference<String> error = new AtomicReference<>();
+		final CountDownLatch done = new CountDownLatch(PRODUCERS * TASKS_PER_PRODUCER);
+		Thread[] producers = new Thread[PRODUCERS];
+		for (int i = 0; i < PRODUCERS; ++i)
+		{
+			final int producer = i;
+			producers[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for (int j = 1; j <= TASKS_PER_PRODUCER; ++j)
+					{
+						final int sequence = j;
+						mailbox.execute(new Runnable()
+						{
+							@Override
+							public void run()
+							{
+								if (running.incrementAndGet() != 1)
+									error.compareAndSet(null, "Drained by more than one thread");
+								// Only one thread drains the mailbox, so lastSequence needs no synchronization
+								if (lastSequence[producer] != sequence - 1)
+								{
+									error.compareAndSet(null, "Producer " + producer + " expected " +
+										(lastSequence[producer] + 1) + " but got " + sequence);
+								}
+								lastSequence[producer] = sequence;
+								running.decrementAndGet();
+								done.countDown();
+							}
+						});
+					}
+				}
+			});
+			producers[i].start();
+		}
+		for (Thread producer: producers)
+			producer.join();
+		assert (done.await(60, TimeUnit.SECONDS)): "Remaining: " + done.getCount();
+		assert (error.get() == null): error.get();
+	}
+}
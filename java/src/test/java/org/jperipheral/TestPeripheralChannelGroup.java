@@ -0,0 +1,168 @@
+package org.jperipheral;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jperipheral.PeripheralChannelGroup.IoEngine;
+import org.jperipheral.unsupported.PseudoTerminals;
+import org.junit.Test;
+
+/**
+ * @author Gili Tzabari
+ */
+public class TestPeripheralChannelGroup
+{
+	/**
+	 * The number of bytes that each end of a pair may buffer. Large enough for a leak to dominate the
+	 * noise of the garbage collector.
+	 */
+	private static final int CAPACITY = 1024;
+	private static final int WARMUP_OPENS = 20000;
+	private static final int OPENS = 100000;
+	private static final int WARMUP_TERMINAL_OPENS = 2000;
+	private static final int TERMINAL_OPENS = 20000;
+	/**
+	 * The amount by which the heap may grow while channels are opened and closed repeatedly.
+	 */
+	private static final long MAX_HEAP_GROWTH = 8 * 1024 * 1024;
+
+	@Test
+	public void openAndCloseDoesNotLeak() throws IOException, InterruptedException
+	{
+		PeripheralChannelGroup group = PeripheralChannelGroup.withEventLoops(2, IoEngine.DEFAULT);
+		try
+		{
+			openAndClose(group, WARMUP_OPENS);
+			long before = getUsedHeap();
+			openAndClose(group, OPENS);
+			long growth = getUsedHeap() - before;
+			assert (growth < MAX_HEAP_GROWTH): "Heap grew by " + growth + " bytes";
+			assert (group.getChannels().isEmpty()): group.getChannels();
+		}
+		finally
+		{
+			group.shutdownNow();
+		}
+	}
+
+	@Test
+	public void openAndCloseTerminalsDoesNotLeak() throws IOException, InterruptedException
+	{
+		// Requires Linux
+		PeripheralChannelGroup group = PeripheralChannelGroup.withEventLoops(2, IoEngine.DEFAULT);
+		try
+		{
+			openAndCloseTerminals(group, WARMUP_TERMINAL_OPENS);
+			long before = getUsedHeap();
+			openAndCloseTerminals(group, TERMINAL_OPENS);
+			long growth = getUsedHeap() - before;
+			assert (growth < MAX_HEAP_GROWTH): "Heap grew by " + growth + " bytes";
+			assert (group.getChannels().isEmpty()): group.getChannels();
+		}
+		finally
+		{
+			group.shutdownNow();
+		}
+	}
+
+	@Test
+	public void openFromSeveralThreads() throws IOException, InterruptedException
+	{
+		final int threads = 4;
+		final int pairsPerThread = 1000;
+		final PeripheralChannelGroup group = new PeripheralChannelGroup(Executors.newFixedThreadPool(2));
+		try
+		{
+			final CountDownLatch done = new CountDownLatch(threads);
+			final AtomicReference<Throwable> error = new AtomicReference<>();
+			for (int i = 0; i < threads; ++i)
+			{
+				new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							for (int j = 0; j < pairsPerThread; ++j)
+								LoopbackChannel.open(group, CAPACITY, 0);
+						}
+						catch (RuntimeException e)
+						{
+							error.compareAndSet(null, e);
+						}
+						finally
+						{
+							done.countDown();
+						}
+					}
+				}).start();
+			}
+			assert (done.await(60, TimeUnit.SECONDS)): "Remaining: " + done.getCount();
+			if (error.get() != null)
+				throw new AssertionError(error.get());
+			assert (group.getChannels().size() == 2 * threads * pairsPerThread):
+				group.getChannels().size();
+		}
+		finally
+		{
+			group.shutdownNow();
+		}
+		// shutdownNow() closes the channels, which remove themselves from the group
+		assert (group.getChannels().isEmpty()): group.getChannels().size();
+	}
+
+	/**
+	 * Opens a pair of channels and closes them, repeatedly.
+	 *
+	 * @param group the group associated with the channels
+	 * @param count the number of pairs to open
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void openAndClose(PeripheralChannelGroup group, int count) throws IOException
+	{
+		for (int i = 0; i < count; ++i)
+		{
+			LoopbackChannel channel = LoopbackChannel.open(group, CAPACITY, 0);
+			channel.close();
+			channel.getPeer().close();
+		}
+	}
+
+	/**
+	 * Opens a pseudo-terminal and closes it, repeatedly. Each pseudo-terminal adds a SerialChannel for
+	 * either side to the group.
+	 *
+	 * @param group the group associated with the channels
+	 * @param count the number of pseudo-terminals to open
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void openAndCloseTerminals(PeripheralChannelGroup group, int count)
+		throws IOException
+	{
+		for (int i = 0; i < count; ++i)
+		{
+			// Closing the master side also closes the slave side
+			PseudoTerminals.openRaw(group).close();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes used by the heap once garbage has been collected.
+	 *
+	 * @return the number of bytes used by the heap
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	private static long getUsedHeap() throws InterruptedException
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i)
+		{
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,192 @@
+package org.jperipheral;
+
+import com.google.common.base.Charsets;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests port enumeration against a fake sysfs tree.
+ *
+ * @author Gili Tzabari
+ */
+public class TestPeripherals
+{
+	private Path root;
+	private Path sysClassTty;
+	private Path devices;
+
+	@Before
+	public void createTree() throws IOException
+	{
+		root = Files.createTempDirectory("jperipheral");
+		sysClassTty = Files.createDirectories(root.resolve("sys/class/tty"));
+		devices = Files.createDirectories(root.resolve("dev"));
+
+		// Virtual terminal
+		Files.createDirectories(sysClassTty.resolve("tty0"));
+
+		// 8250 port without a UART
+		Path platform = root.resolve("sys/devices/platform/serial8250");
+		Path serial8250 = Files.createDirectories(root.resolve("sys/bus/platform/drivers/serial8250"));
+		Files.createDirectories(platform);
+		Files.createSymbolicLink(platform.resolve("driver"), serial8250);
+		addPort("ttyS0", platform);
+		write(sysClassTty.resolve("ttyS0/type"), "0");
+
+		// 8250 port with a UART
+		addPort("ttyS1", platform);
+		write(sysClassTty.resolve("ttyS1/type"), "4");
+
+		// USB-serial adapter
+		Path usbDevice = Files.createDirectories(root.resolve("sys/devices/usb1/1-1"));
+		write(usbDevice.resolve("idVendor"), "0403");
+		write(usbDevice.resolve("idProduct"), "6001");
+		write(usbDevice.resolve("manufacturer"), "FTDI");
+		write(usbDevice.resolve("product"), "FT232R USB UART");
+		write(usbDevice.resolve("serial"), "A50285BI");
+		Path usbPort = Files.createDirectories(usbDevice.resolve("1-1:1.0/ttyUSB0"));
+		Path ftdi = Files.createDirectories(root.resolve("sys/bus/usb-serial/drivers/ftdi_sio"));
+		Files.createSymbolicLink(usbPort.resolve("driver"), ftdi);
+		addPort("ttyUSB0", usbPort);
+	}
+
+	@After
+	public void deleteTree() throws IOException
+	{
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+		{
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+			{
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException
+			{
+				if (e != null)
+					throw e;
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Adds a port to the fake tree.
+	 *
+	 * @param name the port name
+	 * @param device the device backing the port
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void addPort(String name, Path device) throws IOException
+	{
+		Path entry = Files.createDirectories(sysClassTty.resolve(name));
+		Files.createSymbolicLink(entry.resolve("device"), device);
+		Files.createFile(devices.resolve(name));
+	}
+
+	/**
+	 * Writes a sysfs attribute.
+	 *
+	 * @param path the path of the attribute
+	 * @param value the value of the attribute
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void write(Path path, String value) throws IOException
+	{
+		Files.write(path, Collections.singletonList(value), Charsets.UTF_8);
+	}
+
+	@Test
+	public void onlyPhysicalPorts() throws IOException
+	{
+		Peripherals peripherals = new Peripherals(sysClassTty, devices);
+		List<SerialPortInfo> ports = peripherals.getSerialPorts();
+		assert (ports.size() == 2): ports;
+
+		SerialPortInfo uart = ports.get(0);
+		assert (uart.getPort().getName().equals(devices.resolve("ttyS1").toString())): uart;
+		assert ("serial8250".equals(uart.getDriver())): uart;
+		assert (uart.getVendorId() == null): uart;
+
+		SerialPortInfo usb = ports.get(1);
+		assert (usb.getPort().getName().equals(devices.resolve("ttyUSB0").toString())): usb;
+		assert ("ftdi_sio".equals(usb.getDriver())): usb;
+		assert ("0403".equals(usb.getVendorId())): usb;
+		assert ("6001".equals(usb.getProductId())): usb;
+		assert ("A50285BI".equals(usb.getSerialNumber())): usb;
+
+		assert (peripherals.all().size() == 2): peripherals.all();
+	}
+
+	@Test
+	public void cacheInvalidatedOnHotplug() throws IOException, InterruptedException
+	{
+		Peripherals peripherals = new Peripherals(sysClassTty, devices);
+		List<SerialPortInfo> before = peripherals.getSerialPorts();
+		assert (peripherals.getSerialPorts() == before): "Scan was not cached";
+
+		Path acmDevice = Files.createDirectories(root.resolve("sys/devices/usb1/1-2/1-2:1.0"));
+		addPort("ttyACM0", acmDevice);
+
+		long deadline = System.nanoTime() + 10_000_000_000L;
+		List<SerialPortInfo> after = before;
+		while (after.size() == before.size() && System.nanoTime() < deadline)
+		{
+			Thread.sleep(10);
+			after = peripherals.getSerialPorts();
+		}
+		assert (after.size() == 3): after;
+		assert (after.get(0).getPort().getName().equals(devices.resolve("ttyACM0").toString())): after;
+	}
+
+	@Test
+	public void listenerNotifiedOnHotplug() throws IOException, InterruptedException
+	{
+		final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+		Peripherals peripherals = new Peripherals(sysClassTty, devices);
+		peripherals.addListener(new SerialPortListener()
+		{
+			@Override
+			public void serialPortAdded(SerialPortInfo port)
+			{
+				events.add("+" + port.getPort().getName());
+			}
+
+			@Override
+			public void serialPortRemoved(SerialPortInfo port)
+			{
+				events.add("-" + port.getPort().getName());
+			}
+		});
+
+		Path acmDevice = Files.createDirectories(root.resolve("sys/devices/usb1/1-2/1-2:1.0"));
+		addPort("ttyACM0", acmDevice);
+		String event = events.poll(10, TimeUnit.SECONDS);
+		assert (("+" + devices.resolve("ttyACM0")).equals(event)): event;
+
+		// The device node disappears before the sysfs entry
+		Files.delete(devices.resolve("ttyUSB0"));
+		event = events.poll(10, TimeUnit.SECONDS);
+		assert (("-" + devices.resolve("ttyUSB0")).equals(event)): event;
+
+		Files.createFile(devices.resolve("ttyUSB0"));
+		event = events.poll(10, TimeUnit.SECONDS);
+		assert (("+" + devices.resolve("ttyUSB0")).equals(event)): event;
+		assert (events.isEmpty()): events;
+	}
+}
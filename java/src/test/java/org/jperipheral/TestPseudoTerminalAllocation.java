@@ -0,0 +1,189 @@
+package org.jperipheral;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the amount of memory allocated by reads and writes against a pseudo-terminal. Requires Linux
+ * and a JVM that measures per-thread allocations.
+ *
+ * @author Gili Tzabari
+ */
+public class TestPseudoTerminalAllocation
+{
+	private static final int WARMUP_TRANSFERS = 20000;
+	private static final int TRANSFERS = 20000;
+	/**
+	 * The average number of bytes that a transfer may allocate. Completions that arrive on threads of
+	 * the native library are handed off to the executor, whose queue allocates a node per task.
+	 */
+	private static final long BYTES_PER_TRANSFER = 64;
+	private PseudoTerminalFixture terminal;
+	private PseudoTerminalChannel master;
+	private SerialChannel slave;
+
+	@Before
+	public void openTerminal() throws IOException
+	{
+		terminal = new PseudoTerminalFixture();
+		master = terminal.getMaster();
+		slave = terminal.getSlave();
+	}
+
+	@After
+	public void closeTerminal() throws IOException
+	{
+		terminal.close();
+	}
+
+	@Test
+	public void steadyStateDoesNotAllocate() throws InterruptedException
+	{
+		long allocated = getAllocatedBytes(true);
+		assert (allocated < TRANSFERS * BYTES_PER_TRANSFER): allocated / TRANSFERS +
+			" bytes per transfer";
+	}
+
+	@Test
+	public void steadyStateWithHeapBuffersDoesNotAllocate() throws InterruptedException
+	{
+		// Heap buffers are staged through pooled direct buffers
+		long allocated = getAllocatedBytes(false);
+		assert (allocated < TRANSFERS * BYTES_PER_TRANSFER): allocated / TRANSFERS +
+			" bytes per transfer";
+	}
+
+	/**
+	 * Returns the number of bytes allocated by steady-state transfers.
+	 *
+	 * @param direct true if the transfers use direct buffers, false if they use heap buffers
+	 * @return the number of bytes allocated by {@code TRANSFERS} transfers, after warming up
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	private long getAllocatedBytes(boolean direct) throws InterruptedException
+	{
+		transfer(WARMUP_TRANSFERS, direct);
+		long before = getAllocatedBytes();
+		transfer(TRANSFERS, direct);
+		return getAllocatedBytes() - before;
+	}
+
+	/**
+	 * Writes a byte to the master side and reads it from the slave side, repeatedly.
+	 *
+	 * @param count the number of bytes to transfer
+	 * @param direct true if the transfers use direct buffers, false if they use heap buffers
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	private void transfer(int count, boolean direct) throws InterruptedException
+	{
+		Transfer transfer = new Transfer(count, direct);
+		transfer.writeNext();
+		assert (transfer.done.await(60, TimeUnit.SECONDS)): "Timed out";
+		if (transfer.error.get() != null)
+			throw new AssertionError(transfer.error.get());
+	}
+
+	/**
+	 * Transfers bytes from the master side to the slave side. Each operation is initiated by the
+	 * completion handler of the previous one. The attachment is true for writes and false for reads.
+	 *
+	 * @author Gili Tzabari
+	 */
+	private final class Transfer implements CompletionHandler<Integer, Boolean>
+	{
+		private final ByteBuffer source;
+		private final ByteBuffer target;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final AtomicReference<Throwable> error = new AtomicReference<>();
+		private int remaining;
+
+		/**
+		 * Creates a new Transfer.
+		 *
+		 * @param count the number of bytes to transfer
+		 * @param direct true if the transfers use direct buffers, false if they use heap buffers
+		 */
+		public Transfer(int count, boolean direct)
+		{
+			this.remaining = count;
+			if (direct)
+			{
+				this.source = ByteBuffer.allocateDirect(1);
+				this.target = ByteBuffer.allocateDirect(1);
+			}
+			else
+			{
+				this.source = ByteBuffer.allocate(1);
+				this.target = ByteBuffer.allocate(1);
+			}
+		}
+
+		/**
+		 * Writes the next byte.
+		 */
+		public void writeNext()
+		{
+			source.clear();
+			target.clear();
+			master.write(source, Boolean.TRUE, this);
+		}
+
+		@Override
+		public void completed(Integer numBytes, Boolean writing)
+		{
+			if (writing)
+			{
+				if (source.hasRemaining())
+					master.write(source, Boolean.TRUE, this);
+				else
+					slave.read(target, Boolean.FALSE, this);
+				return;
+			}
+			if (target.hasRemaining())
+			{
+				slave.read(target, Boolean.FALSE, this);
+				return;
+			}
+			--remaining;
+			if (remaining == 0)
+				done.countDown();
+			else
+				writeNext();
+		}
+
+		@Override
+		public void failed(Throwable t, Boolean writing)
+		{
+			error.set(t);
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes allocated by all live threads.
+	 *
+	 * @return the number of bytes allocated by all live threads
+	 */
+	private static long getAllocatedBytes()
+	{
+		com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long result = 0;
+		for (long allocated: threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+		{
+			// -1 denotes a thread that terminated in the meantime
+			if (allocated > 0)
+				result += allocated;
+		}
+		return result;
+	}
+}
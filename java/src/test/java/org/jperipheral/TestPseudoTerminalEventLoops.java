@@ -0,0 +1,158 @@
+package org.jperipheral;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.CompletionHandler;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.jperipheral.PeripheralChannelGroup.IoEngine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests SerialChannel against a pseudo-terminal whose group is made up of event loops. Requires
+ * Linux.
+ *
+ * @author Gili Tzabari
+ */
+public class TestPseudoTerminalEventLoops
+{
+	private static final int TRANSFERS = 200;
+	private PseudoTerminalFixture terminal;
+	private PseudoTerminalChannel master;
+	private SerialChannel slave;
+
+	@Before
+	public void openTerminal() throws IOException
+	{
+		// The sides are opened one after the other, so each one is pinned to a different loop
+		terminal = new PseudoTerminalFixture(PeripheralChannelGroup.withEventLoops(2, IoEngine.DEFAULT));
+		master = terminal.getMaster();
+		slave = terminal.getSlave();
+	}
+
+	@After
+	public void closeTerminal() throws IOException
+	{
+		terminal.close();
+	}
+
+	@Test
+	public void channelsArePinnedToLoops() throws InterruptedException, ExecutionException,
+		TimeoutException
+	{
+		Set<Thread> masterThreads = Sets.newHashSet();
+		Set<Thread> slaveThreads = Sets.newHashSet();
+		ByteBuffer source = ByteBuffer.allocate(1);
+		ByteBuffer target = ByteBuffer.allocate(1);
+		for (int i = 0; i < TRANSFERS; ++i)
+		{
+			source.clear();
+			target.clear();
+			Notification written = new Notification();
+			master.write(source, null, written);
+			masterThreads.add(written.getThread());
+			Notification read = new Notification();
+			slave.read(target, null, read);
+			slaveThreads.add(read.getThread());
+			assert (written.failure == null): written.failure;
+			assert (read.failure == null): read.failure;
+		}
+		assert (masterThreads.size() == 1): masterThreads;
+		assert (slaveThreads.size() == 1): slaveThreads;
+		assert (!masterThreads.equals(slaveThreads)): masterThreads;
+	}
+
+	@Test
+	public void completionDoesNotRunOnAnotherChannelsLoop() throws InterruptedException,
+		ExecutionException, TimeoutException
+	{
+		Notification written = new Notification();
+		master.write(ByteBuffer.wrap(new byte[1]), null, written);
+		Thread masterLoop = written.getThread();
+		Notification read = new Notification();
+		slave.read(ByteBuffer.allocate(1), null, read);
+		Thread slaveLoop = read.getThread();
+		assert (masterLoop != slaveLoop): masterLoop.getName();
+
+		// Closing the slave from the master's loop aborts the slave's read on that thread
+		Notification aborted = new Notification();
+		slave.read(ByteBuffer.allocate(1), null, aborted);
+		final SettableFuture<Thread> closedBy = SettableFuture.create();
+		master.read(ByteBuffer.allocate(1), null, new CompletionHandler<Integer, Void>()
+		{
+			@Override
+			public void completed(Integer numBytes, Void attachment)
+			{
+				try
+				{
+					slave.close();
+					closedBy.set(Thread.currentThread());
+				}
+				catch (IOException e)
+				{
+					closedBy.setException(e);
+				}
+			}
+
+			@Override
+			public void failed(Throwable t, Void attachment)
+			{
+				closedBy.setException(t);
+			}
+		});
+		slave.write(ByteBuffer.wrap(new byte[1])).get(10, TimeUnit.SECONDS);
+		Thread closer = closedBy.get(10, TimeUnit.SECONDS);
+		assert (closer == masterLoop): closer.getName();
+
+		Thread abortedBy = aborted.getThread();
+		assert (aborted.failure instanceof AsynchronousCloseException): aborted.failure;
+		assert (abortedBy == slaveLoop): abortedBy.getName();
+	}
+
+	/**
+	 * Records the thread that notifies a completion handler.
+	 *
+	 * @author Gili Tzabari
+	 */
+	private static final class Notification implements CompletionHandler<Integer, Void>
+	{
+		private final SettableFuture<Thread> thread = SettableFuture.create();
+		/**
+		 * The cause of the failure, null if the operation succeeded.
+		 */
+		private volatile Throwable failure;
+
+		@Override
+		public void completed(Integer numBytes, Void attachment)
+		{
+			thread.set(Thread.currentThread());
+		}
+
+		@Override
+		public void failed(Throwable t, Void attachment)
+		{
+			failure = t;
+			thread.set(Thread.currentThread());
+		}
+
+		/**
+		 * Returns the thread that notified the handler.
+		 *
+		 * @return the thread that notified the handler
+		 * @throws InterruptedException if the thread is interrupted
+		 * @throws ExecutionException never
+		 * @throws TimeoutException if the handler is not notified in time
+		 */
+		public Thread getThread() throws InterruptedException, ExecutionException, TimeoutException
+		{
+			return thread.get(10, TimeUnit.SECONDS);
+		}
+	}
+}
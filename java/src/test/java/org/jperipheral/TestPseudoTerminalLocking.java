@@ -0,0 +1,133 @@
+package org.jperipheral;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.jperipheral.SerialPort.Configuration;
+import org.jperipheral.SerialPort.DataBits;
+import org.jperipheral.SerialPort.FlowControl;
+import org.jperipheral.SerialPort.Parity;
+import org.jperipheral.SerialPort.StopBits;
+import org.jperipheral.unsupported.PseudoTerminals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests exclusive access against a pseudo-terminal. Requires Linux.
+ *
+ * @author Gili Tzabari
+ */
+public class TestPseudoTerminalLocking
+{
+	private PseudoTerminalFixture terminal;
+	private PeripheralChannelGroup group;
+	private PseudoTerminalChannel master;
+	private SerialPort slavePort;
+
+	@Before
+	public void openTerminal() throws IOException
+	{
+		terminal = new PseudoTerminalFixture();
+		group = terminal.getGroup();
+		master = terminal.getMaster();
+		slavePort = master.getSlave().getPort();
+	}
+
+	@After
+	public void closeTerminal() throws IOException
+	{
+		terminal.close();
+	}
+
+	@Test
+	public void secondOpenFailsFast() throws PeripheralNotFoundException
+	{
+		long start = System.nanoTime();
+		try
+		{
+			slavePort.newAsynchronousChannel(group).close();
+			assert (false): "Expected PeripheralInUseException";
+		}
+		catch (PeripheralInUseException e)
+		{
+			long elapsed = System.nanoTime() - start;
+			assert (elapsed < TimeUnit.SECONDS.toNanos(1)): elapsed;
+			// The port is held by this process
+			String processName = ManagementFactory.getRuntimeMXBean().getName();
+			long pid = Long.parseLong(processName.substring(0, processName.indexOf('@')));
+			assert (e.getOwnerPid() == pid): e.getOwnerPid();
+		}
+		catch (IOException e)
+		{
+			throw new AssertionError(e);
+		}
+	}
+
+	@Test
+	public void pseudoTerminalsOpenConcurrently() throws IOException
+	{
+		// Every master shares the inode of /dev/ptmx so they must not lock each other out
+		long start = System.nanoTime();
+		try (PseudoTerminalChannel second = PseudoTerminals.openRaw(group))
+		{
+			long elapsed = System.nanoTime() - start;
+			assert (elapsed < TimeUnit.SECONDS.toNanos(1)): elapsed;
+			assert (!second.getSlave().getPort().equals(slavePort)): slavePort;
+			assert (master.isOpen());
+		}
+	}
+
+	@Test
+	public void awaitReleaseCompletesOnClose() throws IOException, InterruptedException,
+		ExecutionException, TimeoutException
+	{
+		Future<Void> released = slavePort.awaitRelease(group);
+		Thread.sleep(250);
+		assert (!released.isDone());
+		master.getSlave().close();
+		released.get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void openAsyncWaitsForRelease() throws IOException, InterruptedException,
+		ExecutionException, TimeoutException
+	{
+		Future<SerialChannel> opened = slavePort.openAsync(group, 10, TimeUnit.SECONDS,
+			new Configuration(115200, DataBits.EIGHT, Parity.NONE, StopBits.ONE, FlowControl.NONE));
+		Thread.sleep(250);
+		assert (!opened.isDone());
+		master.getSlave().close();
+		try (SerialChannel channel = opened.get(10, TimeUnit.SECONDS))
+		{
+			assert (channel.getActualBaudRate() > 0): channel.getActualBaudRate();
+		}
+	}
+
+	@Test
+	public void openAllAsyncReportsEachPort() throws IOException, InterruptedException,
+		TimeoutException
+	{
+		List<Future<SerialChannel>> opened = SerialPort.openAllAsync(Arrays.asList(slavePort,
+			new SerialPort("/dev/jperipheral-missing")), group, 0, TimeUnit.SECONDS, null, 1);
+		assert (opened.size() == 2): opened;
+		for (Future<SerialChannel> future: opened)
+		{
+			try
+			{
+				future.get(10, TimeUnit.SECONDS).close();
+				assert (false): "Expected an ExecutionException";
+			}
+			catch (ExecutionException e)
+			{
+				assert (e.getCause() instanceof PeripheralInUseException ||
+					e.getCause() instanceof PeripheralNotFoundException): e;
+			}
+		}
+	}
+}
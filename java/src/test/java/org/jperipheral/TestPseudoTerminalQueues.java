@@ -0,0 +1,120 @@
+package org.jperipheral;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests queue-size introspection against a pseudo-terminal. Requires Linux.
+ *
+ * @author Gili Tzabari
+ */
+public class TestPseudoTerminalQueues
+{
+	private PseudoTerminalFixture terminal;
+	private PseudoTerminalChannel master;
+	private SerialChannel slave;
+
+	@Before
+	public void openTerminal() throws IOException
+	{
+		terminal = new PseudoTerminalFixture();
+		master = terminal.getMaster();
+		slave = terminal.getSlave();
+	}
+
+	@After
+	public void closeTerminal() throws IOException
+	{
+		terminal.close();
+	}
+
+	@Test
+	public void inputQueueIsEmpty() throws IOException
+	{
+		int size = slave.getInputQueueSize();
+		assert (size == 0): size;
+	}
+
+	@Test
+	public void inputQueueCountsUnreadBytes() throws IOException, InterruptedException,
+		ExecutionException, TimeoutException
+	{
+		ByteBuffer source = ByteBuffer.allocate(100);
+		while (source.hasRemaining())
+			master.write(source).get(10, TimeUnit.SECONDS);
+		int size = awaitInputQueueSize(slave, source.capacity());
+		assert (size == source.capacity()): size;
+
+		// A buffer sized to the input queue drains it in a single read
+		ByteBuffer target = ByteBuffer.allocate(size);
+		int count = slave.read(target).get(10, TimeUnit.SECONDS);
+		assert (count == size): count;
+		size = slave.getInputQueueSize();
+		assert (size == 0): size;
+	}
+
+	@Test
+	public void outputQueueIsDrained() throws IOException, InterruptedException,
+		ExecutionException, TimeoutException
+	{
+		ByteBuffer source = ByteBuffer.allocate(100);
+		while (source.hasRemaining())
+			slave.write(source).get(10, TimeUnit.SECONDS);
+		// Pseudo-terminals hand written bytes to the other side immediately
+		int size = slave.getOutputQueueSize();
+		assert (size == 0): size;
+		size = awaitInputQueueSize(master, source.capacity());
+		assert (size == source.capacity()): size;
+	}
+
+	/**
+	 * Only verifies that draining writes complete on a pseudo-terminal. Pseudo-terminals hand written
+	 * bytes to the other side right away and do not report the state of their transmitter, so the
+	 * output queue is always empty and writes complete whether or not drain mode is enabled. Waiting
+	 * for queued bytes is covered by the native TestOutputQueue.
+	 */
+	@Test
+	public void drainOnWrite() throws IOException, InterruptedException, ExecutionException,
+		TimeoutException
+	{
+		slave.setDrainOnWrite(true);
+		ByteBuffer source = ByteBuffer.allocate(100);
+		while (source.hasRemaining())
+			slave.write(source).get(10, TimeUnit.SECONDS);
+		int size = slave.getOutputQueueSize();
+		assert (size == 0): size;
+
+		ByteBuffer target = ByteBuffer.allocate(source.capacity());
+		while (target.hasRemaining())
+			master.read(target).get(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Waits for the input queue of a channel to reach a size. The kernel moves bytes between the two
+	 * sides of a pseudo-terminal asynchronously.
+	 *
+	 * @param channel the channel
+	 * @param expected the expected size
+	 * @return the last size observed
+	 * @throws IOException if an I/O error occurs
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	private static int awaitInputQueueSize(SerialChannel channel, int expected)
+		throws IOException, InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (true)
+		{
+			int result = channel.getInputQueueSize();
+			if (result >= expected || System.nanoTime() >= deadline)
+				return result;
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package org.jperipheral;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests the transfer modes of SerialChannel against a pseudo-terminal, once per I/O engine.
+ * Requires Linux.
+ *
+ * @author Gili Tzabari
+ */
+@RunWith(Parameterized.class)
+public class TestPseudoTerminalTransfers
+{
+	/**
+	 * The number of milliseconds that a read waits for bytes that never arrive.
+	 */
+	private static final long IDLE_TIMEOUT = 200;
+	/**
+	 * The number of milliseconds to wait for a read that must not complete.
+	 */
+	private static final long PENDING_DELAY = 300;
+	/**
+	 * The number of milliseconds that a read waits for the next byte once bytes have arrived.
+	 */
+	private static final long INTER_BYTE_TIMEOUT = 100;
+	private final PeripheralChannelGroup.IoEngine ioEngine;
+	private PseudoTerminalFixture terminal;
+	private PseudoTerminalChannel master;
+	private SerialChannel slave;
+
+	/**
+	 * Returns the I/O engines to run the tests against.
+	 *
+	 * @return the I/O engines to run the tests against
+	 */
+	@Parameters
+	public static Collection<Object[]> ioEngines()
+	{
+		return Arrays.asList(new Object[][]
+			{
+				{PeripheralChannelGroup.IoEngine.DEFAULT}, {PeripheralChannelGroup.IoEngine.IO_URING}
+			});
+	}
+
+	/**
+	 * Creates a new TestPseudoTerminalTransfers.
+	 *
+	 * @param ioEngine the I/O engine to run the tests against
+	 */
+	public TestPseudoTerminalTransfers(PeripheralChannelGroup.IoEngine ioEngine)
+	{
+		this.ioEngine = ioEngine;
+	}
+
+	@Before
+	public void openTerminal() throws IOException
+	{
+		terminal = new PseudoTerminalFixture(ioEngine);
+		master = terminal.getMaster();
+		slave = terminal.getSlave();
+	}
+
+	@After
+	public void closeTerminal() throws IOException
+	{
+		terminal.close();
+	}
+
+	@Test
+	public void gatheringWriteAndScatteringRead() throws InterruptedException, ExecutionException,
+		TimeoutException
+	{
+		// Mix heap and direct buffers, which are staged differently
+		ByteBuffer[] sources =
+		{
+			ByteBuffer.wrap("abc".getBytes(Charsets.US_ASCII)),
+			toDirect("defgh"),
+			ByteBuffer.wrap("ijklmno".getBytes(Charsets.US_ASCII))
+		};
+		long total = 0;
+		while (sources[2].hasRemaining())
+		{
+			SettableFuture<Long> written = SettableFuture.create();
+			master.write(sources, 0, sources.length, 10, TimeUnit.SECONDS, null,
+				new CompletionHandlerToFuture<>(written));
+			long count = written.get(10, TimeUnit.SECONDS);
+			assert (count > 0): count;
+			total += count;
+		}
+		assert (total == 15): total;
+
+		ByteBuffer[] targets =
+		{
+			ByteBuffer.allocate(3), ByteBuffer.allocateDirect(5), ByteBuffer.allocate(7)
+		};
+		total = 0;
+		while (targets[2].hasRemaining())
+		{
+			SettableFuture<Long> read = SettableFuture.create();
+			slave.read(targets, 0, targets.length, 10, TimeUnit.SECONDS, null,
+				new CompletionHandlerToFuture<>(read));
+			long count = read.get(10, TimeUnit.SECONDS);
+			assert (count > 0): count;
+			total += count;
+		}
+		assert (total == 15): total;
+		String[] expected =
+		{
+			"abc", "defgh", "ijklmno"
+		};
+		for (int i = 0; i < targets.length; ++i)
+		{
+			String actual = toString(targets[i]);
+			assert (actual.equals(expected[i])): "targets[" + i + "]: " + actual;
+		}
+	}
+
+	@Test
+	public void readTimesOutThenSucceeds() throws InterruptedException, ExecutionException,
+		TimeoutException
+	{
+		ByteBuffer target = ByteBuffer.allocate(5);
+		SettableFuture<Integer> idle = SettableFuture.create();
+		long before = System.nanoTime();
+		slave.read(target, IDLE_TIMEOUT, TimeUnit.MILLISECONDS, null,
+			new CompletionHandlerToFuture<>(idle));
+		try
+		{
+			idle.get(10, TimeUnit.SECONDS);
+			assert (false): "Expected InterruptedByTimeoutException";
+		}
+		catch (ExecutionException e)
+		{
+			assert (e.getCause() instanceof InterruptedByTimeoutException): e.getCause();
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+		assert (elapsed >= IDLE_TIMEOUT): "Timed out after " + elapsed + "ms";
+		assert (target.position() == 0): target;
+
+		// The channel remains usable once a read times out
+		ByteBuffer source = ByteBuffer.wrap("hello".getBytes(Charsets.US_ASCII));
+		while (source.hasRemaining())
+		{
+			SettableFuture<Integer> written = SettableFuture.create();
+			master.write(source, 10, TimeUnit.SECONDS, null, new CompletionHandlerToFuture<>(written));
+			int count = written.get(10, TimeUnit.SECONDS);
+			assert (count > 0): count;
+		}
+		while (target.hasRemaining())
+		{
+			SettableFuture<Integer> read = SettableFuture.create();
+			slave.read(target, 10, TimeUnit.SECONDS, null, new CompletionHandlerToFuture<>(read));
+			int count = read.get(10, TimeUnit.SECONDS);
+			assert (count > 0): count;
+		}
+		String actual = toString(target);
+		assert (actual.equals("hello")): actual;
+	}
+
+	@Test
+	public void readThresholdWaitsForMinimum() throws InterruptedException, ExecutionException,
+		TimeoutException
+	{
+		slave.setReadThreshold(5, 0, TimeUnit.MILLISECONDS);
+		ByteBuffer target = ByteBuffer.allocate(10);
+		SettableFuture<Integer> read = SettableFuture.create();
+		slave.read(target, 10, TimeUnit.SECONDS, null, new CompletionHandlerToFuture<>(read));
+
+		write("ab");
+		Thread.sleep(PENDING_DELAY);
+		assert (!read.isDone()): "Read completed with " + target.position() + " bytes";
+
+		write("cde");
+		int count = read.get(10, TimeUnit.SECONDS);
+		assert (count == 5): count;
+		String actual = toString(target);
+		assert (actual.equals("abcde")): actual;
+	}
+
+	@Test
+	public void readThresholdCompletesAfterInterByteTimeout() throws InterruptedException,
+		ExecutionException, TimeoutException
+	{
+		slave.setReadThreshold(10, INTER_BYTE_TIMEOUT, TimeUnit.MILLISECONDS);
+		ByteBuffer target = ByteBuffer.allocate(10);
+		SettableFuture<Integer> read = SettableFuture.create();
+		long before = System.nanoTime();
+		slave.read(target, 10, TimeUnit.SECONDS, null, new CompletionHandlerToFuture<>(read));
+
+		// Fewer bytes than the minimum, followed by a gap
+		write("abc");
+		int count = read.get(10, TimeUnit.SECONDS);
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+		assert (count == 3): count;
+		assert (elapsed >= INTER_BYTE_TIMEOUT): "Completed after " + elapsed + "ms";
+		String actual = toString(target);
+		assert (actual.equals("abc")): actual;
+	}
+
+	/**
+	 * Writes a String to the master side of the pseudo-terminal.
+	 *
+	 * @param value the String
+	 * @throws InterruptedException if the thread is interrupted
+	 * @throws ExecutionException if the write fails
+	 * @throws TimeoutException if the write does not complete in time
+	 */
+	private void write(String value) throws InterruptedException, ExecutionException,
+		TimeoutException
+	{
+		ByteBuffer source = ByteBuffer.wrap(value.getBytes(Charsets.US_ASCII));
+		while (source.hasRemaining())
+			master.write(source).get(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Copies a String into a direct buffer.
+	 *
+	 * @param value the String
+	 * @return a direct buffer containing the ASCII representation of the String
+	 */
+	private static ByteBuffer toDirect(String value)
+	{
+		byte[] bytes = value.getBytes(Charsets.US_ASCII);
+		ByteBuffer result = ByteBuffer.allocateDirect(bytes.length);
+		result.put(bytes);
+		result.flip();
+		return result;
+	}
+
+	/**
+	 * Returns the bytes that were transferred into a buffer.
+	 *
+	 * @param buffer the buffer
+	 * @return the ASCII representation of the bytes before the buffer's position
+	 */
+	private static String toString(ByteBuffer buffer)
+	{
+		ByteBuffer bytes = buffer.duplicate();
+		bytes.flip();
+		return Charsets.US_ASCII.decode(bytes).toString();
+	}
+}
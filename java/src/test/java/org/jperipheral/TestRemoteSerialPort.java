@@ -0,0 +1,231 @@
+package org.jperipheral;
+
+import com.google.common.base.Charsets;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.CompletionHandler;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jperipheral.RemoteSerialPort.Protocol;
+import org.jperipheral.SerialPort.BaudRate;
+import org.jperipheral.SerialPort.DataBits;
+import org.jperipheral.SerialPort.FlowControl;
+import org.jperipheral.SerialPort.Parity;
+import org.jperipheral.SerialPort.StopBits;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests RemoteSerialPort against an in-process terminal server.
+ *
+ * @author Gili Tzabari
+ */
+public class TestRemoteSerialPort
+{
+	private PeripheralChannelGroup group;
+
+	@Before
+	public void createGroup()
+	{
+		group = new PeripheralChannelGroup(Executors.newFixedThreadPool(2));
+	}
+
+	@After
+	public void shutdownGroup() throws IOException
+	{
+		group.shutdownNow();
+	}
+
+	/**
+	 * Reads an exact number of bytes from a channel.
+	 *
+	 * @param channel the channel
+	 * @param count the number of bytes to read
+	 * @return the bytes that were read
+	 * @throws InterruptedException if the thread is interrupted
+	 * @throws ExecutionException if the read fails
+	 * @throws TimeoutException if the bytes are not received within 10 seconds
+	 */
+	private static byte[] read(RemoteSerialChannel channel, int count) throws InterruptedException,
+		ExecutionException, TimeoutException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(count);
+		while (buffer.hasRemaining())
+		{
+			int result = channel.read(buffer).get(10, TimeUnit.SECONDS);
+			assert (result != -1): "Unexpected end of stream";
+		}
+		return buffer.array();
+	}
+
+	@Test
+	public void configure() throws IOException, InterruptedException, ExecutionException
+	{
+		try (Rfc2217Server server = new Rfc2217Server(true))
+		{
+			RemoteSerialPort port = new RemoteSerialPort(server.getAddress(), Protocol.RFC2217);
+			try (RemoteSerialChannel channel = port.newAsynchronousChannel(group, 10, TimeUnit.SECONDS))
+			{
+				channel.configure(BaudRate._115200, DataBits.SEVEN, Parity.EVEN, StopBits.TWO,
+					FlowControl.RTS_CTS);
+				assert (server.getBaudRate() == 115200): server.getBaudRate();
+				assert (server.getDataSize() == 7): server.getDataSize();
+				assert (server.getParity() == 3): server.getParity();
+				assert (server.getStopSize() == 2): server.getStopSize();
+				assert (server.getControl() == 3): server.getControl();
+				assert (channel.getBaudRate() == BaudRate._115200): channel.getBaudRate();
+			}
+		}
+	}
+
+	@Test
+	public void configureRefused() throws IOException
+	{
+		try (Rfc2217Server server = new Rfc2217Server(true))
+		{
+			server.setMaximumBaudRate(57600);
+			RemoteSerialPort port = new RemoteSerialPort(server.getAddress(), Protocol.RFC2217);
+			try (RemoteSerialChannel channel = port.newAsynchronousChannel(group, 10, TimeUnit.SECONDS))
+			{
+				try
+				{
+					channel.configure(BaudRate._115200, DataBits.EIGHT, Parity.NONE, StopBits.ONE,
+						FlowControl.NONE);
+					assert (false): "Expected PeripheralConfigurationException";
+				}
+				catch (PeripheralConfigurationException e)
+				{
+					String message = e.getCause().getMessage();
+					assert (message.equals("The server refused SET-BAUDRATE 115200, it applied 57600")):
+						message;
+				}
+				assert (channel.getBaudRate() == null): channel.getBaudRate();
+			}
+		}
+	}
+
+	@Test
+	public void configureWhileDataIsUnread() throws IOException, InterruptedException,
+		ExecutionException, TimeoutException
+	{
+		try (Rfc2217Server server = new Rfc2217Server(true))
+		{
+			// More than the inbound buffer holds
+			int count = 12000;
+			server.setDataBeforeAcknowledgement(count);
+			RemoteSerialPort port = new RemoteSerialPort(server.getAddress(), Protocol.RFC2217);
+			try (RemoteSerialChannel channel = port.newAsynchronousChannel(group, 10, TimeUnit.SECONDS))
+			{
+				channel.configure(BaudRate._115200, DataBits.EIGHT, Parity.NONE, StopBits.ONE,
+					FlowControl.NONE);
+				byte[] actual = read(channel, count);
+				for (int i = 0; i < count; ++i)
+					assert (actual[i] == (byte) (i % 251)): "index: " + i + ", value: " + actual[i];
+			}
+		}
+	}
+
+	@Test
+	public void escapeCommandBytes() throws IOException, InterruptedException, ExecutionException,
+		TimeoutException
+	{
+		try (Rfc2217Server server = new Rfc2217Server(true))
+		{
+			RemoteSerialPort port = new RemoteSerialPort(server.getAddress(), Protocol.RFC2217);
+			try (RemoteSerialChannel channel = port.newAsynchronousChannel(group, 10, TimeUnit.SECONDS))
+			{
+				byte[] expected =
+				{
+					1, (byte) 255, 2, (byte) 255, (byte) 255, (byte) 250, (byte) 240
+				};
+				ByteBuffer source = ByteBuffer.wrap(expected);
+				while (source.hasRemaining())
+					channel.write(source).get(10, TimeUnit.SECONDS);
+				byte[] actual = read(channel, expected.length);
+				assert (Arrays.equals(expected, actual)): Arrays.toString(actual);
+			}
+		}
+	}
+
+	@Test
+	public void coalesceSmallWrites() throws IOException, InterruptedException, ExecutionException,
+		TimeoutException
+	{
+		try (Rfc2217Server server = new Rfc2217Server(false))
+		{
+			RemoteSerialPort port = new RemoteSerialPort(server.getAddress(), Protocol.RAW);
+			try (final RemoteSerialChannel channel = port.newAsynchronousChannel(group, 10,
+				TimeUnit.SECONDS))
+			{
+				final int count = 1000;
+				final CountDownLatch written = new CountDownLatch(1);
+				final AtomicReference<Throwable> error = new AtomicReference<>();
+				// Each write is issued by the completion handler of the previous one, without waiting for
+				// the bytes to be transmitted
+				channel.write(ByteBuffer.wrap(new byte[]{0}), 0, new CompletionHandler<Integer, Integer>()
+				{
+					@Override
+					public void completed(Integer numBytesWritten, Integer index)
+					{
+						int next = index + 1;
+						if (next == count)
+						{
+							written.countDown();
+							return;
+						}
+						channel.write(ByteBuffer.wrap(new byte[]{(byte) next}), next, this);
+					}
+
+					@Override
+					public void failed(Throwable t, Integer index)
+					{
+						error.set(t);
+						written.countDown();
+					}
+				});
+				assert (written.await(10, TimeUnit.SECONDS)): "Timed out";
+				if (error.get() != null)
+					throw new AssertionError(error.get());
+				byte[] actual = read(channel, count);
+				for (int i = 0; i < count; ++i)
+					assert (actual[i] == (byte) i): "index: " + i + ", value: " + actual[i];
+				assert (server.getSegments().size() < count): server.getSegments().size();
+			}
+		}
+	}
+
+	@Test
+	public void charChannel() throws IOException, InterruptedException, ExecutionException,
+		TimeoutException
+	{
+		try (Rfc2217Server server = new Rfc2217Server(true))
+		{
+			RemoteSerialPort port = new RemoteSerialPort(server.getAddress(), Protocol.RFC2217);
+			RemoteSerialChannel byteChannel = port.newAsynchronousChannel(group, 10, TimeUnit.SECONDS);
+			try (AsynchronousCharChannel channel = AsynchronousByteCharChannel.open(byteChannel,
+				Charsets.UTF_8, group))
+			{
+				String expected = "hello\u00ff\r\n";
+				channel.write(CharBuffer.wrap(expected)).get(10, TimeUnit.SECONDS);
+				String actual = channel.readLine().get(10, TimeUnit.SECONDS);
+				assert ("hello\u00ff".equals(actual)): actual;
+			}
+		}
+	}
+
+	@Test(expected = PeripheralNotFoundException.class)
+	public void connectionRefused() throws IOException
+	{
+		Rfc2217Server server = new Rfc2217Server(true);
+		server.close();
+		RemoteSerialPort port = new RemoteSerialPort(server.getAddress(), Protocol.RFC2217);
+		port.newAsynchronousChannel(group, 10, TimeUnit.SECONDS);
+	}
+}